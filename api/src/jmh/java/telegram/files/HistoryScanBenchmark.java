@@ -0,0 +1,202 @@
+package telegram.files;
+
+import org.drinkless.tdlib.TdApi;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import telegram.files.repository.SettingHistoryScanCheckpoints;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the previous history scan, one {@code SearchChatMessages} pass per file type in sequence,
+ * with {@link HistoryScanPlan} on the chats of {@code history-scan-fixture.txt}.
+ * <p>
+ * TDLib is replaced by an in-memory chat, each call costs {@code callCost} CPU tokens plus one token per message
+ * returned, and the number of calls is reported as the {@code calls} counter.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhIncludes=HistoryScanBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HistoryScanBenchmark {
+
+    private static final List<String> FILE_TYPES = List.of("photo", "video", "audio", "file");
+
+    @Param({"channel", "group"})
+    public String chat;
+
+    @Param({"20000"})
+    public long callCost;
+
+    private TdApi.Message[] messages;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Calls {
+        public long calls;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            calls = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        List<String> types = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Objects.requireNonNull(getClass().getResourceAsStream("/history-scan-fixture.txt")),
+                StandardCharsets.UTF_8))) {
+            String current = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if ("chat".equals(parts[0])) {
+                    current = parts[1];
+                } else if (chat.equals(current)) {
+                    for (int i = 0; i < Integer.parseInt(parts[1]); i++) {
+                        types.add(parts[0]);
+                    }
+                }
+            }
+        }
+        messages = new TdApi.Message[types.size()];
+        for (int i = 0; i < types.size(); i++) {
+            messages[i] = message((long) (types.size() - i) << 20, types.get(i), i);
+        }
+    }
+
+    @Benchmark
+    public int sequentialSearch(Calls calls, Blackhole blackhole) {
+        int found = 0;
+        for (String fileType : FILE_TYPES) {
+            long fromMessageId = 0;
+            while (true) {
+                TdApi.FoundChatMessages page = search(fileType, fromMessageId, calls, blackhole);
+                found += page.messages.length;
+                if (page.nextFromMessageId == 0) {
+                    break;
+                }
+                fromMessageId = page.nextFromMessageId;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int scanPlan(Calls calls, Blackhole blackhole) {
+        HistoryScanPlan plan = new HistoryScanPlan("1:1", FILE_TYPES, null, null, true,
+                new SettingHistoryScanCheckpoints(), new HistoryScanPlan.Density());
+        int found = 0;
+        HistoryScanPlan.Step step;
+        while ((step = plan.next()) != null) {
+            if (step.mode() == HistoryScanPlan.Mode.HISTORY) {
+                found += plan.accept(step, history(step.fromMessageId(), calls, blackhole), 0).size();
+            } else {
+                TdApi.FoundChatMessages page = search(step.fileType(), step.fromMessageId(), calls, blackhole);
+                found += plan.accept(step, page.messages, page.nextFromMessageId).size();
+            }
+        }
+        return found;
+    }
+
+    private int startIndex(long fromMessageId) {
+        // Ids are descending
+        int low = 0, high = messages.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (fromMessageId != 0 && messages[mid].id >= fromMessageId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private TdApi.Message[] history(long fromMessageId, Calls calls, Blackhole blackhole) {
+        calls.calls++;
+        int start = startIndex(fromMessageId);
+        int end = Math.min(messages.length, start + HistoryScanPlan.HISTORY_PAGE_SIZE);
+        TdApi.Message[] page = new TdApi.Message[end - start];
+        System.arraycopy(messages, start, page, 0, page.length);
+        Blackhole.consumeCPU(callCost + page.length);
+        blackhole.consume(page);
+        return page;
+    }
+
+    private TdApi.FoundChatMessages search(String fileType, long fromMessageId, Calls calls, Blackhole blackhole) {
+        calls.calls++;
+        List<TdApi.Message> page = new ArrayList<>(HistoryScanPlan.SEARCH_PAGE_SIZE);
+        boolean more = false;
+        for (int i = startIndex(fromMessageId); i < messages.length; i++) {
+            if (MessageDescriptor.of(messages[i]).map(descriptor -> descriptor.type().equals(fileType)).orElse(false)) {
+                if (page.size() == HistoryScanPlan.SEARCH_PAGE_SIZE) {
+                    more = true;
+                    break;
+                }
+                page.add(messages[i]);
+            }
+        }
+        TdApi.FoundChatMessages found = new TdApi.FoundChatMessages();
+        found.messages = page.toArray(TdApi.Message[]::new);
+        found.nextFromMessageId = more ? page.getLast().id : 0;
+        Blackhole.consumeCPU(callCost + found.messages.length);
+        blackhole.consume(found);
+        return found;
+    }
+
+    private static TdApi.Message message(long id, String type, int fileId) {
+        TdApi.File file = new TdApi.File();
+        file.id = fileId;
+        file.remote = new TdApi.RemoteFile();
+        file.remote.uniqueId = "unique-" + fileId;
+        file.local = new TdApi.LocalFile();
+
+        TdApi.Message message = new TdApi.Message();
+        message.id = id;
+        message.chatId = 1;
+        message.content = switch (type) {
+            case "photo" -> {
+                TdApi.PhotoSize size = new TdApi.PhotoSize();
+                size.photo = file;
+                TdApi.MessagePhoto content = new TdApi.MessagePhoto();
+                content.photo = new TdApi.Photo();
+                content.photo.sizes = new TdApi.PhotoSize[]{size};
+                yield content;
+            }
+            case "video" -> {
+                TdApi.MessageVideo content = new TdApi.MessageVideo();
+                content.video = new TdApi.Video();
+                content.video.video = file;
+                yield content;
+            }
+            case "audio" -> {
+                TdApi.MessageAudio content = new TdApi.MessageAudio();
+                content.audio = new TdApi.Audio();
+                content.audio.audio = file;
+                yield content;
+            }
+            case "file" -> {
+                TdApi.MessageDocument content = new TdApi.MessageDocument();
+                content.document = new TdApi.Document();
+                content.document.document = file;
+                yield content;
+            }
+            default -> new TdApi.MessageText();
+        };
+        return message;
+    }
+}
@@ -0,0 +1,120 @@
+package telegram.files;
+
+import cn.hutool.core.bean.BeanUtil;
+import org.drinkless.tdlib.TdApi;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the reflective per-call lookups used before {@link MessageDescriptor} with the single-pass descriptor,
+ * for the lookups one listing page does per message (unique id, thumbnail id, reaction count, minithumbnail).
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhIncludes=MessageDescriptorBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageDescriptorBenchmark {
+
+    @Param({"100"})
+    public int pageSize;
+
+    private List<TdApi.Message> messages;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        messages = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            messages.add(i % 2 == 0 ? videoMessage(i) : documentMessage(i));
+        }
+    }
+
+    @Benchmark
+    public void reflective(Blackhole blackhole) {
+        for (TdApi.Message message : messages) {
+            TdApi.MessageContent content = message.content;
+            boolean video = content.getConstructor() == TdApi.MessageVideo.CONSTRUCTOR;
+            TdApi.File file = video ? ((TdApi.MessageVideo) content).video.video
+                    : ((TdApi.MessageDocument) content).document.document;
+            TdApi.Thumbnail thumbnail = video ? ((TdApi.MessageVideo) content).video.thumbnail
+                    : ((TdApi.MessageDocument) content).document.thumbnail;
+            blackhole.consume(file.remote.uniqueId);
+            blackhole.consume(thumbnail == null ? null : thumbnail.file.remote.uniqueId);
+            TdApi.MessageReaction[] reactions = BeanUtil.getProperty(message, "interactionInfo.reactions.reactions");
+            long count = 0;
+            if (reactions != null) {
+                for (TdApi.MessageReaction reaction : reactions) {
+                    count += reaction.totalCount;
+                }
+            }
+            blackhole.consume(count);
+            blackhole.consume(BeanUtil.getProperty(content, video ? "video.minithumbnail.data" : "document.minithumbnail.data"));
+        }
+    }
+
+    @Benchmark
+    public void descriptorBuild(Blackhole blackhole) {
+        for (TdApi.Message message : messages) {
+            consume(MessageDescriptor.build(message), blackhole);
+        }
+    }
+
+    @Benchmark
+    public void descriptorCached(Blackhole blackhole) {
+        for (TdApi.Message message : messages) {
+            consume(MessageDescriptor.of(message).orElseThrow(), blackhole);
+        }
+    }
+
+    private static void consume(MessageDescriptor descriptor, Blackhole blackhole) {
+        blackhole.consume(descriptor.uniqueId());
+        blackhole.consume(descriptor.thumbnailUniqueId());
+        blackhole.consume(descriptor.reactionCount());
+        blackhole.consume(descriptor.minithumbnail());
+    }
+
+    private static TdApi.File file(int id) {
+        TdApi.File file = new TdApi.File();
+        file.id = id;
+        file.size = 1024L * id;
+        file.remote = new TdApi.RemoteFile();
+        file.remote.uniqueId = "unique-" + id;
+        file.local = new TdApi.LocalFile();
+        return file;
+    }
+
+    private static TdApi.Message message(int id, TdApi.MessageContent content) {
+        TdApi.Message message = new TdApi.Message();
+        message.id = id;
+        message.chatId = 1;
+        message.content = content;
+        TdApi.MessageReaction reaction = new TdApi.MessageReaction();
+        reaction.totalCount = id;
+        message.interactionInfo = new TdApi.MessageInteractionInfo();
+        message.interactionInfo.reactions = new TdApi.MessageReactions();
+        message.interactionInfo.reactions.reactions = new TdApi.MessageReaction[]{reaction};
+        return message;
+    }
+
+    private static TdApi.Message videoMessage(int id) {
+        TdApi.MessageVideo content = new TdApi.MessageVideo();
+        content.video = new TdApi.Video();
+        content.video.video = file(id);
+        content.video.thumbnail = new TdApi.Thumbnail(new TdApi.ThumbnailFormatJpeg(), 320, 180, file(id + 100_000));
+        content.video.minithumbnail = new TdApi.Minithumbnail(40, 40, new byte[256]);
+        content.caption = new TdApi.FormattedText("video " + id, null);
+        return message(id, content);
+    }
+
+    private static TdApi.Message documentMessage(int id) {
+        TdApi.MessageDocument content = new TdApi.MessageDocument();
+        content.document = new TdApi.Document();
+        content.document.document = file(id);
+        content.caption = new TdApi.FormattedText("document " + id, null);
+        return message(id, content);
+    }
+}
@@ -0,0 +1,113 @@
+package telegram.files;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import org.apache.commons.jexl3.JexlBuilder;
+import org.apache.commons.jexl3.JexlEngine;
+import org.apache.commons.jexl3.JexlExpression;
+import org.apache.commons.jexl3.MapContext;
+import org.drinkless.tdlib.TdApi;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Compares the nested {@code BeanUtil.beanToMap} context used before {@link MessageFilterContext} with the lazy
+ * context, for one history scan page.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhIncludes=MessageFilterBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageFilterBenchmark {
+
+    private static final CopyOptions BEAN_TO_MAP_OPTIONS = beanToMapOptions(5);
+
+    private static final JexlEngine JEXL_ENGINE = new JexlBuilder().strict(true).silent(false).create();
+
+    @Param({"content.video.video.size > 4000", "f.size() > 4000 && id > 10"})
+    public String expr;
+
+    @Param({"100"})
+    public int pageSize;
+
+    private List<TdApi.Message> messages;
+
+    private JexlExpression expression;
+
+    private Predicate<TdApi.Message> predicate;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        messages = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            messages.add(videoMessage(i));
+        }
+        expression = JEXL_ENGINE.createExpression(expr);
+        predicate = MessageFilter.filter(expr);
+    }
+
+    @Benchmark
+    public void beanToMap(Blackhole blackhole) {
+        for (TdApi.Message message : messages) {
+            Map<String, Object> map = BeanUtil.beanToMap(message, new LinkedHashMap<>(16, 1), BEAN_TO_MAP_OPTIONS);
+            TdApiHelp.getFileHandler(message).ifPresent(fileHandler -> map.put("f", fileHandler.convertFileRecord(0)));
+            blackhole.consume(expression.evaluate(new MapContext(map)));
+        }
+    }
+
+    @Benchmark
+    public void lazyContext(Blackhole blackhole) {
+        for (TdApi.Message message : messages) {
+            blackhole.consume(predicate.test(message));
+        }
+    }
+
+    /**
+     * Options converting nested TDLib objects into maps down to the given depth, as the previous filter did.
+     */
+    private static CopyOptions beanToMapOptions(int depth) {
+        CopyOptions nested = depth > 1 ? beanToMapOptions(depth - 1) : null;
+        return CopyOptions.create()
+                .setIgnoreNullValue(true)
+                .setFieldValueEditor((_, fieldValue) -> {
+                    if (fieldValue instanceof TdApi.Object) {
+                        return nested == null ? BeanUtil.beanToMap(fieldValue)
+                                : BeanUtil.beanToMap(fieldValue, new LinkedHashMap<>(16, 1), nested);
+                    }
+                    return fieldValue;
+                });
+    }
+
+    private static TdApi.Message videoMessage(int id) {
+        TdApi.File file = new TdApi.File();
+        file.id = id;
+        file.size = 1000L * id;
+        file.remote = new TdApi.RemoteFile();
+        file.remote.uniqueId = "unique-" + id;
+        file.local = new TdApi.LocalFile();
+
+        TdApi.MessageVideo content = new TdApi.MessageVideo();
+        content.video = new TdApi.Video();
+        content.video.video = file;
+        content.video.fileName = "video-" + id + ".mp4";
+        content.video.mimeType = "video/mp4";
+        content.caption = new TdApi.FormattedText("video " + id, null);
+
+        TdApi.Message message = new TdApi.Message();
+        message.id = id;
+        message.chatId = 1;
+        message.date = 1_700_000_000 + id;
+        message.content = content;
+        message.interactionInfo = new TdApi.MessageInteractionInfo();
+        message.interactionInfo.viewCount = id;
+        return message;
+    }
+}
@@ -2,6 +2,7 @@ package telegram.files;
 
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.convert.Convert;
+import cn.hutool.core.map.MapUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.log.Log;
 import cn.hutool.log.LogFactory;
@@ -13,20 +14,28 @@ import io.vertx.core.json.JsonObject;
 import org.drinkless.tdlib.TdApi;
 import org.jooq.lambda.tuple.Tuple3;
 import telegram.files.repository.FileRecord;
+import telegram.files.repository.SettingAdaptiveDownloadLimit;
 import telegram.files.repository.SettingAutoRecords;
+import telegram.files.repository.SettingHistoryScanCheckpoints;
 import telegram.files.repository.SettingKey;
 import telegram.files.repository.SettingTimeLimitedDownload;
 
-import java.time.LocalTime;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 public class AutoDownloadVerticle extends AbstractVerticle {
 
@@ -38,29 +47,86 @@ public class AutoDownloadVerticle extends AbstractVerticle {
 
     private static final int MAX_HISTORY_SCAN_TIME = 10 * 1000;
 
-    private static final int MAX_WAITING_LENGTH = 30;
+    private static final int MAX_WAITING_SCAN_THREADS = 100;
 
-    private static final int DOWNLOAD_INTERVAL = 10 * 1000;
+    private static final int CHECKPOINT_FLUSH_INTERVAL = 30 * 1000;
+
+    // Downloads are refilled on file status events, the timer is only a safety net
+    private static final int DOWNLOAD_INTERVAL = 60 * 1000;
+
+    private static final int CONCURRENCY_CONTROL_INTERVAL = 10 * 1000;
+
+    private static final int REBALANCE_INTERVAL = 60 * 1000;
+
+    // The schedule is checked at least this often, in case the clock is changed
+    private static final long MAX_SCHEDULE_WAIT = 60 * 60 * 1000;
 
     private static final List<String> DEFAULT_FILE_TYPE_ORDER = List.of("photo", "video", "audio", "file");
 
-    // telegramId -> messages
-    private final Map<Long, LinkedList<MessageWrapper>> waitingDownloadMessages = new ConcurrentHashMap<>();
+    // telegramId -> waiting download queue
+    private final Map<Long, DownloadQueue> waitingDownloadQueues = new ConcurrentHashMap<>();
+
+    // telegramId -> threadChatId:messageThreadId -> waiting scan thread
+    private final Map<Long, Map<String, WaitingScanThread>> waitingScanThreads = new ConcurrentHashMap<>();
+
+    // telegramId -> history scan TDLib call budget
+    private final Map<Long, RateBudget> scanBudgets = new ConcurrentHashMap<>();
+
+    // scan key -> observed media density, decides between a single history pass and filtered searches
+    private final Map<String, HistoryScanPlan.Density> scanDensities = new ConcurrentHashMap<>();
+
+    // scan key -> scan task, waiting for a free scan slot
+    private final LinkedHashMap<String, Runnable> pendingScans = new LinkedHashMap<>();
+
+    private final Set<String> activeScans = ConcurrentHashMap.newKeySet();
+
+    private SettingHistoryScanCheckpoints checkpoints = new SettingHistoryScanCheckpoints();
+
+    private volatile boolean checkpointsDirty;
+
+    private final DownloadSlots downloadSlots = new DownloadSlots();
+
+    // telegramIds whose active downloads have been loaded into downloadSlots
+    private final Set<Long> syncedSlots = ConcurrentHashMap.newKeySet();
 
-    // telegramId -> waiting scan threads
-    private final Map<Long, LinkedList<WaitingScanThread>> waitingScanThreads = new ConcurrentHashMap<>();
+    // telegramId -> adaptive download limit
+    private final Map<Long, ConcurrencyController> concurrencyControllers = new ConcurrentHashMap<>();
+
+    // telegramId -> time until the account is in a flood wait or stalled
+    private final Map<Long, Long> unavailableUntil = new ConcurrentHashMap<>();
+
+    // telegramId:chatId of the chats another account could not download from
+    private final Set<String> unsharedChats = ConcurrentHashMap.newKeySet();
 
     private final SettingAutoRecords autoRecords;
 
     private int limit = DEFAULT_LIMIT;
 
+    private SettingAdaptiveDownloadLimit adaptiveLimit;
+
     private SettingTimeLimitedDownload timeLimited;
 
+    private volatile DownloadSchedule schedule;
+
+    private boolean scheduleOpen = true;
+
+    private long scheduleTimerId;
+
+    // telegramId -> file ids paused when the download window closed
+    private final Map<Long, Set<Integer>> scheduledPauses = new ConcurrentHashMap<>();
+
     public AutoDownloadVerticle() {
         this.autoRecords = AutomationsHolder.INSTANCE.autoRecords();
         AutomationsHolder.INSTANCE.registerOnRemoveListener(removedItems -> removedItems.forEach(item ->
-                waitingDownloadMessages.getOrDefault(item.telegramId, new LinkedList<>())
-                        .removeIf(m -> m.message.chatId == item.chatId)));
+        {
+            DownloadQueue queue = waitingDownloadQueues.get(item.telegramId);
+            if (queue != null) {
+                queue.removeChat(item.chatId);
+            }
+            if (checkpoints.removeScan(item.uniqueKey())) {
+                checkpointsDirty = true;
+            }
+        }));
     }
 
     @Override
@@ -81,15 +147,14 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                                                         && auto.isNotComplete(SettingAutoRecords.HISTORY_DOWNLOAD_STATE))
                                         .forEach(auto -> {
                                             if (isDownloadCommentEnabled(auto)
-                                                && CollUtil.isNotEmpty(waitingScanThreads.get(auto.telegramId))) {
+                                                && MapUtil.isNotEmpty(waitingScanThreads.get(auto.telegramId))) {
                                                 addCommentMessage(auto);
                                             } else {
                                                 if (auto.isNotComplete(SettingAutoRecords.HISTORY_DOWNLOAD_SCAN_STATE)) {
-                                                    addHistoryMessage(auto);
+                                                    submitScan(auto.uniqueKey(), () -> addHistoryMessage(auto));
                                                 } else {
-                                                    LinkedList<MessageWrapper> messageWrappers = waitingDownloadMessages.get(auto.telegramId);
-                                                    if (CollUtil.isEmpty(messageWrappers) ||
-                                                        messageWrappers.stream().noneMatch(w -> w.isHistorical)) {
+                                                    DownloadQueue queue = waitingDownloadQueues.get(auto.telegramId);
+                                                    if (queue == null || !queue.hasHistorical()) {
                                                         auto.complete(SettingAutoRecords.HISTORY_DOWNLOAD_STATE);
                                                     }
                                                 }
@@ -102,19 +167,36 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                                     log.debug("Auto download time limited! Skip download.");
                                     return;
                                 }
-                                waitingDownloadMessages.keySet().forEach(this::download);
+                                waitingDownloadQueues.keySet().forEach(telegramId -> {
+                                    syncDownloadSlots(telegramId);
+                                    download(telegramId);
+                                });
                             });
+                    vertx.setPeriodic(CHECKPOINT_FLUSH_INTERVAL, _ -> flushCheckpoints());
+                    vertx.setPeriodic(CONCURRENCY_CONTROL_INTERVAL, _ -> updateAdaptiveLimits());
+                    vertx.setPeriodic(REBALANCE_INTERVAL, _ -> rebalanceStalledDownloads());
+                    onScheduleBoundary();
 
                     log.info("""
                             Auto download verticle started!
                             |History scan interval: %s ms
                             |Download interval: %s ms
                             |Download limit: %s per telegram account!
+                            |Adaptive download limit: %s
+                            |Global download limit: %s, bandwidth: %s MB/s
+                            |Load balance between accounts: %s
+                            |History scan concurrency: %s, rate: %s calls/s per telegram account
                             |Time limit: %s
                             |Auto chats: %s
                             """.formatted(HISTORY_SCAN_INTERVAL,
                             DOWNLOAD_INTERVAL,
                             limit,
+                            adaptiveLimit == null ? "" : Json.encode(adaptiveLimit),
+                            Config.DOWNLOAD_GLOBAL_LIMIT,
+                            Config.DOWNLOAD_GLOBAL_BANDWIDTH_MB,
+                            Config.DOWNLOAD_LOAD_BALANCE,
+                            Config.AUTO_DOWNLOAD_SCAN_CONCURRENCY,
+                            Config.AUTO_DOWNLOAD_SCAN_RATE,
                             timeLimited == null ? "" : Json.encode(timeLimited),
                             autoRecords.getDownloadEnabledItems().size()));
 
@@ -124,20 +206,37 @@ public class AutoDownloadVerticle extends AbstractVerticle {
     }
 
     @Override
-    public void stop() {
+    public void stop(Promise<Void> stopPromise) {
+        flushCheckpoints();
         log.info("Auto download verticle stopped!");
+        stopPromise.complete();
     }
 
     private Future<Void> initAutoDownload() {
         return Future.all(
                         DataVerticle.settingRepository.<Integer>getByKey(SettingKey.autoDownloadLimit),
-                        DataVerticle.settingRepository.<SettingTimeLimitedDownload>getByKey(SettingKey.autoDownloadTimeLimited)
+                        DataVerticle.settingRepository.<SettingTimeLimitedDownload>getByKey(SettingKey.autoDownloadTimeLimited),
+                        DataVerticle.settingRepository.<SettingHistoryScanCheckpoints>getByKey(SettingKey.historyScanCheckpoints),
+                        DataVerticle.settingRepository.<SettingAdaptiveDownloadLimit>getByKey(SettingKey.autoDownloadAdaptiveLimit),
+                        DataVerticle.settingRepository.<JsonObject>getByKey(SettingKey.autoDownloadScheduledPauses)
                 )
                 .onSuccess(results -> {
                     if (results.resultAt(0) != null) {
                         this.limit = results.resultAt(0);
                     }
-                    this.timeLimited = results.resultAt(1);
+                    setTimeLimited(results.resultAt(1));
+                    if (results.resultAt(2) != null) {
+                        this.checkpoints = results.resultAt(2);
+                    }
+                    this.adaptiveLimit = results.resultAt(3);
+                    JsonObject pauses = results.resultAt(4);
+                    if (pauses != null) {
+                        pauses.forEach(entry -> {
+                            Set<Integer> fileIds = ConcurrentHashMap.newKeySet();
+                            ((Iterable<?>) entry.getValue()).forEach(fileId -> fileIds.add(((Number) fileId).intValue()));
+                            scheduledPauses.put(Long.parseLong(entry.getKey()), fileIds);
+                        });
+                    }
                 })
                 .onFailure(e -> log.error("Get Auto download limit failed!", e))
                 .mapEmpty();
@@ -147,25 +246,48 @@ public class AutoDownloadVerticle extends AbstractVerticle {
         vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.autoDownloadLimit.name()), message -> {
             log.debug("Auto download limit update: %s".formatted(message.body()));
             this.limit = Convert.toInt(message.body(), DEFAULT_LIMIT);
+            updateConcurrencyBounds();
+        });
+        vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.autoDownloadAdaptiveLimit.name()), message -> {
+            log.debug("Auto download adaptive limit update: %s".formatted(message.body()));
+            this.adaptiveLimit = (SettingAdaptiveDownloadLimit) SettingKey.autoDownloadAdaptiveLimit.converter.apply((String) message.body());
+            updateConcurrencyBounds();
         });
         vertx.eventBus().consumer(EventEnum.SETTING_UPDATE.address(SettingKey.autoDownloadTimeLimited.name()), message -> {
             log.debug("Auto download time limit update: %s".formatted(message.body()));
-            this.timeLimited = (SettingTimeLimitedDownload) SettingKey.autoDownloadTimeLimited.converter.apply((String) message.body());
+            setTimeLimited((SettingTimeLimitedDownload) SettingKey.autoDownloadTimeLimited.converter.apply((String) message.body()));
+            onScheduleBoundary();
         });
         vertx.eventBus().consumer(EventEnum.MESSAGE_RECEIVED.address(), message -> {
             log.trace("Auto download message received: %s".formatted(message.body()));
             this.onNewMessage((JsonObject) message.body());
         });
+        vertx.eventBus().consumer(EventEnum.TELEGRAM_EVENT.address(), message -> {
+            JsonObject jsonObject = (JsonObject) message.body();
+            JsonObject payload = jsonObject.getJsonObject("payload");
+            if (payload == null || payload.getInteger("type", 0) != EventPayload.TYPE_FILE_STATUS) {
+                return;
+            }
+            Long telegramId = jsonObject.getLong("telegramId");
+            JsonObject data = payload.getJsonObject("data");
+            if (telegramId != null && data != null) {
+                this.onFileStatus(telegramId, data);
+            }
+        });
         return Future.succeededFuture();
     }
 
     private void addCommentMessage(SettingAutoRecords.Automation auto) {
-        LinkedList<WaitingScanThread> scanThreads = waitingScanThreads.get(auto.telegramId);
-        if (CollUtil.isEmpty(scanThreads)) {
+        Map<String, WaitingScanThread> scanThreads = waitingScanThreads.get(auto.telegramId);
+        if (MapUtil.isEmpty(scanThreads)) {
             return;
         }
-        scanThreads.removeIf(scanThread -> scanThread.isComplete);
-        waitingScanThreads.get(auto.telegramId).forEach(scanThread -> {
+        List<WaitingScanThread> threads;
+        synchronized (scanThreads) {
+            scanThreads.values().removeIf(scanThread -> scanThread.isComplete);
+            threads = List.copyOf(scanThreads.values());
+        }
+        threads.forEach(scanThread -> {
             ScanParams scanParams = new ScanParams(auto.uniqueKey() + ":" + scanThread.messageThreadId,
                     auto.download.rule,
                     auto.telegramId,
@@ -173,128 +295,231 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                     scanThread.nextFileType,
                     scanThread.nextFromMessageId);
             scanParams.messageThreadId = scanThread.messageThreadId;
-            addHistoryMessage(scanParams,
-                    result -> {
-                        scanThread.nextFileType = result.nextFileType;
-                        scanThread.nextFromMessageId = result.nextFromMessageId;
-                        if (result.isComplete) {
-                            scanThread.isComplete = true;
-                        }
-                    },
-                    System.currentTimeMillis()
-            );
+            submitScan(scanParams.uniqueKey, () -> {
+                ScanResult result = scanHistory(scanParams);
+                scanThread.nextFileType = result.nextFileType;
+                scanThread.nextFromMessageId = result.nextFromMessageId;
+                if (result.isComplete) {
+                    scanThread.isComplete = true;
+                }
+            });
         });
     }
 
     private void addHistoryMessage(SettingAutoRecords.Automation auto) {
-        addHistoryMessage(new ScanParams(auto.uniqueKey(),
-                        auto.download.rule,
-                        auto.telegramId,
-                        auto.chatId,
-                        auto.download.nextFileType,
-                        auto.download.nextFromMessageId),
-                result -> {
-                    auto.download.nextFileType = result.nextFileType;
-                    auto.download.nextFromMessageId = result.nextFromMessageId;
-                    if (result.isComplete) {
-                        auto.complete(SettingAutoRecords.HISTORY_DOWNLOAD_SCAN_STATE);
+        ScanResult result = scanHistory(new ScanParams(auto.uniqueKey(),
+                auto.download.rule,
+                auto.telegramId,
+                auto.chatId,
+                auto.download.nextFileType,
+                auto.download.nextFromMessageId));
+        auto.download.nextFileType = result.nextFileType;
+        auto.download.nextFromMessageId = result.nextFromMessageId;
+        if (result.isComplete) {
+            auto.complete(SettingAutoRecords.HISTORY_DOWNLOAD_SCAN_STATE);
+        }
+    }
+
+    /**
+     * Run the scan when a scan slot is free, a scan that is already running or waiting is not submitted again.
+     */
+    private void submitScan(String scanKey, Runnable scan) {
+        synchronized (pendingScans) {
+            if (activeScans.contains(scanKey) || pendingScans.containsKey(scanKey)) {
+                return;
+            }
+            pendingScans.put(scanKey, scan);
+        }
+        drainScans();
+    }
+
+    private void drainScans() {
+        synchronized (pendingScans) {
+            Iterator<Map.Entry<String, Runnable>> iterator = pendingScans.entrySet().iterator();
+            while (activeScans.size() < Config.AUTO_DOWNLOAD_SCAN_CONCURRENCY && iterator.hasNext()) {
+                Map.Entry<String, Runnable> entry = iterator.next();
+                iterator.remove();
+                String scanKey = entry.getKey();
+                activeScans.add(scanKey);
+                vertx.runOnContext(_ -> {
+                    try {
+                        entry.getValue().run();
+                    } catch (Exception e) {
+                        log.error("Scan history failed! %s".formatted(scanKey), e);
+                    } finally {
+                        activeScans.remove(scanKey);
+                        drainScans();
                     }
-                },
-                System.currentTimeMillis()
-        );
+                });
+            }
+        }
     }
 
-    private void addHistoryMessage(ScanParams params,
-                                   Consumer<ScanResult> callback,
-                                   long currentTimeMillis) {
+    /**
+     * Scan one chat or comment thread from its checkpoints until the time budget is spent, the waiting queue is
+     * full or all file types are fully scanned.
+     */
+    private ScanResult scanHistory(ScanParams params) {
         String uniqueKey = params.uniqueKey;
         long telegramId = params.telegramId;
         long chatId = params.chatId;
-        long nextFromMessageId = params.nextFromMessageId;
-        String nextFileType = params.nextFileType;
         Tuple3<String, List<String>, String> rule = handleRule(params.rule);
-        if (StrUtil.isBlank(nextFileType)) {
-            nextFileType = rule.v2.getFirst();
+        FilterPushdown pushdown = FilterPushdown.analyze(rule.v3);
+        if (rule.v2.isEmpty()) {
+            log.debug("%s No file type can match the filter! TelegramId: %d ChatId: %d".formatted(uniqueKey, telegramId, chatId));
+            return new ScanResult(null, 0, true);
         }
+        long startTime = System.currentTimeMillis();
+        RateBudget budget = scanBudgets.computeIfAbsent(telegramId,
+                _ -> new RateBudget(Config.AUTO_DOWNLOAD_SCAN_RATE, System.currentTimeMillis()));
+        seedCheckpoint(params, rule);
+        HistoryScanPlan plan = new HistoryScanPlan(uniqueKey, rule.v2, rule.v1, rule.v3,
+                params.messageThreadId <= 0,
+                checkpoints,
+                scanDensities.computeIfAbsent(uniqueKey, _ -> new HistoryScanPlan.Density()));
+        plan.setMinDate(pushdown.getMinDate());
 
-        log.debug("Start scan history! TelegramId: %d ChatId: %d FileType: %s".formatted(telegramId, chatId, nextFileType));
-        if (System.currentTimeMillis() - currentTimeMillis > MAX_HISTORY_SCAN_TIME) {
-            log.debug("Scan history timeout! TelegramId: %d ChatId: %d".formatted(telegramId, chatId));
-            callback.accept(new ScanResult(nextFileType, nextFromMessageId, false));
-            return;
+        HistoryScanPlan.Step step;
+        while ((step = plan.next()) != null) {
+            ScanResult pending = new ScanResult(step.fileType(), step.fromMessageId(), false);
+            if (System.currentTimeMillis() - startTime > MAX_HISTORY_SCAN_TIME) {
+                log.debug("Scan history timeout! TelegramId: %d ChatId: %d".formatted(telegramId, chatId));
+                return pending;
+            }
+            if (isExceedLimit(telegramId)) {
+                log.debug("Scan history exceed per telegram account limit! TelegramId: %d ChatId: %d".formatted(telegramId, chatId));
+                return pending;
+            }
+            TelegramVerticle telegramVerticle = TelegramVerticles.getOrElseThrow(telegramId);
+            if (!telegramVerticle.authorized) {
+                return pending;
+            }
+            long wait = budget.reserve(System.currentTimeMillis());
+            if (wait > 0) {
+                Future.await(vertx.timer(wait));
+            }
+
+            log.debug("Scan history! TelegramId: %d ChatId: %d Mode: %s FileType: %s"
+                    .formatted(telegramId, chatId, step.mode(), step.fileType()));
+            TdApi.Message[] foundMessages;
+            long nextFromMessageId = 0;
+            try {
+                if (step.mode() == HistoryScanPlan.Mode.HISTORY) {
+                    TdApi.GetChatHistory getChatHistory = new TdApi.GetChatHistory();
+                    getChatHistory.chatId = chatId;
+                    getChatHistory.fromMessageId = step.fromMessageId();
+                    getChatHistory.limit = HistoryScanPlan.HISTORY_PAGE_SIZE;
+                    TdApi.Messages messages = Future.await(telegramVerticle.client.execute(getChatHistory));
+                    foundMessages = messages == null ? null : messages.messages;
+                } else {
+                    TdApi.SearchChatMessages searchChatMessages = new TdApi.SearchChatMessages();
+                    searchChatMessages.query = rule.v1;
+                    searchChatMessages.chatId = chatId;
+                    searchChatMessages.fromMessageId = step.fromMessageId();
+                    searchChatMessages.limit = HistoryScanPlan.SEARCH_PAGE_SIZE;
+                    searchChatMessages.filter = TdApiHelp.getSearchMessagesFilter(step.fileType());
+                    searchChatMessages.topicId = params.messageThreadId > 0 ? new TdApi.MessageTopicThread(params.messageThreadId) : null;
+                    TdApi.FoundChatMessages foundChatMessages = Future.await(telegramVerticle.client.execute(searchChatMessages));
+                    foundMessages = foundChatMessages == null ? null : foundChatMessages.messages;
+                    nextFromMessageId = foundChatMessages == null ? 0 : foundChatMessages.nextFromMessageId;
+                }
+            } catch (Exception e) {
+                log.warn("Scan chat history failed! TelegramId: %d ChatId: %d".formatted(telegramId, chatId), e);
+                if (e instanceof TelegramRunException tre
+                    && tre.getError().code == 400
+                    && "Can't access the chat".equals(tre.getError().message)) {
+                    log.error("%s Can't access the chat, stop auto download!".formatted(uniqueKey));
+                    return new ScanResult(step.fileType(), step.fromMessageId(), true);
+                }
+                return pending;
+            }
+            if (foundMessages == null) {
+                return pending;
+            }
+
+            // Cursors are only advanced once the page is queued
+            Map<String, SettingHistoryScanCheckpoints.Checkpoint> snapshot = plan.snapshot();
+            List<TdApi.Message> matched = plan.accept(step, foundMessages, nextFromMessageId);
+            List<TdApi.Message> messages = CollUtil.isEmpty(matched) ? List.of() : filterDownloadableMessages(matched, pushdown.getResidual());
+            if (CollUtil.isNotEmpty(messages) && !addWaitingDownloadMessages(telegramId, messages, false, true)) {
+                plan.restore(snapshot);
+                return pending;
+            }
+            checkpointsDirty = true;
         }
-        if (isExceedLimit(telegramId)) {
-            log.debug("Scan history exceed per telegram account limit! TelegramId: %d ChatId: %d".formatted(telegramId, chatId));
-            callback.accept(new ScanResult(nextFileType, nextFromMessageId, false));
+        log.debug("%s No more history files found! TelegramId: %d ChatId: %d".formatted(uniqueKey, telegramId, chatId));
+        return new ScanResult(rule.v2.getLast(), 0, true);
+    }
+
+    /**
+     * Carry the cursor kept on the automation over to the checkpoints, the file types before it are fully scanned.
+     */
+    private void seedCheckpoint(ScanParams params, Tuple3<String, List<String>, String> rule) {
+        if (StrUtil.isBlank(params.nextFileType) || !rule.v2.contains(params.nextFileType)) {
             return;
         }
+        for (String fileType : rule.v2) {
+            String checkpointKey = SettingHistoryScanCheckpoints.key(params.uniqueKey, fileType, rule.v1, rule.v3);
+            if (checkpoints.get(checkpointKey) != null) {
+                return;
+            }
+        }
+        for (String fileType : rule.v2) {
+            String checkpointKey = SettingHistoryScanCheckpoints.key(params.uniqueKey, fileType, rule.v1, rule.v3);
+            if (fileType.equals(params.nextFileType)) {
+                saveCheckpoint(checkpointKey, params.nextFromMessageId, false);
+                return;
+            }
+            saveCheckpoint(checkpointKey, 0, true);
+        }
+    }
+
+    private void saveCheckpoint(String checkpointKey, long fromMessageId, boolean complete) {
+        checkpoints.put(checkpointKey, fromMessageId, complete);
+        checkpointsDirty = true;
+    }
 
-        TelegramVerticle telegramVerticle = TelegramVerticles.getOrElseThrow(telegramId);
-        if (!telegramVerticle.authorized) {
-            callback.accept(new ScanResult(nextFileType, nextFromMessageId, false));
+    private void flushCheckpoints() {
+        if (!checkpointsDirty) {
             return;
         }
-        TdApi.SearchChatMessages searchChatMessages = new TdApi.SearchChatMessages();
-        searchChatMessages.query = rule.v1;
-        searchChatMessages.chatId = chatId;
-        searchChatMessages.fromMessageId = nextFromMessageId;
-        searchChatMessages.limit = Math.min(MAX_WAITING_LENGTH, 100);
-        searchChatMessages.filter = TdApiHelp.getSearchMessagesFilter(nextFileType);
-        searchChatMessages.topicId = params.messageThreadId > 0 ? new TdApi.MessageTopicThread(params.messageThreadId) : null;
-        String finalNextFileType = nextFileType;
-        TdApi.FoundChatMessages foundChatMessages = Future.await(telegramVerticle.client.execute(searchChatMessages)
-                .onFailure(r -> {
-                    log.warn("Search chat messages failed! TelegramId: %d ChatId: %d".formatted(telegramId, chatId), r);
-                    if (r instanceof TelegramRunException tre) {
-                        TdApi.Error error = tre.getError();
-                        if (error.code == 400 && ("Can't access the chat".equals(error.message))) {
-                            log.error("%s Can't access the chat, stop auto download!".formatted(uniqueKey));
-                            callback.accept(new ScanResult(finalNextFileType, nextFromMessageId, true));
-                        }
-                    }
+        checkpointsDirty = false;
+        DataVerticle.settingRepository.createOrUpdate(SettingKey.historyScanCheckpoints.name(), Json.encode(checkpoints))
+                .onFailure(e -> {
+                    checkpointsDirty = true;
+                    log.error("Save history scan checkpoints failed!", e);
+                });
+    }
+
+    private List<TdApi.Message> filterDownloadableMessages(List<TdApi.Message> foundMessages, String filterExpr) {
+        Predicate<TdApi.Message> predicate = MessageFilter.filter(filterExpr);
+        Map<String, FileRecord> existFiles = Future.await(DataVerticle.fileRepository
+                .getFilesByUniqueId(TdApiHelp.getFileUniqueIds(foundMessages)));
+        return foundMessages.stream()
+                .filter(predicate)
+                .filter(message -> {
+                    FileRecord fileRecord = existFiles.get(TdApiHelp.getFileUniqueId(message));
+                    return fileRecord == null || fileRecord.isDownloadStatus(FileRecord.DownloadStatus.idle);
                 })
-        );
-        if (foundChatMessages == null) {
-            callback.accept(new ScanResult(nextFileType, nextFromMessageId, false));
-            return;
-        }
-        if (foundChatMessages.messages.length == 0) {
-            List<String> fileTypes = rule.v2;
-            int nextTypeIndex = fileTypes.indexOf(nextFileType) + 1;
-            if (nextTypeIndex < fileTypes.size()) {
-                params.nextFileType = fileTypes.get(nextTypeIndex);
-                params.nextFromMessageId = 0;
-                log.debug("%s No more %s files found! Switch to %s".formatted(uniqueKey, nextFileType, params.nextFileType));
-                addHistoryMessage(params, callback, currentTimeMillis);
-            } else {
-                log.debug("%s No more history files found! TelegramId: %d ChatId: %d".formatted(uniqueKey, telegramId, chatId));
-                callback.accept(new ScanResult(nextFileType, nextFromMessageId, true));
-            }
-        } else {
-            Predicate<TdApi.Message> predicate = MessageFilter.filter(rule.v3);
-            DataVerticle.fileRepository.getFilesByUniqueId(TdApiHelp.getFileUniqueIds(Arrays.asList(foundChatMessages.messages)))
-                    .onSuccess(existFiles -> {
-                        List<TdApi.Message> messages = Stream.of(foundChatMessages.messages)
-                                .parallel()
-                                .filter(predicate)
-                                .filter(message -> {
-                                    String uniqueId = TdApiHelp.getFileUniqueId(message);
-                                    if (!existFiles.containsKey(uniqueId)) {
-                                        return true;
-                                    } else {
-                                        FileRecord fileRecord = existFiles.get(uniqueId);
-                                        return fileRecord.isDownloadStatus(FileRecord.DownloadStatus.idle);
-                                    }
-                                })
-                                .toList();
-                        if (CollUtil.isEmpty(messages)) {
-                            params.nextFromMessageId = foundChatMessages.nextFromMessageId;
-                            addHistoryMessage(params, callback, currentTimeMillis);
-                        } else if (addWaitingDownloadMessages(telegramId, messages, false, true)) {
-                            params.nextFromMessageId = foundChatMessages.nextFromMessageId;
-                            addHistoryMessage(params, callback, currentTimeMillis);
-                        }
-                    });
+                .toList();
+    }
+
+    private void addWaitingScanThread(long telegramId, long threadChatId, long messageThreadId) {
+        Map<String, WaitingScanThread> scanThreads = waitingScanThreads.computeIfAbsent(telegramId,
+                _ -> Collections.synchronizedMap(new LinkedHashMap<>()));
+        String key = threadChatId + ":" + messageThreadId;
+        synchronized (scanThreads) {
+            if (scanThreads.containsKey(key)) {
+                return;
+            }
+            if (scanThreads.size() >= MAX_WAITING_SCAN_THREADS) {
+                scanThreads.values().removeIf(scanThread -> scanThread.isComplete);
+            }
+            if (scanThreads.size() >= MAX_WAITING_SCAN_THREADS) {
+                log.debug("Too many waiting scan threads! TelegramId: %d, skip thread: %s".formatted(telegramId, key));
+                return;
+            }
+            scanThreads.put(key, new WaitingScanThread(telegramId, threadChatId, messageThreadId));
         }
     }
 
@@ -313,36 +538,269 @@ public class AutoDownloadVerticle extends AbstractVerticle {
                 filterExpr = rule.filterExpr;
             }
         }
+        // Prune the scan by the file types of the filter, the checkpoints stay keyed by the whole expression
+        fileTypes = FilterPushdown.analyze(filterExpr).restrictFileTypes(fileTypes);
         return new Tuple3<>(query, fileTypes, filterExpr);
     }
 
+    private void setTimeLimited(SettingTimeLimitedDownload timeLimited) {
+        this.timeLimited = timeLimited;
+        this.schedule = DownloadSchedule.of(timeLimited);
+    }
+
     private boolean isDownloadTime() {
-        if (timeLimited == null) {
-            return true;
-        }
-        LocalTime now = LocalTime.now();
+        DownloadSchedule schedule = this.schedule;
+        return schedule == null || schedule.isOpen(LocalDateTime.now());
+    }
 
-        LocalTime startTime = LocalTime.parse(timeLimited.startTime);
-        LocalTime endTime = LocalTime.parse(timeLimited.endTime);
-        if (startTime.equals(LocalTime.MIN) && endTime.equals(LocalTime.MIN)) {
-            return true;
+    /**
+     * Pause the automatic downloads when the download window closes and resume them when it opens,
+     * then wait for the next boundary of the schedule.
+     */
+    private void onScheduleBoundary() {
+        if (scheduleTimerId != 0) {
+            vertx.cancelTimer(scheduleTimerId);
+            scheduleTimerId = 0;
+        }
+        boolean open = isDownloadTime();
+        if (open != scheduleOpen) {
+            scheduleOpen = open;
+            log.info("Auto download window %s!".formatted(open ? "opened" : "closed"));
+            if (open) {
+                resumeScheduledPauses();
+            } else {
+                pauseForSchedule();
+            }
+        } else if (open && !scheduledPauses.isEmpty()) {
+            // Paused before a restart
+            resumeScheduledPauses();
         }
 
-        if (startTime.isAfter(endTime)) {
-            return now.isAfter(startTime) || now.isBefore(endTime);
-        } else {
-            return now.isAfter(startTime) && now.isBefore(endTime);
+        DownloadSchedule schedule = this.schedule;
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = schedule == null ? null : schedule.nextBoundary(now);
+        if (next == null) {
+            return;
         }
+        long delay = Math.clamp(Duration.between(now, next).toMillis(), 1, MAX_SCHEDULE_WAIT);
+        scheduleTimerId = vertx.setTimer(delay, _ -> {
+            scheduleTimerId = 0;
+            onScheduleBoundary();
+        });
+    }
+
+    private void pauseForSchedule() {
+        TelegramVerticles.getAll().stream()
+                .filter(telegramVerticle -> telegramVerticle.authorized && telegramVerticle.telegramRecord != null)
+                .forEach(telegramVerticle -> {
+                    long telegramId = telegramVerticle.telegramRecord.id();
+                    List<FileRecord> downloading = Future.await(DataVerticle.fileRepository
+                            .getByDownloadStatus(telegramId, FileRecord.DownloadStatus.downloading)
+                            .otherwiseEmpty());
+                    List<Integer> toPause = downloading == null ? List.of() : downloading.stream()
+                            .filter(fileRecord -> !"thumbnail".equals(fileRecord.type()))
+                            .filter(fileRecord -> !telegramVerticle.downloadLanes.isInteractive(fileRecord.id()))
+                            .map(FileRecord::id)
+                            .toList();
+                    // Already paused by the lanes, they must not be resumed before the window opens
+                    List<Integer> paused = telegramVerticle.downloadLanes.detachPausedBulk();
+                    if (toPause.isEmpty() && paused.isEmpty()) {
+                        return;
+                    }
+                    Set<Integer> fileIds = scheduledPauses.computeIfAbsent(telegramId, _ -> ConcurrentHashMap.newKeySet());
+                    fileIds.addAll(toPause);
+                    fileIds.addAll(paused);
+                    log.info("Pause auto downloads out of the download window! TelegramId: %d files: %d"
+                            .formatted(telegramId, fileIds.size()));
+                    toPause.forEach(fileId -> telegramVerticle.client.execute(new TdApi.ToggleDownloadIsPaused(fileId, true))
+                            .onFailure(e -> log.debug("Pause download failed! FileId: %d Error: %s".formatted(fileId, e.getMessage()))));
+                });
+        saveScheduledPauses();
+    }
+
+    private void resumeScheduledPauses() {
+        scheduledPauses.forEach((telegramId, fileIds) -> {
+            TelegramVerticle telegramVerticle = TelegramVerticles.get(telegramId).orElse(null);
+            if (telegramVerticle == null || !telegramVerticle.authorized) {
+                return;
+            }
+            List<FileRecord> paused = Future.await(DataVerticle.fileRepository
+                    .getByDownloadStatus(telegramId, FileRecord.DownloadStatus.paused)
+                    .otherwiseEmpty());
+            Map<Integer, FileRecord> records = new HashMap<>();
+            if (paused != null) {
+                paused.stream()
+                        .filter(fileRecord -> fileIds.contains(fileRecord.id()))
+                        .forEach(fileRecord -> records.put(fileRecord.id(), fileRecord));
+            }
+            List<FileRecord> toResume = records.values().stream()
+                    .map(r -> new DownloadQueue.Entry(r.chatId(), r.messageId(), r.id(), r.uniqueId(), r.size(), r.type(),
+                            TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY, false))
+                    .sorted(resumeOrder(telegramId))
+                    .map(entry -> records.get(entry.fileId()))
+                    .toList();
+            scheduledPauses.remove(telegramId);
+            log.info("Resume auto downloads in the download window! TelegramId: %d files: %d"
+                    .formatted(telegramId, toResume.size()));
+            for (FileRecord fileRecord : toResume) {
+                telegramVerticle.downloadLanes.acquire(fileRecord.id(), DownloadLanes.Lane.BULK);
+                downloadSlots.acquire(telegramId, fileRecord.uniqueId());
+                // One by one, TDLib starts them in this order
+                Future.await(telegramVerticle.client.execute(new TdApi.ToggleDownloadIsPaused(fileRecord.id(), false))
+                        .onFailure(e -> {
+                            downloadSlots.release(telegramId, fileRecord.uniqueId());
+                            log.debug("Resume download failed! FileId: %d Error: %s".formatted(fileRecord.id(), e.getMessage()));
+                        })
+                        .otherwiseEmpty());
+            }
+            download(telegramId);
+        });
+        saveScheduledPauses();
+    }
+
+    /**
+     * Highest download priority of the automation first, then the order of its scheduling policy.
+     */
+    private Comparator<DownloadQueue.Entry> resumeOrder(long telegramId) {
+        return Comparator.<DownloadQueue.Entry>comparingInt(entry -> getSchedulingPolicy(telegramId, entry.chatId()).priority(entry))
+                .reversed()
+                .thenComparingLong(DownloadQueue.Entry::chatId)
+                .thenComparing((a, b) -> getSchedulingPolicy(telegramId, a.chatId()).order().compare(a, b));
+    }
+
+    private void saveScheduledPauses() {
+        JsonObject json = new JsonObject();
+        scheduledPauses.forEach((telegramId, fileIds) -> json.put(String.valueOf(telegramId), List.copyOf(fileIds)));
+        DataVerticle.settingRepository.createOrUpdate(SettingKey.autoDownloadScheduledPauses.name(), json.encode())
+                .onFailure(e -> log.error("Save scheduled download pauses failed!", e));
     }
 
     private boolean isExceedLimit(long telegramId) {
-        List<MessageWrapper> waitingMessages = this.waitingDownloadMessages.get(telegramId);
-        return getSurplusSize(telegramId) <= 0 || (waitingMessages != null && waitingMessages.size() > limit);
+        DownloadQueue queue = this.waitingDownloadQueues.get(telegramId);
+        return getSurplusSize(telegramId) <= 0 || (queue != null && (queue.size() > getLimit(telegramId) || queue.isFull()));
+    }
+
+    /**
+     * Download limit of the account, adjusted to the measured download speed if the adaptive limit is enabled.
+     */
+    private int getLimit(long telegramId) {
+        if (adaptiveLimit == null || !adaptiveLimit.enabled) {
+            return limit;
+        }
+        return getConcurrencyController(telegramId).getLimit();
+    }
+
+    /**
+     * Bulk downloads the account may run, its limit within its share of the global download slots.
+     */
+    private int getBulkLimit(long telegramId) {
+        int limit = getLimit(telegramId);
+        DownloadBudget budget = TelegramVerticle.DOWNLOAD_BUDGET;
+        if (!budget.isSlotLimited()) {
+            return limit;
+        }
+        Map<Long, Long> demands = new HashMap<>();
+        Map<Long, Integer> interactive = new HashMap<>();
+        TelegramVerticles.getAll().stream()
+                .filter(telegramVerticle -> telegramVerticle.authorized && telegramVerticle.telegramRecord != null)
+                .forEach(telegramVerticle -> {
+                    long id = telegramVerticle.telegramRecord.id();
+                    DownloadQueue queue = waitingDownloadQueues.get(id);
+                    int bulk = Math.min(getLimit(id), downloadSlots.activeCount(id) + (queue == null ? 0 : queue.size()));
+                    interactive.put(id, telegramVerticle.downloadLanes.interactiveCount());
+                    demands.put(id, (long) interactive.get(id) + bulk);
+                });
+        long share = budget.allocateSlots(demands).getOrDefault(telegramId, 0L);
+        return Math.clamp(share - interactive.getOrDefault(telegramId, 0), 0, limit);
+    }
+
+    private ConcurrencyController getConcurrencyController(long telegramId) {
+        return concurrencyControllers.computeIfAbsent(telegramId,
+                _ -> new ConcurrencyController(getMinLimit(), limit, limit));
+    }
+
+    private int getMinLimit() {
+        return adaptiveLimit == null ? 1 : Math.clamp(adaptiveLimit.minLimit, 1, limit);
+    }
+
+    private void updateConcurrencyBounds() {
+        concurrencyControllers.values().forEach(controller -> controller.setBounds(getMinLimit(), limit));
+    }
+
+    private void updateAdaptiveLimits() {
+        if (adaptiveLimit == null || !adaptiveLimit.enabled || !isDownloadTime()) {
+            return;
+        }
+        waitingDownloadQueues.keySet().forEach(telegramId -> TelegramVerticles.get(telegramId)
+                .filter(telegramVerticle -> telegramVerticle.authorized)
+                .ifPresent(telegramVerticle -> {
+                    ConcurrencyController controller = getConcurrencyController(telegramId);
+                    int previous = controller.getLimit();
+                    int current = controller.update(telegramVerticle.getCurrentDownloadSpeed(),
+                            downloadSlots.activeCount(telegramId));
+                    if (current != previous) {
+                        log.debug("Adaptive download limit: %d -> %d TelegramId: %d".formatted(previous, current, telegramId));
+                    }
+                    if (current > previous) {
+                        download(telegramId);
+                    }
+                }));
     }
 
     private int getSurplusSize(long telegramId) {
-        Integer downloading = Future.await(DataVerticle.fileRepository.countByStatus(telegramId, FileRecord.DownloadStatus.downloading));
-        return downloading == null ? limit : Math.max(0, limit - downloading);
+        if (!syncedSlots.contains(telegramId)) {
+            syncDownloadSlots(telegramId);
+        }
+        return downloadSlots.surplus(telegramId, getLimit(telegramId));
+    }
+
+    private void syncDownloadSlots(long telegramId) {
+        List<FileRecord> downloading = Future.await(DataVerticle.fileRepository
+                .getByDownloadStatus(telegramId, FileRecord.DownloadStatus.downloading)
+                .otherwiseEmpty());
+        if (downloading == null) {
+            return;
+        }
+        DownloadLanes lanes = TelegramVerticles.get(telegramId).map(telegramVerticle -> telegramVerticle.downloadLanes).orElse(null);
+        downloadSlots.reset(telegramId, downloading.stream()
+                .filter(fileRecord -> !"thumbnail".equals(fileRecord.type()))
+                .filter(fileRecord -> lanes == null || !lanes.isInteractive(fileRecord.id()))
+                .map(FileRecord::uniqueId)
+                .toList());
+        syncedSlots.add(telegramId);
+    }
+
+    private void onFileStatus(long telegramId, JsonObject data) {
+        String uniqueId = data.getString("uniqueId");
+        if (StrUtil.isBlank(uniqueId) || "thumbnail".equals(data.getString("type"))) {
+            return;
+        }
+        if (data.getBoolean("removed", false)) {
+            DownloadQueue queue = waitingDownloadQueues.get(telegramId);
+            if (queue != null) {
+                queue.remove(uniqueId);
+            }
+        }
+        if (FileRecord.DownloadStatus.downloading.name().equals(data.getString("downloadStatus"))
+            && !data.getBoolean("removed", false)) {
+            // Interactive downloads have their own slots
+            boolean interactive = TelegramVerticles.get(telegramId)
+                    .map(telegramVerticle -> telegramVerticle.downloadLanes.isInteractive(data.getInteger("fileId", 0)))
+                    .orElse(false);
+            if (!interactive) {
+                downloadSlots.acquire(telegramId, uniqueId);
+            }
+            return;
+        }
+        if (downloadSlots.release(telegramId, uniqueId) && isDownloadTime()) {
+            log.trace("Download slot released! TelegramId: %d UniqueId: %s".formatted(telegramId, uniqueId));
+            if (TelegramVerticle.DOWNLOAD_BUDGET.isSlotLimited()) {
+                // The global slot may go to another account
+                waitingDownloadQueues.keySet().forEach(this::download);
+            } else {
+                download(telegramId);
+            }
+        }
     }
 
     private boolean isDownloadCommentEnabled(SettingAutoRecords.Automation auto) {
@@ -363,64 +821,268 @@ public class AutoDownloadVerticle extends AbstractVerticle {
         if (CollUtil.isEmpty(messages)) {
             return false;
         }
-        LinkedList<MessageWrapper> waitingMessages = this.waitingDownloadMessages.get(telegramId);
-        if (waitingMessages == null) {
-            waitingMessages = new LinkedList<>();
-        }
-        if (!force && waitingMessages.size() > MAX_WAITING_LENGTH) {
+        DownloadQueue queue = this.waitingDownloadQueues.computeIfAbsent(telegramId,
+                _ -> new DownloadQueue(Config.AUTO_DOWNLOAD_QUEUE_DEPTH));
+        if (!force && queue.isFull()) {
             return false;
-        } else {
-            log.debug("Add waiting download messages: %d".formatted(messages.size()));
-            waitingMessages.addAll(TdApiHelp.filterUniqueMessages(messages)
-                    .stream()
-                    .map(message -> new MessageWrapper(message, isHistorical))
-                    .toList()
-            );
-        }
-        this.waitingDownloadMessages.put(telegramId, waitingMessages);
+        }
+        int added = 0;
+        for (TdApi.Message message : messages) {
+            SchedulingPolicy policy = getSchedulingPolicy(telegramId, message.chatId);
+            added += DownloadQueue.Entry.of(message, TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY, isHistorical)
+                    .map(entry -> entry.withPriority(policy.priority(entry)))
+                    .filter(entry -> queue.offer(entry, policy))
+                    .isPresent() ? 1 : 0;
+        }
+        log.debug("Add waiting download messages: %d/%d, queue size: %d, memory: %d bytes"
+                .formatted(added, messages.size(), queue.size(), queue.memoryBytes()));
+        if (downloadSlots.surplus(telegramId, getBulkLimit(telegramId)) > 0 && isDownloadTime()) {
+            vertx.runOnContext(_ -> download(telegramId));
+        }
         return true;
     }
 
+    /**
+     * Policy of the automation of the chat, comment threads without an automation are downloaded in order.
+     */
+    private SchedulingPolicy getSchedulingPolicy(long telegramId, long chatId) {
+        SettingAutoRecords.Automation auto = autoRecords.getItem(telegramId, chatId);
+        if (auto == null || auto.download == null || auto.download.rule == null) {
+            return SchedulingPolicy.FIFO;
+        }
+        return SchedulingPolicy.of(auto.download.rule.schedulingPolicy);
+    }
+
     private void download(long telegramId) {
-        if (CollUtil.isEmpty(waitingDownloadMessages)) {
+        DownloadQueue queue = waitingDownloadQueues.get(telegramId);
+        if (queue == null || queue.isEmpty()) {
             return;
         }
-        LinkedList<MessageWrapper> messages = waitingDownloadMessages.get(telegramId);
-        if (CollUtil.isEmpty(messages)) {
-            return;
+        log.debug("Download start! TelegramId: %d size: %d".formatted(telegramId, queue.size()));
+        // telegramId -> reserved slots, the account of the queue first
+        Map<Long, Integer> reservations = new LinkedHashMap<>();
+        int reserved = reserveBulkSlots(telegramId, getBulkLimit(telegramId), queue.size());
+        if (reserved > 0) {
+            reservations.put(telegramId, reserved);
         }
-        log.debug("Download start! TelegramId: %d size: %d".formatted(telegramId, messages.size()));
-        TelegramVerticle telegramVerticle = TelegramVerticles.getOrElseThrow(telegramId);
-        if (!telegramVerticle.authorized) {
-            return;
+        if (Config.DOWNLOAD_LOAD_BALANCE) {
+            reserveHelperSlots(telegramId, queue.size(), reservations);
         }
-        int surplusSize = getSurplusSize(telegramId);
-        if (surplusSize <= 0) {
+        if (reservations.isEmpty()) {
             return;
         }
 
-        List<MessageWrapper> downloadMessages = IntStream.range(0, Math.min(surplusSize, messages.size()))
-                .mapToObj(_ -> messages.poll())
+        int total = reservations.values().stream().mapToInt(Integer::intValue).sum();
+        List<DownloadQueue.Entry> entries = IntStream.range(0, total)
+                .mapToObj(_ -> queue.poll())
+                .filter(Objects::nonNull)
                 .toList();
-        downloadMessages.forEach(messageWrapper -> {
-            TdApi.Message message = messageWrapper.message;
-            Integer fileId = TdApiHelp.getFileId(message);
-            log.debug("Start download file: %s".formatted(fileId));
-            telegramVerticle.startDownload(message.chatId, message.id, fileId)
-                    .onSuccess(fileRecord -> {
-                        log.info("Start download file success! ChatId: %d MessageId:%d FileId:%d"
-                                .formatted(message.chatId, message.id, fileId));
+        Map<Long, List<DownloadQueue.Entry>> assignment = reservations.size() == 1 && reserved > 0
+                ? Map.of(telegramId, entries)
+                : DownloadBalancer.assign(telegramId, entries, DownloadQueue.Entry::chatId,
+                getBalanceCandidates(reservations),
+                (id, chatId) -> id == telegramId || canDownloadChat(id, chatId));
+        Set<DownloadQueue.Entry> assigned = new HashSet<>();
+        assignment.values().forEach(assigned::addAll);
+        entries.stream()
+                .filter(entry -> !assigned.contains(entry))
+                .forEach(entry -> queue.offer(entry, getSchedulingPolicy(telegramId, entry.chatId())));
+
+        reservations.forEach((id, count) ->
+                startQueuedDownloads(telegramId, id, assignment.getOrDefault(id, List.of()), count));
+        log.debug("Remaining download messages: %d".formatted(queue.size()));
+    }
+
+    /**
+     * Reserve bulk slots of the account, none if it can not start bulk downloads now.
+     */
+    private int reserveBulkSlots(long telegramId, int limit, int wanted) {
+        TelegramVerticle telegramVerticle = TelegramVerticles.get(telegramId).orElse(null);
+        if (telegramVerticle == null || !telegramVerticle.authorized || wanted <= 0) {
+            return 0;
+        }
+        if (telegramVerticle.downloadLanes.isBulkSuspended()) {
+            log.debug("Bulk downloads are paused for interactive downloads! TelegramId: %d".formatted(telegramId));
+            return 0;
+        }
+        if (!syncedSlots.contains(telegramId)) {
+            syncDownloadSlots(telegramId);
+        }
+        if (!TelegramVerticle.DOWNLOAD_BUDGET.canStartBulk(telegramId, System.currentTimeMillis())) {
+            log.debug("Download bandwidth budget exhausted! TelegramId: %d".formatted(telegramId));
+            return 0;
+        }
+        return downloadSlots.reserve(telegramId, limit, wanted);
+    }
+
+    /**
+     * Reserve the slots other accounts leave free after their own queues.
+     */
+    private void reserveHelperSlots(long telegramId, int wanted, Map<Long, Integer> reservations) {
+        for (TelegramVerticle telegramVerticle : TelegramVerticles.getAll()) {
+            if (telegramVerticle.telegramRecord == null || telegramVerticle.telegramRecord.id() == telegramId) {
+                continue;
+            }
+            long id = telegramVerticle.telegramRecord.id();
+            DownloadQueue own = waitingDownloadQueues.get(id);
+            int limit = getBulkLimit(id) - (own == null ? 0 : own.size());
+            int reserved = reserveBulkSlots(id, limit, wanted);
+            if (reserved > 0) {
+                reservations.put(id, reserved);
+            }
+        }
+    }
+
+    private List<DownloadBalancer.Candidate> getBalanceCandidates(Map<Long, Integer> reservations) {
+        long now = System.currentTimeMillis();
+        return reservations.entrySet().stream()
+                .map(entry -> new DownloadBalancer.Candidate(entry.getKey(),
+                        entry.getValue(),
+                        downloadSlots.activeCount(entry.getKey()),
+                        TelegramVerticles.get(entry.getKey()).map(TelegramVerticle::getCurrentDownloadSpeed).orElse(0L),
+                        unavailableUntil.getOrDefault(entry.getKey(), 0L) <= now))
+                .toList();
+    }
+
+    /**
+     * Files of a supergroup or a channel have the same message ids in every account that is a member.
+     */
+    private boolean canDownloadChat(long telegramId, long chatId) {
+        if (unsharedChats.contains(telegramId + ":" + chatId)) {
+            return false;
+        }
+        return TelegramVerticles.get(telegramId)
+                .map(telegramVerticle -> telegramVerticle.getChat(chatId))
+                .map(chat -> chat.type.getConstructor() == TdApi.ChatTypeSupergroup.CONSTRUCTOR)
+                .orElse(false);
+    }
+
+    /**
+     * Start the files queued by an account in the account they are assigned to, the message and file ids of the
+     * assigned account are looked up by the chat and message ids.
+     */
+    private void startQueuedDownloads(long telegramId, long assignedId, List<DownloadQueue.Entry> entries, int reserved) {
+        if (entries.isEmpty()) {
+            downloadSlots.unreserve(assignedId, reserved);
+            return;
+        }
+        TelegramVerticle telegramVerticle = TelegramVerticles.getOrElseThrow(assignedId);
+        List<TelegramVerticle.DownloadRequest> requests = entries.stream()
+                .map(entry -> assignedId == telegramId ?
+                        new TelegramVerticle.DownloadRequest(entry.chatId(), entry.messageId(), entry.fileId(), entry.priority()) :
+                        new TelegramVerticle.DownloadRequest(entry.chatId(), entry.messageId(), 0, entry.priority(),
+                                DownloadLanes.Lane.BULK, telegramId))
+                .toList();
+        log.debug("Start download files: %d TelegramId: %d".formatted(requests.size(), assignedId));
+        telegramVerticle.startDownloads(requests)
+                .onComplete(_ -> downloadSlots.unreserve(assignedId, reserved))
+                .onSuccess(outcomes -> {
+                    for (int i = 0; i < outcomes.size(); i++) {
+                        TelegramVerticle.DownloadOutcome outcome = outcomes.get(i);
+                        if (!outcome.success()) {
+                            log.error("Download file failed! TelegramId: %d ChatId: %d MessageId:%d FileId:%d Error: %s"
+                                    .formatted(assignedId, outcome.chatId(), outcome.messageId(), outcome.fileId(), outcome.error()));
+                            getConcurrencyController(assignedId).recordError();
+                            onDownloadFailed(telegramId, assignedId, entries.get(i), outcome.error());
+                            continue;
+                        }
+                        log.info("Start download file success! TelegramId: %d ChatId: %d MessageId:%d FileId:%d"
+                                .formatted(assignedId, outcome.chatId(), outcome.messageId(), outcome.fileId()));
+                        FileRecord fileRecord = outcome.fileRecord();
+                        downloadSlots.acquire(assignedId, fileRecord.uniqueId());
                         if (fileRecord.threadChatId() != 0
                             && fileRecord.messageThreadId() != 0
                             && fileRecord.threadChatId() != fileRecord.chatId()) {
-                            waitingScanThreads.computeIfAbsent(telegramId, _ -> new LinkedList<>())
-                                    .add(new WaitingScanThread(telegramId, fileRecord.threadChatId(), fileRecord.messageThreadId()));
+                            addWaitingScanThread(telegramId, fileRecord.threadChatId(), fileRecord.messageThreadId());
                         }
-                    })
-                    .onFailure(e -> log.error("Download file failed! ChatId: %d MessageId:%d FileId:%d"
-                            .formatted(message.chatId, message.id, fileId), e));
-        });
-        log.debug("Remaining download messages: %d".formatted(messages.size()));
+                    }
+                })
+                .onFailure(e -> log.error("Download files failed! TelegramId: %d".formatted(assignedId), e));
+    }
+
+    /**
+     * An account in a flood wait is avoided until it ends, a file another account could not start goes back to the
+     * queue of its account.
+     */
+    private void onDownloadFailed(long telegramId, long assignedId, DownloadQueue.Entry entry, String error) {
+        long floodWait = DownloadBalancer.floodWaitSeconds(error);
+        if (floodWait > 0) {
+            unavailableUntil.put(assignedId, System.currentTimeMillis() + floodWait * 1000);
+        }
+        if (assignedId == telegramId) {
+            return;
+        }
+        boolean notFound = StrUtil.containsIgnoreCase(error, "not found");
+        if (notFound) {
+            unsharedChats.add(assignedId + ":" + entry.chatId());
+        }
+        if (notFound || floodWait > 0) {
+            DownloadQueue queue = waitingDownloadQueues.get(telegramId);
+            if (queue != null) {
+                queue.offer(entry, getSchedulingPolicy(telegramId, entry.chatId()));
+            }
+        }
+    }
+
+    /**
+     * Hand the stalled bulk downloads over to an account with free slots that can download them,
+     * the stalled account is avoided for a while.
+     */
+    private void rebalanceStalledDownloads() {
+        if (!Config.DOWNLOAD_LOAD_BALANCE || !isDownloadTime()) {
+            return;
+        }
+        for (TelegramVerticle telegramVerticle : TelegramVerticles.getAll()) {
+            if (!telegramVerticle.authorized || telegramVerticle.telegramRecord == null) {
+                continue;
+            }
+            List<Integer> stalled = telegramVerticle.getStalledDownloads(DownloadBalancer.STALL_TIME);
+            if (stalled.isEmpty()) {
+                continue;
+            }
+            long telegramId = telegramVerticle.telegramRecord.id();
+            unavailableUntil.put(telegramId, System.currentTimeMillis() + DownloadBalancer.STALL_COOLDOWN);
+            Map<Long, Integer> reservations = new LinkedHashMap<>();
+            reserveHelperSlots(telegramId, stalled.size(), reservations);
+            int total = reservations.values().stream().mapToInt(Integer::intValue).sum();
+
+            List<DownloadQueue.Entry> entries = new ArrayList<>();
+            for (Integer fileId : stalled) {
+                if (entries.size() >= total) {
+                    break;
+                }
+                FileRecord fileRecord = Future.await(telegramVerticle.client.execute(new TdApi.GetFile(fileId))
+                        .compose(file -> DataVerticle.fileRepository.getByUniqueId(file.remote.uniqueId))
+                        .otherwiseEmpty());
+                if (fileRecord == null
+                    || reservations.keySet().stream().noneMatch(id -> canDownloadChat(id, fileRecord.chatId()))) {
+                    continue;
+                }
+                FileRecord released = Future.await(telegramVerticle.releaseDownload(fileId).otherwiseEmpty());
+                if (released == null) {
+                    continue;
+                }
+                downloadSlots.release(telegramId, released.uniqueId());
+                entries.add(new DownloadQueue.Entry(released.chatId(), released.messageId(), released.id(),
+                        released.uniqueId(), released.size(), released.type(),
+                        TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY, false));
+            }
+            if (!entries.isEmpty()) {
+                log.info("Hand over stalled downloads: %d TelegramId: %d".formatted(entries.size(), telegramId));
+            }
+
+            Map<Long, List<DownloadQueue.Entry>> assignment = DownloadBalancer.assign(telegramId, entries,
+                    DownloadQueue.Entry::chatId, getBalanceCandidates(reservations), this::canDownloadChat);
+            Set<DownloadQueue.Entry> assigned = new HashSet<>();
+            assignment.values().forEach(assigned::addAll);
+            entries.stream()
+                    .filter(entry -> !assigned.contains(entry))
+                    .forEach(entry -> waitingDownloadQueues.computeIfAbsent(telegramId,
+                                    _ -> new DownloadQueue(Config.AUTO_DOWNLOAD_QUEUE_DEPTH))
+                            .offer(entry, getSchedulingPolicy(telegramId, entry.chatId())));
+            reservations.forEach((id, count) ->
+                    startQueuedDownloads(telegramId, id, assignment.getOrDefault(id, List.of()), count));
+        }
     }
 
     private void onNewMessage(JsonObject jsonObject) {
@@ -503,7 +1165,4 @@ public class AutoDownloadVerticle extends AbstractVerticle {
             this.messageThreadId = messageThreadId;
         }
     }
-
-    private record MessageWrapper(TdApi.Message message, boolean isHistorical) {
-    }
 }
@@ -165,6 +165,17 @@ public class AvgSpeed {
         return (bytesDownloaded * 1000L) / timeDiff;
     }
 
+    /**
+     * Get the smoothed speed of the latest point, 0 if there was no progress for {@code staleTime} milliseconds
+     */
+    public long getCurrentSpeed(long timestamp, long staleTime) {
+        Map.Entry<Long, SpeedPoint> lastEntry = speedPoints.lastEntry();
+        if (lastEntry == null || timestamp - lastEntry.getKey() > staleTime) {
+            return 0;
+        }
+        return lastEntry.getValue().speed;
+    }
+
     /**
      * Get median speed from all recorded points
      */
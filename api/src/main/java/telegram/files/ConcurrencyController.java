@@ -0,0 +1,140 @@
+package telegram.files;
+
+/**
+ * Additive increase, multiplicative decrease controller of the download concurrency of one telegram account.
+ * <p>
+ * Every control interval it is fed the measured aggregate download speed. While every slot is busy, it probes one
+ * slot up or down after {@link #PROBE_INTERVALS} steady intervals, and compares the speed after the step with the
+ * speed before it: a gain keeps stepping in the same direction, a loss or an extra slot without gain is taken back.
+ * A sharp drop, a stall or download errors shrink the limit by {@link #DECREASE_FACTOR}.
+ */
+public class ConcurrencyController {
+
+    static final double CHANGE_THRESHOLD = 0.05;
+
+    static final double DROP_THRESHOLD = 0.2;
+
+    static final double DECREASE_FACTOR = 0.7;
+
+    static final int PROBE_INTERVALS = 6;
+
+    private static final double SMOOTHING = 0.5;
+
+    private int min;
+
+    private int max;
+
+    private double limit;
+
+    // Smoothed speed at the current limit, in bytes per second, -1 until measured
+    private double baseline = -1;
+
+    // Speed at the limit before the last step
+    private double previousBaseline = -1;
+
+    // Last change of the limit, judged at the next update
+    private int step;
+
+    // Direction of the next probe
+    private int direction = 1;
+
+    private int steadyIntervals = PROBE_INTERVALS - 1;
+
+    private int errors;
+
+    public ConcurrencyController(int min, int max, int initial) {
+        setBounds(min, max);
+        this.limit = Math.clamp(initial, this.min, this.max);
+    }
+
+    public synchronized void setBounds(int min, int max) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.limit = Math.clamp(limit, this.min, this.max);
+    }
+
+    public synchronized int getLimit() {
+        return Math.clamp((int) limit, min, max);
+    }
+
+    /**
+     * A download failed to start, the limit is decreased at the next update.
+     */
+    public synchronized void recordError() {
+        errors++;
+    }
+
+    /**
+     * @param speed  aggregate download speed of the last interval, in bytes per second
+     * @param active downloads running during the interval
+     * @return the new limit
+     */
+    public synchronized int update(long speed, int active) {
+        if (errors > 0 || (active > 0 && speed <= 0)) {
+            errors = 0;
+            decrease();
+            return getLimit();
+        }
+        if (active < getLimit()) {
+            // Not enough downloads to tell whether the limit helps
+            step = 0;
+            baseline = -1;
+            return getLimit();
+        }
+
+        int lastStep = step;
+        step = 0;
+        if (lastStep != 0 && previousBaseline > 0) {
+            if (speed > previousBaseline * (1 + CHANGE_THRESHOLD)) {
+                baseline = speed;
+                direction = Integer.signum(lastStep);
+                move(direction);
+            } else if (lastStep > 0 || speed < previousBaseline * (1 - CHANGE_THRESHOLD)) {
+                direction = -Integer.signum(lastStep);
+                move(direction);
+                step = 0;
+                baseline = previousBaseline;
+            } else {
+                // One slot less at the same speed, keep it
+                baseline = speed;
+                direction = -1;
+            }
+            return getLimit();
+        }
+        if (baseline < 0) {
+            baseline = speed;
+            return getLimit();
+        }
+        if (speed < baseline * (1 - DROP_THRESHOLD)) {
+            decrease();
+            return getLimit();
+        }
+        baseline += SMOOTHING * (speed - baseline);
+        if (++steadyIntervals >= PROBE_INTERVALS) {
+            if ((direction > 0 && getLimit() >= max) || (direction < 0 && getLimit() <= min)) {
+                direction = -direction;
+            }
+            move(direction);
+        }
+        return getLimit();
+    }
+
+    private void move(int delta) {
+        int next = Math.clamp(getLimit() + delta, min, max);
+        step = next - getLimit();
+        limit = next;
+        steadyIntervals = 0;
+        if (step != 0) {
+            previousBaseline = baseline;
+            baseline = -1;
+        }
+    }
+
+    private void decrease() {
+        limit = Math.max(min, limit * DECREASE_FACTOR);
+        step = 0;
+        direction = 1;
+        baseline = -1;
+        steadyIntervals = PROBE_INTERVALS - 1;
+    }
+}
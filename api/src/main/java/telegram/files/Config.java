@@ -48,6 +48,42 @@ public class Config {
 
     public static final int TELEGRAM_LOG_LEVEL = Convert.toInt(System.getenv("TELEGRAM_LOG_LEVEL"), 0);
 
+    public static final long TELEGRAM_SLOW_CALL_MS = Convert.toLong(System.getenv("TELEGRAM_SLOW_CALL_MS"), 1000L);
+
+    public static final int AUTO_DOWNLOAD_QUEUE_DEPTH = Convert.toInt(System.getenv("AUTO_DOWNLOAD_QUEUE_DEPTH"), 5000);
+
+    public static final int AUTO_DOWNLOAD_SCAN_CONCURRENCY = Convert.toInt(System.getenv("AUTO_DOWNLOAD_SCAN_CONCURRENCY"), 4);
+
+    public static final double AUTO_DOWNLOAD_SCAN_RATE = Convert.toDouble(System.getenv("AUTO_DOWNLOAD_SCAN_RATE"), 5.0);
+
+    public static final int DOWNLOAD_INTERACTIVE_SLOTS = Convert.toInt(System.getenv("DOWNLOAD_INTERACTIVE_SLOTS"), 3);
+
+    public static final int DOWNLOAD_GLOBAL_LIMIT = Convert.toInt(System.getenv("DOWNLOAD_GLOBAL_LIMIT"), 0);
+
+    public static final double DOWNLOAD_GLOBAL_BANDWIDTH_MB = Convert.toDouble(System.getenv("DOWNLOAD_GLOBAL_BANDWIDTH_MB"), 0.0);
+
+    public static final String DOWNLOAD_ACCOUNT_WEIGHTS = System.getenv("DOWNLOAD_ACCOUNT_WEIGHTS");
+
+    public static final boolean DOWNLOAD_LOAD_BALANCE = Convert.toBool(System.getenv("DOWNLOAD_LOAD_BALANCE"), false);
+
+    public static final long DOWNLOAD_SEGMENTED_MIN_SIZE_MB = Convert.toLong(System.getenv("DOWNLOAD_SEGMENTED_MIN_SIZE_MB"), 0L);
+
+    public static final int DOWNLOAD_SEGMENTS = Convert.toInt(System.getenv("DOWNLOAD_SEGMENTS"), 4);
+
+    public static final double DOWNLOAD_LINK_RATE = Convert.toDouble(System.getenv("DOWNLOAD_LINK_RATE"), 5.0);
+
+    public static final int TRANSFER_WORKERS = Convert.toInt(System.getenv("TRANSFER_WORKERS"), 4);
+
+    public static final int TRANSFER_STORE_CONCURRENCY = Convert.toInt(System.getenv("TRANSFER_STORE_CONCURRENCY"), 2);
+
+    public static final double TRANSFER_STORE_BANDWIDTH_MB = Convert.toDouble(System.getenv("TRANSFER_STORE_BANDWIDTH_MB"), 0.0);
+
+    public static final long TRANSFER_SYNC_INTERVAL_MB = Convert.toLong(System.getenv("TRANSFER_SYNC_INTERVAL_MB"), 64L);
+
+    public static final String TRANSFER_HASH_ALGORITHM = System.getenv("TRANSFER_HASH_ALGORITHM");
+
+    public static final int TRANSFER_HASH_THREADS = Convert.toInt(System.getenv("TRANSFER_HASH_THREADS"), 2);
+
     public static final String OPENAI_MODEL = StrUtil.blankToDefault(System.getenv("OPENAI_MODEL"), ChatModel.GPT_4O_MINI.asString());
 
     public static final DeploymentOptions VIRTUAL_THREAD_DEPLOYMENT_OPTIONS = new DeploymentOptions()
@@ -17,6 +17,7 @@ import io.vertx.sqlclient.SqlClient;
 import io.vertx.sqlclient.SqlConnectOptions;
 import org.jooq.lambda.tuple.Tuple;
 import telegram.files.repository.*;
+import telegram.files.repository.impl.FileHashRepositoryImpl;
 import telegram.files.repository.impl.FileRepositoryImpl;
 import telegram.files.repository.impl.SettingRepositoryImpl;
 import telegram.files.repository.impl.StatisticRepositoryImpl;
@@ -39,6 +40,8 @@ public class DataVerticle extends AbstractVerticle {
 
     public static StatisticRepository statisticRepository;
 
+    public static FileHashRepository fileHashRepository;
+
     private static SqlConnectOptions sqlConnectOptions;
 
     public static final List<Definition> definitions;
@@ -58,7 +61,8 @@ public class DataVerticle extends AbstractVerticle {
                 new SettingRecord.SettingRecordDefinition(),
                 new TelegramRecord.TelegramRecordDefinition(),
                 new FileRecord.FileRecordDefinition(),
-                new StatisticRecord.StatisticRecordDefinition()
+                new StatisticRecord.StatisticRecordDefinition(),
+                new FileHashRecord.FileHashRecordDefinition()
         );
     }
 
@@ -68,6 +72,7 @@ public class DataVerticle extends AbstractVerticle {
         telegramRepository = new TelegramRepositoryImpl(pool);
         fileRepository = new FileRepositoryImpl(pool);
         statisticRepository = new StatisticRepositoryImpl(pool);
+        fileHashRepository = new FileHashRepositoryImpl(pool);
         isCompletelyNewInitialization()
                 .compose(isNew -> Future.all(definitions.stream().map(d -> d.createTable(pool)).toList()).map(isNew))
                 .compose(isNew -> settingRepository.<Version>getByKey(SettingKey.version).map(version -> Tuple.tuple(isNew, version)))
@@ -0,0 +1,118 @@
+package telegram.files;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.util.ReUtil;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Assignment of queued files to the telegram accounts that can download them.
+ * <p>
+ * Files of supergroups and channels have the same chat and message ids in every account that is a member, so they
+ * can be downloaded by any of them. Each file goes to the eligible account with the most spare throughput: its free
+ * slots times the speed one download gets in the account. An account that is in a flood wait or has stalled
+ * downloads gets no throughput, it only takes files nobody else can.
+ */
+public class DownloadBalancer {
+
+    /**
+     * A download without progress for this long is handed over to another account
+     */
+    static final long STALL_TIME = 5 * 60 * 1000;
+
+    /**
+     * Time an account with stalled downloads is avoided
+     */
+    static final long STALL_COOLDOWN = 10 * 60 * 1000;
+
+    /**
+     * @param freeSlots downloads the account may start
+     * @param active    downloads running in the account
+     * @param speed     current download speed of the account, in bytes per second
+     * @param available false if the account is in a flood wait or stalled
+     */
+    public record Candidate(long telegramId, int freeSlots, int active, long speed, boolean available) {
+    }
+
+    /**
+     * Assign the items in order, an item nobody can download is left out.
+     *
+     * @param origin      telegramId of the account that queued the items, it wins ties
+     * @param chatId      chat of an item
+     * @param canDownload whether an account (telegramId) can download the files of a chat (chatId)
+     * @return telegramId -> assigned items, in order
+     */
+    public static <T> Map<Long, List<T>> assign(long origin,
+                                                List<T> items,
+                                                ToLongFunction<T> chatId,
+                                                List<Candidate> candidates,
+                                                BiPredicate<Long, Long> canDownload) {
+        Map<Long, int[]> load = new HashMap<>();
+        candidates.forEach(candidate -> load.put(candidate.telegramId(), new int[]{candidate.freeSlots(), candidate.active()}));
+        long fallbackSpeed = candidates.stream()
+                .filter(candidate -> candidate.available() && candidate.active() > 0)
+                .mapToLong(candidate -> candidate.speed() / candidate.active())
+                .max()
+                .orElse(0);
+
+        Map<Long, List<T>> assignment = new LinkedHashMap<>();
+        for (T item : items) {
+            long chat = chatId.applyAsLong(item);
+            Candidate best = null;
+            long bestSpare = -1;
+            for (Candidate candidate : candidates) {
+                int[] slots = load.get(candidate.telegramId());
+                if (slots[0] <= 0 || !canDownload.test(candidate.telegramId(), chat)) {
+                    continue;
+                }
+                long spare = spareThroughput(candidate, slots[0], slots[1], fallbackSpeed);
+                if (best == null || spare > bestSpare || spare == bestSpare && isPreferred(candidate, best, origin)) {
+                    best = candidate;
+                    bestSpare = spare;
+                }
+            }
+            if (best == null) {
+                continue;
+            }
+            int[] slots = load.get(best.telegramId());
+            slots[0]--;
+            slots[1]++;
+            assignment.computeIfAbsent(best.telegramId(), _ -> new ArrayList<>()).add(item);
+        }
+        return assignment;
+    }
+
+    /**
+     * Free slots times the speed of one download, an idle account is assumed as fast as the fastest busy one.
+     */
+    static long spareThroughput(Candidate candidate, int freeSlots, int active, long fallbackSpeed) {
+        if (!candidate.available()) {
+            return 0;
+        }
+        long perDownload = active > 0 && candidate.active() > 0
+                ? candidate.speed() / active
+                : Math.max(1, fallbackSpeed);
+        return freeSlots * perDownload;
+    }
+
+    private static boolean isPreferred(Candidate candidate, Candidate best, long origin) {
+        if (candidate.telegramId() == origin || best.telegramId() == origin) {
+            return candidate.telegramId() == origin;
+        }
+        return candidate.telegramId() < best.telegramId();
+    }
+
+    /**
+     * Seconds to wait from a TDLib rate limit error, e.g. {@code Too Many Requests: retry after 30} or
+     * {@code FLOOD_WAIT_30}, 0 if the error is not a rate limit.
+     */
+    public static long floodWaitSeconds(String error) {
+        if (error == null) {
+            return 0;
+        }
+        String seconds = ReUtil.getGroup1("(?:retry after |FLOOD_WAIT_)(\\d+)", error);
+        return Convert.toLong(seconds, 0L);
+    }
+}
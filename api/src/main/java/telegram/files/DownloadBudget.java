@@ -0,0 +1,204 @@
+package telegram.files;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.util.StrUtil;
+
+import java.util.*;
+
+/**
+ * Process wide download budget, shared by all telegram accounts.
+ * <p>
+ * The global download slots and bandwidth are shared between the accounts by weighted max-min fairness: an account
+ * gets at most what it asks for, and what it leaves is shared by the others in proportion to their weights.
+ * The bandwidth cap is enforced on the live aggregate speed, by pausing bulk downloads of the accounts above their
+ * share, and resuming them once the aggregate speed is below {@link #RESUME_RATIO} of the cap.
+ * Interactive downloads count against the budget, but are never held back by it.
+ */
+public class DownloadBudget {
+
+    static final double RESUME_RATIO = 0.8;
+
+    // Time for the speed to reflect a pause or a resume
+    static final long ACTION_INTERVAL = 3 * 1000;
+
+    static final long STALE_TIME = 5 * 1000;
+
+    /**
+     * Max downloads of all accounts, 0 is unlimited
+     */
+    private final int maxDownloads;
+
+    /**
+     * Max aggregate speed in bytes per second, 0 is unlimited
+     */
+    private final long maxBandwidth;
+
+    private final Map<Long, Integer> weights;
+
+    // telegramId -> last speed report
+    private final Map<Long, SpeedReport> reports = new HashMap<>();
+
+    private static class SpeedReport {
+        long speed;
+
+        int throttled;
+
+        long timestamp;
+
+        long lastAction;
+    }
+
+    public DownloadBudget(int maxDownloads, long maxBandwidth, Map<Long, Integer> weights) {
+        this.maxDownloads = Math.max(0, maxDownloads);
+        this.maxBandwidth = Math.max(0, maxBandwidth);
+        this.weights = weights;
+    }
+
+    /**
+     * Parse account weights, e.g. {@code 123456:2,654321:1}, accounts not listed have weight 1.
+     */
+    public static Map<Long, Integer> parseWeights(String value) {
+        Map<Long, Integer> weights = new HashMap<>();
+        for (String item : StrUtil.split(value, ",", true, true)) {
+            List<String> pair = StrUtil.split(item, ":", true, true);
+            Long telegramId = pair.size() == 2 ? Convert.toLong(pair.get(0), null) : null;
+            Integer weight = pair.size() == 2 ? Convert.toInt(pair.get(1), null) : null;
+            if (telegramId != null && weight != null && weight > 0) {
+                weights.put(telegramId, weight);
+            }
+        }
+        return weights;
+    }
+
+    public int getWeight(long telegramId) {
+        return weights.getOrDefault(telegramId, 1);
+    }
+
+    public boolean isSlotLimited() {
+        return maxDownloads > 0;
+    }
+
+    public boolean isBandwidthLimited() {
+        return maxBandwidth > 0;
+    }
+
+    /**
+     * Share the global slots between the accounts.
+     *
+     * @param demands telegramId -> downloads the account is running or waiting for
+     * @return telegramId -> downloads the account may run, every account of the demands is present
+     */
+    public Map<Long, Long> allocateSlots(Map<Long, Long> demands) {
+        if (!isSlotLimited()) {
+            return new HashMap<>(demands);
+        }
+        return share(maxDownloads, demands);
+    }
+
+    /**
+     * Weighted max-min fair share of the capacity, remaining units are given by descending weight, then telegramId.
+     */
+    Map<Long, Long> share(long capacity, Map<Long, Long> demands) {
+        Map<Long, Long> allocation = new HashMap<>();
+        List<Long> unsatisfied = new ArrayList<>();
+        demands.forEach((telegramId, demand) -> {
+            allocation.put(telegramId, 0L);
+            if (demand > 0) {
+                unsatisfied.add(telegramId);
+            }
+        });
+        unsatisfied.sort(Comparator.<Long>comparingInt(this::getWeight).reversed().thenComparing(Comparator.naturalOrder()));
+
+        long remaining = capacity;
+        while (!unsatisfied.isEmpty() && remaining > 0) {
+            long totalWeight = unsatisfied.stream().mapToLong(this::getWeight).sum();
+            long available = remaining;
+            List<Long> satisfied = unsatisfied.stream()
+                    .filter(telegramId -> demands.get(telegramId) - allocation.get(telegramId)
+                                          <= available * getWeight(telegramId) / totalWeight)
+                    .toList();
+            if (satisfied.isEmpty()) {
+                for (Long telegramId : unsatisfied) {
+                    long granted = available * getWeight(telegramId) / totalWeight;
+                    allocation.merge(telegramId, granted, Long::sum);
+                    remaining -= granted;
+                }
+                for (Long telegramId : unsatisfied) {
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    allocation.merge(telegramId, 1L, Long::sum);
+                    remaining--;
+                }
+                break;
+            }
+            for (Long telegramId : satisfied) {
+                remaining -= demands.get(telegramId) - allocation.get(telegramId);
+                allocation.put(telegramId, demands.get(telegramId));
+            }
+            unsatisfied.removeAll(satisfied);
+        }
+        return allocation;
+    }
+
+    /**
+     * Report the speed of an account and decide whether its bulk downloads should be throttled.
+     *
+     * @param speed      current download speed of the account, in bytes per second
+     * @param bulkActive running bulk downloads that can be paused
+     * @param throttled  bulk downloads paused by the budget
+     * @return number of bulk downloads to pause if positive, to resume if negative
+     */
+    public synchronized int onSpeed(long telegramId, long speed, int bulkActive, int throttled, long now) {
+        SpeedReport report = reports.computeIfAbsent(telegramId, _ -> new SpeedReport());
+        report.speed = speed;
+        report.throttled = throttled;
+        report.timestamp = now;
+        if (!isBandwidthLimited()) {
+            return -throttled;
+        }
+        if (now - report.lastAction < ACTION_INTERVAL) {
+            return 0;
+        }
+
+        Map<Long, Long> speeds = new HashMap<>();
+        reports.forEach((id, r) -> {
+            if (now - r.timestamp <= STALE_TIME) {
+                speeds.put(id, r.speed);
+            }
+        });
+        long total = speeds.values().stream().mapToLong(Long::longValue).sum();
+        int action = 0;
+        if (total > maxBandwidth && bulkActive > 0 && speed > share(maxBandwidth, speeds).get(telegramId)) {
+            action = 1;
+        } else if (total < maxBandwidth * RESUME_RATIO && throttled > 0) {
+            action = -1;
+        }
+        if (action != 0) {
+            report.lastAction = now;
+        }
+        return action;
+    }
+
+    /**
+     * Whether the account may start more bulk downloads, paused downloads are resumed first.
+     */
+    public synchronized boolean canStartBulk(long telegramId, long now) {
+        if (!isBandwidthLimited()) {
+            return true;
+        }
+        SpeedReport report = reports.get(telegramId);
+        if (report != null && report.throttled > 0) {
+            return false;
+        }
+        long total = reports.values().stream()
+                .filter(r -> now - r.timestamp <= STALE_TIME)
+                .mapToLong(r -> r.speed)
+                .sum();
+        return total < maxBandwidth * RESUME_RATIO;
+    }
+
+    public synchronized void remove(long telegramId) {
+        reports.remove(telegramId);
+    }
+}
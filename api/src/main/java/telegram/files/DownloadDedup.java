@@ -0,0 +1,135 @@
+package telegram.files;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Process wide registry of the files being downloaded, shared by all telegram accounts.
+ * <p>
+ * A file is identified by its remote unique id, which is the same for every account. The first account that adds a
+ * file to its downloads owns it, the requests of the other accounts wait for the owner instead of downloading the
+ * same file again. When the owner gives up the download, the waiting requests are handed back to their accounts.
+ * <p>
+ * A file already downloaded by another account is linked into the root of the requesting account.
+ */
+public class DownloadDedup {
+
+    public record Waiter(long telegramId, TelegramVerticle.DownloadRequest request) {
+    }
+
+    // uniqueId -> telegramId of the account downloading the file
+    private final Map<String, Long> owners = new HashMap<>();
+
+    // uniqueId -> requests of the other accounts
+    private final Map<String, List<Waiter>> waiters = new HashMap<>();
+
+    /**
+     * Take the ownership of the file if nobody has it.
+     *
+     * @return telegramId of the owner, the given one if the file is claimed
+     */
+    public synchronized long claim(String uniqueId, long telegramId) {
+        return owners.computeIfAbsent(uniqueId, _ -> telegramId);
+    }
+
+    /**
+     * @return telegramId of the account downloading the file, 0 if none
+     */
+    public synchronized long getOwner(String uniqueId) {
+        return owners.getOrDefault(uniqueId, 0L);
+    }
+
+    public synchronized boolean isOwnedByOther(String uniqueId, long telegramId) {
+        Long owner = owners.get(uniqueId);
+        return owner != null && owner != telegramId;
+    }
+
+    /**
+     * Wait for the owner of the file, a request of the same account and file is only kept once.
+     */
+    public synchronized void await(String uniqueId, Waiter waiter) {
+        List<Waiter> list = waiters.computeIfAbsent(uniqueId, _ -> new ArrayList<>());
+        boolean exists = list.stream().anyMatch(w -> w.telegramId() == waiter.telegramId()
+                                                     && w.request().fileId() == waiter.request().fileId());
+        if (!exists) {
+            list.add(waiter);
+        }
+    }
+
+    /**
+     * The owner is done with the file.
+     *
+     * @return the waiting requests, empty if the account is not the owner
+     */
+    public synchronized List<Waiter> release(String uniqueId, long telegramId) {
+        if (!owners.remove(uniqueId, telegramId)) {
+            return List.of();
+        }
+        List<Waiter> released = waiters.remove(uniqueId);
+        return released == null ? List.of() : released;
+    }
+
+    /**
+     * Drop an account: its files are released and its waiting requests are discarded.
+     *
+     * @return the requests of the other accounts that waited for the account
+     */
+    public synchronized List<Waiter> remove(long telegramId) {
+        List<Waiter> released = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> iterator = owners.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getValue() == telegramId) {
+                iterator.remove();
+                List<Waiter> list = waiters.remove(entry.getKey());
+                if (list != null) {
+                    released.addAll(list);
+                }
+            }
+        }
+        waiters.values().forEach(list -> list.removeIf(w -> w.telegramId() == telegramId));
+        waiters.values().removeIf(List::isEmpty);
+        return released;
+    }
+
+    /**
+     * Path of the file in the target root, keeping its path relative to the source root.
+     *
+     * @return null if the file is not in the source root, e.g. it was transferred
+     */
+    public static Path linkTarget(Path source, Path sourceRoot, Path targetRoot) {
+        Path normalizedSource = source.toAbsolutePath().normalize();
+        Path normalizedRoot = sourceRoot.toAbsolutePath().normalize();
+        if (!normalizedSource.startsWith(normalizedRoot) || normalizedSource.equals(normalizedRoot)) {
+            return null;
+        }
+        return targetRoot.toAbsolutePath().normalize().resolve(normalizedRoot.relativize(normalizedSource));
+    }
+
+    /**
+     * Hardlink the file to the target, copy it if the filesystem can not link, e.g. across devices.
+     * An existing different file at the target is not replaced.
+     *
+     * @return true if the file is linked, false if it is copied
+     */
+    public static boolean link(Path source, Path target) throws IOException {
+        if (Files.exists(target)) {
+            if (Files.isSameFile(source, target)) {
+                return true;
+            }
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonObject;
+import org.drinkless.tdlib.TdApi;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Interactive and bulk download lanes of one telegram account.
+ * <p>
+ * Files the user asks for, from the file list, a preview or a thumbnail, run in the interactive lane: they have
+ * reserved slots, the top TDLib priority, and while they are active the bulk downloads of the automations are
+ * paused. Bulk downloads run below the interactive priority and are resumed once the interactive lane is idle
+ * for {@link #RESUME_DELAY}, or after {@link #MAX_SUSPEND_TIME}, so one long interactive download can not stall
+ * the automations.
+ * <p>
+ * Interactive requests beyond the reserved slots run in the bulk lane.
+ * <p>
+ * Bulk files can also be throttled, paused to keep the {@link DownloadBudget} bandwidth cap, they are resumed one by one
+ * and are not touched by the interactive pauses.
+ */
+public class DownloadLanes {
+
+    public enum Lane {
+        INTERACTIVE,
+        BULK
+    }
+
+    public static final int INTERACTIVE_PRIORITY = 32;
+
+    public static final int BULK_MAX_PRIORITY = 16;
+
+    static final long RESUME_DELAY = 3 * 1000;
+
+    static final long MAX_SUSPEND_TIME = 60 * 1000;
+
+    private final int interactiveSlots;
+
+    private final Set<Integer> interactive = new HashSet<>();
+
+    private final Set<Integer> bulk = new HashSet<>();
+
+    // Bulk files paused by the lanes, resumed together
+    private final Set<Integer> suspended = new HashSet<>();
+
+    // Bulk files paused by the download budget
+    private final Set<Integer> throttled = new HashSet<>();
+
+    private boolean bulkSuspended;
+
+    private long suspendedSince;
+
+    private long interactiveIdleSince;
+
+    // The suspension hit MAX_SUSPEND_TIME, bulk is not paused again until the interactive lane is idle
+    private boolean suspendExpired;
+
+    public DownloadLanes(int interactiveSlots) {
+        this.interactiveSlots = interactiveSlots;
+    }
+
+    /**
+     * Take a slot of the requested lane for the file, returns the lane the file runs in.
+     */
+    public synchronized Lane acquire(int fileId, Lane requested) {
+        if (interactive.contains(fileId)) {
+            return Lane.INTERACTIVE;
+        }
+        if (requested == Lane.INTERACTIVE && interactive.size() < interactiveSlots) {
+            bulk.remove(fileId);
+            interactive.add(fileId);
+            return Lane.INTERACTIVE;
+        }
+        bulk.add(fileId);
+        return Lane.BULK;
+    }
+
+    public synchronized void release(int fileId, long now) {
+        bulk.remove(fileId);
+        suspended.remove(fileId);
+        throttled.remove(fileId);
+        if (interactive.remove(fileId) && interactive.isEmpty()) {
+            interactiveIdleSince = now;
+        }
+    }
+
+    public synchronized boolean isInteractive(int fileId) {
+        return interactive.contains(fileId);
+    }
+
+    public synchronized int interactiveCount() {
+        return interactive.size();
+    }
+
+    /**
+     * Running bulk downloads, without the paused ones.
+     */
+    public synchronized int bulkActiveCount() {
+        return bulk.size() - suspended.size() - throttled.size();
+    }
+
+    public synchronized int throttledCount() {
+        return throttled.size();
+    }
+
+    /**
+     * TDLib priority of a file of the lane, bulk priorities are scaled below the interactive one.
+     */
+    public static int tdPriority(Lane lane, int priority) {
+        if (lane == Lane.INTERACTIVE) {
+            return INTERACTIVE_PRIORITY;
+        }
+        return Math.clamp((Math.clamp(priority, 1, 32) * BULK_MAX_PRIORITY + 31) / 32, 1, BULK_MAX_PRIORITY);
+    }
+
+    /**
+     * Track the end of downloads, a bulk file paused by the lanes or the budget stays in the lane until it is resumed.
+     */
+    public synchronized void onFileUpdated(TdApi.File file, long now) {
+        if (file.local == null) {
+            return;
+        }
+        boolean completed = file.local.isDownloadingCompleted;
+        if (completed || !file.local.isDownloadingActive) {
+            if (interactive.remove(file.id) && interactive.isEmpty()) {
+                interactiveIdleSince = now;
+            }
+            if (completed || !(suspended.contains(file.id) || throttled.contains(file.id))) {
+                bulk.remove(file.id);
+                suspended.remove(file.id);
+                throttled.remove(file.id);
+            }
+        }
+    }
+
+    /**
+     * Bulk files to pause now that interactive downloads are active, empty if nothing changes.
+     */
+    public synchronized List<Integer> suspendBulk(long now) {
+        if (interactive.isEmpty() || bulkSuspended || suspendExpired) {
+            return List.of();
+        }
+        bulkSuspended = true;
+        suspendedSince = now;
+        List<Integer> toPause = new ArrayList<>();
+        for (Integer fileId : bulk) {
+            if (!throttled.contains(fileId) && suspended.add(fileId)) {
+                toPause.add(fileId);
+            }
+        }
+        return toPause;
+    }
+
+    /**
+     * Running bulk files to pause for the bandwidth cap, at most {@code count}.
+     */
+    public synchronized List<Integer> throttleBulk(int count) {
+        List<Integer> toPause = new ArrayList<>();
+        for (Integer fileId : bulk) {
+            if (toPause.size() >= count) {
+                break;
+            }
+            if (!suspended.contains(fileId) && throttled.add(fileId)) {
+                toPause.add(fileId);
+            }
+        }
+        return toPause;
+    }
+
+    /**
+     * Throttled files to resume, at most {@code count}. While bulk is suspended they are resumed with the suspended files.
+     */
+    public synchronized List<Integer> unthrottleBulk(int count) {
+        List<Integer> toResume = new ArrayList<>();
+        Iterator<Integer> iterator = throttled.iterator();
+        for (int i = 0; i < count && iterator.hasNext(); i++) {
+            Integer fileId = iterator.next();
+            iterator.remove();
+            if (bulkSuspended) {
+                suspended.add(fileId);
+            } else {
+                toResume.add(fileId);
+            }
+        }
+        return toResume;
+    }
+
+    /**
+     * Bulk files to resume, once the interactive lane is idle long enough or the suspension is too long.
+     */
+    public synchronized List<Integer> resumeBulk(long now) {
+        if (interactive.isEmpty() && now - interactiveIdleSince >= RESUME_DELAY) {
+            suspendExpired = false;
+        } else if (!bulkSuspended || now - suspendedSince < MAX_SUSPEND_TIME) {
+            return List.of();
+        } else {
+            suspendExpired = true;
+        }
+        bulkSuspended = false;
+        List<Integer> toResume = new ArrayList<>(suspended);
+        suspended.clear();
+        return toResume;
+    }
+
+    /**
+     * Bulk files paused by the lanes or the budget, removed from the lanes so they stay paused until resumed by the caller.
+     */
+    public synchronized List<Integer> detachPausedBulk() {
+        List<Integer> paused = new ArrayList<>(suspended);
+        paused.addAll(throttled);
+        bulk.removeAll(paused);
+        suspended.clear();
+        throttled.clear();
+        return paused;
+    }
+
+    /**
+     * Bulk files paused by the lanes or the budget, in file id order. TDLib keeps them paused across a restart, so
+     * they are saved and resumed once the account starts again.
+     */
+    public synchronized List<Integer> getPausedBulk() {
+        return Stream.concat(suspended.stream(), throttled.stream()).sorted().toList();
+    }
+
+    /**
+     * Whether new bulk downloads should wait.
+     */
+    public synchronized boolean isBulkSuspended() {
+        return bulkSuspended;
+    }
+
+    public synchronized JsonObject getStatistics() {
+        return JsonObject.of()
+                .put("interactive", JsonObject.of()
+                        .put("active", interactive.size())
+                        .put("slots", interactiveSlots))
+                .put("bulk", JsonObject.of()
+                        .put("active", bulk.size() - suspended.size() - throttled.size())
+                        .put("paused", suspended.size())
+                        .put("throttled", throttled.size())
+                        .put("suspended", bulkSuspended));
+    }
+}
@@ -0,0 +1,268 @@
+package telegram.files;
+
+import org.drinkless.tdlib.TdApi;
+
+import java.util.*;
+
+/**
+ * Waiting download queue of one telegram account.
+ * <p>
+ * Entries are compact copies of the message fields needed to start a download, indexed by file unique id,
+ * so dedup and removal do not scan the queue.
+ * <p>
+ * Each chat has its own lane, ordered by the {@link SchedulingPolicy} of its automation. The lanes share the queue
+ * by deficit round robin: every round a lane earns {@link #QUANTUM_BYTES} and spends the size of the files taken
+ * from it, so a chat with huge files or a long history can not starve the other chats.
+ */
+public class DownloadQueue {
+
+    /**
+     * Rough retained size of an entry without its unique id: the entry object, the map node and the lane node.
+     */
+    static final long ENTRY_OVERHEAD_BYTES = 200;
+
+    static final long QUANTUM_BYTES = 64L << 20;
+
+    private final int maxDepth;
+
+    // uniqueId -> node
+    private final Map<String, Node> entries = new HashMap<>();
+
+    // chatId -> lane
+    private final Map<Long, Lane> lanes = new HashMap<>();
+
+    // Lanes with entries, in round robin order, the first one is being served
+    private final ArrayDeque<Lane> activeLanes = new ArrayDeque<>();
+
+    private long sequence;
+
+    private long memoryBytes;
+
+    private int historicalCount;
+
+    public DownloadQueue(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    private record Node(Entry entry, long sequence) {
+    }
+
+    private static class Lane {
+        private final long chatId;
+
+        private SchedulingPolicy policy;
+
+        private TreeSet<Node> nodes;
+
+        private long deficit;
+
+        // Whether the lane has earned its quantum in the current round
+        private boolean visited;
+
+        Lane(long chatId, SchedulingPolicy policy) {
+            this.chatId = chatId;
+            this.policy = policy;
+            this.nodes = new TreeSet<>(comparator(policy));
+        }
+
+        void setPolicy(SchedulingPolicy policy) {
+            if (this.policy == policy) {
+                return;
+            }
+            this.policy = policy;
+            TreeSet<Node> sorted = new TreeSet<>(comparator(policy));
+            sorted.addAll(nodes);
+            this.nodes = sorted;
+        }
+
+        private static Comparator<Node> comparator(SchedulingPolicy policy) {
+            return Comparator.comparing(Node::entry, policy.order()).thenComparingLong(Node::sequence);
+        }
+    }
+
+    public record Entry(long chatId,
+                        long messageId,
+                        int fileId,
+                        String uniqueId,
+                        long size,
+                        String type,
+                        int priority,
+                        boolean historical) {
+
+        public static Optional<Entry> of(TdApi.Message message, int priority, boolean historical) {
+            return MessageDescriptor.of(message)
+                    .map(descriptor -> new Entry(message.chatId,
+                            message.id,
+                            descriptor.fileId(),
+                            descriptor.uniqueId(),
+                            descriptor.size(),
+                            descriptor.type(),
+                            priority,
+                            historical));
+        }
+
+        public Entry withPriority(int priority) {
+            return new Entry(chatId, messageId, fileId, uniqueId, size, type, priority, historical);
+        }
+
+        long estimatedBytes() {
+            return ENTRY_OVERHEAD_BYTES + 2L * uniqueId.length();
+        }
+    }
+
+    /**
+     * Add the entry unless a file with the same unique id is queued or the queue is full,
+     * the lane of a new chat is ordered first in first out.
+     */
+    public synchronized boolean offer(Entry entry) {
+        Lane lane = lanes.get(entry.chatId());
+        return offer(entry, lane == null ? SchedulingPolicy.FIFO : lane.policy);
+    }
+
+    /**
+     * Add the entry unless a file with the same unique id is queued or the queue is full,
+     * the lane of its chat is reordered if the policy changed.
+     */
+    public synchronized boolean offer(Entry entry, SchedulingPolicy policy) {
+        if (entries.size() >= maxDepth || entries.containsKey(entry.uniqueId())) {
+            return false;
+        }
+        Lane lane = lanes.get(entry.chatId());
+        if (lane == null) {
+            lane = new Lane(entry.chatId(), policy);
+            lanes.put(entry.chatId(), lane);
+            activeLanes.addLast(lane);
+        } else {
+            lane.setPolicy(policy);
+        }
+        Node node = new Node(entry, sequence++);
+        lane.nodes.add(node);
+        entries.put(entry.uniqueId(), node);
+        memoryBytes += entry.estimatedBytes();
+        if (entry.historical()) {
+            historicalCount++;
+        }
+        return true;
+    }
+
+    public synchronized Entry poll() {
+        int passed = 0;
+        while (!activeLanes.isEmpty()) {
+            Lane lane = activeLanes.getFirst();
+            if (!lane.visited) {
+                lane.deficit += QUANTUM_BYTES;
+                lane.visited = true;
+            }
+            Node head = lane.nodes.getFirst();
+            long cost = cost(head.entry);
+            if (cost <= lane.deficit) {
+                lane.deficit -= cost;
+                unlink(head);
+                return head.entry;
+            }
+            // The lane spent its quantum, serve the next one
+            activeLanes.removeFirst();
+            lane.visited = false;
+            activeLanes.addLast(lane);
+            if (++passed == activeLanes.size()) {
+                skipRounds();
+                passed = 0;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A whole round passed without a file fitting in any deficit, grant the rounds until the closest one fits
+     * at once instead of looping over them.
+     */
+    private void skipRounds() {
+        long rounds = Long.MAX_VALUE;
+        for (Lane lane : activeLanes) {
+            long missing = cost(lane.nodes.getFirst().entry) - lane.deficit;
+            rounds = Math.min(rounds, (missing + QUANTUM_BYTES - 1) / QUANTUM_BYTES);
+        }
+        if (rounds > 1) {
+            for (Lane lane : activeLanes) {
+                lane.deficit += (rounds - 1) * QUANTUM_BYTES;
+            }
+        }
+    }
+
+    private static long cost(Entry entry) {
+        return Math.max(1, entry.size());
+    }
+
+    public synchronized boolean remove(String uniqueId) {
+        Node node = entries.get(uniqueId);
+        if (node == null) {
+            return false;
+        }
+        unlink(node);
+        return true;
+    }
+
+    public synchronized int removeChat(long chatId) {
+        Lane lane = lanes.remove(chatId);
+        if (lane == null) {
+            return 0;
+        }
+        activeLanes.remove(lane);
+        for (Node node : lane.nodes) {
+            entries.remove(node.entry.uniqueId());
+            unaccount(node.entry);
+        }
+        return lane.nodes.size();
+    }
+
+    private void unlink(Node node) {
+        entries.remove(node.entry.uniqueId());
+        Lane lane = lanes.get(node.entry.chatId());
+        if (lane != null) {
+            lane.nodes.remove(node);
+            if (lane.nodes.isEmpty()) {
+                lanes.remove(lane.chatId);
+                activeLanes.remove(lane);
+            }
+        }
+        unaccount(node.entry);
+    }
+
+    private void unaccount(Entry entry) {
+        memoryBytes -= entry.estimatedBytes();
+        if (entry.historical()) {
+            historicalCount--;
+        }
+    }
+
+    public synchronized boolean contains(String uniqueId) {
+        return entries.containsKey(uniqueId);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public synchronized boolean isFull() {
+        return entries.size() >= maxDepth;
+    }
+
+    public synchronized boolean hasHistorical() {
+        return historicalCount > 0;
+    }
+
+    /**
+     * Estimated heap retained by the queued entries.
+     */
+    public synchronized long memoryBytes() {
+        return memoryBytes;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+}
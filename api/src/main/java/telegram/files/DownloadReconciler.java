@@ -0,0 +1,146 @@
+package telegram.files;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import org.drinkless.tdlib.TdApi;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Staleness driven reconciliation of downloading files.
+ * <p>
+ * {@code UpdateFile} reports almost every change, so a file is only checked with {@code GetFile} after it
+ * has been silent for {@link #STALE_AFTER_MS}. Checks are capped per tick, and a file that did not change
+ * since its last check is checked again with an exponential back off.
+ */
+public class DownloadReconciler {
+
+    private static final Log log = LogFactory.get();
+
+    public static final long TICK_INTERVAL_MS = 5_000;
+
+    static final long STALE_AFTER_MS = 60_000;
+
+    static final long MIN_BACKOFF_MS = 30_000;
+
+    static final long MAX_BACKOFF_MS = 10 * 60_000;
+
+    static final int MAX_CHECKS_PER_TICK = 5;
+
+    private final Map<Integer, FileState> files = new ConcurrentHashMap<>();
+
+    private final Function<Integer, Future<TdApi.File>> getFile;
+
+    private final Consumer<TdApi.File> onCompleted;
+
+    public DownloadReconciler(Function<Integer, Future<TdApi.File>> getFile, Consumer<TdApi.File> onCompleted) {
+        this.getFile = getFile;
+        this.onCompleted = onCompleted;
+    }
+
+    /**
+     * Replace the tracked files with the files in downloading status, newly tracked files get a full silent period.
+     */
+    public void sync(Collection<Integer> downloadingFileIds, long now) {
+        Set<Integer> fileIds = new HashSet<>(downloadingFileIds);
+        files.keySet().retainAll(fileIds);
+        fileIds.forEach(fileId -> files.putIfAbsent(fileId, new FileState(now)));
+    }
+
+    public void onFileUpdated(TdApi.File file, long now) {
+        if (file.local == null || !file.local.isDownloadingActive) {
+            files.remove(file.id);
+            return;
+        }
+        files.computeIfAbsent(file.id, _ -> new FileState(now)).touch(file.local.downloadedSize, now);
+    }
+
+    /**
+     * Check the files that have been silent for too long, returns the number of {@code GetFile} calls issued.
+     */
+    public int tick(long now) {
+        List<Map.Entry<Integer, FileState>> dueFiles = files.entrySet().stream()
+                .filter(entry -> entry.getValue().isDue(now))
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().nextCheckAt))
+                .limit(MAX_CHECKS_PER_TICK)
+                .toList();
+        for (Map.Entry<Integer, FileState> entry : dueFiles) {
+            int fileId = entry.getKey();
+            FileState state = entry.getValue();
+            state.checking = true;
+            state.nextCheckAt = now + state.backoffMs;
+            getFile.apply(fileId)
+                    .onSuccess(file -> {
+                        if (file.local != null && file.local.isDownloadingCompleted) {
+                            files.remove(fileId);
+                            onCompleted.accept(file);
+                        } else if (file.local != null && state.downloadedSize >= 0
+                                   && file.local.downloadedSize != state.downloadedSize) {
+                            state.touch(file.local.downloadedSize, now);
+                        } else {
+                            if (file.local != null) {
+                                state.downloadedSize = file.local.downloadedSize;
+                            }
+                            state.backoffMs = Math.min(state.backoffMs * 2, MAX_BACKOFF_MS);
+                        }
+                    })
+                    .onFailure(e -> {
+                        log.trace("Failed to get file during reconciliation: %d - %s".formatted(fileId, e.getMessage()));
+                        state.backoffMs = Math.min(state.backoffMs * 2, MAX_BACKOFF_MS);
+                    })
+                    .onComplete(_ -> state.checking = false);
+        }
+        return dueFiles.size();
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Downloading files whose downloaded size did not grow for {@code stallTime}.
+     */
+    public List<Integer> getStalledFiles(long now, long stallTime) {
+        return files.entrySet().stream()
+                .filter(entry -> now - entry.getValue().lastProgressAt >= stallTime)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private static class FileState {
+        private volatile long lastActivityAt;
+
+        private volatile long lastProgressAt;
+
+        private volatile long nextCheckAt;
+
+        private volatile long backoffMs = MIN_BACKOFF_MS;
+
+        private volatile long downloadedSize = -1;
+
+        private volatile boolean checking;
+
+        FileState(long now) {
+            this.lastActivityAt = now;
+            this.lastProgressAt = now;
+        }
+
+        void touch(long downloadedSize, long now) {
+            if (downloadedSize != this.downloadedSize) {
+                this.lastProgressAt = now;
+            }
+            this.downloadedSize = downloadedSize;
+            this.lastActivityAt = now;
+            this.nextCheckAt = 0;
+            this.backoffMs = MIN_BACKOFF_MS;
+        }
+
+        boolean isDue(long now) {
+            return !checking && now - lastActivityAt >= STALE_AFTER_MS && now >= nextCheckAt;
+        }
+    }
+}
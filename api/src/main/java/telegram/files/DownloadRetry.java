@@ -0,0 +1,171 @@
+package telegram.files;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.util.ReUtil;
+import cn.hutool.core.util.StrUtil;
+import io.vertx.core.json.JsonObject;
+import telegram.files.repository.SettingDownloadRetries;
+
+import java.util.*;
+
+/**
+ * Retries of the downloads that failed in TDLib, scheduled by the class of the error.
+ * <p>
+ * Transient errors are retried with an exponential backoff, half of the delay is random so that the files of an
+ * outage are not retried all at once. A rate limit waits at least the time TDLib asks for, an expired file reference
+ * is retried soon after the message is fetched again. Permanent errors, e.g. a deleted message, are not retried.
+ */
+public class DownloadRetry {
+
+    public enum ErrorClass {
+        NETWORK(10 * 1000, 30 * 60 * 1000, 10),
+        FLOOD_WAIT(30 * 1000, 60 * 60 * 1000, 10),
+        PROXY(30 * 1000, 30 * 60 * 1000, 10),
+        FILE_REFERENCE(5 * 1000, 10 * 60 * 1000, 5),
+        PERMANENT(0, 0, 0);
+
+        final long baseDelay;
+
+        final long maxDelay;
+
+        final int maxAttempts;
+
+        ErrorClass(long baseDelay, long maxDelay, int maxAttempts) {
+            this.baseDelay = baseDelay;
+            this.maxDelay = maxDelay;
+            this.maxAttempts = maxAttempts;
+        }
+    }
+
+    /**
+     * A retry handed out is not handed out again for this time, unless it fails earlier
+     */
+    static final long IN_FLIGHT_TIME = 60 * 1000;
+
+    private final Map<String, SettingDownloadRetries.Retry> retries = new HashMap<>();
+
+    private final Random random;
+
+    public DownloadRetry() {
+        this(new Random());
+    }
+
+    DownloadRetry(Random random) {
+        this.random = random;
+    }
+
+    public static ErrorClass classify(String error) {
+        String message = StrUtil.nullToEmpty(error);
+        int code = Convert.toInt(ReUtil.getGroup1("code: (-?\\d+)", message), 0);
+        if (code == 420 || code == 429
+            || DownloadBalancer.floodWaitSeconds(message) > 0
+            || StrUtil.containsIgnoreCase(message, "Too Many Requests")) {
+            return ErrorClass.FLOOD_WAIT;
+        }
+        if (StrUtil.containsIgnoreCase(message, "FILE_REFERENCE")) {
+            return ErrorClass.FILE_REFERENCE;
+        }
+        if (StrUtil.containsIgnoreCase(message, "proxy")) {
+            return ErrorClass.PROXY;
+        }
+        if (code >= 500
+            || StrUtil.containsAnyIgnoreCase(message, "timeout", "timed out", "network", "connection", "Request aborted")) {
+            return ErrorClass.NETWORK;
+        }
+        return ErrorClass.PERMANENT;
+    }
+
+    /**
+     * Delay before the attempt after {@code attempts} failures, {@code jitter} in [0, 1) picks it in the upper half
+     * of the backoff.
+     */
+    static long delay(ErrorClass errorClass, int attempts, String error, double jitter) {
+        long backoff = errorClass.baseDelay << Math.min(Math.max(attempts - 1, 0), 20);
+        backoff = Math.min(backoff, errorClass.maxDelay);
+        long delay = backoff / 2 + (long) (backoff / 2 * jitter);
+        if (errorClass == ErrorClass.FLOOD_WAIT) {
+            delay = Math.max(delay, DownloadBalancer.floodWaitSeconds(error) * 1000);
+        }
+        return delay;
+    }
+
+    public synchronized void load(SettingDownloadRetries saved) {
+        retries.clear();
+        if (saved != null && saved.retries != null) {
+            retries.putAll(saved.retries);
+        }
+    }
+
+    public synchronized SettingDownloadRetries getState() {
+        SettingDownloadRetries state = new SettingDownloadRetries();
+        state.retries.putAll(retries);
+        return state;
+    }
+
+    /**
+     * Record a failed download.
+     *
+     * @param retry the download to retry, the attempts are carried over from a previous failure of the file
+     * @return the scheduled retry, null if the error is permanent or the attempts are used up
+     */
+    public synchronized SettingDownloadRetries.Retry onFailure(String uniqueId,
+                                                               SettingDownloadRetries.Retry retry,
+                                                               String error,
+                                                               long now) {
+        ErrorClass errorClass = classify(error);
+        SettingDownloadRetries.Retry previous = retries.get(uniqueId);
+        retry.attempts = (previous == null ? 0 : previous.attempts) + 1;
+        retry.errorClass = errorClass.name();
+        retry.error = error;
+        if (retry.attempts > errorClass.maxAttempts) {
+            retries.remove(uniqueId);
+            return null;
+        }
+        retry.nextRetryAt = now + delay(errorClass, retry.attempts, error, random.nextDouble());
+        retries.put(uniqueId, retry);
+        return retry;
+    }
+
+    /**
+     * Retries of an account that are due, they are held back for {@link #IN_FLIGHT_TIME} while they run.
+     *
+     * @return uniqueId -> retry
+     */
+    public synchronized Map<String, SettingDownloadRetries.Retry> due(long telegramId, long now) {
+        Map<String, SettingDownloadRetries.Retry> due = new LinkedHashMap<>();
+        retries.entrySet().stream()
+                .filter(entry -> entry.getValue().telegramId == telegramId && entry.getValue().nextRetryAt <= now)
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().nextRetryAt))
+                .forEach(entry -> {
+                    entry.getValue().nextRetryAt = now + IN_FLIGHT_TIME;
+                    due.put(entry.getKey(), entry.getValue());
+                });
+        return due;
+    }
+
+    public synchronized SettingDownloadRetries.Retry get(String uniqueId) {
+        return retries.get(uniqueId);
+    }
+
+    public synchronized boolean remove(String uniqueId) {
+        return retries.remove(uniqueId) != null;
+    }
+
+    public synchronized JsonObject getStatistics(long telegramId) {
+        JsonObject byClass = JsonObject.of();
+        long nextRetryAt = 0;
+        int scheduled = 0;
+        for (SettingDownloadRetries.Retry retry : retries.values()) {
+            if (retry.telegramId != telegramId) {
+                continue;
+            }
+            scheduled++;
+            byClass.put(retry.errorClass, byClass.getInteger(retry.errorClass, 0) + 1);
+            nextRetryAt = nextRetryAt == 0 ? retry.nextRetryAt : Math.min(nextRetryAt, retry.nextRetryAt);
+        }
+        return JsonObject.of()
+                .put("scheduled", scheduled)
+                .put("byClass", byClass)
+                .put("nextRetryAt", nextRetryAt);
+    }
+}
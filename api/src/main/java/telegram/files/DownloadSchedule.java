@@ -0,0 +1,117 @@
+package telegram.files;
+
+import cn.hutool.core.collection.CollUtil;
+import telegram.files.repository.SettingTimeLimitedDownload;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Weekly windows in which automatic downloads run, parsed once from {@link SettingTimeLimitedDownload}.
+ * <p>
+ * The windows are merged into open intervals in seconds of the week. A window that ends at or before its start
+ * time ends the next day, one from 00:00 to 00:00 is the whole day.
+ */
+public class DownloadSchedule {
+
+    static final long DAY_SECONDS = 24 * 60 * 60;
+
+    static final long WEEK_SECONDS = 7 * DAY_SECONDS;
+
+    // Sorted, disjoint [start, end) intervals in seconds of the week
+    private final List<long[]> intervals;
+
+    private DownloadSchedule(List<long[]> intervals) {
+        this.intervals = intervals;
+    }
+
+    /**
+     * @return null if downloads are not limited in time
+     */
+    public static DownloadSchedule of(SettingTimeLimitedDownload setting) {
+        if (setting == null) {
+            return null;
+        }
+        List<SettingTimeLimitedDownload.Window> windows = setting.windows;
+        if (CollUtil.isEmpty(windows)) {
+            if (setting.startTime == null || setting.endTime == null) {
+                return null;
+            }
+            windows = List.of(new SettingTimeLimitedDownload.Window(setting.startTime, setting.endTime, null));
+        }
+
+        List<long[]> raw = new ArrayList<>();
+        for (SettingTimeLimitedDownload.Window window : windows) {
+            long start = LocalTime.parse(window.startTime).toSecondOfDay();
+            long end = LocalTime.parse(window.endTime).toSecondOfDay();
+            long duration = end > start ? end - start : DAY_SECONDS - start + end;
+            List<Integer> weekdays = CollUtil.isEmpty(window.weekdays)
+                    ? IntStream.rangeClosed(1, 7).boxed().toList()
+                    : window.weekdays;
+            for (Integer weekday : weekdays) {
+                if (weekday == null || weekday < 1 || weekday > 7) {
+                    continue;
+                }
+                long from = (weekday - 1) * DAY_SECONDS + start;
+                long to = from + duration;
+                if (to > WEEK_SECONDS) {
+                    raw.add(new long[]{from, WEEK_SECONDS});
+                    raw.add(new long[]{0, to - WEEK_SECONDS});
+                } else {
+                    raw.add(new long[]{from, to});
+                }
+            }
+        }
+        raw.sort(Comparator.comparingLong(interval -> interval[0]));
+
+        List<long[]> merged = new ArrayList<>();
+        for (long[] interval : raw) {
+            if (!merged.isEmpty() && interval[0] <= merged.getLast()[1]) {
+                merged.getLast()[1] = Math.max(merged.getLast()[1], interval[1]);
+            } else {
+                merged.add(interval);
+            }
+        }
+        if (merged.size() == 1 && merged.getFirst()[0] == 0 && merged.getFirst()[1] >= WEEK_SECONDS) {
+            return null;
+        }
+        return new DownloadSchedule(merged);
+    }
+
+    public boolean isOpen(LocalDateTime time) {
+        long second = secondOfWeek(time);
+        for (long[] interval : intervals) {
+            if (second >= interval[0] && second < interval[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Next time the schedule opens or closes after the given time, null if it never does.
+     */
+    public LocalDateTime nextBoundary(LocalDateTime time) {
+        if (intervals.isEmpty()) {
+            return null;
+        }
+        long second = secondOfWeek(time);
+        long next = Long.MAX_VALUE;
+        for (long[] interval : intervals) {
+            for (long boundary : interval) {
+                long distance = boundary > second ? boundary - second : boundary + WEEK_SECONDS - second;
+                next = Math.min(next, distance);
+            }
+        }
+        return time.truncatedTo(ChronoUnit.SECONDS).plusSeconds(next);
+    }
+
+    private static long secondOfWeek(LocalDateTime time) {
+        return (time.getDayOfWeek().getValue() - 1) * DAY_SECONDS + time.toLocalTime().toSecondOfDay();
+    }
+}
@@ -0,0 +1,75 @@
+package telegram.files;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory count of active downloads per telegram account.
+ * <p>
+ * Active downloads are tracked by file unique id, so repeated transitions for the same file are idempotent.
+ * Slots handed out for downloads that are still being started are reserved until the start completes.
+ */
+public class DownloadSlots {
+
+    // telegramId -> uniqueIds of downloading files
+    private final Map<Long, Set<String>> active = new ConcurrentHashMap<>();
+
+    // telegramId -> slots reserved for downloads being started
+    private final Map<Long, AtomicInteger> reserved = new ConcurrentHashMap<>();
+
+    /**
+     * Replace the active downloads of the account with the downloading files from the database.
+     */
+    public void reset(long telegramId, Collection<String> uniqueIds) {
+        Set<String> set = ConcurrentHashMap.newKeySet();
+        set.addAll(uniqueIds);
+        active.put(telegramId, set);
+    }
+
+    public boolean acquire(long telegramId, String uniqueId) {
+        return active.computeIfAbsent(telegramId, _ -> ConcurrentHashMap.newKeySet()).add(uniqueId);
+    }
+
+    /**
+     * @return true if the file was active, that is a slot has been freed
+     */
+    public boolean release(long telegramId, String uniqueId) {
+        Set<String> set = active.get(telegramId);
+        return set != null && set.remove(uniqueId);
+    }
+
+    /**
+     * Reserve up to {@code wanted} free slots, returns the number of slots reserved.
+     */
+    public int reserve(long telegramId, int limit, int wanted) {
+        AtomicInteger reservedCount = reserved.computeIfAbsent(telegramId, _ -> new AtomicInteger());
+        while (true) {
+            int current = reservedCount.get();
+            int free = limit - activeCount(telegramId) - current;
+            int granted = Math.max(0, Math.min(free, wanted));
+            if (granted == 0 || reservedCount.compareAndSet(current, current + granted)) {
+                return granted;
+            }
+        }
+    }
+
+    public void unreserve(long telegramId, int count) {
+        AtomicInteger reservedCount = reserved.get(telegramId);
+        if (reservedCount != null) {
+            reservedCount.updateAndGet(current -> Math.max(0, current - count));
+        }
+    }
+
+    public int activeCount(long telegramId) {
+        Set<String> set = active.get(telegramId);
+        return set == null ? 0 : set.size();
+    }
+
+    public int surplus(long telegramId, int limit) {
+        AtomicInteger reservedCount = reserved.get(telegramId);
+        return Math.max(0, limit - activeCount(telegramId) - (reservedCount == null ? 0 : reservedCount.get()));
+    }
+}
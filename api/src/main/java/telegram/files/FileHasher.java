@@ -0,0 +1,164 @@
+package telegram.files;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import io.vertx.core.Future;
+import telegram.files.repository.FileHashRecord;
+import telegram.files.repository.FileHashRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content hashes of local files, read in chunks on a small pool of I/O threads.
+ * <p>
+ * A hash is saved in the index with the size and modification time of the file, and is read from there while both
+ * are unchanged, so a file is hashed once however many times it is compared.
+ */
+public class FileHasher {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    public enum Algorithm {
+        XXH64, SHA_256, MD5;
+
+        /**
+         * @param name e.g. xxh64, sha-256, md5, null for XXH64
+         */
+        public static Algorithm of(String name) {
+            if (StrUtil.isBlank(name)) {
+                return XXH64;
+            }
+            String normalized = name.trim().toUpperCase().replace("-", "").replace("_", "");
+            return switch (normalized) {
+                case "XXH64", "XXHASH64" -> XXH64;
+                case "SHA256" -> SHA_256;
+                case "MD5" -> MD5;
+                default -> throw new IllegalArgumentException("Unknown hash algorithm: " + name);
+            };
+        }
+    }
+
+    private static final ExecutorService EXECUTOR = newExecutor(Config.TRANSFER_HASH_THREADS);
+
+    private final Algorithm algorithm;
+
+    private final FileHashRepository index;
+
+    private final Executor executor;
+
+    /**
+     * @param index null to hash the files each time
+     */
+    public FileHasher(Algorithm algorithm, FileHashRepository index) {
+        this(algorithm, index, EXECUTOR);
+    }
+
+    FileHasher(Algorithm algorithm, FileHashRepository index, Executor executor) {
+        this.algorithm = algorithm;
+        this.index = index;
+        this.executor = executor;
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "file-hasher-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Hash the whole file, reading it in chunks so that neither the heap nor the address space limits its size.
+     */
+    public static String hash(Path path, Algorithm algorithm) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            if (algorithm == Algorithm.XXH64) {
+                XxHash64 xxHash64 = new XxHash64();
+                while (channel.read(buffer.clear()) >= 0) {
+                    xxHash64.update(buffer.flip());
+                }
+                return "%016x".formatted(xxHash64.digest());
+            }
+            MessageDigest digest = MessageDigest.getInstance(algorithm == Algorithm.MD5 ? "MD5" : "SHA-256");
+            while (channel.read(buffer.clear()) >= 0) {
+                digest.update(buffer.flip());
+            }
+            return HexUtil.encodeHexStr(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hash of the file from the index, else read on the I/O threads and saved.
+     */
+    public CompletableFuture<String> hash(Path path) {
+        long size;
+        long modifiedAt;
+        try {
+            size = Files.size(path);
+            modifiedAt = Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        String key = path.toAbsolutePath().normalize().toString();
+        boolean indexed = index != null && key.length() <= FileHashRecord.MAX_PATH_LENGTH;
+        FileHashRecord record = indexed ? join(index.getByPath(key).otherwiseEmpty()) : null;
+        if (record != null && record.matches(size, modifiedAt, algorithm.name())) {
+            return CompletableFuture.completedFuture(record.hashValue());
+        }
+        return read(path).thenApply(hash -> {
+            if (indexed) {
+                index.createOrUpdate(new FileHashRecord(key, size, modifiedAt, algorithm.name(), hash));
+            }
+            return hash;
+        });
+    }
+
+    /**
+     * Whether a file has the same content as an existing one, files of different sizes are not read.
+     * The file is hashed each time, it's about to be moved, the existing one is looked up in the index.
+     */
+    public boolean isSameContent(Path file, Path existing) throws IOException {
+        if (Files.size(file) != Files.size(existing)) {
+            return false;
+        }
+        CompletableFuture<String> fileHash = read(file);
+        CompletableFuture<String> existingHash = hash(existing);
+        try {
+            return fileHash.join().equals(existingHash.join());
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof UncheckedIOException io ? io.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private CompletableFuture<String> read(Path path) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return hash(path, algorithm);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private static <T> T join(Future<T> future) {
+        return future.toCompletionStage().toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,248 @@
+package telegram.files;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.json.JsonObject;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves a file with the cheapest method the file systems allow, in order:
+ * <ol>
+ *     <li>rename, in the same file system</li>
+ *     <li>reflink, a copy on write clone where the file systems share their blocks, e.g. btrfs subvolumes or XFS</li>
+ *     <li>copy, in chunks with {@link FileChannel#transferTo}</li>
+ * </ol>
+ * A copy is written to {@code <target>.part} and renamed to the target once it is synced to disk. Its offset is
+ * saved in {@code <target>.part.progress} every {@link #syncInterval} bytes, after the data is synced, so a copy
+ * interrupted by a restart goes on from that offset instead of from the start. A clone is made as
+ * {@code <target>.link}, never as the partial copy: a clone shares the data of the source, it must not be resumed.
+ */
+public class FileMover {
+
+    private static final Log log = LogFactory.get();
+
+    public enum Method {
+        RENAME, REFLINK, COPY
+    }
+
+    public interface Progress {
+        void update(long copied, long size);
+    }
+
+    static final String PART_SUFFIX = ".part";
+
+    static final String PROGRESS_SUFFIX = ".part.progress";
+
+    static final String LINK_SUFFIX = ".link";
+
+    private static final long COPY_CHUNK_SIZE = 1 << 20;
+
+    private static final long PROGRESS_INTERVAL = 1000;
+
+    private static final long REFLINK_TIMEOUT_SECONDS = 60;
+
+    // Errors of cp when the file systems can't share blocks, other failures e.g. a timeout may not happen again
+    private static final List<String> REFLINK_UNSUPPORTED_ERRORS = List.of(
+            "Operation not supported", "Invalid cross-device link", "Inappropriate ioctl for device");
+
+    // "source store -> target store" pairs that can't reflink, not tried again
+    private static final Set<String> reflinkUnsupported = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Copy speed limit in bytes, null is unlimited
+     */
+    public RateBudget bandwidth;
+
+    public boolean reflink = System.getProperty("os.name", "").startsWith("Linux");
+
+    /**
+     * Bytes copied between two syncs to disk
+     */
+    public long syncInterval = 64L << 20;
+
+    /**
+     * @param isOverwrite replace the target if it exists, else {@link FileAlreadyExistsException} is thrown
+     * @param progress    told the bytes copied about every second, may be null
+     */
+    public Method move(Path source, Path target, boolean isOverwrite, Progress progress) throws IOException, InterruptedException {
+        if (!isOverwrite && Files.exists(target)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return Method.RENAME;
+        } catch (AtomicMoveNotSupportedException e) {
+            log.trace("Rename {} to {} not supported: {}", source, target, e.getMessage());
+        }
+
+        Path link = siblingOf(target, LINK_SUFFIX);
+        if (reflink && reflink(source, link)) {
+            commit(source, link, target);
+            return Method.REFLINK;
+        }
+        Path temp = siblingOf(target, PART_SUFFIX);
+        copy(source, temp, siblingOf(target, PROGRESS_SUFFIX), progress);
+        commit(source, temp, target);
+        return Method.COPY;
+    }
+
+    private boolean reflink(Path source, Path link) throws InterruptedException {
+        String stores = TransferWorkers.storeKey(source) + " -> " + TransferWorkers.storeKey(link);
+        if (reflinkUnsupported.contains(stores)) {
+            return false;
+        }
+        try {
+            Process process = new ProcessBuilder("cp", "--reflink=always", "--", source.toString(), link.toString())
+                    .redirectErrorStream(true)
+                    .start();
+            if (!process.waitFor(REFLINK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                log.debug("Reflink {} timed out", source);
+            } else if (process.exitValue() == 0 && Files.size(link) == Files.size(source)) {
+                return true;
+            } else {
+                String output = new String(process.getInputStream().readAllBytes()).trim();
+                if (isReflinkUnsupported(output)) {
+                    reflinkUnsupported.add(stores);
+                }
+                log.debug("Reflink {} failed: {}", source, output);
+            }
+        } catch (IOException e) {
+            log.trace("Reflink {} failed: {}", source, e.getMessage());
+        }
+        deleteQuietly(link);
+        return false;
+    }
+
+    static boolean isReflinkUnsupported(String output) {
+        return REFLINK_UNSUPPORTED_ERRORS.stream().anyMatch(output::contains);
+    }
+
+    /**
+     * Copy into the temporary file, resuming from the saved offset if it is a copy of the same source.
+     */
+    void copy(Path source, Path temp, Path progressFile, Progress progress) throws IOException, InterruptedException {
+        long size = Files.size(source);
+        long modified = Files.getLastModifiedTime(source).toMillis();
+        long position = loadOffset(progressFile, source, size, modified, temp);
+        if (position > 0) {
+            log.info("Resume copy of {} at {} of {} bytes", source, position, size);
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Drop whatever was written after the last sync
+            out.truncate(position);
+            long syncedAt = position;
+            long reportedAt = 0;
+            while (position < size) {
+                long chunk = Math.min(COPY_CHUNK_SIZE, size - position);
+                RateBudget budget = bandwidth;
+                if (budget != null) {
+                    long wait = budget.reserve(System.currentTimeMillis(), chunk);
+                    if (wait > 0) {
+                        Thread.sleep(wait);
+                    }
+                }
+                long transferred = in.transferTo(position, chunk, out.position(position));
+                if (transferred <= 0) {
+                    throw new EOFException("File %s is shorter than %d".formatted(source, size));
+                }
+                position += transferred;
+                if (position - syncedAt >= syncInterval && position < size) {
+                    out.force(false);
+                    saveOffset(progressFile, source, size, modified, position);
+                    syncedAt = position;
+                }
+                long now = System.currentTimeMillis();
+                if (progress != null && now - reportedAt >= PROGRESS_INTERVAL) {
+                    progress.update(position, size);
+                    reportedAt = now;
+                }
+            }
+            out.force(true);
+        }
+        if (progress != null) {
+            progress.update(size, size);
+        }
+        Files.deleteIfExists(progressFile);
+    }
+
+    /**
+     * Sync the temporary file, rename it to the target and drop the source.
+     */
+    private static void commit(Path source, Path temp, Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.getParent());
+        Files.delete(source);
+    }
+
+    private static long loadOffset(Path progressFile, Path source, long size, long modified, Path temp) {
+        try {
+            if (!Files.exists(progressFile) || !Files.exists(temp)) {
+                return 0;
+            }
+            JsonObject saved = new JsonObject(Files.readString(progressFile));
+            long offset = saved.getLong("offset", 0L);
+            if (!Objects.equals(saved.getString("source"), source.toString())
+                || saved.getLong("size", -1L) != size
+                || saved.getLong("modified", -1L) != modified
+                || offset > size
+                || Files.size(temp) < offset) {
+                return 0;
+            }
+            return offset;
+        } catch (Exception e) {
+            log.debug("Ignore copy progress {}: {}", progressFile, e.getMessage());
+            return 0;
+        }
+    }
+
+    private static void saveOffset(Path progressFile, Path source, long size, long modified, long offset) throws IOException {
+        Path temp = siblingOf(progressFile, ".tmp");
+        Files.writeString(temp, JsonObject.of()
+                .put("source", source.toString())
+                .put("size", size)
+                .put("modified", modified)
+                .put("offset", offset)
+                .encode());
+        Files.move(temp, progressFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void syncDirectory(Path directory) {
+        // Not every platform can open a directory, the rename is durable there once the file system syncs
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.trace("Sync directory {} failed: {}", directory, e.getMessage());
+        }
+    }
+
+    private static Path siblingOf(Path path, String suffix) {
+        return path.resolveSibling(path.getFileName().toString() + suffix);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.trace("Delete {} failed: {}", path, e.getMessage());
+        }
+    }
+}
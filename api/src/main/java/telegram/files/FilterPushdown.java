@@ -0,0 +1,288 @@
+package telegram.files;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Pulls the simple conjuncts out of a filter expression, so a scan can be pruned before messages are fetched.
+ * <p>
+ * The expression is split on its top level {@code &&}, each conjunct that has one of these shapes is pushed down:
+ * <ul>
+ *     <li>{@code f.type() == 'video'} or {@code f.type() =~ ['photo', 'video']}: file types to scan</li>
+ *     <li>{@code date >= 1700000000} or {@code f.date() >= ...}: oldest date to scan, in seconds</li>
+ * </ul>
+ * The file types are enforced exactly by the scan, the date conjuncts stay in the residual expression that
+ * {@link MessageFilter} still evaluates. A conjunct that is not understood is never pushed down, and nothing is
+ * pushed down from an expression with a top level {@code ||}, {@code or} or {@code ?:}.
+ */
+public class FilterPushdown {
+
+    private static final Pattern TYPE_EQUALS = Pattern.compile("^f\\.type(?:\\(\\))?\\s*==\\s*(['\"])(\\w+)\\1$");
+
+    private static final Pattern TYPE_IN = Pattern.compile("^f\\.type(?:\\(\\))?\\s*=~\\s*\\[(.*)]$");
+
+    private static final Pattern QUOTED = Pattern.compile("(['\"])(\\w+)\\1");
+
+    private static final Pattern MIN_DATE = Pattern.compile("^(?:date|f\\.date(?:\\(\\))?)\\s*(>=|>)\\s*(\\d+)$");
+
+    private static final Set<String> FILE_TYPES = Set.of("photo", "video", "audio", "file");
+
+    private Set<String> fileTypes;
+
+    private long minDate = -1;
+
+    private final List<String> residual = new ArrayList<>();
+
+    private FilterPushdown() {
+    }
+
+    public static FilterPushdown analyze(String expr) {
+        FilterPushdown pushdown = new FilterPushdown();
+        if (StrUtil.isBlank(expr)) {
+            return pushdown;
+        }
+        List<String> conjuncts = splitConjuncts(expr);
+        if (conjuncts == null) {
+            pushdown.residual.add(expr.strip());
+            return pushdown;
+        }
+        for (String conjunct : conjuncts) {
+            if (!pushdown.push(conjunct)) {
+                pushdown.residual.add(conjunct);
+            }
+        }
+        return pushdown;
+    }
+
+    /**
+     * @return true if the conjunct is enforced by the pushdown and can be dropped from the residual
+     */
+    private boolean push(String conjunct) {
+        Matcher matcher;
+        if ((matcher = TYPE_EQUALS.matcher(conjunct)).matches()) {
+            return restrictTypes(Set.of(matcher.group(2)));
+        }
+        if ((matcher = TYPE_IN.matcher(conjunct)).matches()) {
+            Set<String> types = new HashSet<>();
+            Matcher quoted = QUOTED.matcher(matcher.group(1));
+            while (quoted.find()) {
+                types.add(quoted.group(2));
+            }
+            String rest = QUOTED.matcher(matcher.group(1)).replaceAll("").replace(",", "").strip();
+            return rest.isEmpty() && !types.isEmpty() && restrictTypes(types);
+        }
+        if ((matcher = MIN_DATE.matcher(conjunct)).matches()) {
+            long value = Long.parseLong(matcher.group(2));
+            minDate = Math.max(minDate, ">".equals(matcher.group(1)) ? value + 1 : value);
+            return false;
+        }
+        return false;
+    }
+
+    private boolean restrictTypes(Set<String> types) {
+        if (!FILE_TYPES.containsAll(types)) {
+            return false;
+        }
+        if (fileTypes == null) {
+            fileTypes = new HashSet<>(types);
+        } else {
+            fileTypes.retainAll(types);
+        }
+        return true;
+    }
+
+    /**
+     * Split on the top level {@code &&} or {@code and}, outside of strings and brackets.
+     *
+     * @return null if the expression can not be split, e.g. it has unbalanced brackets or quotes, or a top level
+     * {@code ||}, {@code or} or {@code ?:} that binds looser than {@code &&}
+     */
+    static List<String> splitConjuncts(String expr) {
+        String stripped = stripOuterParentheses(expr.strip());
+        if (stripped == null) {
+            return null;
+        }
+        List<String> conjuncts = new ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < stripped.length(); i++) {
+            char c = stripped.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            switch (c) {
+                case '\'', '"' -> quote = c;
+                case '(', '[', '{' -> depth++;
+                case ')', ']', '}' -> depth--;
+                default -> {
+                    if (depth == 0 && isLooserOperator(stripped, i)) {
+                        return null;
+                    }
+                    if (depth == 0) {
+                        int length = separatorLength(stripped, i);
+                        if (length > 0) {
+                            conjuncts.add(stripped.substring(start, i));
+                            start = i + length;
+                            i = start - 1;
+                        }
+                    }
+                }
+            }
+            if (depth < 0) {
+                return null;
+            }
+        }
+        if (quote != 0 || depth != 0) {
+            return null;
+        }
+        conjuncts.add(stripped.substring(start));
+
+        List<String> result = new ArrayList<>();
+        for (String conjunct : conjuncts) {
+            String trimmed = conjunct.strip();
+            if (trimmed.isEmpty()) {
+                return null;
+            }
+            String inner = stripOuterParentheses(trimmed);
+            if (inner != null && !inner.equals(trimmed)) {
+                List<String> nested = splitConjuncts(inner);
+                if (nested == null) {
+                    result.add(inner);
+                } else {
+                    result.addAll(nested);
+                }
+            } else {
+                result.add(trimmed);
+            }
+        }
+        return result;
+    }
+
+    private static int separatorLength(String expr, int index) {
+        if (expr.startsWith("&&", index)) {
+            return 2;
+        }
+        // Not a member access, e.g. x.and(y)
+        if (isWord(expr, index, "and") && (index == 0 || expr.charAt(index - 1) != '.')) {
+            return 3;
+        }
+        return 0;
+    }
+
+    private static boolean isLooserOperator(String expr, int index) {
+        return expr.startsWith("||", index) || expr.charAt(index) == '?' || isWord(expr, index, "or");
+    }
+
+    /**
+     * Whether the keyword is at the index as a whole word, e.g. {@code x or(y)} or {@code (a)or (b)}, not in {@code order}.
+     */
+    private static boolean isWord(String expr, int index, String word) {
+        int end = index + word.length();
+        return expr.startsWith(word, index)
+               && (index == 0 || !isIdentifierChar(expr.charAt(index - 1)))
+               && (end == expr.length() || !isIdentifierChar(expr.charAt(end)));
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Remove brackets around the whole expression, null if they are unbalanced.
+     */
+    private static String stripOuterParentheses(String expr) {
+        while (expr.startsWith("(") && expr.endsWith(")")) {
+            int depth = 0;
+            char quote = 0;
+            boolean wrapsAll = true;
+            for (int i = 0; i < expr.length(); i++) {
+                char c = expr.charAt(i);
+                if (quote != 0) {
+                    if (c == '\\') {
+                        i++;
+                    } else if (c == quote) {
+                        quote = 0;
+                    }
+                    continue;
+                }
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                    if (depth == 0 && i < expr.length() - 1) {
+                        wrapsAll = false;
+                        break;
+                    }
+                }
+                if (depth < 0) {
+                    return null;
+                }
+            }
+            if (!wrapsAll) {
+                break;
+            }
+            expr = expr.substring(1, expr.length() - 1).strip();
+        }
+        return expr;
+    }
+
+    /**
+     * Restrict the file types of a rule to the pushed down types, {@code media} is kept for photo and video.
+     */
+    public List<String> restrictFileTypes(List<String> ruleFileTypes) {
+        if (fileTypes == null) {
+            return ruleFileTypes;
+        }
+        List<String> restricted = new ArrayList<>();
+        for (String fileType : ruleFileTypes) {
+            if ("media".equals(fileType)) {
+                if (fileTypes.contains("photo") && fileTypes.contains("video")) {
+                    restricted.add(fileType);
+                } else if (fileTypes.contains("photo")) {
+                    restricted.add("photo");
+                } else if (fileTypes.contains("video")) {
+                    restricted.add("video");
+                }
+            } else if (fileTypes.contains(fileType)) {
+                restricted.add(fileType);
+            }
+        }
+        return restricted.stream().distinct().toList();
+    }
+
+    /**
+     * Expression left to evaluate on each message, null if everything was pushed down.
+     */
+    public String getResidual() {
+        if (residual.isEmpty()) {
+            return null;
+        }
+        if (residual.size() == 1) {
+            return residual.getFirst();
+        }
+        return residual.stream().map(conjunct -> "(" + conjunct + ")").collect(Collectors.joining(" && "));
+    }
+
+    /**
+     * Oldest message date to scan, in seconds, -1 if unbounded. Older messages can not match.
+     */
+    public long getMinDate() {
+        return minDate;
+    }
+
+    public Set<String> getFileTypes() {
+        return fileTypes == null ? null : Collections.unmodifiableSet(fileTypes);
+    }
+}
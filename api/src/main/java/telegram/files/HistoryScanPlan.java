@@ -0,0 +1,285 @@
+package telegram.files;
+
+import cn.hutool.core.util.StrUtil;
+import org.drinkless.tdlib.TdApi;
+import telegram.files.repository.SettingHistoryScanCheckpoints;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides how the history of one chat is read and keeps its cursors.
+ * <p>
+ * A chat can be read by a single pass of {@code GetChatHistory}, classifying the messages locally, or by
+ * {@code SearchChatMessages} with one filter per file type, interleaved and each with its own cursor.
+ * A single pass reads every message once, a filtered search only reads the matching ones but in smaller pages,
+ * so the cheaper one depends on the share of messages with files, which is learned from the pages read.
+ * <p>
+ * Both modes keep the per file type checkpoints, so switching mode never skips messages: the single pass
+ * starts from the least advanced cursor and advances every cursor it passes.
+ */
+public class HistoryScanPlan {
+
+    public static final int SEARCH_PAGE_SIZE = 30;
+
+    public static final int HISTORY_PAGE_SIZE = 100;
+
+    /**
+     * Relative cost margin before switching mode, avoids flapping around the break even density.
+     */
+    static final double SWITCH_MARGIN = 0.2;
+
+    static final double DENSITY_SMOOTHING = 0.3;
+
+    public enum Mode {
+        SEARCH,
+        HISTORY
+    }
+
+    public record Step(Mode mode, String fileType, long fromMessageId) {
+    }
+
+    private final String scanKey;
+
+    private final List<String> fileTypes;
+
+    private final String query;
+
+    private final String filterExpr;
+
+    private final boolean historyAllowed;
+
+    private final SettingHistoryScanCheckpoints checkpoints;
+
+    private final Density density;
+
+    private int nextTypeIndex;
+
+    private long minDate = -1;
+
+    /**
+     * @param historyAllowed false if the chat can only be searched, e.g. a query or a comment thread is scanned
+     * @param density        observed density of the chat, kept by the caller between scans
+     */
+    public HistoryScanPlan(String scanKey,
+                           List<String> fileTypes,
+                           String query,
+                           String filterExpr,
+                           boolean historyAllowed,
+                           SettingHistoryScanCheckpoints checkpoints,
+                           Density density) {
+        this.scanKey = scanKey;
+        this.fileTypes = fileTypes;
+        this.query = query;
+        this.filterExpr = filterExpr;
+        this.historyAllowed = historyAllowed && StrUtil.isBlank(query);
+        this.checkpoints = checkpoints;
+        this.density = density;
+    }
+
+    /**
+     * Observed share of messages with files, by file type.
+     */
+    public static class Density {
+        private final Map<String, Double> byType = new ConcurrentHashMap<>();
+
+        private volatile Mode mode;
+
+        void observe(String fileType, double sample) {
+            byType.merge(fileType, sample, (old, value) -> old + DENSITY_SMOOTHING * (value - old));
+        }
+
+        public double get(List<String> fileTypes) {
+            return fileTypes.stream().mapToDouble(fileType -> byType.getOrDefault(fileType, 0.0)).sum();
+        }
+
+        public boolean isEmpty() {
+            return byType.isEmpty();
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+    }
+
+    /**
+     * Stop the scan at messages sent before the date, in seconds, -1 to scan to the first message.
+     */
+    public void setMinDate(long minDate) {
+        this.minDate = minDate;
+    }
+
+    public String checkpointKey(String fileType) {
+        return SettingHistoryScanCheckpoints.key(scanKey, fileType, query, filterExpr);
+    }
+
+    public boolean isComplete() {
+        return fileTypes.stream().allMatch(fileType -> checkpoints.isComplete(checkpointKey(fileType)));
+    }
+
+    /**
+     * The next page to read, null if every file type is fully scanned.
+     */
+    public Step next() {
+        List<String> incomplete = incompleteTypes();
+        if (incomplete.isEmpty()) {
+            return null;
+        }
+        if (chooseMode(incomplete) == Mode.HISTORY) {
+            // Start from the least advanced cursor, 0 is the newest message
+            long fromMessageId = 0;
+            for (String fileType : incomplete) {
+                long cursor = cursor(fileType);
+                if (cursor == 0) {
+                    fromMessageId = 0;
+                    break;
+                }
+                fromMessageId = Math.max(fromMessageId, cursor);
+            }
+            return new Step(Mode.HISTORY, null, fromMessageId);
+        }
+        String fileType = incomplete.get(nextTypeIndex++ % incomplete.size());
+        return new Step(Mode.SEARCH, fileType, cursor(fileType));
+    }
+
+    /**
+     * Advance the cursors by a page read for the step, returns the messages whose files match the file types.
+     *
+     * @param nextFromMessageId next cursor returned by a search, ignored for a single pass
+     */
+    public List<TdApi.Message> accept(Step step, TdApi.Message[] messages, long nextFromMessageId) {
+        return switch (step.mode) {
+            case SEARCH -> acceptSearch(step, messages, nextFromMessageId);
+            case HISTORY -> acceptHistory(step, messages);
+        };
+    }
+
+    private List<TdApi.Message> acceptSearch(Step step, TdApi.Message[] messages, long nextFromMessageId) {
+        String checkpointKey = checkpointKey(step.fileType);
+        if (messages.length == 0) {
+            checkpoints.put(checkpointKey, step.fromMessageId, true);
+            return List.of();
+        }
+        long newestId = step.fromMessageId == 0 ? messages[0].id : step.fromMessageId;
+        density.observe(step.fileType, messages.length / (double) messageSpan(newestId, messages[messages.length - 1].id));
+        checkpoints.put(checkpointKey, nextFromMessageId, nextFromMessageId == 0 || isBeforeMinDate(messages));
+        return List.of(messages);
+    }
+
+    private List<TdApi.Message> acceptHistory(Step step, TdApi.Message[] messages) {
+        List<String> incomplete = incompleteTypes();
+        if (messages.length == 0) {
+            incomplete.forEach(fileType -> checkpoints.put(checkpointKey(fileType), step.fromMessageId, true));
+            return List.of();
+        }
+        List<TdApi.Message> matched = new ArrayList<>();
+        int[] counts = new int[fileTypes.size()];
+        for (TdApi.Message message : messages) {
+            String type = MessageDescriptor.of(message).map(MessageDescriptor::type).orElse(null);
+            if (type == null) {
+                continue;
+            }
+            boolean isMatched = false;
+            for (int i = 0; i < fileTypes.size(); i++) {
+                if (matchesType(fileTypes.get(i), type)) {
+                    counts[i]++;
+                    isMatched = true;
+                }
+            }
+            if (isMatched) {
+                matched.add(message);
+            }
+        }
+        for (int i = 0; i < fileTypes.size(); i++) {
+            density.observe(fileTypes.get(i), counts[i] / (double) messages.length);
+        }
+
+        long oldestId = messages[messages.length - 1].id;
+        boolean complete = isBeforeMinDate(messages);
+        for (String fileType : incomplete) {
+            long cursor = cursor(fileType);
+            if (complete || cursor == 0 || cursor > oldestId) {
+                checkpoints.put(checkpointKey(fileType), oldestId, complete);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Copy of the checkpoints of the file types, to undo a page that could not be queued.
+     */
+    public Map<String, SettingHistoryScanCheckpoints.Checkpoint> snapshot() {
+        Map<String, SettingHistoryScanCheckpoints.Checkpoint> snapshot = new HashMap<>();
+        for (String fileType : fileTypes) {
+            String checkpointKey = checkpointKey(fileType);
+            snapshot.put(checkpointKey, checkpoints.get(checkpointKey));
+        }
+        return snapshot;
+    }
+
+    public void restore(Map<String, SettingHistoryScanCheckpoints.Checkpoint> snapshot) {
+        snapshot.forEach((checkpointKey, checkpoint) -> {
+            if (checkpoint == null) {
+                checkpoints.checkpoints.remove(checkpointKey);
+            } else {
+                checkpoints.checkpoints.put(checkpointKey, checkpoint);
+            }
+        });
+    }
+
+    /**
+     * Pages are newest first, once the oldest message of a page is before the date no older message can match.
+     */
+    private boolean isBeforeMinDate(TdApi.Message[] messages) {
+        return minDate > 0 && messages[messages.length - 1].date < minDate;
+    }
+
+    private Mode chooseMode(List<String> incomplete) {
+        Mode mode;
+        if (!historyAllowed) {
+            mode = Mode.SEARCH;
+        } else if (density.isEmpty()) {
+            // One page of history is a cheap sample of the chat
+            mode = Mode.HISTORY;
+        } else {
+            // Calls per message: 1 / HISTORY_PAGE_SIZE for a single pass, density / SEARCH_PAGE_SIZE for searches
+            double ratio = density.get(incomplete) * HISTORY_PAGE_SIZE / SEARCH_PAGE_SIZE;
+            Mode current = density.mode;
+            if (current == Mode.HISTORY) {
+                mode = ratio < 1 - SWITCH_MARGIN ? Mode.SEARCH : Mode.HISTORY;
+            } else if (current == Mode.SEARCH) {
+                mode = ratio > 1 + SWITCH_MARGIN ? Mode.HISTORY : Mode.SEARCH;
+            } else {
+                mode = ratio >= 1 ? Mode.HISTORY : Mode.SEARCH;
+            }
+        }
+        density.mode = mode;
+        return mode;
+    }
+
+    private List<String> incompleteTypes() {
+        return fileTypes.stream()
+                .filter(fileType -> !checkpoints.isComplete(checkpointKey(fileType)))
+                .toList();
+    }
+
+    private long cursor(String fileType) {
+        SettingHistoryScanCheckpoints.Checkpoint checkpoint = checkpoints.get(checkpointKey(fileType));
+        return checkpoint == null ? 0 : checkpoint.fromMessageId;
+    }
+
+    static boolean matchesType(String fileType, String messageType) {
+        return fileType.equals(messageType)
+               || ("media".equals(fileType) && ("photo".equals(messageType) || "video".equals(messageType)));
+    }
+
+    /**
+     * Number of messages between two message ids, server message ids are shifted left by 20 bits.
+     */
+    static long messageSpan(long newestId, long oldestId) {
+        return Math.max(1, ((newestId - oldestId) >> 20) + 1);
+    }
+}
@@ -63,6 +63,7 @@ public class HttpVerticle extends AbstractVerticle {
                 .compose(_ -> initAutoDownloadVerticle())
                 .compose(_ -> initTransferVerticle())
                 .compose(_ -> initPreloadMessageVerticle())
+                .compose(_ -> initMessageCatchUpVerticle())
                 .compose(_ -> initEventConsumer())
                 .onSuccess(startPromise::complete)
                 .onFailure(startPromise::fail);
@@ -156,9 +157,11 @@ public class HttpVerticle extends AbstractVerticle {
         router.post("/telegram/:telegramId/toggle-proxy").handler(this::handleTelegramToggleProxy);
         router.get("/telegram/:telegramId/ping").handler(this::handleTelegramPing);
         router.get("/telegram/:telegramId/test-network").handler(this::handleTelegramTestNetwork);
+        router.get("/telegram/:telegramId/client-metrics").handler(this::handleTelegramClientMetrics);
 
         router.get("/:telegramId/file/:uniqueId").handler(this::handleFilePreview);
         router.post("/:telegramId/file/start-download").handler(this::handleFileStartDownload);
+        router.post("/:telegramId/file/start-download-links").handler(this::handleFileStartDownloadLinks);
         router.post("/:telegramId/file/cancel-download").handler(this::handleFileCancelDownload);
         router.post("/:telegramId/file/toggle-pause-download").handler(this::handleFileTogglePauseDownload);
         router.post("/:telegramId/file/remove").handler(this::handleFileRemove);
@@ -214,6 +217,11 @@ public class HttpVerticle extends AbstractVerticle {
                 .mapEmpty();
     }
 
+    public Future<Void> initMessageCatchUpVerticle() {
+        return vertx.deployVerticle(new MessageCatchUpVerticle(), Config.VIRTUAL_THREAD_DEPLOYMENT_OPTIONS)
+                .mapEmpty();
+    }
+
     private Future<Void> initEventConsumer() {
         vertx.eventBus().consumer(EventEnum.TELEGRAM_EVENT.address(), message -> {
             log.debug("Received telegram event: %s".formatted(message.body()));
@@ -506,6 +514,20 @@ public class HttpVerticle extends AbstractVerticle {
                 );
     }
 
+    private void handleTelegramClientMetrics(RoutingContext ctx) {
+        String telegramId = ctx.pathParam("telegramId");
+        if (StrUtil.isBlank(telegramId)) {
+            ctx.fail(400);
+            return;
+        }
+        TelegramVerticles.get(telegramId)
+                .filter(telegramVerticle -> telegramVerticle.client != null)
+                .ifPresentOrElse(telegramVerticle ->
+                                ctx.json(telegramVerticle.client.getMetrics().toJson()),
+                        () -> ctx.fail(404)
+                );
+    }
+
     private void handleTelegramTestNetwork(RoutingContext ctx) {
         String telegramId = ctx.pathParam("telegramId");
         if (StrUtil.isBlank(telegramId)) {
@@ -522,8 +544,7 @@ public class HttpVerticle extends AbstractVerticle {
     }
 
     private void handleTelegramApiMethods(RoutingContext ctx) {
-        Map<String, Class<TdApi.Function<?>>> functions = TdApiHelp.getFunctions();
-        ctx.json(JsonObject.of("methods", functions.keySet()));
+        ctx.json(JsonObject.of("methods", TdApiHelp.getFunctionNames()));
     }
 
     private void handleTelegramApiMethodParameters(RoutingContext ctx) {
@@ -587,6 +608,27 @@ public class HttpVerticle extends AbstractVerticle {
                 .onFailure(ctx::fail);
     }
 
+    /**
+     * Results are streamed as one json object per line, in the order they are known.
+     */
+    private void handleFileStartDownloadLinks(RoutingContext ctx) {
+        TelegramVerticle telegramVerticle = TelegramVerticles.getOrElseThrow(ctx.pathParam("telegramId"));
+
+        JsonArray links = ctx.body().asJsonObject().getJsonArray("links");
+        if (CollUtil.isEmpty(links)) {
+            ctx.fail(400);
+            return;
+        }
+
+        HttpServerResponse response = ctx.response()
+                .setChunked(true)
+                .putHeader("Content-Type", "application/x-ndjson");
+        telegramVerticle.startDownloadLinks(links.stream().map(String::valueOf).toList(),
+                        result -> response.write(result.encode() + "\n"))
+                .onFailure(e -> response.write(JsonObject.of("error", e.getMessage()).encode() + "\n"))
+                .onComplete(_ -> response.end());
+    }
+
     private void handleFileCancelDownload(RoutingContext ctx) {
         TelegramVerticle telegramVerticle = TelegramVerticles.getOrElseThrow(ctx.pathParam("telegramId"));
 
@@ -638,15 +680,58 @@ public class HttpVerticle extends AbstractVerticle {
     }
 
     private void handleFileStartDownloadMultiple(RoutingContext ctx) {
-        handleFileMultiple(ctx, (telegramVerticle, file) -> {
+        JsonObject jsonObject = ctx.body().asJsonObject();
+        JsonArray files = jsonObject.getJsonArray("files");
+        if (CollUtil.isEmpty(files)) {
+            ctx.fail(400);
+            return;
+        }
+        Map<Long, List<TelegramVerticle.DownloadRequest>> requestsByTelegramId = new LinkedHashMap<>();
+        for (Object f : files) {
+            JsonObject file = (JsonObject) f;
+            Long telegramId = file.getLong("telegramId");
             Long chatId = file.getLong("chatId");
             Long messageId = file.getLong("messageId");
             Integer fileId = file.getInteger("fileId");
-            if (chatId == null || messageId == null || fileId == null) {
-                return Future.failedFuture("Invalid parameters");
+            if (telegramId == null || chatId == null || messageId == null || fileId == null) {
+                ctx.fail(400);
+                return;
             }
-            return telegramVerticle.startDownload(chatId, messageId, fileId);
-        });
+            requestsByTelegramId.computeIfAbsent(telegramId, _ -> new ArrayList<>())
+                    .add(new TelegramVerticle.DownloadRequest(chatId, messageId, fileId));
+        }
+
+        Future.all(requestsByTelegramId.entrySet()
+                        .stream()
+                        .map(entry -> TelegramVerticles.getOrElseThrow(entry.getKey()).startDownloads(entry.getValue()))
+                        .toList()
+                )
+                .map(r -> r.<List<TelegramVerticle.DownloadOutcome>>list().stream()
+                        .flatMap(List::stream)
+                        .map(TelegramVerticle.DownloadOutcome::toJson)
+                        .toList())
+                .onSuccess(outcomes -> {
+                    List<String> errors = outcomes.stream()
+                            .filter(outcome -> !outcome.getBoolean("success"))
+                            .map(outcome -> outcome.getString("error"))
+                            .distinct()
+                            .toList();
+                    if (errors.isEmpty()) {
+                        ctx.json(new JsonArray(outcomes));
+                        return;
+                    }
+                    ctx.response()
+                            .setStatusCode(400)
+                            .putHeader("Content-Type", "application/json")
+                            .end(JsonObject.of("error", "Part of the files failed to process: %s".formatted(String.join(", ", errors)),
+                                    "results", new JsonArray(outcomes)).encode());
+                })
+                .onFailure(r -> {
+                    log.error(r, "Failed to start download multiple files: %s".formatted(r.getMessage()));
+                    ctx.response()
+                            .setStatusCode(400)
+                            .end(JsonObject.of("error", "Part of the files failed to process: %s".formatted(r.getMessage())).encode());
+                });
     }
 
     private void handleFileCancelDownloadMultiple(RoutingContext ctx) {
@@ -718,7 +803,7 @@ public class HttpVerticle extends AbstractVerticle {
                         .flatMap(entry -> {
                             TelegramVerticle telegramVerticle = TelegramVerticles.getOrElseThrow(entry.getKey());
 
-                            return files.stream()
+                            return entry.getValue().stream()
                                     .map(f -> {
                                         JsonObject file = (JsonObject) f;
                                         return handler.apply(telegramVerticle, file);
@@ -0,0 +1,98 @@
+package telegram.files;
+
+import cn.hutool.core.util.StrUtil;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import org.drinkless.tdlib.TdApi;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * Download the files of a list of message links in one batch of one account.
+ * <p>
+ * The distinct links are resolved concurrently within the {@link RateBudget}, a link that can't be resolved or has no
+ * file is reported at once. The others are started together, their outcomes are reported afterward in link order.
+ */
+public class LinkDownloads {
+
+    private final SegmentedDownload.TdExecutor client;
+
+    private final RateBudget budget;
+
+    private final LongFunction<Future<?>> delay;
+
+    private final Function<List<TelegramVerticle.DownloadRequest>, Future<List<TelegramVerticle.DownloadOutcome>>> starter;
+
+    /**
+     * @param delay   completes after the given milliseconds
+     * @param starter starts a batch of downloads, the outcomes are in request order
+     */
+    public LinkDownloads(SegmentedDownload.TdExecutor client,
+                         RateBudget budget,
+                         LongFunction<Future<?>> delay,
+                         Function<List<TelegramVerticle.DownloadRequest>, Future<List<TelegramVerticle.DownloadOutcome>>> starter) {
+        this.client = client;
+        this.budget = budget;
+        this.delay = delay;
+        this.starter = starter;
+    }
+
+    /**
+     * @param onResult called with the result of each distinct link once it is known
+     */
+    public Future<Void> download(List<String> links, Consumer<JsonObject> onResult) {
+        List<String> distinctLinks = links.stream()
+                .filter(StrUtil::isNotBlank)
+                .map(String::trim)
+                .distinct()
+                .toList();
+        Map<String, TelegramVerticle.DownloadRequest> requests = new ConcurrentHashMap<>();
+        return Future.join(distinctLinks.stream()
+                        .map(link -> resolve(link)
+                                .onSuccess(message -> {
+                                    Optional<TdApi.File> file = TdApiHelp.getFileHandler(message).map(TdApiHelp.FileHandler::getFile);
+                                    if (file.isEmpty()) {
+                                        onResult.accept(failure(link, "not support message type"));
+                                        return;
+                                    }
+                                    requests.put(link, new TelegramVerticle.DownloadRequest(message.chatId, message.id,
+                                            file.get().id, TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY));
+                                })
+                                .onFailure(e -> onResult.accept(failure(link, e.getMessage()))))
+                        .toList())
+                .otherwiseEmpty()
+                .compose(_ -> {
+                    List<String> resolvedLinks = distinctLinks.stream().filter(requests::containsKey).toList();
+                    if (resolvedLinks.isEmpty()) {
+                        return Future.succeededFuture();
+                    }
+                    return starter.apply(resolvedLinks.stream().map(requests::get).toList())
+                            .onSuccess(outcomes -> {
+                                for (int i = 0; i < outcomes.size(); i++) {
+                                    onResult.accept(outcomes.get(i).toJson().put("link", resolvedLinks.get(i)));
+                                }
+                            })
+                            .mapEmpty();
+                });
+    }
+
+    private Future<TdApi.Message> resolve(String link) {
+        long wait = budget.reserve(System.currentTimeMillis());
+        Future<?> permit = wait > 0 ? delay.apply(wait) : Future.succeededFuture();
+        return permit
+                .compose(_ -> client.execute(new TdApi.GetMessageLinkInfo(link)))
+                .compose(messageLinkInfo -> messageLinkInfo.message == null ?
+                        Future.failedFuture("Message not found for link") :
+                        Future.succeededFuture(messageLinkInfo.message));
+    }
+
+    private static JsonObject failure(String link, String error) {
+        return JsonObject.of("link", link, "success", false, "error", error);
+    }
+}
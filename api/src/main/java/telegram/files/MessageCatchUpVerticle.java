@@ -0,0 +1,322 @@
+package telegram.files;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+import org.drinkless.tdlib.TdApi;
+import telegram.files.repository.SettingAutoRecords;
+import telegram.files.repository.SettingKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Catches up the messages of automation chats posted while the service or an account was offline.
+ * <p>
+ * The newest message id seen in each chat is kept as a high-water mark. When an account goes offline the marks of
+ * its chats are saved, and once it is ready again the messages newer than the saved mark are read from the latest
+ * message backwards and published as {@link EventEnum#MESSAGE_RECEIVED}, oldest first, so they go through the same
+ * download and preload path as new messages. A catch-up is bounded, older missed messages are left to the history scan.
+ */
+public class MessageCatchUpVerticle extends AbstractVerticle {
+
+    private static final Log log = LogFactory.get();
+
+    static final int MAX_CATCH_UP_MESSAGES = 1000;
+
+    static final int PAGE_SIZE = 100;
+
+    // Wait for the account to settle after the connection is ready
+    private static final int CATCH_UP_DELAY = 5 * 1000;
+
+    private static final int MARK_FLUSH_INTERVAL = 30 * 1000;
+
+    private final SettingAutoRecords autoRecords;
+
+    private final Marks marks = new Marks();
+
+    private final Set<Long> runningAccounts = ConcurrentHashMap.newKeySet();
+
+    private final Map<Long, RateBudget> budgets = new ConcurrentHashMap<>();
+
+    private volatile boolean marksDirty;
+
+    public MessageCatchUpVerticle() {
+        this.autoRecords = AutomationsHolder.INSTANCE.autoRecords();
+    }
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        DataVerticle.settingRepository.<JsonObject>getByKey(SettingKey.messageHighWaterMarks)
+                .onSuccess(savedMarks -> {
+                    if (savedMarks != null) {
+                        // Saved by the last run, the service was offline since
+                        Map<String, Long> loaded = new HashMap<>();
+                        savedMarks.forEach(entry -> loaded.put(entry.getKey(), ((Number) entry.getValue()).longValue()));
+                        marks.load(loaded);
+                    }
+                    initEventConsumer();
+                    vertx.setPeriodic(MARK_FLUSH_INTERVAL, _ -> flushMarks());
+                    // Accounts that were ready before this verticle was deployed
+                    TelegramVerticles.getAll().forEach(this::scheduleCatchUp);
+
+                    log.info("""
+                            Message catch-up verticle started!
+                            |Max catch-up messages: %s per chat
+                            |High-water marks: %s
+                            """.formatted(MAX_CATCH_UP_MESSAGES, marks.size()));
+                    startPromise.complete();
+                })
+                .onFailure(startPromise::fail);
+    }
+
+    @Override
+    public void stop(Promise<Void> stopPromise) {
+        flushMarks();
+        log.info("Message catch-up verticle stopped!");
+        stopPromise.complete();
+    }
+
+    private void initEventConsumer() {
+        vertx.eventBus().consumer(EventEnum.MESSAGE_RECEIVED.address(), message -> {
+            JsonObject jsonObject = (JsonObject) message.body();
+            long telegramId = jsonObject.getLong("telegramId");
+            long chatId = jsonObject.getLong("chatId");
+            if (isEnabled(telegramId, chatId)) {
+                if (marks.update(markKey(telegramId, chatId), jsonObject.getLong("messageId"))) {
+                    marksDirty = true;
+                }
+            }
+        });
+        vertx.eventBus().consumer(EventEnum.TELEGRAM_EVENT.address(), message -> {
+            JsonObject jsonObject = (JsonObject) message.body();
+            JsonObject payload = jsonObject.getJsonObject("payload");
+            if (payload == null || payload.getInteger("type", 0) != EventPayload.TYPE_CONNECTION) {
+                return;
+            }
+            JsonObject data = payload.getJsonObject("data");
+            if (data == null) {
+                return;
+            }
+            long telegramId = Long.parseLong(String.valueOf(jsonObject.getValue("telegramId")));
+            // Messages received from now on, e.g. while TDLib fetches the difference, must not hide the gap
+            marks.saveOffline(telegramId);
+            if ("ready".equals(data.getString("state"))) {
+                TelegramVerticles.get(telegramId).ifPresent(this::scheduleCatchUp);
+            }
+        });
+    }
+
+    private void scheduleCatchUp(TelegramVerticle telegramVerticle) {
+        vertx.setTimer(CATCH_UP_DELAY, _ -> {
+            if (telegramVerticle.authorized && telegramVerticle.telegramRecord != null) {
+                catchUp(telegramVerticle);
+            }
+        });
+    }
+
+    private void catchUp(TelegramVerticle telegramVerticle) {
+        long telegramId = telegramVerticle.telegramRecord.id();
+        if (!runningAccounts.add(telegramId)) {
+            return;
+        }
+        try {
+            List<SettingAutoRecords.Automation> automations = autoRecords.automations.stream()
+                    .filter(auto -> auto.telegramId == telegramId && isEnabled(auto))
+                    .toList();
+            log.debug("Start message catch-up! TelegramId: %d Chats: %d".formatted(telegramId, automations.size()));
+            for (SettingAutoRecords.Automation auto : automations) {
+                catchUpChat(telegramVerticle, auto.chatId);
+            }
+        } finally {
+            runningAccounts.remove(telegramId);
+        }
+    }
+
+    private void catchUpChat(TelegramVerticle telegramVerticle, long chatId) {
+        long telegramId = telegramVerticle.telegramRecord.id();
+        String markKey = markKey(telegramId, chatId);
+        Long mark = marks.catchUpFrom(markKey);
+        RateBudget budget = budgets.computeIfAbsent(telegramId,
+                _ -> new RateBudget(Config.AUTO_DOWNLOAD_SCAN_RATE, System.currentTimeMillis()));
+        Function<Long, Future<TdApi.Messages>> getHistory = fromMessageId -> {
+            long wait = budget.reserve(System.currentTimeMillis());
+            Future<Long> delay = wait > 0 ? vertx.timer(wait).map(fromMessageId) : Future.succeededFuture(fromMessageId);
+            return delay.compose(from -> {
+                TdApi.GetChatHistory getChatHistory = new TdApi.GetChatHistory();
+                getChatHistory.chatId = chatId;
+                getChatHistory.fromMessageId = from;
+                getChatHistory.limit = mark == null ? 1 : PAGE_SIZE;
+                return telegramVerticle.client.execute(getChatHistory);
+            });
+        };
+
+        if (mark == null) {
+            // Nothing seen yet, start from the latest message, older ones belong to the history scan
+            TdApi.Messages latest = Future.await(getHistory.apply(0L).otherwiseEmpty());
+            if (latest != null && latest.messages.length > 0 && marks.update(markKey, latest.messages[0].id)) {
+                marksDirty = true;
+            }
+            return;
+        }
+
+        try {
+            List<TdApi.Message> missed = Future.await(collectNewerMessages(getHistory, mark, MAX_CATCH_UP_MESSAGES));
+            if (missed.size() >= MAX_CATCH_UP_MESSAGES) {
+                log.warn("Message catch-up reached %d messages, older ones are left to the history scan! TelegramId: %d ChatId: %d"
+                        .formatted(MAX_CATCH_UP_MESSAGES, telegramId, chatId));
+            }
+            for (TdApi.Message message : missed.reversed()) {
+                vertx.eventBus().publish(EventEnum.MESSAGE_RECEIVED.address(), JsonObject.of()
+                        .put("telegramId", telegramId)
+                        .put("chatId", message.chatId)
+                        .put("messageId", message.id)
+                );
+            }
+            if (!missed.isEmpty()) {
+                log.info("Message catch-up found %d missed messages! TelegramId: %d ChatId: %d"
+                        .formatted(missed.size(), telegramId, chatId));
+                marks.update(markKey, missed.getFirst().id);
+            }
+            marks.caughtUp(markKey);
+            marksDirty = true;
+        } catch (Exception e) {
+            // The saved mark is kept, the next catch-up reads from it again
+            log.warn("Message catch-up failed! TelegramId: %d ChatId: %d".formatted(telegramId, chatId), e);
+        }
+    }
+
+    /**
+     * Read the history from the latest message backwards until a message not newer than the mark,
+     * returns the newer messages, newest first, at most {@code max}.
+     */
+    static Future<List<TdApi.Message>> collectNewerMessages(Function<Long, Future<TdApi.Messages>> getHistory,
+                                                           long mark,
+                                                           int max) {
+        return collectNewerMessages(getHistory, mark, max, 0, new ArrayList<>());
+    }
+
+    private static Future<List<TdApi.Message>> collectNewerMessages(Function<Long, Future<TdApi.Messages>> getHistory,
+                                                                    long mark,
+                                                                    int max,
+                                                                    long fromMessageId,
+                                                                    List<TdApi.Message> collected) {
+        return getHistory.apply(fromMessageId).compose(page -> {
+            if (page == null || page.messages.length == 0) {
+                return Future.succeededFuture(collected);
+            }
+            for (TdApi.Message message : page.messages) {
+                if (message.id <= mark || collected.size() >= max) {
+                    return Future.succeededFuture(collected);
+                }
+                collected.add(message);
+            }
+            return collectNewerMessages(getHistory, mark, max, page.messages[page.messages.length - 1].id, collected);
+        });
+    }
+
+    private void flushMarks() {
+        if (!marksDirty) {
+            return;
+        }
+        marksDirty = false;
+        JsonObject json = new JsonObject();
+        marks.toPersist().forEach(json::put);
+        DataVerticle.settingRepository.createOrUpdate(SettingKey.messageHighWaterMarks.name(), json.encode())
+                .onFailure(e -> {
+                    marksDirty = true;
+                    log.error("Save message high-water marks failed!", e);
+                });
+    }
+
+    private boolean isEnabled(long telegramId, long chatId) {
+        SettingAutoRecords.Automation auto = autoRecords.getItem(telegramId, chatId);
+        return auto != null && isEnabled(auto);
+    }
+
+    private static boolean isEnabled(SettingAutoRecords.Automation auto) {
+        return (auto.download != null && auto.download.enabled) || (auto.preload != null && auto.preload.enabled);
+    }
+
+    static String markKey(long telegramId, long chatId) {
+        return telegramId + ":" + chatId;
+    }
+
+    /**
+     * High-water marks of the chats, keyed by {@code telegramId:chatId}, with the mark each chat had when its account
+     * went offline. Live messages only move the mark, a catch-up reads from the saved one until it has caught up.
+     */
+    static class Marks {
+
+        // Newest message id seen
+        private final Map<String, Long> seen = new ConcurrentHashMap<>();
+
+        // Mark when the account went offline, until the catch-up of the chat ends
+        private final Map<String, Long> offline = new ConcurrentHashMap<>();
+
+        /**
+         * Load the marks saved by a previous run, they are the offline marks too.
+         */
+        void load(Map<String, Long> saved) {
+            seen.putAll(saved);
+            offline.putAll(saved);
+        }
+
+        /**
+         * Returns whether the mark moved.
+         */
+        boolean update(String key, long messageId) {
+            Long previous = seen.get(key);
+            if (previous != null && messageId <= previous) {
+                return false;
+            }
+            seen.merge(key, messageId, Math::max);
+            return true;
+        }
+
+        /**
+         * Save the marks of the chats of the account, a mark saved since the last catch-up is kept.
+         */
+        void saveOffline(long telegramId) {
+            String prefix = telegramId + ":";
+            seen.forEach((key, mark) -> {
+                if (key.startsWith(prefix)) {
+                    offline.putIfAbsent(key, mark);
+                }
+            });
+        }
+
+        /**
+         * The mark to catch up from, null if no message of the chat was seen.
+         */
+        Long catchUpFrom(String key) {
+            Long mark = offline.get(key);
+            return mark != null ? mark : seen.get(key);
+        }
+
+        void caughtUp(String key) {
+            offline.remove(key);
+        }
+
+        /**
+         * The marks to save, the offline mark while a chat is not caught up, so a restart doesn't skip the gap.
+         */
+        Map<String, Long> toPersist() {
+            Map<String, Long> persist = new HashMap<>(seen);
+            persist.putAll(offline);
+            return persist;
+        }
+
+        int size() {
+            return seen.size();
+        }
+    }
+}
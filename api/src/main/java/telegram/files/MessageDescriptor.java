@@ -0,0 +1,238 @@
+package telegram.files;
+
+import cn.hutool.core.util.ArrayUtil;
+import org.drinkless.tdlib.TdApi;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+
+/**
+ * File related information of a message, extracted once by a switch over the content type.
+ * <p>
+ * Descriptors are cached per message instance, so listing, filtering, preload and download share the same
+ * descriptor (and {@link TdApiHelp.FileHandler}) instead of walking the message with reflection on every call.
+ * A descriptor copies the fields it needs when it is built and holds no reference to the message, so the weakly
+ * keyed entry is dropped once the message is unreachable.
+ */
+public final class MessageDescriptor {
+
+    private static final Map<TdApi.Message, MessageDescriptor> CACHE = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final long chatId;
+
+    private final long messageId;
+
+    private final long mediaAlbumId;
+
+    private final int date;
+
+    private final boolean hasSensitiveContent;
+
+    private final TdApi.MessageContent content;
+
+    private final String type;
+
+    private final TdApi.File file;
+
+    private final TdApi.Thumbnail thumbnail;
+
+    private final byte[] minithumbnail;
+
+    private final String caption;
+
+    private final long reactionCount;
+
+    private final TdApiHelp.FileHandler<? extends TdApi.MessageContent> handler;
+
+    private MessageDescriptor(TdApi.Message message,
+                              String type,
+                              TdApi.File file,
+                              TdApi.Thumbnail thumbnail,
+                              TdApi.Minithumbnail minithumbnail,
+                              TdApi.FormattedText caption) {
+        this.chatId = message.chatId;
+        this.messageId = message.id;
+        this.mediaAlbumId = message.mediaAlbumId;
+        this.date = message.date;
+        this.hasSensitiveContent = message.restrictionInfo != null && message.restrictionInfo.hasSensitiveContent;
+        this.content = message.content;
+        this.type = type;
+        this.file = file;
+        this.thumbnail = thumbnail;
+        this.minithumbnail = minithumbnail == null ? null : minithumbnail.data;
+        this.caption = caption == null ? null : caption.text;
+        this.reactionCount = sumReactionCount(message);
+        this.handler = switch (type) {
+            case "photo" -> new TdApiHelp.PhotoHandler(this);
+            case "video" -> new TdApiHelp.VideoHandler(this);
+            case "audio" -> new TdApiHelp.AudioHandler(this);
+            default -> new TdApiHelp.DocumentHandler(this);
+        };
+    }
+
+    public static Optional<MessageDescriptor> of(TdApi.Message message) {
+        if (message == null || message.content == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(CACHE.computeIfAbsent(message, MessageDescriptor::build));
+    }
+
+    /**
+     * Build a descriptor without consulting the cache, returns null if the message does not carry a downloadable file.
+     */
+    public static MessageDescriptor build(TdApi.Message message) {
+        if (message == null || message.content == null) {
+            return null;
+        }
+        TdApi.MessageContent content = message.content;
+        switch (content.getConstructor()) {
+            case TdApi.MessagePhoto.CONSTRUCTOR -> {
+                TdApi.MessagePhoto photo = (TdApi.MessagePhoto) content;
+                TdApi.PhotoSize[] sizes = photo.photo == null ? null : photo.photo.sizes;
+                if (ArrayUtil.isEmpty(sizes)) {
+                    return null;
+                }
+                return new MessageDescriptor(message, "photo", sizes[sizes.length - 1].photo,
+                        getPhotoThumbnail(sizes), photo.photo.minithumbnail, photo.caption);
+            }
+            case TdApi.MessageVideo.CONSTRUCTOR -> {
+                TdApi.MessageVideo video = (TdApi.MessageVideo) content;
+                return new MessageDescriptor(message, "video", video.video.video,
+                        video.video.thumbnail, video.video.minithumbnail, video.caption);
+            }
+            case TdApi.MessageAudio.CONSTRUCTOR -> {
+                TdApi.MessageAudio audio = (TdApi.MessageAudio) content;
+                TdApi.Thumbnail thumbnail = audio.audio.albumCoverThumbnail;
+                if (thumbnail == null && ArrayUtil.isNotEmpty(audio.audio.externalAlbumCovers)) {
+                    thumbnail = audio.audio.externalAlbumCovers[0];
+                }
+                return new MessageDescriptor(message, "audio", audio.audio.audio,
+                        thumbnail, audio.audio.albumCoverMinithumbnail, audio.caption);
+            }
+            case TdApi.MessageDocument.CONSTRUCTOR -> {
+                TdApi.MessageDocument document = (TdApi.MessageDocument) content;
+                return new MessageDescriptor(message, "file", document.document.document,
+                        document.document.thumbnail, document.document.minithumbnail, document.caption);
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static TdApi.Thumbnail getPhotoThumbnail(TdApi.PhotoSize[] sizes) {
+        TdApi.PhotoSize fullSize = sizes[sizes.length - 1];
+        // Prefer the ~320px "m" box: crisp enough for a preview yet small (~10-30KB).
+        TdApi.PhotoSize preview = null;
+        for (TdApi.PhotoSize size : sizes) {
+            if ("m".equals(size.type)) {
+                preview = size;
+                break;
+            }
+        }
+        // Otherwise fall back to the smallest available size.
+        if (preview == null) {
+            preview = sizes[0];
+            for (TdApi.PhotoSize size : sizes) {
+                if (Math.max(size.width, size.height) < Math.max(preview.width, preview.height)) {
+                    preview = size;
+                }
+            }
+        }
+        // If the only available size is the full-resolution image, there's no lighter preview.
+        if (preview.photo.remote.uniqueId.equals(fullSize.photo.remote.uniqueId)) {
+            return null;
+        }
+        return new TdApi.Thumbnail(new TdApi.ThumbnailFormatJpeg(), preview.width, preview.height, preview.photo);
+    }
+
+    private static long sumReactionCount(TdApi.Message message) {
+        if (message.interactionInfo == null
+            || message.interactionInfo.reactions == null
+            || message.interactionInfo.reactions.reactions == null) {
+            return 0L;
+        }
+        long count = 0;
+        for (TdApi.MessageReaction reaction : message.interactionInfo.reactions.reactions) {
+            count += reaction.totalCount;
+        }
+        return count;
+    }
+
+    public long chatId() {
+        return chatId;
+    }
+
+    public long messageId() {
+        return messageId;
+    }
+
+    public int date() {
+        return date;
+    }
+
+    public boolean hasSensitiveContent() {
+        return hasSensitiveContent;
+    }
+
+    public TdApi.MessageContent content() {
+        return content;
+    }
+
+    /**
+     * One of photo, video, audio, file. Same as {@link telegram.files.repository.FileRecord#type()}.
+     */
+    public String type() {
+        return type;
+    }
+
+    public TdApi.File file() {
+        return file;
+    }
+
+    public int fileId() {
+        return file.id;
+    }
+
+    public String uniqueId() {
+        return file.remote.uniqueId;
+    }
+
+    public long size() {
+        return file.size == 0 ? file.expectedSize : file.size;
+    }
+
+    public long downloadedSize() {
+        return file.local == null ? 0 : file.local.downloadedSize;
+    }
+
+    public TdApi.Thumbnail thumbnail() {
+        return thumbnail;
+    }
+
+    public String thumbnailUniqueId() {
+        return thumbnail == null ? null : thumbnail.file.remote.uniqueId;
+    }
+
+    public byte[] minithumbnail() {
+        return minithumbnail;
+    }
+
+    public String caption() {
+        return caption;
+    }
+
+    public long mediaAlbumId() {
+        return mediaAlbumId;
+    }
+
+    public long reactionCount() {
+        return reactionCount;
+    }
+
+    public TdApiHelp.FileHandler<? extends TdApi.MessageContent> handler() {
+        return handler;
+    }
+}
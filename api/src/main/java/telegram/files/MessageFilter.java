@@ -1,9 +1,8 @@
 package telegram.files;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.map.FixedLinkedHashMap;
 import cn.hutool.core.map.MapUtil;
 import cn.hutool.core.net.NetUtil;
 import cn.hutool.core.util.*;
@@ -12,15 +11,12 @@ import cn.hutool.log.LogFactory;
 import org.apache.commons.jexl3.JexlBuilder;
 import org.apache.commons.jexl3.JexlEngine;
 import org.apache.commons.jexl3.JexlExpression;
-import org.apache.commons.jexl3.MapContext;
 import org.apache.commons.jexl3.introspection.JexlPermissions;
 import org.drinkless.tdlib.TdApi;
-import telegram.files.repository.FileRecord;
 
-import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -28,72 +24,11 @@ public class MessageFilter {
 
     private static final Log log = LogFactory.get();
 
-    private static final CopyOptions BEAN_TO_MAP_OPTIONS_1 = CopyOptions.create()
-            .setIgnoreNullValue(true)
-            .setFieldValueEditor((_, fieldValue) -> {
-                if (fieldValue == null) {
-                    return null;
-                }
-                // For TdApi.Object types, we can convert them to Map recursively
-                if (fieldValue instanceof TdApi.Object) {
-                    return BeanUtil.beanToMap(fieldValue);
-                }
-                return fieldValue;
-            });
+    static final int MAX_EXPR_CACHE_SIZE = 256;
 
-    private static final CopyOptions BEAN_TO_MAP_OPTIONS_2 = CopyOptions.create()
-            .setIgnoreNullValue(true)
-            .setFieldValueEditor((_, fieldValue) -> {
-                if (fieldValue == null) {
-                    return null;
-                }
-                // For TdApi.Object types, we can convert them to Map recursively
-                if (fieldValue instanceof TdApi.Object) {
-                    return BeanUtil.beanToMap(fieldValue, new LinkedHashMap<>(16, 1), BEAN_TO_MAP_OPTIONS_1);
-                }
-                return fieldValue;
-            });
-
-    private static final CopyOptions BEAN_TO_MAP_OPTIONS_3 = CopyOptions.create()
-            .setIgnoreNullValue(true)
-            .setFieldValueEditor((_, fieldValue) -> {
-                if (fieldValue == null) {
-                    return null;
-                }
-                // For TdApi.Object types, we can convert them to Map recursively
-                if (fieldValue instanceof TdApi.Object) {
-                    return BeanUtil.beanToMap(fieldValue, new LinkedHashMap<>(16, 1), BEAN_TO_MAP_OPTIONS_2);
-                }
-                return fieldValue;
-            });
-
-    private static final CopyOptions BEAN_TO_MAP_OPTIONS_4 = CopyOptions.create()
-            .setIgnoreNullValue(true)
-            .setFieldValueEditor((_, fieldValue) -> {
-                if (fieldValue == null) {
-                    return null;
-                }
-                // For TdApi.Object types, we can convert them to Map recursively
-                if (fieldValue instanceof TdApi.Object) {
-                    return BeanUtil.beanToMap(fieldValue, new LinkedHashMap<>(16, 1), BEAN_TO_MAP_OPTIONS_3);
-                }
-                return fieldValue;
-            });
-
-    private static final CopyOptions BEAN_TO_MAP_OPTIONS = CopyOptions.create()
-            .setIgnoreNullValue(true)
-            .setFieldValueEditor((_, fieldValue) -> {
-                if (fieldValue == null) {
-                    return null;
-                }
-                // For TdApi.Object types, we can convert them to Map recursively
-                if (fieldValue instanceof TdApi.Object) {
-                    return BeanUtil.beanToMap(fieldValue, new LinkedHashMap<>(16, 1), BEAN_TO_MAP_OPTIONS_4);
-                }
-                return fieldValue;
-            });
-
-    private static final Map<String, JexlExpression> EXPR_CACHE = new ConcurrentHashMap<>();
+    // Least recently used expressions are evicted, rules are few but expressions can be tried out from the UI
+    private static final Map<String, JexlExpression> EXPR_CACHE =
+            Collections.synchronizedMap(new FixedLinkedHashMap<>(MAX_EXPR_CACHE_SIZE));
 
     private static final JexlEngine JEXL_ENGINE = new JexlBuilder()
             .strict(true)
@@ -138,13 +73,7 @@ public class MessageFilter {
         }
         JexlExpression expression = getExpression(exprStr);
         return message -> {
-            Map<String, Object> map = BeanUtil.beanToMap(message, new LinkedHashMap<>(16, 1), BEAN_TO_MAP_OPTIONS);
-            TdApiHelp.getFileHandler(message).ifPresent(fileHandler -> {
-                FileRecord fileRecord = fileHandler.convertFileRecord(0);
-                map.put("f", fileRecord);
-            });
-            MapContext context = new MapContext(map);
-
+            MessageFilterContext context = new MessageFilterContext(message);
             try {
                 Object result = expression.evaluate(context);
                 return result instanceof Boolean && (Boolean) result;
@@ -0,0 +1,72 @@
+package telegram.files;
+
+import org.apache.commons.jexl3.JexlContext;
+import org.drinkless.tdlib.TdApi;
+import telegram.files.repository.TdObjectMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Filter expression variables of one message: the message fields, and {@code f} for its file record.
+ * <p>
+ * Variables are resolved from the message when the expression reads them, so an expression only pays for
+ * the fields it uses.
+ */
+class MessageFilterContext implements JexlContext {
+
+    static final String FILE_RECORD_VARIABLE = "f";
+
+    private final TdApi.Message message;
+
+    // Variables set by the expression itself
+    private Map<String, Object> locals;
+
+    private Object fileRecord;
+
+    private boolean fileRecordResolved;
+
+    MessageFilterContext(TdApi.Message message) {
+        this.message = message;
+    }
+
+    @Override
+    public Object get(String name) {
+        if (locals != null && locals.containsKey(name)) {
+            return locals.get(name);
+        }
+        if (FILE_RECORD_VARIABLE.equals(name)) {
+            return getFileRecord();
+        }
+        return TdObjectMap.wrap(TdApiRegistry.getField(message, name));
+    }
+
+    @Override
+    public void set(String name, Object value) {
+        if (locals == null) {
+            locals = new HashMap<>();
+        }
+        locals.put(name, value);
+    }
+
+    @Override
+    public boolean has(String name) {
+        if (locals != null && locals.containsKey(name)) {
+            return true;
+        }
+        if (FILE_RECORD_VARIABLE.equals(name)) {
+            return getFileRecord() != null;
+        }
+        return TdApiRegistry.getField(message, name) != null;
+    }
+
+    private Object getFileRecord() {
+        if (!fileRecordResolved) {
+            fileRecord = TdApiHelp.getFileHandler(message)
+                    .map(fileHandler -> fileHandler.convertFileRecord(0))
+                    .orElse(null);
+            fileRecordResolved = true;
+        }
+        return fileRecord;
+    }
+}
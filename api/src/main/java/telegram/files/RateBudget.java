@@ -0,0 +1,44 @@
+package telegram.files;
+
+/**
+ * Token bucket shared by concurrent callers of a rate limited api.
+ * <p>
+ * A caller always gets a permit and is told how long to wait before using it, so callers are served in order
+ * and the long term rate never exceeds {@code permitsPerSecond}.
+ */
+public class RateBudget {
+
+    private final double permitsPerMs;
+
+    private final double capacity;
+
+    private double permits;
+
+    private long lastRefillAt;
+
+    public RateBudget(double permitsPerSecond, long now) {
+        this.permitsPerMs = permitsPerSecond / 1000;
+        this.capacity = Math.max(1, permitsPerSecond);
+        this.permits = capacity;
+        this.lastRefillAt = now;
+    }
+
+    /**
+     * Take one permit, returns the milliseconds to wait before using it.
+     */
+    public long reserve(long now) {
+        return reserve(now, 1);
+    }
+
+    /**
+     * Take {@code count} permits, e.g. the bytes of a chunk, returns the milliseconds to wait before using them.
+     */
+    public synchronized long reserve(long now, long count) {
+        if (now > lastRefillAt) {
+            permits = Math.min(capacity, permits + (now - lastRefillAt) * permitsPerMs);
+            lastRefillAt = now;
+        }
+        permits -= count;
+        return permits >= 0 ? 0 : (long) Math.ceil(-permits / permitsPerMs);
+    }
+}
@@ -0,0 +1,94 @@
+package telegram.files;
+
+import java.util.Comparator;
+
+/**
+ * Order in which the waiting files of one chat are downloaded, selected per automation.
+ * <p>
+ * The chats of an account share its waiting queue by deficit round robin, see {@link DownloadQueue},
+ * the policy only orders the files within a chat and derives the TDLib download priority of each file.
+ */
+public interface SchedulingPolicy {
+
+    enum Type {
+        /**
+         * Download files in the order they were found
+         */
+        FIFO,
+        /**
+         * Download the smallest files first
+         */
+        SMALLEST_FIRST,
+        /**
+         * Download the newest messages first
+         */
+        NEWEST_FIRST,
+    }
+
+    SchedulingPolicy FIFO = new Fifo();
+
+    SchedulingPolicy SMALLEST_FIRST = new SmallestFirst();
+
+    SchedulingPolicy NEWEST_FIRST = new NewestFirst();
+
+    static SchedulingPolicy of(Type type) {
+        if (type == null) {
+            return FIFO;
+        }
+        return switch (type) {
+            case FIFO -> FIFO;
+            case SMALLEST_FIRST -> SMALLEST_FIRST;
+            case NEWEST_FIRST -> NEWEST_FIRST;
+        };
+    }
+
+    /**
+     * Order of the files of a chat, files that compare equal keep their queue order.
+     */
+    Comparator<DownloadQueue.Entry> order();
+
+    /**
+     * TDLib download priority, from 1 to 32, files with a higher priority are downloaded first.
+     */
+    int priority(DownloadQueue.Entry entry);
+
+    final class Fifo implements SchedulingPolicy {
+        @Override
+        public Comparator<DownloadQueue.Entry> order() {
+            return (_, _) -> 0;
+        }
+
+        @Override
+        public int priority(DownloadQueue.Entry entry) {
+            return TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY;
+        }
+    }
+
+    final class SmallestFirst implements SchedulingPolicy {
+        @Override
+        public Comparator<DownloadQueue.Entry> order() {
+            return Comparator.comparingLong(DownloadQueue.Entry::size);
+        }
+
+        /**
+         * One priority step per doubling of the size above 1 MB.
+         */
+        @Override
+        public int priority(DownloadQueue.Entry entry) {
+            int doublings = 64 - Long.numberOfLeadingZeros(Math.max(0, entry.size()) >> 20);
+            return Math.max(1, TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY - doublings);
+        }
+    }
+
+    final class NewestFirst implements SchedulingPolicy {
+        @Override
+        public Comparator<DownloadQueue.Entry> order() {
+            return Comparator.comparingLong(DownloadQueue.Entry::messageId).reversed();
+        }
+
+        @Override
+        public int priority(DownloadQueue.Entry entry) {
+            return entry.historical() ? TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY / 2 : TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY;
+        }
+    }
+}
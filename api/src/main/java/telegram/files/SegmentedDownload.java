@@ -0,0 +1,273 @@
+package telegram.files;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import org.drinkless.tdlib.TdApi;
+import telegram.files.repository.SettingSegmentedDownloads;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Download of one large file in segments by several telegram accounts at once.
+ * <p>
+ * TDLib downloads a file as one stream, and a new {@code DownloadFile} of the same file replaces the range being
+ * downloaded. So the segments run in parallel in the accounts that can see the file: each account downloads one
+ * segment at a time into its own partial file, with the offset and limit of {@code DownloadFile}, and the progress
+ * of a segment is the downloaded prefix size at its offset. Once every segment is downloaded, they are copied from
+ * the partial files into the target file.
+ * <p>
+ * A segment is downloaded by a single account. After a restart it goes back to the same account, whose TDLib only
+ * downloads the missing parts, completed segments are not requested again.
+ */
+public class SegmentedDownload {
+
+    private static final Log log = LogFactory.get();
+
+    /**
+     * Segment boundaries are aligned to this size, a multiple of every TDLib part size
+     */
+    static final long ALIGNMENT = 1 << 20;
+
+    /**
+     * {@code client::execute} of a telegram account.
+     */
+    public interface TdExecutor {
+        <R extends TdApi.Object> Future<R> execute(TdApi.Function<R> function);
+    }
+
+    /**
+     * The file in one telegram account, each account has its own file id.
+     */
+    public record Worker(long telegramId, int fileId, TdExecutor executor) {
+
+        Future<Void> download(long offset, long limit, int priority) {
+            return executor.execute(new TdApi.DownloadFile(fileId, priority, offset, limit, false)).mapEmpty();
+        }
+
+        Future<Long> getDownloadedPrefixSize(long offset) {
+            return executor.execute(new TdApi.GetFileDownloadedPrefixSize(fileId, offset)).map(r -> r.size);
+        }
+
+        Future<TdApi.File> getFile() {
+            return executor.execute(new TdApi.GetFile(fileId));
+        }
+
+        /**
+         * Stop the download and drop the partial file.
+         */
+        Future<Void> delete() {
+            return executor.execute(new TdApi.CancelDownloadFile(fileId, false))
+                    .compose(_ -> executor.execute(new TdApi.DeleteFile(fileId)))
+                    .mapEmpty();
+        }
+    }
+
+    private final String uniqueId;
+
+    private final SettingSegmentedDownloads.Download state;
+
+    // telegramId -> worker
+    private final Map<Long, Worker> workers = new LinkedHashMap<>();
+
+    // telegramId -> segment being downloaded
+    private final Map<Long, SettingSegmentedDownloads.Segment> running = new HashMap<>();
+
+    public SegmentedDownload(String uniqueId, SettingSegmentedDownloads.Download state) {
+        this.uniqueId = uniqueId;
+        this.state = state;
+    }
+
+    /**
+     * Split the file into {@code count} aligned segments at most, the last one takes the rest.
+     */
+    public static List<SettingSegmentedDownloads.Segment> plan(long size, int count) {
+        long aligned = (size + ALIGNMENT - 1) / ALIGNMENT;
+        long perSegment = Math.max(1, (aligned + Math.max(1, count) - 1) / Math.max(1, count)) * ALIGNMENT;
+        List<SettingSegmentedDownloads.Segment> segments = new ArrayList<>();
+        for (long offset = 0; offset < size; offset += perSegment) {
+            segments.add(new SettingSegmentedDownloads.Segment(offset, Math.min(perSegment, size - offset)));
+        }
+        return segments;
+    }
+
+    public String getUniqueId() {
+        return uniqueId;
+    }
+
+    public SettingSegmentedDownloads.Download getState() {
+        return state;
+    }
+
+    public synchronized Worker getWorker(long telegramId) {
+        return workers.get(telegramId);
+    }
+
+    public synchronized List<Worker> getWorkers() {
+        return List.copyOf(workers.values());
+    }
+
+    public synchronized void addWorker(Worker worker) {
+        workers.putIfAbsent(worker.telegramId(), worker);
+    }
+
+    /**
+     * Drop an account, its running segment is started again by another one.
+     */
+    public synchronized void removeWorker(long telegramId) {
+        workers.remove(telegramId);
+        SettingSegmentedDownloads.Segment segment = running.remove(telegramId);
+        if (segment != null) {
+            segment.telegramId = 0;
+            segment.downloaded = 0;
+        }
+    }
+
+    /**
+     * Download again the completed segments of the accounts that are gone, their partial files can't be read.
+     *
+     * @return true if a segment was dropped
+     */
+    public synchronized boolean dropOrphanSegments() {
+        boolean dropped = false;
+        for (SettingSegmentedDownloads.Segment segment : state.segments) {
+            if (segment.completed && !workers.containsKey(segment.telegramId)) {
+                segment.completed = false;
+                segment.telegramId = 0;
+                segment.downloaded = 0;
+                dropped = true;
+            }
+        }
+        return dropped;
+    }
+
+    public synchronized boolean isCompleted() {
+        return state.segments.stream().allMatch(segment -> segment.completed);
+    }
+
+    public synchronized long getDownloadedSize() {
+        return state.segments.stream().mapToLong(segment -> segment.downloaded).sum();
+    }
+
+    /**
+     * Refresh the progress of the running segments and start the missing ones in the idle accounts.
+     *
+     * @return true if a segment was started or completed, that is the state should be saved
+     */
+    public Future<Boolean> tick() {
+        Map<Long, SettingSegmentedDownloads.Segment> snapshot;
+        synchronized (this) {
+            snapshot = new HashMap<>(running);
+        }
+        List<Future<Boolean>> futures = new ArrayList<>();
+        snapshot.forEach((telegramId, segment) -> {
+            Worker worker = getWorker(telegramId);
+            if (worker == null) {
+                return;
+            }
+            futures.add(worker.getDownloadedPrefixSize(segment.offset)
+                    .map(prefix -> {
+                        synchronized (this) {
+                            segment.downloaded = Math.min(prefix, segment.length);
+                            if (segment.downloaded < segment.length || running.get(telegramId) != segment) {
+                                return false;
+                            }
+                            segment.completed = true;
+                            running.remove(telegramId);
+                            return true;
+                        }
+                    })
+                    .otherwise(false));
+        });
+        return Future.join(futures)
+                .otherwiseEmpty()
+                .compose(_ -> assign())
+                .map(assigned -> assigned || futures.stream().anyMatch(f -> Boolean.TRUE.equals(f.result())));
+    }
+
+    private Future<Boolean> assign() {
+        List<Future<Void>> futures = new ArrayList<>();
+        synchronized (this) {
+            for (Worker worker : List.copyOf(workers.values())) {
+                if (!workers.containsKey(worker.telegramId()) || running.containsKey(worker.telegramId())) {
+                    continue;
+                }
+                SettingSegmentedDownloads.Segment segment = nextSegment(worker.telegramId());
+                if (segment == null) {
+                    continue;
+                }
+                if (segment.telegramId != worker.telegramId()) {
+                    // The part downloaded by another account is not in the file of this one
+                    segment.telegramId = worker.telegramId();
+                    segment.downloaded = 0;
+                }
+                running.put(worker.telegramId(), segment);
+                futures.add(worker.download(segment.offset, segment.length, state.priority)
+                        .onFailure(e -> {
+                            log.warn("Segment download failed, uniqueId: %s, offset: %d, telegramId: %d, error: %s"
+                                    .formatted(uniqueId, segment.offset, worker.telegramId(), e.getMessage()));
+                            removeWorker(worker.telegramId());
+                        }));
+            }
+        }
+        return Future.join(futures).otherwiseEmpty().map(!futures.isEmpty());
+    }
+
+    /**
+     * A missing segment of the account, else the first one nobody downloads.
+     */
+    private SettingSegmentedDownloads.Segment nextSegment(long telegramId) {
+        SettingSegmentedDownloads.Segment next = null;
+        for (SettingSegmentedDownloads.Segment segment : state.segments) {
+            if (segment.completed || running.containsValue(segment)) {
+                continue;
+            }
+            if (segment.telegramId == telegramId) {
+                return segment;
+            }
+            if (next == null && !workers.containsKey(segment.telegramId)) {
+                next = segment;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Copy every segment from the partial file of its account into the target, through a temporary file.
+     *
+     * @param paths telegramId -> local path of the file in the account
+     */
+    public static void assemble(List<SettingSegmentedDownloads.Segment> segments, Map<Long, String> paths, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + ".part");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (SettingSegmentedDownloads.Segment segment : segments) {
+                String path = paths.get(segment.telegramId);
+                if (path == null) {
+                    throw new IOException("No file for segment at " + segment.offset);
+                }
+                try (FileChannel in = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+                    long position = segment.offset;
+                    long remaining = segment.length;
+                    while (remaining > 0) {
+                        long transferred = in.transferTo(position, remaining, out.position(position));
+                        if (transferred <= 0) {
+                            throw new EOFException("Segment at %d is short in %s".formatted(segment.offset, path));
+                        }
+                        position += transferred;
+                        remaining -= transferred;
+                    }
+                }
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -6,9 +6,6 @@ import cn.hutool.core.codec.Base64;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.convert.TypeConverter;
-import cn.hutool.core.util.ArrayUtil;
-import cn.hutool.core.util.ClassUtil;
-import cn.hutool.core.util.ReflectUtil;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 import org.drinkless.tdlib.TdApi;
@@ -19,12 +16,6 @@ import java.util.*;
 @SuppressWarnings("unchecked")
 public class TdApiHelp {
 
-    // name -> class
-    private static final Map<String, Class<TdApi.Function<?>>> FUNCTIONS = new HashMap<>();
-
-    // CONSTRUCTOR -> class
-    private static final Map<Integer, Class<TdApi.Object>> CONSTRUCTORS = new HashMap<>();
-
     public static final List<Integer> FILE_CONTENT_CONSTRUCTORS = Arrays.asList(
             TdApi.MessagePhoto.CONSTRUCTOR,
             TdApi.MessageVideo.CONSTRUCTOR,
@@ -42,46 +33,32 @@ public class TdApiHelp {
                 return Convert.convertWithCheck(targetType, value, null, false);
             }
             Integer constructor = Convert.toInt(map.get("@type"));
-            Class<TdApi.Object> objClazz = CONSTRUCTORS.get(constructor);
-            if (objClazz == null) {
+            TdApi.Object object = constructor == null ? null : TdApiRegistry.newObject(constructor);
+            if (object == null) {
                 return null;
             }
-            return BeanUtil.toBean(map, objClazz);
+            BeanUtil.copyProperties(map, object);
+            return object;
         }
         return Convert.convertWithCheck(targetType, value, null, false);
     };
 
     private static final CopyOptions COPY_OPTIONS = new CopyOptions().setConverter(TD_API_TYPE_CONVERTER);
 
-    static {
-        Arrays.stream(TdApi.class.getClasses())
-                .filter(ClassUtil::isNormalClass)
-                .filter(TdApi.Object.class::isAssignableFrom)
-                .forEach(clazz -> {
-                    if (TdApi.Function.class.isAssignableFrom(clazz)) {
-                        FUNCTIONS.put(clazz.getSimpleName(), (Class<TdApi.Function<?>>) clazz);
-                    }
-
-                    Object constructor = ReflectUtil.getStaticFieldValue(ReflectUtil.getField(clazz, "CONSTRUCTOR"));
-                    if (constructor != null) {
-                        CONSTRUCTORS.put(Convert.toInt(constructor), (Class<TdApi.Object>) clazz);
-                    }
-                });
-    }
-
-    public static Map<String, Class<TdApi.Function<?>>> getFunctions() {
-        return FUNCTIONS;
+    /**
+     * Names of all TdApi functions, generated at build time from TdApi.java.
+     */
+    public static Set<String> getFunctionNames() {
+        return TdApiRegistry.FUNCTION_NAMES;
     }
 
     public static TdApi.Function<?> getFunction(String method, Object params) {
-        Class<TdApi.Function<?>> func = FUNCTIONS.get(method);
-        if (func == null) {
-            return null;
-        }
-        if (params == null) {
-            return ReflectUtil.newInstance(func);
+        TdApi.Function<?> function = TdApiRegistry.newFunction(method);
+        if (function == null || params == null) {
+            return function;
         }
-        return BeanUtil.toBean(params, func, COPY_OPTIONS);
+        BeanUtil.copyProperties(params, function, COPY_OPTIONS);
+        return function;
     }
 
     public static String getChatType(TdApi.ChatType type) {
@@ -155,11 +132,11 @@ public class TdApiHelp {
     }
 
     public static Integer getFileId(TdApi.Message message) {
-        return getFileHandler(message).map(FileHandler::getFileId).orElse(null);
+        return MessageDescriptor.of(message).map(MessageDescriptor::fileId).orElse(null);
     }
 
     public static String getFileUniqueId(TdApi.Message message) {
-        return getFileHandler(message).map(FileHandler::getFileUniqueId).orElse(null);
+        return MessageDescriptor.of(message).map(MessageDescriptor::uniqueId).orElse(null);
     }
 
     public static List<TdApi.Message> filterUniqueMessages(List<TdApi.Message> messages) {
@@ -195,39 +172,26 @@ public class TdApiHelp {
     }
 
     public static <T extends FileHandler<? extends TdApi.MessageContent>> Optional<T> getFileHandler(TdApi.Message message) {
-        if (message == null) return Optional.empty();
-        switch (message.content.getConstructor()) {
-            case TdApi.MessagePhoto.CONSTRUCTOR -> {
-                return Optional.of((T) new PhotoHandler(message));
-            }
-            case TdApi.MessageVideo.CONSTRUCTOR -> {
-                return Optional.of((T) new VideoHandler(message));
-            }
-            case TdApi.MessageAudio.CONSTRUCTOR -> {
-                return Optional.of((T) new AudioHandler(message));
-            }
-            case TdApi.MessageDocument.CONSTRUCTOR -> {
-                return Optional.of((T) new DocumentHandler(message));
-            }
-            default -> {
-                return Optional.empty();
-            }
-        }
+        return MessageDescriptor.of(message).map(descriptor -> (T) descriptor.handler());
     }
 
     public static abstract class FileHandler<T extends TdApi.MessageContent> {
-        protected TdApi.Message message;
+        protected final MessageDescriptor descriptor;
 
-        protected T content;
+        protected final T content;
 
-        public FileHandler(TdApi.Message message) {
-            this.message = message;
-            this.content = (T) message.content;
+        public FileHandler(MessageDescriptor descriptor) {
+            this.descriptor = descriptor;
+            this.content = (T) descriptor.content();
         }
 
-        public abstract Integer getFileId();
+        public Integer getFileId() {
+            return descriptor.fileId();
+        }
 
-        public abstract String getFileUniqueId();
+        public String getFileUniqueId() {
+            return descriptor.uniqueId();
+        }
 
         public abstract FileRecord convertFileRecord(long telegramId);
 
@@ -235,33 +199,28 @@ public class TdApiHelp {
             return content;
         }
 
-        public abstract TdApi.File getFile();
+        public MessageDescriptor getDescriptor() {
+            return descriptor;
+        }
+
+        public TdApi.File getFile() {
+            return descriptor.file();
+        }
 
         public JsonObject getExtraInfo() {
             return JsonObject.of();
         }
 
         public TdApi.Thumbnail getThumbnail() {
-            return null;
+            return descriptor.thumbnail();
         }
 
         public String getThumbnailFileUniqueId() {
-            TdApi.Thumbnail thumbnail = getThumbnail();
-            if (thumbnail == null) {
-                return null;
-            }
-            return thumbnail.file.remote.uniqueId;
+            return descriptor.thumbnailUniqueId();
         }
 
         public long getReactionCount() {
-            TdApi.MessageReaction[] reactions = BeanUtil.getProperty(message, "interactionInfo.reactions.reactions");
-            if (reactions == null || reactions.length == 0) {
-                return 0L;
-            }
-
-            return Arrays.stream(reactions)
-                    .mapToLong(reaction -> reaction.totalCount)
-                    .sum();
+            return descriptor.reactionCount();
         }
 
         public FileRecord convertThumbnailRecord(long telegramId) {
@@ -274,11 +233,11 @@ public class TdApiHelp {
                     thumbnail.file.id,
                     thumbnail.file.remote.uniqueId,
                     telegramId,
-                    message.chatId,
-                    message.id,
-                    message.mediaAlbumId,
-                    message.date,
-                    message.restrictionInfo != null && message.restrictionInfo.hasSensitiveContent,
+                    descriptor.chatId(),
+                    descriptor.messageId(),
+                    descriptor.mediaAlbumId(),
+                    descriptor.date(),
+                    descriptor.hasSensitiveContent(),
                     thumbnail.file.size == 0 ? thumbnail.file.expectedSize : thumbnail.file.size,
                     thumbnail.file.local == null ? 0 : thumbnail.file.local.downloadedSize,
                     "thumbnail",
@@ -304,18 +263,8 @@ public class TdApiHelp {
 
     public static class PhotoHandler extends FileHandler<TdApi.MessagePhoto> {
 
-        public PhotoHandler(TdApi.Message message) {
-            super(message);
-        }
-
-        @Override
-        public Integer getFileId() {
-            return content.photo.sizes[content.photo.sizes.length - 1].photo.id;
-        }
-
-        @Override
-        public String getFileUniqueId() {
-            return content.photo.sizes[content.photo.sizes.length - 1].photo.remote.uniqueId;
+        public PhotoHandler(MessageDescriptor descriptor) {
+            super(descriptor);
         }
 
         @Override
@@ -325,19 +274,19 @@ public class TdApiHelp {
                     getFileId(),
                     file.remote.uniqueId,
                     telegramId,
-                    message.chatId,
-                    message.id,
-                    message.mediaAlbumId,
-                    message.date,
-                    message.restrictionInfo != null && message.restrictionInfo.hasSensitiveContent,
-                    file.size == 0 ? file.expectedSize : file.size,
-                    file.local == null ? 0 : file.local.downloadedSize,
+                    descriptor.chatId(),
+                    descriptor.messageId(),
+                    descriptor.mediaAlbumId(),
+                    descriptor.date(),
+                    descriptor.hasSensitiveContent(),
+                    descriptor.size(),
+                    descriptor.downloadedSize(),
                     "photo",
                     null,
                     null,
-                    Base64.encode((byte[]) BeanUtil.getProperty(content, "photo.minithumbnail.data")),
+                    Base64.encode(descriptor.minithumbnail()),
                     getThumbnailFileUniqueId(),
-                    content.caption.text,
+                    descriptor.caption(),
                     Json.encode(getExtraInfo()),
                     null,
                     "idle",
@@ -351,11 +300,6 @@ public class TdApiHelp {
             );
         }
 
-        @Override
-        public TdApi.File getFile() {
-            return content.photo.sizes[content.photo.sizes.length - 1].photo;
-        }
-
         @Override
         public JsonObject getExtraInfo() {
             TdApi.PhotoSize photo = content.photo.sizes[content.photo.sizes.length - 1];
@@ -363,53 +307,12 @@ public class TdApiHelp {
                     "height", photo.height,
                     "type", photo.type);
         }
-
-        @Override
-        public TdApi.Thumbnail getThumbnail() {
-            TdApi.PhotoSize[] sizes = content.photo.sizes;
-            if (sizes == null || sizes.length == 0) {
-                return null;
-            }
-            TdApi.PhotoSize fullSize = sizes[sizes.length - 1];
-            // Prefer the ~320px "m" box: crisp enough for a preview yet small (~10-30KB).
-            TdApi.PhotoSize preview = null;
-            for (TdApi.PhotoSize size : sizes) {
-                if ("m".equals(size.type)) {
-                    preview = size;
-                    break;
-                }
-            }
-            // Otherwise fall back to the smallest available size.
-            if (preview == null) {
-                preview = sizes[0];
-                for (TdApi.PhotoSize size : sizes) {
-                    if (Math.max(size.width, size.height) < Math.max(preview.width, preview.height)) {
-                        preview = size;
-                    }
-                }
-            }
-            // If the only available size is the full-resolution image, there's no lighter preview.
-            if (preview.photo.remote.uniqueId.equals(fullSize.photo.remote.uniqueId)) {
-                return null;
-            }
-            return new TdApi.Thumbnail(new TdApi.ThumbnailFormatJpeg(), preview.width, preview.height, preview.photo);
-        }
     }
 
     public static class VideoHandler extends FileHandler<TdApi.MessageVideo> {
 
-        public VideoHandler(TdApi.Message message) {
-            super(message);
-        }
-
-        @Override
-        public Integer getFileId() {
-            return content.video.video.id;
-        }
-
-        @Override
-        public String getFileUniqueId() {
-            return content.video.video.remote.uniqueId;
+        public VideoHandler(MessageDescriptor descriptor) {
+            super(descriptor);
         }
 
         @Override
@@ -419,19 +322,19 @@ public class TdApiHelp {
                     file.id,
                     file.remote.uniqueId,
                     telegramId,
-                    message.chatId,
-                    message.id,
-                    message.mediaAlbumId,
-                    message.date,
-                    message.restrictionInfo != null && message.restrictionInfo.hasSensitiveContent,
-                    file.size == 0 ? file.expectedSize : file.size,
-                    file.local == null ? 0 : file.local.downloadedSize,
+                    descriptor.chatId(),
+                    descriptor.messageId(),
+                    descriptor.mediaAlbumId(),
+                    descriptor.date(),
+                    descriptor.hasSensitiveContent(),
+                    descriptor.size(),
+                    descriptor.downloadedSize(),
                     "video",
                     content.video.mimeType,
                     content.video.fileName,
-                    Base64.encode((byte[]) BeanUtil.getProperty(content, "video.minithumbnail.data")),
+                    Base64.encode(descriptor.minithumbnail()),
                     getThumbnailFileUniqueId(),
-                    content.caption.text,
+                    descriptor.caption(),
                     Json.encode(getExtraInfo()),
                     null,
                     "idle",
@@ -445,11 +348,6 @@ public class TdApiHelp {
             );
         }
 
-        @Override
-        public TdApi.File getFile() {
-            return content.video.video;
-        }
-
         @Override
         public JsonObject getExtraInfo() {
             TdApi.Video video = content.video;
@@ -458,27 +356,12 @@ public class TdApiHelp {
                     "duration", video.duration,
                     "mimeType", video.mimeType);
         }
-
-        @Override
-        public TdApi.Thumbnail getThumbnail() {
-            return content.video.thumbnail;
-        }
     }
 
     public static class AudioHandler extends FileHandler<TdApi.MessageAudio> {
 
-        public AudioHandler(TdApi.Message message) {
-            super(message);
-        }
-
-        @Override
-        public Integer getFileId() {
-            return content.audio.audio.id;
-        }
-
-        @Override
-        public String getFileUniqueId() {
-            return content.audio.audio.remote.uniqueId;
+        public AudioHandler(MessageDescriptor descriptor) {
+            super(descriptor);
         }
 
         @Override
@@ -488,19 +371,19 @@ public class TdApiHelp {
                     file.id,
                     file.remote.uniqueId,
                     telegramId,
-                    message.chatId,
-                    message.id,
-                    message.mediaAlbumId,
-                    message.date,
-                    message.restrictionInfo != null && message.restrictionInfo.hasSensitiveContent,
-                    file.size == 0 ? file.expectedSize : file.size,
-                    file.local == null ? 0 : file.local.downloadedSize,
+                    descriptor.chatId(),
+                    descriptor.messageId(),
+                    descriptor.mediaAlbumId(),
+                    descriptor.date(),
+                    descriptor.hasSensitiveContent(),
+                    descriptor.size(),
+                    descriptor.downloadedSize(),
                     "audio",
                     content.audio.mimeType,
                     content.audio.fileName,
-                    Base64.encode((byte[]) BeanUtil.getProperty(content, "audio.albumCoverMinithumbnail.data")),
+                    Base64.encode(descriptor.minithumbnail()),
                     getThumbnailFileUniqueId(),
-                    content.caption.text,
+                    descriptor.caption(),
                     Json.encode(getExtraInfo()),
                     null,
                     "idle",
@@ -513,36 +396,12 @@ public class TdApiHelp {
                     getReactionCount()
             );
         }
-
-        @Override
-        public TdApi.File getFile() {
-            return content.audio.audio;
-        }
-
-        @Override
-        public TdApi.Thumbnail getThumbnail() {
-            TdApi.Thumbnail thumbnail = content.audio.albumCoverThumbnail;
-            if (thumbnail == null && ArrayUtil.isNotEmpty(content.audio.externalAlbumCovers)) {
-                thumbnail = content.audio.externalAlbumCovers[0];
-            }
-            return thumbnail;
-        }
     }
 
     public static class DocumentHandler extends FileHandler<TdApi.MessageDocument> {
 
-        public DocumentHandler(TdApi.Message message) {
-            super(message);
-        }
-
-        @Override
-        public Integer getFileId() {
-            return content.document.document.id;
-        }
-
-        @Override
-        public String getFileUniqueId() {
-            return content.document.document.remote.uniqueId;
+        public DocumentHandler(MessageDescriptor descriptor) {
+            super(descriptor);
         }
 
         @Override
@@ -552,19 +411,19 @@ public class TdApiHelp {
                     file.id,
                     file.remote.uniqueId,
                     telegramId,
-                    message.chatId,
-                    message.id,
-                    message.mediaAlbumId,
-                    message.date,
-                    message.restrictionInfo != null && message.restrictionInfo.hasSensitiveContent,
-                    file.size == 0 ? file.expectedSize : file.size,
-                    file.local == null ? 0 : file.local.downloadedSize,
+                    descriptor.chatId(),
+                    descriptor.messageId(),
+                    descriptor.mediaAlbumId(),
+                    descriptor.date(),
+                    descriptor.hasSensitiveContent(),
+                    descriptor.size(),
+                    descriptor.downloadedSize(),
                     "file",
                     content.document.mimeType,
                     content.document.fileName,
-                    Base64.encode((byte[]) BeanUtil.getProperty(content, "document.minithumbnail.data")),
+                    Base64.encode(descriptor.minithumbnail()),
                     getThumbnailFileUniqueId(),
-                    content.caption.text,
+                    descriptor.caption(),
                     Json.encode(getExtraInfo()),
                     null,
                     "idle",
@@ -577,16 +436,6 @@ public class TdApiHelp {
                     getReactionCount()
             );
         }
-
-        @Override
-        public TdApi.File getFile() {
-            return content.document.document;
-        }
-
-        @Override
-        public TdApi.Thumbnail getThumbnail() {
-            return content.document.thumbnail;
-        }
     }
 
     public static class ComparablePhotoSize implements Comparable<TdApi.PhotoSize> {
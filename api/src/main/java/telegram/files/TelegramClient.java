@@ -1,6 +1,5 @@
 package telegram.files;
 
-import cn.hutool.core.util.TypeUtil;
 import cn.hutool.log.Log;
 import cn.hutool.log.LogFactory;
 import io.vertx.core.Future;
@@ -21,6 +20,8 @@ public class TelegramClient {
 
     private boolean initialized = false;
 
+    private final TelegramClientMetrics metrics = new TelegramClientMetrics(Config.TELEGRAM_SLOW_CALL_MS);
+
     static {
         Client.setLogMessageHandler(0, new LogMessageHandler());
 
@@ -51,11 +52,10 @@ public class TelegramClient {
 
     @SuppressWarnings("unchecked")
     public <R extends TdApi.Object> Future<R> execute(TdApi.Function<R> method, boolean ignoreException) {
-        log.trace("Execute method: %s".formatted(TypeUtil.getTypeArgument(method.getClass())));
         if (!initialized) {
             throw new IllegalStateException("Client is not initialized");
         }
-        return Future.future(promise -> client.send(method, object -> {
+        return Future.future(promise -> send(method, object -> {
             if (object.getConstructor() == TdApi.Error.CONSTRUCTOR) {
                 if (ignoreException) {
                     promise.complete(null);
@@ -68,6 +68,23 @@ public class TelegramClient {
         }));
     }
 
+    /**
+     * Send a function with a raw result handler, e.g. when the result type is not known, recorded in the metrics
+     * like {@link #execute(TdApi.Function)}.
+     */
+    public void send(TdApi.Function<?> method, Client.ResultHandler resultHandler) {
+        if (!initialized) {
+            throw new IllegalStateException("Client is not initialized");
+        }
+        String methodName = method.getClass().getSimpleName();
+        long startNanos = metrics.start(methodName);
+        client.send(method, object -> {
+            metrics.end(methodName, startNanos,
+                    object.getConstructor() == TdApi.Error.CONSTRUCTOR ? ((TdApi.Error) object).code : 0);
+            resultHandler.onResult(object);
+        });
+    }
+
     public <R extends TdApi.Object> Future<R> execute(TdApi.Function<R> method, long timeoutMs, Vertx vertx) {
         Promise<R> promise = Promise.promise();
 
@@ -92,6 +109,10 @@ public class TelegramClient {
         return promise.future();
     }
 
+    public TelegramClientMetrics getMetrics() {
+        return metrics;
+    }
+
     public Client getNativeClient() {
         return client;
     }
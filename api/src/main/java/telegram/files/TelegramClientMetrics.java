@@ -0,0 +1,158 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per method call statistics of one {@link TelegramClient}: in-flight calls, latency histogram,
+ * errors by TDLib error code and the most recent slow calls.
+ * <p>
+ * Recording is lock free and allocation free except for the first call of a method and for slow calls,
+ * so it is always on.
+ */
+public class TelegramClientMetrics {
+
+    /**
+     * Upper bounds (inclusive) of the latency buckets in milliseconds, the last bucket counts everything above.
+     */
+    static final long[] LATENCY_BUCKETS_MS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    static final int SLOW_CALL_CAPACITY = 100;
+
+    private final long slowCallThresholdMs;
+
+    private final Map<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<SlowCall> slowCalls = new AtomicReferenceArray<>(SLOW_CALL_CAPACITY);
+
+    private final AtomicLong slowCallSequence = new AtomicLong();
+
+    public TelegramClientMetrics(long slowCallThresholdMs) {
+        this.slowCallThresholdMs = slowCallThresholdMs;
+    }
+
+    /**
+     * Record the start of a call, returns the start time to pass to {@link #end}.
+     */
+    public long start(String method) {
+        methods.computeIfAbsent(method, _ -> new MethodMetrics()).inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the end of a call.
+     *
+     * @param errorCode TDLib error code, 0 if the call succeeded
+     */
+    public void end(String method, long startNanos, int errorCode) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long elapsedMs = elapsedNanos / 1_000_000;
+        MethodMetrics metrics = methods.computeIfAbsent(method, _ -> new MethodMetrics());
+        metrics.inFlight.decrementAndGet();
+        metrics.calls.increment();
+        metrics.totalNanos.add(elapsedNanos);
+        metrics.maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+        metrics.buckets.incrementAndGet(bucketIndex(elapsedMs));
+        if (errorCode != 0) {
+            metrics.errors.computeIfAbsent(errorCode, _ -> new LongAdder()).increment();
+        }
+        if (elapsedMs >= slowCallThresholdMs) {
+            long sequence = slowCallSequence.getAndIncrement();
+            slowCalls.set((int) (sequence % SLOW_CALL_CAPACITY),
+                    new SlowCall(method, System.currentTimeMillis() - elapsedMs, elapsedMs, errorCode));
+        }
+    }
+
+    static int bucketIndex(long elapsedMs) {
+        for (int i = 0; i < LATENCY_BUCKETS_MS.length; i++) {
+            if (elapsedMs <= LATENCY_BUCKETS_MS[i]) {
+                return i;
+            }
+        }
+        return LATENCY_BUCKETS_MS.length;
+    }
+
+    public long getInFlight(String method) {
+        MethodMetrics metrics = methods.get(method);
+        return metrics == null ? 0 : metrics.inFlight.get();
+    }
+
+    public long getCalls(String method) {
+        MethodMetrics metrics = methods.get(method);
+        return metrics == null ? 0 : metrics.calls.sum();
+    }
+
+    public long getErrors(String method, int errorCode) {
+        MethodMetrics metrics = methods.get(method);
+        LongAdder errors = metrics == null ? null : metrics.errors.get(errorCode);
+        return errors == null ? 0 : errors.sum();
+    }
+
+    /**
+     * Slow calls from the newest to the oldest.
+     */
+    public JsonArray getSlowCalls() {
+        JsonArray array = new JsonArray();
+        long sequence = slowCallSequence.get();
+        for (long i = sequence - 1; i >= 0 && i >= sequence - SLOW_CALL_CAPACITY; i--) {
+            SlowCall slowCall = slowCalls.get((int) (i % SLOW_CALL_CAPACITY));
+            if (slowCall != null) {
+                array.add(JsonObject.of("method", slowCall.method(),
+                        "startTime", slowCall.startTime(),
+                        "elapsedMs", slowCall.elapsedMs(),
+                        "errorCode", slowCall.errorCode()));
+            }
+        }
+        return array;
+    }
+
+    public JsonObject toJson() {
+        JsonObject methodsJson = new JsonObject();
+        new TreeMap<>(methods).forEach((method, metrics) -> {
+            long calls = metrics.calls.sum();
+            JsonArray histogram = new JsonArray();
+            for (int i = 0; i <= LATENCY_BUCKETS_MS.length; i++) {
+                histogram.add(JsonObject.of("le", i < LATENCY_BUCKETS_MS.length ? LATENCY_BUCKETS_MS[i] : null,
+                        "count", metrics.buckets.get(i)));
+            }
+            JsonObject errors = new JsonObject();
+            metrics.errors.forEach((code, count) -> errors.put(String.valueOf(code), count.sum()));
+            methodsJson.put(method, JsonObject.of(
+                    "inFlight", metrics.inFlight.get(),
+                    "calls", calls,
+                    "avgMs", calls == 0 ? 0 : metrics.totalNanos.sum() / calls / 1_000_000,
+                    "maxMs", metrics.maxNanos.get() / 1_000_000,
+                    "histogram", histogram,
+                    "errors", errors
+            ));
+        });
+        return JsonObject.of("slowCallThresholdMs", slowCallThresholdMs,
+                "methods", methodsJson,
+                "slowCalls", getSlowCalls());
+    }
+
+    private static class MethodMetrics {
+        private final AtomicLong inFlight = new AtomicLong();
+
+        private final LongAdder calls = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private final AtomicLongArray buckets = new AtomicLongArray(LATENCY_BUCKETS_MS.length + 1);
+
+        private final Map<Integer, LongAdder> errors = new ConcurrentHashMap<>();
+    }
+
+    public record SlowCall(String method, long startTime, long elapsedMs, int errorCode) {
+    }
+}
@@ -64,8 +64,8 @@ public class TelegramConverter {
                             thumbnailUniqueIds.add(fileRecord.thumbnailUniqueId());
                         }
                     });
-                    messageList.forEach(message -> TdApiHelp.getFileHandler(message).ifPresent(handler -> {
-                        String thumbnailUniqueId = handler.getThumbnailFileUniqueId();
+                    messageList.forEach(message -> MessageDescriptor.of(message).ifPresent(descriptor -> {
+                        String thumbnailUniqueId = descriptor.thumbnailUniqueId();
                         if (StrUtil.isNotBlank(thumbnailUniqueId)) {
                             thumbnailUniqueIds.add(thumbnailUniqueId);
                         }
@@ -88,7 +88,7 @@ public class TelegramConverter {
                                 FileRecord fileRecord = fileRecords.get(TdApiHelp.getFileUniqueId(message));
                                 String thumbnailUniqueId = fileRecord != null && StrUtil.isNotBlank(fileRecord.thumbnailUniqueId())
                                         ? fileRecord.thumbnailUniqueId()
-                                        : TdApiHelp.getFileHandler(message).map(handler -> handler.getThumbnailFileUniqueId()).orElse(null);
+                                        : MessageDescriptor.of(message).map(MessageDescriptor::thumbnailUniqueId).orElse(null);
                                 return withSource(telegramId,
                                         fileRecord,
                                         StrUtil.isBlank(thumbnailUniqueId) ? null : thumbnails.get(thumbnailUniqueId),
@@ -150,19 +150,18 @@ public class TelegramConverter {
                                         FileRecord fileRecord,
                                         FileRecord thumbnailRecord,
                                         TdApi.Message message) {
-        TdApiHelp.FileHandler<? extends TdApi.MessageContent> fileHandler = TdApiHelp.getFileHandler(message)
-                .orElse(null);
+        MessageDescriptor descriptor = MessageDescriptor.of(message).orElse(null);
+        TdApiHelp.FileHandler<? extends TdApi.MessageContent> fileHandler = descriptor == null ? null : descriptor.handler();
         boolean loaded = fileRecord != null;
         if (!loaded && fileHandler == null) {
             return null;
         }
 
-        if (fileHandler != null) {
-            FileRecord source = fileHandler.convertFileRecord(telegramId);
+        if (descriptor != null) {
             if (fileRecord == null) {
-                fileRecord = source;
+                fileRecord = fileHandler.convertFileRecord(telegramId);
             } else {
-                fileRecord = fileRecord.withSourceField(source.id(), source.downloadedSize());
+                fileRecord = fileRecord.withSourceField(descriptor.fileId(), descriptor.downloadedSize());
             }
         }
 
@@ -181,7 +180,9 @@ public class TelegramConverter {
         fileObject.put("originalDeleted", message == null);
 
         if (message != null) {
-            fileObject.put("hasReply", Convert.toInt(BeanUtil.getProperty(message, "interactionInfo.replyInfo.replyCount"), 0) > 0);
+            fileObject.put("hasReply", message.interactionInfo != null
+                                       && message.interactionInfo.replyInfo != null
+                                       && message.interactionInfo.replyInfo.replyCount > 0);
         }
 
         // Put thumbnail information
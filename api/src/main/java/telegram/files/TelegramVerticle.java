@@ -3,10 +3,12 @@ package telegram.files;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.codec.Base64;
+import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.util.ArrayUtil;
+import cn.hutool.core.util.EnumUtil;
 import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.log.Log;
@@ -24,19 +26,42 @@ import org.jooq.lambda.tuple.Tuple2;
 import telegram.files.repository.*;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class TelegramVerticle extends AbstractVerticle {
 
     private static final Log log = LogFactory.get();
 
+    public static final int DEFAULT_DOWNLOAD_PRIORITY = 32;
+
+    public static final DownloadBudget DOWNLOAD_BUDGET = new DownloadBudget(Config.DOWNLOAD_GLOBAL_LIMIT,
+            (long) (Config.DOWNLOAD_GLOBAL_BANDWIDTH_MB * 1024 * 1024),
+            DownloadBudget.parseWeights(Config.DOWNLOAD_ACCOUNT_WEIGHTS));
+
+    public static final DownloadDedup DOWNLOAD_DEDUP = new DownloadDedup();
+
+    public static final DownloadRetry DOWNLOAD_RETRY = new DownloadRetry();
+
+    /**
+     * Running segmented downloads, key is the unique id of the file, each is ticked by the account that started it
+     */
+    private static final Map<String, SegmentedDownload> SEGMENTED_DOWNLOADS = new ConcurrentHashMap<>();
+
+    private static Future<SettingSegmentedDownloads> segmentedDownloadStates;
+
+    /**
+     * Bulk files paused by the lanes or the budget of each account, key is telegramId, saved to resume them after a restart
+     */
+    private static Future<Map<Long, List<Integer>>> lanePauses;
+
+    private static final int MAX_GET_MESSAGES_SIZE = 100;
+
     public TelegramClient client;
 
     private TelegramChats telegramChats;
@@ -61,12 +86,45 @@ public class TelegramVerticle extends AbstractVerticle {
 
     private long downloadStatusReconciliationTimerId;
 
+    private static final long RECONCILIATION_SYNC_INTERVAL_MS = 60_000;
+
+    private DownloadReconciler downloadReconciler;
+
+    private long lastReconciliationSyncTime;
+
     private volatile TdApi.ConnectionState lastConnectionState;
 
     private long lastFileEventTime;
 
     private long lastFileDownloadEventTime;
 
+    public final DownloadLanes downloadLanes = new DownloadLanes(Config.DOWNLOAD_INTERACTIVE_SLOTS);
+
+    private static final long DOWNLOAD_LANES_INTERVAL_MS = 1000;
+
+    private long downloadLanesTimerId;
+
+    // Completed once the pauses saved before a restart are resumed, the pauses of this account are saved afterward
+    private Future<Void> lanePausesResumed;
+
+    private List<Integer> savedLanePauses = List.of();
+
+    private static final long SEGMENTED_DOWNLOAD_INTERVAL_MS = 2000;
+
+    private static final long SEGMENTED_WORKERS_INTERVAL_MS = 60_000;
+
+    private long segmentedDownloadTimerId;
+
+    private boolean segmentedDownloadsResumed;
+
+    private long lastSegmentedWorkersRefresh;
+
+    private static final long DOWNLOAD_RETRY_INTERVAL_MS = 5000;
+
+    private long downloadRetryTimerId;
+
+    private final RateBudget linkBudget = new RateBudget(Config.DOWNLOAD_LINK_RATE, System.currentTimeMillis());
+
     public TelegramVerticle(String rootPath) {
         this.rootPath = rootPath;
     }
@@ -108,6 +166,13 @@ public class TelegramVerticle extends AbstractVerticle {
         Future.all(initEventConsumer(), initAvgSpeed())
                 .compose(_ -> this.enableProxy(this.proxyName))
                 .compose(_ -> this.initDownloadStatusReconciliation())
+                .onSuccess(_ -> downloadLanesTimerId = vertx.setPeriodic(DOWNLOAD_LANES_INTERVAL_MS, _ -> balanceDownloadLanes()))
+                .onSuccess(_ -> downloadRetryTimerId = vertx.setPeriodic(DOWNLOAD_RETRY_INTERVAL_MS, _ -> retryFailedDownloads()))
+                .onSuccess(_ -> {
+                    if (Config.DOWNLOAD_SEGMENTED_MIN_SIZE_MB > 0) {
+                        segmentedDownloadTimerId = vertx.setPeriodic(SEGMENTED_DOWNLOAD_INTERVAL_MS, _ -> tickSegmentedDownloads());
+                    }
+                })
                 .onSuccess(_ -> startPromise.complete())
                 .onFailure(startPromise::fail);
     }
@@ -123,6 +188,26 @@ public class TelegramVerticle extends AbstractVerticle {
             vertx.cancelTimer(downloadStatusReconciliationTimerId);
             downloadStatusReconciliationTimerId = 0;
         }
+        if (downloadLanesTimerId != 0) {
+            vertx.cancelTimer(downloadLanesTimerId);
+            downloadLanesTimerId = 0;
+        }
+        if (segmentedDownloadTimerId != 0) {
+            vertx.cancelTimer(segmentedDownloadTimerId);
+            segmentedDownloadTimerId = 0;
+        }
+        if (downloadRetryTimerId != 0) {
+            vertx.cancelTimer(downloadRetryTimerId);
+            downloadRetryTimerId = 0;
+        }
+        if (telegramRecord != null) {
+            long telegramId = telegramRecord.id();
+            DOWNLOAD_BUDGET.remove(telegramId);
+            dispatchWaiters(DOWNLOAD_DEDUP.remove(telegramId));
+            // The saved state of its own segmented downloads is resumed by the account next time
+            SEGMENTED_DOWNLOADS.values().removeIf(segmentedDownload -> segmentedDownload.getState().telegramId == telegramId);
+            SEGMENTED_DOWNLOADS.values().forEach(segmentedDownload -> segmentedDownload.removeWorker(telegramId));
+        }
         return client.execute(new TdApi.Close())
                 .onSuccess(_ -> {
                     log.info("[%s] Telegram account closed".formatted(this.getRootId()));
@@ -285,6 +370,17 @@ public class TelegramVerticle extends AbstractVerticle {
                         ));
     }
 
+    /**
+     * Download the files of a list of message links in one batch, see {@link LinkDownloads}. The links are resolved
+     * within {@link Config#DOWNLOAD_LINK_RATE}, then started together by {@link #startDownloads(List)}.
+     *
+     * @param onResult called with the result of each link once it is known, a link that can't be resolved first
+     */
+    public Future<Void> startDownloadLinks(List<String> links, Consumer<JsonObject> onResult) {
+        return new LinkDownloads(client::execute, linkBudget, wait -> vertx.timer(wait), this::startDownloads)
+                .download(links, onResult);
+    }
+
     public Future<Tuple2<String, String>> loadPreview(String uniqueId) {
         return DataVerticle.fileRepository
                 .getByUniqueId(uniqueId)
@@ -298,63 +394,221 @@ public class TelegramVerticle extends AbstractVerticle {
     }
 
     public Future<FileRecord> startDownload(Long chatId, Long messageId, Integer fileId) {
-        return Future.all(
-                        client.execute(new TdApi.GetFile(fileId)),
-                        client.execute(new TdApi.GetMessage(chatId, messageId)),
-                        client.execute(new TdApi.GetMessageThread(chatId, messageId), true)
-                )
-                .compose(results -> {
-                    TdApi.File file = results.resultAt(0);
-                    return DataVerticle.fileRepository.getByUniqueId(file.remote.uniqueId)
-                            .map(fileRecord -> Tuple.tuple(file,
-                                    results.<TdApi.Message>resultAt(1),
-                                    results.<TdApi.MessageThreadInfo>resultAt(2),
-                                    fileRecord
-                            ));
-                })
-                .compose(results -> {
-                    TdApi.File file = results.v1;
-                    TdApi.Message message = results.v2;
-                    TdApi.MessageThreadInfo messageThreadInfo = results.v3;
-                    FileRecord dbFileRecord = results.v4;
-                    if (file.local != null) {
-                        if (file.local.isDownloadingCompleted) {
-                            return syncFileDownloadStatus(file, message, messageThreadInfo)
-                                    .compose(_ -> DataVerticle.fileRepository.getByUniqueId(file.remote.uniqueId));
-                        }
-                        if (file.local.isDownloadingActive) {
-                            return Future.failedFuture("File is downloading");
+        return startDownloads(List.of(new DownloadRequest(chatId, messageId, fileId)))
+                .compose(outcomes -> {
+                    DownloadOutcome outcome = outcomes.getFirst();
+                    return outcome.success() ? Future.succeededFuture(outcome.fileRecord()) : Future.failedFuture(outcome.error());
+                });
+    }
+
+    /**
+     * Start downloading a batch of files: messages are fetched with one {@code GetMessages} per chat, thread info only
+     * for messages that can be in a thread, the records are upserted in a single transaction and
+     * {@code AddFileToDownloads} is issued with the requested priority.
+     * The returned outcomes are in request order, a failed file does not fail the batch.
+     */
+    public Future<List<DownloadOutcome>> startDownloads(List<DownloadRequest> requests) {
+        if (CollUtil.isEmpty(requests)) {
+            return Future.succeededFuture(List.of());
+        }
+        DownloadOutcome[] outcomes = new DownloadOutcome[requests.size()];
+        return getMessages(requests)
+                .compose(messages -> Future.all(requests.stream()
+                                .map(request -> {
+                                    TdApi.Message message = messages.get(messageKey(request.chatId(), request.messageId()));
+                                    if (!mayHaveThread(message)) {
+                                        return Future.<TdApi.MessageThreadInfo>succeededFuture();
+                                    }
+                                    return client.execute(new TdApi.GetMessageThread(request.chatId(), request.messageId()), true);
+                                })
+                                .toList())
+                        .map(threadInfos -> {
+                            List<PendingDownload> pendingDownloads = new ArrayList<>();
+                            for (int i = 0; i < requests.size(); i++) {
+                                DownloadRequest request = requests.get(i);
+                                TdApi.Message message = messages.get(messageKey(request.chatId(), request.messageId()));
+                                if (message == null) {
+                                    outcomes[i] = DownloadOutcome.failure(request, "Message not found");
+                                    continue;
+                                }
+                                Optional<TdApiHelp.FileHandler<? extends TdApi.MessageContent>> fileHandler = TdApiHelp.getFileHandler(message);
+                                if (fileHandler.isEmpty()) {
+                                    outcomes[i] = DownloadOutcome.failure(request, "not support message type");
+                                    continue;
+                                }
+                                pendingDownloads.add(new PendingDownload(i, request, message, threadInfos.resultAt(i), fileHandler.get(),
+                                        request.ownerId() > 0 ? request.ownerId() : telegramRecord.id()));
+                            }
+                            return pendingDownloads;
+                        }))
+                .compose(pendingDownloads -> DataVerticle.fileRepository
+                        .getFilesByUniqueId(pendingDownloads.stream().map(p -> p.file().remote.uniqueId).toList())
+                        .compose(existFiles -> {
+                            List<Future<Void>> syncFutures = new ArrayList<>();
+                            List<PendingDownload> downloads = new ArrayList<>();
+                            for (PendingDownload pending : pendingDownloads) {
+                                TdApi.File file = pending.file();
+                                if (file.local != null) {
+                                    if (file.local.isDownloadingCompleted) {
+                                        syncFutures.add(syncFileDownloadStatus(file, pending.message(), pending.threadInfo(), pending.ownerId())
+                                                .recover(e -> {
+                                                    outcomes[pending.index()] = DownloadOutcome.failure(pending.request(), e.getMessage());
+                                                    return Future.succeededFuture();
+                                                }));
+                                        continue;
+                                    }
+                                    if (file.local.isDownloadingActive) {
+                                        outcomes[pending.index()] = DownloadOutcome.failure(pending.request(), "File is downloading");
+                                        continue;
+                                    }
+                                }
+                                if (DOWNLOAD_DEDUP.isOwnedByOther(file.remote.uniqueId, telegramRecord.id())) {
+                                    DOWNLOAD_DEDUP.await(file.remote.uniqueId, new DownloadDedup.Waiter(telegramRecord.id(), pending.request()));
+                                    outcomes[pending.index()] = DownloadOutcome.failure(pending.request(), "File is downloading by another account");
+                                    continue;
+                                }
+                                FileRecord dbFileRecord = existFiles.get(file.remote.uniqueId);
+                                if (dbFileRecord != null
+                                    && dbFileRecord.telegramId() != pending.ownerId()
+                                    && dbFileRecord.isDownloadStatus(FileRecord.DownloadStatus.completed)
+                                    && FileUtil.exist(dbFileRecord.localPath())) {
+                                    syncFutures.add(reuseDownloadedFile(pending, dbFileRecord)
+                                            .recover(e -> {
+                                                outcomes[pending.index()] = DownloadOutcome.failure(pending.request(), e.getMessage());
+                                                return Future.succeededFuture();
+                                            }));
+                                    continue;
+                                }
+                                if (dbFileRecord != null
+                                    && !dbFileRecord.isDownloadStatus(FileRecord.DownloadStatus.idle)
+                                    && !dbFileRecord.isDownloadStatus(FileRecord.DownloadStatus.error)) {
+                                    outcomes[pending.index()] = DownloadOutcome.failure(pending.request(), "File is already downloading or completed");
+                                    continue;
+                                }
+                                downloads.add(pending);
+                            }
+                            return Future.all(syncFutures).compose(_ -> addFilesToDownloads(downloads, outcomes));
+                        }))
+                .map(_ -> {
+                    for (int i = 0; i < outcomes.length; i++) {
+                        if (outcomes[i] == null) {
+                            outcomes[i] = DownloadOutcome.failure(requests.get(i), "File is already downloaded");
                         }
-//                        return Future.failedFuture("Unknown file download status");
-                    }
-                    if (dbFileRecord != null && !dbFileRecord.isDownloadStatus(FileRecord.DownloadStatus.idle)) {
-                        return Future.failedFuture("File is already downloading or completed");
                     }
+                    return Arrays.asList(outcomes);
+                });
+    }
 
-                    TdApiHelp.FileHandler<? extends TdApi.MessageContent> fileHandler = TdApiHelp.getFileHandler(message)
-                            .orElseThrow(() -> VertxException.noStackTrace("not support message type"));
-                    FileRecord fileRecord = fileHandler.convertFileRecord(telegramRecord.id()).withThreadInfo(messageThreadInfo);
-                    return DataVerticle.fileRepository.createIfNotExist(fileRecord)
-                            .compose(created -> {
-                                if (!created) {
-                                    return DataVerticle.fileRepository.updateFileId(fileRecord.id(), fileRecord.uniqueId());
-                                }
-                                return Future.succeededFuture();
-                            })
-                            .compose(ignore -> client.execute(new TdApi.AddFileToDownloads(fileId, chatId, messageId, 32)))
-                            .onSuccess(ignore -> {
-                                sendEvent(EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
-                                        .put("fileId", fileId)
-                                        .put("uniqueId", fileRecord.uniqueId())
-                                        .put("downloadStatus", FileRecord.DownloadStatus.downloading)
-                                ));
+    /**
+     * {@code GetMessageThread} is a server call, so it is only sent for a message that can be in a thread: one with
+     * replies, e.g. a channel post with comments, or a reply, e.g. a comment in the discussion group.
+     */
+    private static boolean mayHaveThread(TdApi.Message message) {
+        if (message == null) {
+            return false;
+        }
+        return (message.interactionInfo != null && message.interactionInfo.replyInfo != null)
+               || message.replyTo instanceof TdApi.MessageReplyToMessage;
+    }
 
-                                downloadThumbnail(chatId, messageId, fileHandler.convertThumbnailRecord(telegramRecord.id()));
-                            })
-                            .map(fileRecord);
+    private Future<Map<String, TdApi.Message>> getMessages(List<DownloadRequest> requests) {
+        Map<Long, List<Long>> messageIdsByChat = requests.stream()
+                .collect(Collectors.groupingBy(DownloadRequest::chatId,
+                        LinkedHashMap::new,
+                        Collectors.mapping(DownloadRequest::messageId, Collectors.toList())));
+        List<Future<TdApi.Messages>> futures = new ArrayList<>();
+        messageIdsByChat.forEach((chatId, messageIds) ->
+                CollUtil.split(messageIds.stream().distinct().toList(), MAX_GET_MESSAGES_SIZE)
+                        .forEach(partition -> futures.add(client.execute(new TdApi.GetMessages(chatId,
+                                        partition.stream().mapToLong(Long::longValue).toArray()))
+                                .otherwise(e -> {
+                                    log.warn("[%s] Get messages failed, chatId: %d, error: %s".formatted(getRootId(), chatId, e.getMessage()));
+                                    return null;
+                                })))
+        );
+        return Future.join(futures)
+                .otherwiseEmpty()
+                .map(_ -> {
+                    Map<String, TdApi.Message> messages = new HashMap<>();
+                    futures.stream()
+                            .map(Future::result)
+                            .filter(Objects::nonNull)
+                            .flatMap(r -> Stream.of(r.messages))
+                            .filter(Objects::nonNull)
+                            .forEach(message -> messages.put(messageKey(message.chatId, message.id), message));
+                    return messages;
                 });
     }
 
+    private Future<Void> addFilesToDownloads(List<PendingDownload> downloads, DownloadOutcome[] outcomes) {
+        if (downloads.isEmpty()) {
+            return Future.succeededFuture();
+        }
+        // A file moved to a helper account is saved under the account that queued it, only the file id is the helper's
+        List<FileRecord> records = new ArrayList<>();
+        for (PendingDownload pending : downloads) {
+            records.add(pending.fileRecord());
+            FileRecord thumbnailRecord = pending.fileHandler().convertThumbnailRecord(pending.ownerId());
+            if (thumbnailRecord != null) {
+                records.add(thumbnailRecord);
+            }
+        }
+        return DataVerticle.fileRepository.upsertAll(records)
+                .onFailure(e -> downloads.forEach(pending ->
+                        outcomes[pending.index()] = DownloadOutcome.failure(pending.request(), e.getMessage())))
+                .compose(_ -> Future.join(downloads.stream()
+                        .map(pending -> {
+                            DownloadRequest request = pending.request();
+                            FileRecord fileRecord = pending.fileRecord();
+                            if (DOWNLOAD_DEDUP.claim(fileRecord.uniqueId(), telegramRecord.id()) != telegramRecord.id()) {
+                                DOWNLOAD_DEDUP.await(fileRecord.uniqueId(), new DownloadDedup.Waiter(telegramRecord.id(), request));
+                                outcomes[pending.index()] = DownloadOutcome.failure(request, "File is downloading by another account");
+                                return Future.succeededFuture();
+                            }
+                            DownloadLanes.Lane lane = downloadLanes.acquire(pending.file().id, request.lane());
+                            int priority = DownloadLanes.tdPriority(lane, request.tdPriority());
+                            return startSegmentedDownload(pending, fileRecord, priority)
+                                    .compose(segmented -> segmented ?
+                                            Future.<TdApi.File>succeededFuture() :
+                                            client.execute(new TdApi.AddFileToDownloads(pending.file().id,
+                                                    request.chatId(),
+                                                    request.messageId(),
+                                                    priority)))
+                                    .onSuccess(_ -> {
+                                        outcomes[pending.index()] = DownloadOutcome.success(request, fileRecord);
+                                        sendEvent(EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
+                                                .put("fileId", pending.file().id)
+                                                .put("uniqueId", fileRecord.uniqueId())
+                                                .put("type", fileRecord.type())
+                                                .put("downloadStatus", FileRecord.DownloadStatus.downloading)
+                                        ));
+
+                                        FileRecord thumbnailRecord = pending.fileHandler().convertThumbnailRecord(pending.ownerId());
+                                        if (thumbnailRecord != null && !thumbnailRecord.isDownloadStatus(FileRecord.DownloadStatus.completed)) {
+                                            client.execute(new TdApi.AddFileToDownloads(thumbnailRecord.id(),
+                                                            request.chatId(),
+                                                            request.messageId(),
+                                                            priority))
+                                                    .onSuccess(_ -> log.debug("[%s] Download thumbnail: %s".formatted(getRootId(), thumbnailRecord.uniqueId())));
+                                        }
+                                    })
+                                    .onFailure(e -> {
+                                        downloadLanes.release(pending.file().id, System.currentTimeMillis());
+                                        dispatchWaiters(DOWNLOAD_DEDUP.release(fileRecord.uniqueId(), telegramRecord.id()));
+                                        outcomes[pending.index()] = DownloadOutcome.failure(request, e.getMessage());
+                                        onDownloadFailed(pending.file(), request, lane, e.getMessage());
+                                    });
+                        })
+                        .toList()))
+                .otherwiseEmpty()
+                .onComplete(_ -> balanceDownloadLanes())
+                .mapEmpty();
+    }
+
+    private static String messageKey(long chatId, long messageId) {
+        return chatId + ":" + messageId;
+    }
+
     public Future<Boolean> downloadThumbnail(Long chatId, Long messageId, FileRecord thumbnailRecord) {
         if (thumbnailRecord == null) {
             return Future.succeededFuture(false);
@@ -370,12 +624,16 @@ public class TelegramVerticle extends AbstractVerticle {
                     if (thumbnailRecord.isDownloadStatus(FileRecord.DownloadStatus.completed)) {
                         return Future.succeededFuture(false);
                     }
-                    return client.execute(new TdApi.AddFileToDownloads(thumbnailRecord.id(), chatId, messageId, 32))
+                    DownloadLanes.Lane lane = downloadLanes.acquire(thumbnailRecord.id(), DownloadLanes.Lane.INTERACTIVE);
+                    return client.execute(new TdApi.AddFileToDownloads(thumbnailRecord.id(), chatId, messageId,
+                                    DownloadLanes.tdPriority(lane, DEFAULT_DOWNLOAD_PRIORITY)))
+                            .onFailure(_ -> downloadLanes.release(thumbnailRecord.id(), System.currentTimeMillis()))
                             .map(true);
                 })
                 .onSuccess(download -> {
                     if (download) {
                         log.debug("[%s] Download thumbnail: %s".formatted(this.getRootId(), thumbnailRecord.uniqueId()));
+                        balanceDownloadLanes();
                     }
                 });
     }
@@ -440,11 +698,17 @@ public class TelegramVerticle extends AbstractVerticle {
                         return Future.failedFuture("File not started downloading");
                     }
 
-                    return client.execute(new TdApi.CancelDownloadFile(fileId, false))
+                    return cancelSegmentedDownload(file.remote.uniqueId)
+                            .compose(_ -> client.execute(new TdApi.CancelDownloadFile(fileId, false)))
                             .map(file);
                 })
                 .compose(file -> client.execute(new TdApi.DeleteFile(fileId)).map(file))
                 .compose(file -> DataVerticle.fileRepository.deleteByUniqueId(file.remote.uniqueId).map(file))
+                .onSuccess(file -> {
+                    if (DOWNLOAD_RETRY.remove(file.remote.uniqueId)) {
+                        saveDownloadRetries();
+                    }
+                })
                 .onSuccess(file ->
                         sendEvent(EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
                                 .put("fileId", fileId)
@@ -454,6 +718,40 @@ public class TelegramVerticle extends AbstractVerticle {
                 .mapEmpty();
     }
 
+    /**
+     * Bulk downloads without progress for {@code stallTime}.
+     */
+    public List<Integer> getStalledDownloads(long stallTime) {
+        if (downloadReconciler == null) {
+            return List.of();
+        }
+        return downloadReconciler.getStalledFiles(System.currentTimeMillis(), stallTime).stream()
+                .filter(fileId -> !downloadLanes.isInteractive(fileId))
+                .toList();
+    }
+
+    /**
+     * Stop downloading a file so that another account can download it, the downloaded part is dropped and the
+     * record is back to idle.
+     */
+    public Future<FileRecord> releaseDownload(int fileId) {
+        return client.execute(new TdApi.GetFile(fileId))
+                .compose(file -> client.execute(new TdApi.CancelDownloadFile(fileId, false))
+                        .compose(_ -> client.execute(new TdApi.DeleteFile(fileId)))
+                        .compose(_ -> DataVerticle.fileRepository.updateDownloadStatus(fileId,
+                                file.remote.uniqueId,
+                                null,
+                                FileRecord.DownloadStatus.idle,
+                                null))
+                        .compose(_ -> DataVerticle.fileRepository.getByUniqueId(file.remote.uniqueId)))
+                .onSuccess(fileRecord -> {
+                    downloadLanes.release(fileId, System.currentTimeMillis());
+                    if (fileRecord != null) {
+                        dispatchWaiters(DOWNLOAD_DEDUP.release(fileRecord.uniqueId(), telegramRecord.id()));
+                    }
+                });
+    }
+
     public Future<Void> togglePauseDownload(Integer fileId, boolean isPaused) {
         return client.execute(new TdApi.GetFile(fileId))
                 .compose(file -> DataVerticle.fileRepository
@@ -465,7 +763,7 @@ public class TelegramVerticle extends AbstractVerticle {
                         return Future.failedFuture("File not started downloading");
                     }
                     if (file.local.isDownloadingCompleted) {
-                        return syncFileDownloadStatus(file, null, null).mapEmpty();
+                        return syncFileDownloadStatus(file, null, null, telegramRecord.id()).mapEmpty();
                     }
                     if (isPaused && !file.local.isDownloadingActive) {
                         return Future.failedFuture("File is not downloading");
@@ -477,7 +775,9 @@ public class TelegramVerticle extends AbstractVerticle {
                         // Maybe the file is not exist, so we need to redownload it
                         return DataVerticle.fileRepository.getByUniqueId(file.remote.uniqueId)
                                 .compose(fileRecord ->
-                                        client.execute(new TdApi.AddFileToDownloads(fileId, fileRecord.chatId(), fileRecord.messageId(), 32)))
+                                        client.execute(new TdApi.AddFileToDownloads(fileId, fileRecord.chatId(), fileRecord.messageId(),
+                                                DownloadLanes.tdPriority(downloadLanes.acquire(fileId, DownloadLanes.Lane.INTERACTIVE),
+                                                        DEFAULT_DOWNLOAD_PRIORITY))))
                                 .mapEmpty();
                     }
 
@@ -554,6 +854,13 @@ public class TelegramVerticle extends AbstractVerticle {
                 .mapEmpty();
     }
 
+    /**
+     * Current aggregate download speed of the account, in bytes per second.
+     */
+    public long getCurrentDownloadSpeed() {
+        return avgSpeed.getCurrentSpeed(System.currentTimeMillis(), 5 * 1000);
+    }
+
     public Future<JsonObject> getDownloadStatistics() {
         return Future.all(DataVerticle.fileRepository.getDownloadStatistics(this.telegramRecord.id()),
                 client.execute(new TdApi.GetNetworkStatistics())
@@ -576,6 +883,9 @@ public class TelegramVerticle extends AbstractVerticle {
             );
 
             jsonObject.put("speedStats", avgSpeed.getSpeedStats());
+            jsonObject.put("lanes", downloadLanes.getStatistics());
+            jsonObject.put("retries", DOWNLOAD_RETRY.getStatistics(telegramRecord.id()));
+            jsonObject.put("transfers", TransferVerticle.WORKERS.getStatistics(System.currentTimeMillis()));
             return jsonObject;
         });
     }
@@ -701,7 +1011,7 @@ public class TelegramVerticle extends AbstractVerticle {
                 promise.fail("Unsupported method: " + method);
                 return;
             }
-            client.getNativeClient().send(func, object -> {
+            client.send(func, object -> {
                 log.debug("[%s] Execute: [%s] Receive result: %s".formatted(getRootId(), code, object));
                 handleDefaultResult(object, code);
             });
@@ -723,7 +1033,8 @@ public class TelegramVerticle extends AbstractVerticle {
                 .put("downloadStatus", fileUpdated.getString("downloadStatus"))
                 .put("localPath", fileUpdated.getString("localPath"))
                 .put("completionDate", fileUpdated.getLong("completionDate"))
-                .put("downloadedSize", file.local.downloadedSize);
+                .put("downloadedSize", file.local.downloadedSize)
+                .put("type", fileUpdated.getString("type"));
 
         // 如果文件下载完成，尝试获取并包含缩略图文件信息
         if ("completed".equals(fileUpdated.getString("downloadStatus"))) {
@@ -862,10 +1173,118 @@ public class TelegramVerticle extends AbstractVerticle {
         return Future.succeededFuture();
     }
 
+    /**
+     * Pause the bulk downloads while interactive downloads are active, resume them afterward.
+     */
+    private void balanceDownloadLanes() {
+        if (!authorized || client == null) {
+            return;
+        }
+        if ((lanePausesResumed == null || lanePausesResumed.failed()) && telegramRecord != null) {
+            lanePausesResumed = resumeLanePauses();
+        }
+        long now = System.currentTimeMillis();
+        toggleBulkDownloads(downloadLanes.suspendBulk(now), true);
+        toggleBulkDownloads(downloadLanes.resumeBulk(now), false);
+        if (telegramRecord != null) {
+            int throttle = DOWNLOAD_BUDGET.onSpeed(telegramRecord.id(), getCurrentDownloadSpeed(),
+                    downloadLanes.bulkActiveCount(), downloadLanes.throttledCount(), now);
+            if (throttle > 0) {
+                toggleBulkDownloads(downloadLanes.throttleBulk(throttle), true);
+            } else if (throttle < 0) {
+                toggleBulkDownloads(downloadLanes.unthrottleBulk(-throttle), false);
+            }
+        }
+        if (lanePausesResumed != null && lanePausesResumed.succeeded()) {
+            updateLanePauses();
+        }
+    }
+
+    /**
+     * Resume the bulk files the lanes or the budget paused before a restart, TDLib would keep them paused for good.
+     * Files no longer paused, e.g. cancelled or completed meanwhile, are skipped.
+     */
+    private Future<Void> resumeLanePauses() {
+        long telegramId = telegramRecord.id();
+        return getLanePauses()
+                .compose(pauses -> {
+                    List<Integer> fileIds = pauses.get(telegramId);
+                    if (CollUtil.isEmpty(fileIds)) {
+                        return Future.succeededFuture();
+                    }
+                    return DataVerticle.fileRepository.getByDownloadStatus(telegramId, FileRecord.DownloadStatus.paused)
+                            .compose(paused -> {
+                                List<Integer> toResume = paused == null ? List.of() : paused.stream()
+                                        .map(FileRecord::id)
+                                        .filter(fileIds::contains)
+                                        .toList();
+                                log.info("[%s] Resume bulk downloads paused before the restart: %d"
+                                        .formatted(getRootId(), toResume.size()));
+                                toResume.forEach(fileId -> downloadLanes.acquire(fileId, DownloadLanes.Lane.BULK));
+                                toggleBulkDownloads(toResume, false);
+                                pauses.remove(telegramId);
+                                return saveLanePauses(pauses);
+                            });
+                })
+                .onFailure(e -> log.error("[%s] Failed to resume bulk downloads: %s".formatted(getRootId(), e.getMessage())));
+    }
+
+    private void updateLanePauses() {
+        List<Integer> paused = downloadLanes.getPausedBulk();
+        if (paused.equals(savedLanePauses)) {
+            return;
+        }
+        savedLanePauses = paused;
+        long telegramId = telegramRecord.id();
+        getLanePauses().compose(pauses -> {
+            if (paused.isEmpty()) {
+                pauses.remove(telegramId);
+            } else {
+                pauses.put(telegramId, paused);
+            }
+            return saveLanePauses(pauses);
+        });
+    }
+
+    private static Future<Void> saveLanePauses(Map<Long, List<Integer>> pauses) {
+        return DataVerticle.settingRepository.createOrUpdate(SettingKey.downloadLanePauses.name(), Json.encode(pauses))
+                .onFailure(e -> log.error("Failed to save download lane pauses: %s".formatted(e.getMessage())))
+                .mapEmpty();
+    }
+
+    private static synchronized Future<Map<Long, List<Integer>>> getLanePauses() {
+        if (lanePauses == null || lanePauses.failed()) {
+            lanePauses = DataVerticle.settingRepository.<JsonObject>getByKey(SettingKey.downloadLanePauses)
+                    .map(saved -> {
+                        Map<Long, List<Integer>> pauses = new ConcurrentHashMap<>();
+                        if (saved != null) {
+                            saved.forEach(entry -> pauses.put(Long.parseLong(entry.getKey()),
+                                    ((JsonArray) entry.getValue()).stream().map(fileId -> ((Number) fileId).intValue()).toList()));
+                        }
+                        return pauses;
+                    });
+        }
+        return lanePauses;
+    }
+
+    private void toggleBulkDownloads(List<Integer> fileIds, boolean isPaused) {
+        if (fileIds.isEmpty()) {
+            return;
+        }
+        log.debug("[%s] %s bulk downloads: %d".formatted(getRootId(), isPaused ? "Pause" : "Resume", fileIds.size()));
+        for (Integer fileId : fileIds) {
+            client.execute(new TdApi.ToggleDownloadIsPaused(fileId, isPaused))
+                    .onFailure(e -> log.debug("[%s] Toggle bulk download failed, fileId: %d, error: %s"
+                            .formatted(getRootId(), fileId, e.getMessage())));
+        }
+    }
+
     private Future<Void> initDownloadStatusReconciliation() {
-        // Set up periodic timer to reconcile download statuses every 30 seconds
         if (downloadStatusReconciliationTimerId == 0) {
-            downloadStatusReconciliationTimerId = vertx.setPeriodic(30000, _ -> reconcileDownloadStatuses());
+            downloadReconciler = new DownloadReconciler(fileId -> client.execute(new TdApi.GetFile(fileId)),
+                    this::onReconciledFileCompleted);
+            downloadStatusReconciliationTimerId = vertx.setPeriodic(DownloadReconciler.TICK_INTERVAL_MS,
+                    _ -> reconcileDownloadStatuses());
             log.debug("[%s] Download status reconciliation timer initialized".formatted(getRootId()));
         }
         return Future.succeededFuture();
@@ -876,44 +1295,38 @@ public class TelegramVerticle extends AbstractVerticle {
             return;
         }
 
-        log.trace("[%s] Starting download status reconciliation".formatted(getRootId()));
-
-        DataVerticle.fileRepository.getByDownloadStatus(telegramRecord.id(), FileRecord.DownloadStatus.downloading)
-                .onSuccess(fileRecords -> {
-                    if (fileRecords == null || fileRecords.isEmpty()) {
-                        return;
-                    }
+        long now = System.currentTimeMillis();
+        if (now - lastReconciliationSyncTime >= RECONCILIATION_SYNC_INTERVAL_MS) {
+            lastReconciliationSyncTime = now;
+            // A file downloaded for this account by a helper has the file id of the helper, the helper tracks it
+            DataVerticle.fileRepository.getByDownloadStatus(telegramRecord.id(), FileRecord.DownloadStatus.downloading)
+                    .onSuccess(fileRecords -> downloadReconciler.sync(fileRecords == null ? List.of()
+                                    : fileRecords.stream()
+                                    .filter(fileRecord -> !DOWNLOAD_DEDUP.isOwnedByOther(fileRecord.uniqueId(), telegramRecord.id()))
+                                    .map(FileRecord::id)
+                                    .toList(),
+                            System.currentTimeMillis()))
+                    .onFailure(e -> log.error("[%s] Failed to get downloading files for reconciliation: %s".formatted(getRootId(), e.getMessage())));
+        }
 
-                    log.debug("[%s] Reconciling %d files with 'downloading' status".formatted(getRootId(), fileRecords.size()));
-                    int[] reconciledCount = {0};
-
-                    fileRecords.forEach(fileRecord -> {
-                        client.execute(new TdApi.GetFile(fileRecord.id()))
-                                .onSuccess(file -> {
-                                    if (file.local != null && file.local.isDownloadingCompleted) {
-                                        log.info("[%s] Reconciliation: File completed but not updated in DB: %s".formatted(getRootId(), file.remote.uniqueId));
-                                        reconciledCount[0]++;
-
-                                        DataVerticle.fileRepository.updateDownloadStatus(
-                                                file.id,
-                                                file.remote.uniqueId,
-                                                file.local.path,
-                                                FileRecord.DownloadStatus.completed,
-                                                System.currentTimeMillis()
-                                        ).onSuccess(result -> {
-                                            sendFileStatusHttpEvent(file, result);
-                                            log.debug("[%s] Reconciliation fixed file status: %s".formatted(getRootId(), file.remote.uniqueId));
-                                        });
-                                    }
-                                })
-                                .onFailure(e -> log.trace("[%s] Failed to get file during reconciliation: %s - %s".formatted(getRootId(), fileRecord.uniqueId(), e.getMessage())));
-                    });
+        int checked = downloadReconciler.tick(now);
+        if (checked > 0) {
+            log.trace("[%s] Reconciling %d of %d silent downloading files".formatted(getRootId(), checked, downloadReconciler.size()));
+        }
+    }
 
-                    if (reconciledCount[0] > 0) {
-                        log.info("[%s] Reconciliation completed: fixed %d stuck downloads".formatted(getRootId(), reconciledCount[0]));
-                    }
-                })
-                .onFailure(e -> log.error("[%s] Failed to get downloading files for reconciliation: %s".formatted(getRootId(), e.getMessage())));
+    private void onReconciledFileCompleted(TdApi.File file) {
+        log.info("[%s] Reconciliation: File completed but not updated in DB: %s".formatted(getRootId(), file.remote.uniqueId));
+        DataVerticle.fileRepository.updateDownloadStatus(
+                file.id,
+                file.remote.uniqueId,
+                file.local.path,
+                FileRecord.DownloadStatus.completed,
+                System.currentTimeMillis()
+        ).onSuccess(result -> {
+            sendFileStatusHttpEvent(file, result);
+            log.debug("[%s] Reconciliation fixed file status: %s".formatted(getRootId(), file.remote.uniqueId));
+        });
     }
 
     private void onConnectionStateUpdated(TdApi.ConnectionState connectionState) {
@@ -1029,6 +1442,12 @@ public class TelegramVerticle extends AbstractVerticle {
     private void onFileUpdated(TdApi.UpdateFile updateFile) {
         log.trace("📃[%s] Receive file update: %s".formatted(getRootId(), updateFile));
         TdApi.File file = updateFile.file;
+        if (file != null && downloadReconciler != null) {
+            downloadReconciler.onFileUpdated(file, System.currentTimeMillis());
+        }
+        if (file != null) {
+            downloadLanes.onFileUpdated(file, System.currentTimeMillis());
+        }
         if (file != null) {
             String localPath = null;
             Long completionDate = null;
@@ -1036,17 +1455,41 @@ public class TelegramVerticle extends AbstractVerticle {
                 localPath = file.local.path;
                 completionDate = System.currentTimeMillis();
             }
+            if (completionDate != null && DOWNLOAD_RETRY.remove(file.remote.uniqueId)) {
+                saveDownloadRetries();
+            }
             String finalLocalPath = localPath;
             Long finalCompletionDate = completionDate;
-            DataVerticle.fileRepository.getByUniqueId(file.remote.uniqueId)
-                    .onSuccess(fileRecord -> {
+            long telegramId = telegramRecord == null ? 0 : telegramRecord.id();
+            if (telegramId != 0 && file.local != null && file.local.isDownloadingActive) {
+                DOWNLOAD_DEDUP.claim(file.remote.uniqueId, telegramId);
+            }
+            // The shared record follows the account that downloads the file,
+            // the record of a segmented download is updated once all segments are downloaded
+            Future<FileRecord> fileRecordFuture = DOWNLOAD_DEDUP.isOwnedByOther(file.remote.uniqueId, telegramId)
+                                                  || SEGMENTED_DOWNLOADS.containsKey(file.remote.uniqueId) ?
+                    Future.succeededFuture() :
+                    DataVerticle.fileRepository.getByUniqueId(file.remote.uniqueId);
+            fileRecordFuture
+                    .compose(fileRecord -> {
                         FileRecord.DownloadStatus downloadStatus = TdApiHelp.getDownloadStatus(file);
 
                         if (fileRecord != null) {
                             if (fileRecord.isDownloadStatus(FileRecord.DownloadStatus.completed) &&
                                 fileRecord.isTransferStatus(FileRecord.TransferStatus.completed) &&
                                 FileUtil.exist(fileRecord.localPath())) {
-                                return;
+                                return Future.<Void>succeededFuture();
+                            }
+                            if (fileRecord.isDownloadStatus(FileRecord.DownloadStatus.completed)
+                                && (file.local == null || !file.local.isDownloadingCompleted)
+                                && FileUtil.exist(fileRecord.localPath())) {
+                                // Keep a completed file until it is gone, the file of this account may be another copy
+                                return Future.<Void>succeededFuture();
+                            }
+                            if (fileRecord.isDownloadStatus(FileRecord.DownloadStatus.error)
+                                && (downloadStatus == null || downloadStatus == FileRecord.DownloadStatus.idle)) {
+                                // Keep the error until the file is downloaded again
+                                return Future.<Void>succeededFuture();
                             }
                             if (downloadStatus == null) {
                                 // Check if download actually completed even though getDownloadStatus returned null
@@ -1057,14 +1500,17 @@ public class TelegramVerticle extends AbstractVerticle {
                                     downloadStatus = FileRecord.DownloadStatus.idle;
                                 }
                             }
-                            DataVerticle.fileRepository.updateDownloadStatus(file.id,
+                            return DataVerticle.fileRepository.updateDownloadStatus(file.id,
                                             file.remote.uniqueId,
                                             finalLocalPath,
                                             downloadStatus,
                                             finalCompletionDate)
-                                    .onSuccess(r -> sendFileStatusHttpEvent(file, r));
+                                    .onSuccess(r -> sendFileStatusHttpEvent(file, r))
+                                    .<Void>mapEmpty();
                         }
-                    });
+                        return Future.<Void>succeededFuture();
+                    })
+                    .onComplete(_ -> onDedupFileUpdated(file));
 
             if (completionDate != null || lastFileEventTime == 0 || System.currentTimeMillis() - lastFileEventTime > 1000) {
                 sendEvent(EventPayload.build(EventPayload.TYPE_FILE, updateFile));
@@ -1073,6 +1519,388 @@ public class TelegramVerticle extends AbstractVerticle {
         }
     }
 
+    /**
+     * Hand the file over to the accounts waiting for it once this account completed or gave up the download.
+     * A paused download keeps the file, it still has the downloaded part.
+     */
+    private void onDedupFileUpdated(TdApi.File file) {
+        if (telegramRecord == null || file.local == null || file.local.isDownloadingActive
+            || SEGMENTED_DOWNLOADS.containsKey(file.remote.uniqueId)) {
+            return;
+        }
+        if (file.local.isDownloadingCompleted) {
+            List<DownloadDedup.Waiter> waiters = DOWNLOAD_DEDUP.release(file.remote.uniqueId, telegramRecord.id());
+            if (!waiters.isEmpty()) {
+                log.debug("[%s] File %s downloaded for %d waiting requests".formatted(getRootId(), file.remote.uniqueId, waiters.size()));
+            }
+        } else if (file.local.downloadedSize == 0) {
+            dispatchWaiters(DOWNLOAD_DEDUP.release(file.remote.uniqueId, telegramRecord.id()));
+        }
+    }
+
+    /**
+     * Start the requests that waited for another account in their own accounts.
+     */
+    private static void dispatchWaiters(List<DownloadDedup.Waiter> waiters) {
+        waiters.stream()
+                .collect(Collectors.groupingBy(DownloadDedup.Waiter::telegramId,
+                        Collectors.mapping(DownloadDedup.Waiter::request, Collectors.toList())))
+                .forEach((telegramId, requests) -> TelegramVerticles.get(telegramId)
+                        .filter(verticle -> verticle.authorized)
+                        .ifPresent(verticle -> verticle.startDownloads(requests)
+                                .onSuccess(outcomes -> outcomes.stream()
+                                        .filter(outcome -> !outcome.success())
+                                        .forEach(outcome -> log.debug("[%s] Waiting download not started, fileId: %d, error: %s"
+                                                .formatted(verticle.getRootId(), outcome.fileId(), outcome.error()))))));
+    }
+
+    /**
+     * Link a file downloaded by another account into the root of the requesting account and take over the record: its
+     * account, message and TDLib file id become the ones of the request, so the file then does not depend on the other
+     * account. Like a file already downloaded in this account, the download is reported as not started.
+     */
+    private Future<Void> reuseDownloadedFile(PendingDownload pending, FileRecord fileRecord) {
+        TdApi.File file = pending.file();
+        String sourceRoot = TelegramVerticles.get(fileRecord.telegramId())
+                .map(verticle -> verticle.rootPath)
+                .orElse(null);
+        if (sourceRoot == null) {
+            return Future.failedFuture("File is already downloaded by another account");
+        }
+        String targetRoot = TelegramVerticles.get(pending.ownerId())
+                .map(verticle -> verticle.rootPath)
+                .orElse(this.rootPath);
+        Path target = DownloadDedup.linkTarget(Path.of(fileRecord.localPath()), Path.of(sourceRoot), Path.of(targetRoot));
+        if (target == null) {
+            return Future.failedFuture("File is already downloaded by another account");
+        }
+        return vertx.executeBlocking(() -> DownloadDedup.link(Path.of(fileRecord.localPath()), target))
+                .compose(linked -> {
+                    log.info("[%s] Reuse file %s of another account, %s to %s"
+                            .formatted(getRootId(), fileRecord.uniqueId(), linked ? "linked" : "copied", target));
+                    return DataVerticle.fileRepository.updateOwner(pending.fileRecord());
+                })
+                .compose(_ -> DataVerticle.fileRepository.updateDownloadStatus(file.id,
+                        fileRecord.uniqueId(),
+                        target.toString(),
+                        FileRecord.DownloadStatus.completed,
+                        fileRecord.completionDate()))
+                .compose(r -> {
+                    sendFileStatusHttpEvent(file, r);
+                    return Future.failedFuture("File is already downloaded by another account, reused");
+                });
+    }
+
+    /**
+     * Download a large file in segments with the other accounts that can see it, false if it is not large enough
+     * or no other account can help, then the file is downloaded as usual.
+     */
+    private Future<Boolean> startSegmentedDownload(PendingDownload pending, FileRecord fileRecord, int priority) {
+        TdApi.File file = pending.file();
+        if (Config.DOWNLOAD_SEGMENTED_MIN_SIZE_MB <= 0
+            || file.size < Config.DOWNLOAD_SEGMENTED_MIN_SIZE_MB * 1024 * 1024
+            || SEGMENTED_DOWNLOADS.containsKey(file.remote.uniqueId)) {
+            return Future.succeededFuture(false);
+        }
+        SettingSegmentedDownloads.Download state = new SettingSegmentedDownloads.Download(telegramRecord.id(),
+                pending.request().chatId(),
+                pending.request().messageId(),
+                file.size,
+                FileUtil.cleanInvalid(StrUtil.blankToDefault(fileRecord.fileName(), fileRecord.uniqueId())),
+                priority,
+                SegmentedDownload.plan(file.size, Config.DOWNLOAD_SEGMENTS));
+        SegmentedDownload segmentedDownload = new SegmentedDownload(file.remote.uniqueId, state);
+        segmentedDownload.addWorker(new SegmentedDownload.Worker(telegramRecord.id(), file.id, client::execute));
+        return addSegmentedWorkers(segmentedDownload)
+                .compose(_ -> {
+                    if (segmentedDownload.getWorkers().size() < 2
+                        || SEGMENTED_DOWNLOADS.putIfAbsent(file.remote.uniqueId, segmentedDownload) != null) {
+                        return Future.succeededFuture(false);
+                    }
+                    log.info("[%s] Segmented download of %s, segments: %d, accounts: %d".formatted(getRootId(),
+                            file.remote.uniqueId, state.segments.size(), segmentedDownload.getWorkers().size()));
+                    return getSegmentedDownloadStates()
+                            .compose(states -> {
+                                states.downloads.put(file.remote.uniqueId, state);
+                                return saveSegmentedDownloads();
+                            })
+                            .compose(_ -> DataVerticle.fileRepository.updateDownloadStatus(file.id,
+                                    file.remote.uniqueId,
+                                    null,
+                                    FileRecord.DownloadStatus.downloading,
+                                    null))
+                            .compose(_ -> segmentedDownload.tick())
+                            .map(true);
+                });
+    }
+
+    /**
+     * Add the authorized accounts that can see the message of a segmented download, with their own file id.
+     */
+    private Future<Void> addSegmentedWorkers(SegmentedDownload segmentedDownload) {
+        SettingSegmentedDownloads.Download state = segmentedDownload.getState();
+        List<Future<Void>> futures = TelegramVerticles.getAll().stream()
+                .filter(verticle -> verticle.authorized && verticle.telegramRecord != null)
+                .filter(verticle -> segmentedDownload.getWorker(verticle.telegramRecord.id()) == null)
+                .filter(verticle -> {
+                    if (verticle == this) {
+                        return true;
+                    }
+                    TdApi.Chat chat = verticle.getChat(state.chatId);
+                    return chat != null && chat.type.getConstructor() == TdApi.ChatTypeSupergroup.CONSTRUCTOR;
+                })
+                .map(verticle -> verticle.client.execute(new TdApi.GetMessage(state.chatId, state.messageId))
+                        .onSuccess(message -> TdApiHelp.getFileHandler(message)
+                                .map(TdApiHelp.FileHandler::getFile)
+                                .filter(file -> segmentedDownload.getUniqueId().equals(file.remote.uniqueId))
+                                .ifPresent(file -> segmentedDownload.addWorker(new SegmentedDownload.Worker(
+                                        verticle.telegramRecord.id(), file.id, verticle.client::execute))))
+                        .otherwiseEmpty()
+                        .<Void>mapEmpty())
+                .toList();
+        return Future.join(futures).otherwiseEmpty().mapEmpty();
+    }
+
+    private void tickSegmentedDownloads() {
+        if (!authorized || telegramRecord == null) {
+            return;
+        }
+        if (!segmentedDownloadsResumed) {
+            segmentedDownloadsResumed = true;
+            resumeSegmentedDownloads();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean refreshWorkers = now - lastSegmentedWorkersRefresh >= SEGMENTED_WORKERS_INTERVAL_MS;
+        if (refreshWorkers) {
+            lastSegmentedWorkersRefresh = now;
+        }
+        SEGMENTED_DOWNLOADS.values().stream()
+                .filter(segmentedDownload -> segmentedDownload.getState().telegramId == telegramRecord.id())
+                .forEach(segmentedDownload -> (refreshWorkers ? addSegmentedWorkers(segmentedDownload) : Future.<Void>succeededFuture())
+                        .compose(_ -> segmentedDownload.tick())
+                        .onSuccess(changed -> {
+                            if (changed) {
+                                saveSegmentedDownloads();
+                            }
+                            SegmentedDownload.Worker worker = segmentedDownload.getWorker(telegramRecord.id());
+                            if (worker != null) {
+                                sendEvent(EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
+                                        .put("fileId", worker.fileId())
+                                        .put("uniqueId", segmentedDownload.getUniqueId())
+                                        .put("downloadStatus", FileRecord.DownloadStatus.downloading)
+                                        .put("downloadedSize", segmentedDownload.getDownloadedSize())
+                                ));
+                            }
+                            if (segmentedDownload.isCompleted()) {
+                                completeSegmentedDownload(segmentedDownload);
+                            }
+                        }));
+    }
+
+    /**
+     * Resume the segmented downloads of this account saved before a restart, the completed segments are kept.
+     */
+    private void resumeSegmentedDownloads() {
+        getSegmentedDownloadStates()
+                .onSuccess(states -> states.downloads.forEach((uniqueId, state) -> {
+                    if (state.telegramId != telegramRecord.id() || SEGMENTED_DOWNLOADS.containsKey(uniqueId)) {
+                        return;
+                    }
+                    SegmentedDownload segmentedDownload = new SegmentedDownload(uniqueId, state);
+                    SEGMENTED_DOWNLOADS.put(uniqueId, segmentedDownload);
+                    DOWNLOAD_DEDUP.claim(uniqueId, telegramRecord.id());
+                    log.info("[%s] Resume segmented download of %s, downloaded: %d/%d".formatted(getRootId(),
+                            uniqueId, segmentedDownload.getDownloadedSize(), state.size));
+                    addSegmentedWorkers(segmentedDownload);
+                }))
+                .onFailure(e -> log.error("[%s] Failed to resume segmented downloads: %s".formatted(getRootId(), e.getMessage())));
+    }
+
+    /**
+     * Copy the segments into the file of this account, then drop the partial files of every account.
+     * A completed segment of an account that is gone is downloaded again.
+     */
+    private void completeSegmentedDownload(SegmentedDownload segmentedDownload) {
+        String uniqueId = segmentedDownload.getUniqueId();
+        if (!SEGMENTED_DOWNLOADS.remove(uniqueId, segmentedDownload)) {
+            return;
+        }
+        if (segmentedDownload.dropOrphanSegments()) {
+            SEGMENTED_DOWNLOADS.put(uniqueId, segmentedDownload);
+            saveSegmentedDownloads();
+            return;
+        }
+        SettingSegmentedDownloads.Download state = segmentedDownload.getState();
+        Map<Long, TdApi.File> files = new ConcurrentHashMap<>();
+        Future.all(segmentedDownload.getWorkers().stream()
+                        .map(worker -> worker.getFile().onSuccess(file -> files.put(worker.telegramId(), file)))
+                        .toList())
+                .compose(_ -> {
+                    if (!files.containsKey(telegramRecord.id())) {
+                        return Future.failedFuture("File not found in this account");
+                    }
+                    Map<Long, String> paths = new HashMap<>();
+                    files.forEach((telegramId, file) -> paths.put(telegramId, file.local.path));
+                    Path target = Path.of(this.rootPath, "segmented", uniqueId, state.fileName);
+                    return vertx.executeBlocking(() -> {
+                        SegmentedDownload.assemble(state.segments, paths, target);
+                        return target;
+                    });
+                })
+                .compose(target -> {
+                    TdApi.File file = files.get(telegramRecord.id());
+                    return DataVerticle.fileRepository.updateDownloadStatus(file.id,
+                                    uniqueId,
+                                    target.toString(),
+                                    FileRecord.DownloadStatus.completed,
+                                    System.currentTimeMillis())
+                            .onSuccess(r -> sendFileStatusHttpEvent(file, r));
+                })
+                .onSuccess(_ -> {
+                    log.info("[%s] Segmented download of %s completed".formatted(getRootId(), uniqueId));
+                    TdApi.File file = files.get(telegramRecord.id());
+                    downloadLanes.release(file.id, System.currentTimeMillis());
+                    DOWNLOAD_DEDUP.release(uniqueId, telegramRecord.id());
+                    removeSegmentedDownloadState(uniqueId);
+                    segmentedDownload.getWorkers().forEach(worker -> worker.delete()
+                            .onFailure(e -> log.debug("[%s] Failed to delete segments of %s in %d: %s"
+                                    .formatted(getRootId(), uniqueId, worker.telegramId(), e.getMessage()))));
+                })
+                .onFailure(e -> {
+                    log.error("[%s] Failed to complete segmented download of %s, retry later: %s"
+                            .formatted(getRootId(), uniqueId, e.getMessage()));
+                    SEGMENTED_DOWNLOADS.putIfAbsent(uniqueId, segmentedDownload);
+                });
+    }
+
+    /**
+     * Stop a segmented download and drop the segments of the other accounts, the file of this account is left to
+     * the caller.
+     */
+    private Future<Void> cancelSegmentedDownload(String uniqueId) {
+        SegmentedDownload segmentedDownload = SEGMENTED_DOWNLOADS.remove(uniqueId);
+        if (segmentedDownload == null) {
+            return Future.succeededFuture();
+        }
+        removeSegmentedDownloadState(uniqueId);
+        return Future.join(segmentedDownload.getWorkers().stream()
+                        .filter(worker -> worker.telegramId() != telegramRecord.id())
+                        .map(SegmentedDownload.Worker::delete)
+                        .toList())
+                .otherwiseEmpty()
+                .mapEmpty();
+    }
+
+    private static synchronized Future<SettingSegmentedDownloads> getSegmentedDownloadStates() {
+        if (segmentedDownloadStates == null || segmentedDownloadStates.failed()) {
+            segmentedDownloadStates = DataVerticle.settingRepository.<SettingSegmentedDownloads>getByKey(SettingKey.segmentedDownloads)
+                    .map(saved -> {
+                        SettingSegmentedDownloads states = new SettingSegmentedDownloads();
+                        if (saved != null && saved.downloads != null) {
+                            states.downloads.putAll(saved.downloads);
+                        }
+                        return states;
+                    });
+        }
+        return segmentedDownloadStates;
+    }
+
+    private static Future<Void> saveSegmentedDownloads() {
+        return getSegmentedDownloadStates()
+                .compose(states -> DataVerticle.settingRepository.createOrUpdate(SettingKey.segmentedDownloads.name(), Json.encode(states)))
+                .onFailure(e -> log.error("Failed to save segmented downloads: %s".formatted(e.getMessage())))
+                .mapEmpty();
+    }
+
+    private static void removeSegmentedDownloadState(String uniqueId) {
+        getSegmentedDownloadStates()
+                .onSuccess(states -> {
+                    states.downloads.remove(uniqueId);
+                    saveSegmentedDownloads();
+                });
+    }
+
+    /**
+     * Mark the file as failed and schedule a retry by the class of the error.
+     */
+    private void onDownloadFailed(TdApi.File file, DownloadRequest request, DownloadLanes.Lane lane, String error) {
+        SettingDownloadRetries.Retry failed = new SettingDownloadRetries.Retry(telegramRecord.id(),
+                request.chatId(),
+                request.messageId(),
+                file.id,
+                request.priority(),
+                lane.name());
+        failed.ownerId = request.ownerId();
+        SettingDownloadRetries.Retry retry = DOWNLOAD_RETRY.onFailure(file.remote.uniqueId,
+                failed,
+                error,
+                System.currentTimeMillis());
+        if (retry == null) {
+            log.warn("[%s] Download of %s failed, not retried: %s".formatted(getRootId(), file.remote.uniqueId, error));
+        } else {
+            log.info("[%s] Download of %s failed (%s), retry %d at %s: %s".formatted(getRootId(), file.remote.uniqueId,
+                    retry.errorClass, retry.attempts, DateUtil.date(retry.nextRetryAt), error));
+        }
+        saveDownloadRetries();
+        DataVerticle.fileRepository.updateDownloadStatus(file.id,
+                        file.remote.uniqueId,
+                        null,
+                        FileRecord.DownloadStatus.error,
+                        null)
+                .onSuccess(r -> sendFileStatusHttpEvent(file, r));
+    }
+
+    /**
+     * Start the due retries of this account, an expired file reference is refreshed by fetching the message again.
+     * A retry that fails before TDLib, e.g. the message is deleted or the file is downloaded meanwhile, is dropped.
+     */
+    private void retryFailedDownloads() {
+        if (!authorized || telegramRecord == null) {
+            return;
+        }
+        DOWNLOAD_RETRY.due(telegramRecord.id(), System.currentTimeMillis()).forEach((uniqueId, retry) -> {
+            Future<Integer> fileIdFuture = DownloadRetry.ErrorClass.FILE_REFERENCE.name().equals(retry.errorClass) ?
+                    client.execute(new TdApi.GetMessage(retry.chatId, retry.messageId))
+                            .map(message -> TdApiHelp.getFileHandler(message)
+                                    .map(handler -> handler.getFile().id)
+                                    .orElse(retry.fileId)) :
+                    Future.succeededFuture(retry.fileId);
+            int attempts = retry.attempts;
+            fileIdFuture
+                    .compose(fileId -> startDownloads(List.of(new DownloadRequest(retry.chatId,
+                            retry.messageId,
+                            fileId,
+                            retry.priority,
+                            EnumUtil.fromString(DownloadLanes.Lane.class, retry.lane, DownloadLanes.Lane.BULK),
+                            retry.ownerId))))
+                    .map(List::getFirst)
+                    .onSuccess(outcome -> {
+                        SettingDownloadRetries.Retry current = DOWNLOAD_RETRY.get(uniqueId);
+                        if (outcome.success() || current != null && current.attempts == attempts) {
+                            log.debug("[%s] Retry %d of %s: %s".formatted(getRootId(), attempts, uniqueId,
+                                    outcome.success() ? "started" : outcome.error()));
+                            DOWNLOAD_RETRY.remove(uniqueId);
+                            saveDownloadRetries();
+                        }
+                    })
+                    .onFailure(e -> {
+                        log.warn("[%s] Retry %d of %s failed: %s".formatted(getRootId(), attempts, uniqueId, e.getMessage()));
+                        SettingDownloadRetries.Retry current = DOWNLOAD_RETRY.get(uniqueId);
+                        if (current != null && current.attempts == attempts
+                            && DOWNLOAD_RETRY.onFailure(uniqueId, current, e.getMessage(), System.currentTimeMillis()) == null) {
+                            log.warn("[%s] Download of %s is not retried anymore".formatted(getRootId(), uniqueId));
+                        }
+                        saveDownloadRetries();
+                    });
+        });
+    }
+
+    private static void saveDownloadRetries() {
+        DataVerticle.settingRepository.createOrUpdate(SettingKey.downloadRetries.name(), Json.encode(DOWNLOAD_RETRY.getState()))
+                .onFailure(e -> log.error("Failed to save download retries: %s".formatted(e.getMessage())));
+    }
+
     private void onFileDownloadsUpdated(TdApi.UpdateFileDownloads updateFileDownloads) {
         log.trace("[%s] Receive file downloads update: %s".formatted(getRootId(), updateFileDownloads));
         avgSpeed.update(updateFileDownloads.downloadedSize, System.currentTimeMillis());
@@ -1095,7 +1923,8 @@ public class TelegramVerticle extends AbstractVerticle {
         );
     }
 
-    private Future<Void> syncFileDownloadStatus(TdApi.File file, TdApi.Message message, TdApi.MessageThreadInfo messageThreadInfo) {
+    private Future<Void> syncFileDownloadStatus(TdApi.File file, TdApi.Message message, TdApi.MessageThreadInfo messageThreadInfo,
+                                                long ownerId) {
         return DataVerticle.fileRepository
                 .getByUniqueId(file.remote.uniqueId)
                 .compose(fileRecord -> {
@@ -1115,7 +1944,7 @@ public class TelegramVerticle extends AbstractVerticle {
 
                     fileRecord = TdApiHelp.getFileHandler(message)
                             .orElseThrow(() -> VertxException.noStackTrace("not support message type"))
-                            .convertFileRecord(telegramRecord.id())
+                            .convertFileRecord(ownerId)
                             .withThreadInfo(messageThreadInfo);
 
                     return DataVerticle.fileRepository.create(fileRecord)
@@ -1136,4 +1965,78 @@ public class TelegramVerticle extends AbstractVerticle {
                     }
                 });
     }
+
+    /**
+     * A file to download, found by its message: the file of the freshly fetched message is downloaded, not
+     * {@code fileId}, which the caller may have kept from an earlier session. {@code fileId} is only returned in the
+     * outcome to match it to the request.
+     *
+     * @param ownerId the account that queued the file when another account downloads it, the record is saved under
+     *                it; 0 for the downloading account
+     */
+    public record DownloadRequest(long chatId, long messageId, int fileId, int priority, DownloadLanes.Lane lane,
+                                  long ownerId) {
+
+        /**
+         * A download asked for by the user, in the interactive lane.
+         */
+        public DownloadRequest(long chatId, long messageId, int fileId) {
+            this(chatId, messageId, fileId, DEFAULT_DOWNLOAD_PRIORITY, DownloadLanes.Lane.INTERACTIVE, 0);
+        }
+
+        /**
+         * A download of the automations, in the bulk lane.
+         */
+        public DownloadRequest(long chatId, long messageId, int fileId, int priority) {
+            this(chatId, messageId, fileId, priority, DownloadLanes.Lane.BULK, 0);
+        }
+
+        /**
+         * TDLib accepts download priorities in [1, 32], a larger value is downloaded first.
+         */
+        public int tdPriority() {
+            return Math.clamp(priority, 1, 32);
+        }
+    }
+
+    public record DownloadOutcome(long chatId, long messageId, int fileId, boolean success, FileRecord fileRecord,
+                                  String error) {
+
+        public static DownloadOutcome success(DownloadRequest request, FileRecord fileRecord) {
+            return new DownloadOutcome(request.chatId(), request.messageId(), request.fileId(), true, fileRecord, null);
+        }
+
+        public static DownloadOutcome failure(DownloadRequest request, String error) {
+            return new DownloadOutcome(request.chatId(), request.messageId(), request.fileId(), false, null, error);
+        }
+
+        public JsonObject toJson() {
+            return new JsonObject()
+                    .put("chatId", chatId)
+                    .put("messageId", messageId)
+                    .put("fileId", fileId)
+                    .put("success", success)
+                    .put("uniqueId", fileRecord == null ? null : fileRecord.uniqueId())
+                    .put("error", error);
+        }
+    }
+
+    private record PendingDownload(int index,
+                                   DownloadRequest request,
+                                   TdApi.Message message,
+                                   TdApi.MessageThreadInfo threadInfo,
+                                   TdApiHelp.FileHandler<? extends TdApi.MessageContent> fileHandler,
+                                   long ownerId) {
+
+        TdApi.File file() {
+            return fileHandler.getFile();
+        }
+
+        /**
+         * The record of the file under its owner, with the file id of the downloading account.
+         */
+        FileRecord fileRecord() {
+            return fileHandler.convertFileRecord(ownerId).withThreadInfo(threadInfo);
+        }
+    }
 }
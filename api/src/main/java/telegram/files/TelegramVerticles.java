@@ -9,6 +9,8 @@ import cn.hutool.log.LogFactory;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxException;
+import telegram.files.repository.SettingDownloadRetries;
+import telegram.files.repository.SettingKey;
 import telegram.files.repository.TelegramRecord;
 
 import java.io.File;
@@ -23,7 +25,11 @@ public class TelegramVerticles {
     private static final List<TelegramVerticle> telegramVerticles = new ArrayList<>();
 
     public static Future<Void> initTelegramVerticles(Vertx vertx) {
-        return DataVerticle.telegramRepository.getAll()
+        return DataVerticle.settingRepository.<SettingDownloadRetries>getByKey(SettingKey.downloadRetries)
+                .onSuccess(TelegramVerticle.DOWNLOAD_RETRY::load)
+                .onFailure(err -> log.error("Failed to load download retries: %s".formatted(err.getMessage())))
+                .otherwiseEmpty()
+                .compose(_ -> DataVerticle.telegramRepository.getAll())
                 .compose(telegramRecords -> {
                     List<String> verifiedPath = telegramRecords.stream().map(TelegramRecord::rootPath).toList();
                     File telegramRoot = FileUtil.file(Config.TELEGRAM_ROOT);
@@ -21,6 +21,8 @@ import java.io.File;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
@@ -42,7 +44,14 @@ public abstract class Transfer {
 
     public Consumer<TransferStatusUpdated> transferStatusUpdated;
 
-    private FileRecord transferRecord;
+    public Consumer<TransferProgressUpdated> transferProgressUpdated;
+
+    public final FileMover mover = new FileMover();
+
+    public FileHasher hasher = new FileHasher(FileHasher.Algorithm.XXH64, null);
+
+    // Destination paths being written by the transfers
+    private static final Set<String> transferringPaths = ConcurrentHashMap.newKeySet();
 
     private static final int MAX_CAPTION_NAME_LENGTH = 80;
 
@@ -80,25 +89,30 @@ public abstract class Transfer {
                || !Objects.equals(this.extra, transferRule.extra);
     }
 
-    public void transfer(FileRecord fileRecord) {
+    /**
+     * Move the file to its path in the destination, safe to call for several files at once.
+     *
+     * @return the final transfer status of the file
+     */
+    public FileRecord.TransferStatus transfer(FileRecord fileRecord) {
         log.debug("Start transfer file {}", fileRecord.id());
-        transferRecord = fileRecord;
         transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.transferring, null));
+        String lockedPath = null;
         try {
             File originFile = new File(fileRecord.localPath());
             if (!originFile.exists()) {
                 log.error("File {} not found: {}", fileRecord.id(), fileRecord.localPath());
-                transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.error, null));
-                return;
+                return updateStatus(fileRecord, FileRecord.TransferStatus.error, null);
             }
 
             String transferPath = getTransferPath(fileRecord);
+            lockPath(transferPath);
+            lockedPath = transferPath;
             boolean isOverwrite = false;
             if (FileUtil.exist(transferPath)) {
                 if (duplicationPolicy == DuplicationPolicy.SKIP) {
                     log.trace("Skip file {}", fileRecord.id());
-                    transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.idle, null));
-                    return;
+                    return updateStatus(fileRecord, FileRecord.TransferStatus.idle, null);
                 }
 
                 if (duplicationPolicy == DuplicationPolicy.OVERWRITE) {
@@ -112,11 +126,10 @@ public abstract class Transfer {
                 }
 
                 if (duplicationPolicy == DuplicationPolicy.HASH) {
-                    if (MessyUtils.compareFilesMD5(FileUtil.file(fileRecord.localPath()), FileUtil.file(transferPath))) {
+                    if (hasher.isSameContent(Path.of(fileRecord.localPath()), Path.of(transferPath))) {
                         log.trace("File {} is the same as {}", fileRecord.id(), transferPath);
                         FileUtil.del(fileRecord.localPath());
-                        transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.completed, transferPath));
-                        return;
+                        return updateStatus(fileRecord, FileRecord.TransferStatus.completed, transferPath);
                     } else {
                         transferPath = getUniquePath(transferPath);
                         log.trace("Rename file {} to {}", fileRecord.id(), transferPath);
@@ -124,15 +137,33 @@ public abstract class Transfer {
                 }
             }
 
-            FileUtil.move(Path.of(fileRecord.localPath()), Path.of(transferPath), isOverwrite);
-            log.info("Transfer file {} to {}, duplication policy: {} overwrite: {}", fileRecord.id(), transferPath, duplicationPolicy, isOverwrite);
+            FileMover.Method method = mover.move(Path.of(fileRecord.localPath()), Path.of(transferPath), isOverwrite,
+                    transferProgressUpdated == null ? null : (copied, size) ->
+                            transferProgressUpdated.accept(new TransferProgressUpdated(fileRecord, copied, size)));
+            log.info("Transfer file {} to {}, duplication policy: {} overwrite: {} method: {}", fileRecord.id(), transferPath, duplicationPolicy, isOverwrite, method);
 
-            transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.completed, transferPath));
+            return updateStatus(fileRecord, FileRecord.TransferStatus.completed, transferPath);
         } catch (Exception e) {
             log.error(e, "Transfer file {} error", fileRecord.id());
-            transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, FileRecord.TransferStatus.error, null));
+            return updateStatus(fileRecord, FileRecord.TransferStatus.error, null);
         } finally {
-            transferRecord = null;
+            if (lockedPath != null) {
+                transferringPaths.remove(lockedPath);
+            }
+        }
+    }
+
+    private FileRecord.TransferStatus updateStatus(FileRecord fileRecord, FileRecord.TransferStatus transferStatus, String localPath) {
+        transferStatusUpdated.accept(new TransferStatusUpdated(fileRecord, transferStatus, localPath));
+        return transferStatus;
+    }
+
+    /**
+     * Wait until no other file is moved to the same path, so that the duplication policy sees the file moved first.
+     */
+    private static void lockPath(String path) throws InterruptedException {
+        while (!transferringPaths.add(path)) {
+            Thread.sleep(100);
         }
     }
 
@@ -195,10 +226,6 @@ public abstract class Transfer {
         return sanitized;
     }
 
-    public FileRecord getTransferRecord() {
-        return transferRecord;
-    }
-
     protected abstract String getTransferPath(FileRecord fileRecord);
 
     static class GroupByChat extends Transfer {
@@ -299,6 +326,11 @@ public abstract class Transfer {
                                         String localPath) {
     }
 
+    public record TransferProgressUpdated(FileRecord fileRecord,
+                                          long transferredSize,
+                                          long size) {
+    }
+
     public enum TransferPolicy {
         /**
          * Transfer files to the specified destination without grouping
@@ -7,16 +7,17 @@ import cn.hutool.log.LogFactory;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.WorkerExecutor;
 import io.vertx.core.json.JsonObject;
 import org.jooq.lambda.tuple.Tuple3;
 import telegram.files.repository.FileRecord;
 import telegram.files.repository.SettingAutoRecords;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 
 public class TransferVerticle extends AbstractVerticle {
@@ -26,15 +27,34 @@ public class TransferVerticle extends AbstractVerticle {
 
     private static final int TRANSFER_INTERVAL = 3 * 1000;
 
+    /**
+     * Files skipped in one pass because their file system is at its limit, the rest of the queue is not scanned
+     */
+    private static final int MAX_DEFERRED_FILES = 100;
+
+    public static final TransferWorkers WORKERS = new TransferWorkers(Config.TRANSFER_WORKERS, Config.TRANSFER_STORE_CONCURRENCY);
+
+    private FileHasher hasher;
+
     private final SettingAutoRecords autoRecords;
 
     private final Map<String, Transfer> transfers = new HashMap<>();
 
-    private final BlockingQueue<WaitingTransferFile> waitingTransferFiles = new LinkedBlockingQueue<>();
+    private final BlockingDeque<WaitingTransferFile> waitingTransferFiles = new LinkedBlockingDeque<>();
 
-    private volatile boolean isStopped = false;
+    // destination -> file system
+    private final Map<String, String> destinationStores = new ConcurrentHashMap<>();
+
+    // file system -> copy speed limit
+    private final Map<String, RateBudget> storeBandwidths = new ConcurrentHashMap<>();
+
+    private WorkerExecutor workerExecutor;
+
+    private boolean dispatching;
+
+    private boolean dispatchAgain;
 
-    private volatile Transfer beingTransferred;
+    private volatile boolean isStopped = false;
 
     public TransferVerticle() {
         this.autoRecords = AutomationsHolder.INSTANCE.autoRecords();
@@ -46,16 +66,21 @@ public class TransferVerticle extends AbstractVerticle {
 
     @Override
     public void start(Promise<Void> startPromise) {
+        // A move across file systems may take long, it's not a blocked thread
+        workerExecutor = vertx.createSharedWorkerExecutor("transfer-worker", WORKERS.size(), 1, TimeUnit.DAYS);
+        hasher = new FileHasher(FileHasher.Algorithm.of(Config.TRANSFER_HASH_ALGORITHM), DataVerticle.fileHashRepository);
         initEventConsumer().onSuccess(_ -> {
+            addInterruptedFiles();
             vertx.setPeriodic(0, HISTORY_SCAN_INTERVAL, _ -> addHistoryFiles());
-            vertx.setPeriodic(0, TRANSFER_INTERVAL, _ -> startTransfer());
+            vertx.setPeriodic(0, TRANSFER_INTERVAL, _ -> startTransfers());
 
             log.info("""
                     Transfer verticle started!
                     |History scan interval: %s ms
                     |Transfer interval: %s ms
+                    |Transfer workers: %s
                     |Auto chats: %s
-                    """.formatted(HISTORY_SCAN_INTERVAL, TRANSFER_INTERVAL, autoRecords.getTransferEnabledItems().size()));
+                    """.formatted(HISTORY_SCAN_INTERVAL, TRANSFER_INTERVAL, WORKERS.size(), autoRecords.getTransferEnabledItems().size()));
 
             startPromise.complete();
         }).onFailure(startPromise::fail);
@@ -64,17 +89,21 @@ public class TransferVerticle extends AbstractVerticle {
     @Override
     public void stop(Promise<Void> stopPromise) {
         isStopped = true;
-        if (beingTransferred != null) {
-            log.info("Wait for transfer to complete, file: %s".formatted(beingTransferred.getTransferRecord().uniqueId()));
-            while (beingTransferred != null) {
+        if (WORKERS.getRunningCount() > 0) {
+            log.info("Wait for transfers to complete, running: %d".formatted(WORKERS.getRunningCount()));
+            while (WORKERS.getRunningCount() > 0) {
                 try {
                     Thread.sleep(1000);
                 } catch (InterruptedException e) {
                     log.error("Stop transfer verticle error: %s".formatted(e.getMessage()));
                     stopPromise.fail(e);
+                    return;
                 }
             }
         }
+        if (workerExecutor != null) {
+            workerExecutor.close();
+        }
         log.info("Transfer verticle stopped");
         stopPromise.complete();
     }
@@ -118,6 +147,7 @@ public class TransferVerticle extends AbstractVerticle {
 
                 if (addWaitingTransferFile(automation.telegramId, automation.chatId, fileRecord.uniqueId())) {
                     log.debug("Add file to transfer queue: %s".formatted(fileRecord.uniqueId()));
+                    startTransfers();
                 }
             }
         });
@@ -165,11 +195,41 @@ public class TransferVerticle extends AbstractVerticle {
 
             if (count > 0) {
                 log.info("Add history files to transfer queue: %s".formatted(count));
+                startTransfers();
                 break;
             }
         }
     }
 
+    /**
+     * Queue the files whose transfer was stopped by a restart, a copy goes on from its last synced offset.
+     */
+    private void addInterruptedFiles() {
+        if (CollUtil.isEmpty(autoRecords.automations)) {
+            return;
+        }
+        int count = 0;
+        for (SettingAutoRecords.Automation automation : autoRecords.automations) {
+            if (getTransfer(automation) == null) {
+                continue;
+            }
+            Tuple3<List<FileRecord>, Long, Long> filesTuple = Future.await(DataVerticle.fileRepository.getFiles(automation.chatId,
+                    Map.of("downloadStatus", FileRecord.DownloadStatus.completed.name(),
+                            "transferStatus", FileRecord.TransferStatus.transferring.name(),
+                            "limit", "100"
+                    )
+            ));
+            for (FileRecord fileRecord : filesTuple.v1) {
+                if (fileRecord.telegramId() == automation.telegramId && addWaitingTransferFile(fileRecord)) {
+                    count++;
+                }
+            }
+        }
+        if (count > 0) {
+            log.info("Add interrupted files to transfer queue: %s".formatted(count));
+        }
+    }
+
     private boolean addWaitingTransferFile(FileRecord fileRecord) {
         return addWaitingTransferFile(fileRecord.telegramId(), fileRecord.chatId(), fileRecord.uniqueId());
     }
@@ -202,48 +262,80 @@ public class TransferVerticle extends AbstractVerticle {
 
         return transfers.computeIfAbsent(automation.uniqueKey(), _ -> {
             Transfer transfer = Transfer.create(transferRule);
+            transfer.hasher = hasher;
+            transfer.mover.syncInterval = Math.max(1, Config.TRANSFER_SYNC_INTERVAL_MB) << 20;
+            if (Config.TRANSFER_STORE_BANDWIDTH_MB > 0) {
+                transfer.mover.bandwidth = storeBandwidths.computeIfAbsent(getStore(transferRule.destination),
+                        _ -> new RateBudget(Config.TRANSFER_STORE_BANDWIDTH_MB * 1024 * 1024, System.currentTimeMillis()));
+            }
             transfer.transferStatusUpdated = updated ->
                     updateTransferStatus(updated.fileRecord(), updated.transferStatus(), updated.localPath());
+            transfer.transferProgressUpdated = updated ->
+                    sendTransferProgress(updated.fileRecord(), updated.transferredSize(), updated.size());
             return transfer;
         });
     }
 
-    public void startTransfer() {
-        if (beingTransferred != null) {
+    private String getStore(String destination) {
+        return destinationStores.computeIfAbsent(destination, _ -> TransferWorkers.storeKey(Path.of(destination)));
+    }
+
+    /**
+     * Hand the waiting files to the idle workers, called on the poll and as soon as a worker is done.
+     */
+    public void startTransfers() {
+        if (dispatching) {
+            dispatchAgain = true;
             return;
         }
+        dispatching = true;
         try {
-            WaitingTransferFile waitingTransferFile = waitingTransferFiles.poll(1, TimeUnit.SECONDS);
-            if (waitingTransferFile == null) {
-                log.trace("No file to transfer");
-                return;
-            }
-            Transfer transfer = transfers.get("%d:%d".formatted(waitingTransferFile.telegramId(), waitingTransferFile.chatId()));
-            if (transfer == null) {
-                return;
-            }
-            if (beingTransferred == transfer) {
-                waitingTransferFiles.add(waitingTransferFile);
-                log.debug("Transfer is busy: %s".formatted(waitingTransferFile.uniqueId));
-                return;
-            }
-            FileRecord fileRecord = Future.await(DataVerticle.fileRepository.getByUniqueId(waitingTransferFile.uniqueId));
-            if (fileRecord == null) {
-                log.error("File not found: %s".formatted(waitingTransferFile.uniqueId));
-                return;
-            }
-
-            startTransfer(fileRecord, transfer);
+            do {
+                dispatchAgain = false;
+                dispatchTransfers();
+            } while (dispatchAgain && !isStopped);
         } catch (Exception e) {
-            if (e instanceof InterruptedException) {
-                log.debug("Transfer loop interrupted");
-            } else {
-                log.error(e, "Transfer error");
+            log.error(e, "Transfer error");
+        } finally {
+            dispatching = false;
+        }
+    }
+
+    private void dispatchTransfers() {
+        List<WaitingTransferFile> deferred = new ArrayList<>();
+        try {
+            while (!isStopped && WORKERS.hasIdleWorker() && deferred.size() < MAX_DEFERRED_FILES) {
+                WaitingTransferFile waitingTransferFile = waitingTransferFiles.poll();
+                if (waitingTransferFile == null) {
+                    log.trace("No file to transfer");
+                    return;
+                }
+                Transfer transfer = transfers.get("%d:%d".formatted(waitingTransferFile.telegramId(), waitingTransferFile.chatId()));
+                if (transfer == null || WORKERS.isRunning(waitingTransferFile.uniqueId())) {
+                    continue;
+                }
+                String store = getStore(transfer.destination);
+                if (WORKERS.isStoreFull(store)) {
+                    deferred.add(waitingTransferFile);
+                    continue;
+                }
+                FileRecord fileRecord = Future.await(DataVerticle.fileRepository.getByUniqueId(waitingTransferFile.uniqueId));
+                if (fileRecord == null) {
+                    log.error("File not found: %s".formatted(waitingTransferFile.uniqueId));
+                    continue;
+                }
+
+                startTransfer(fileRecord, transfer, store);
+            }
+        } finally {
+            // Keep the order of the files that wait for their file system
+            for (int i = deferred.size() - 1; i >= 0; i--) {
+                waitingTransferFiles.addFirst(deferred.get(i));
             }
         }
     }
 
-    public void startTransfer(FileRecord fileRecord, Transfer transfer) {
+    private void startTransfer(FileRecord fileRecord, Transfer transfer, String store) {
         if (isStopped) {
             return;
         }
@@ -252,19 +344,40 @@ public class TransferVerticle extends AbstractVerticle {
             log.warn("File {} is not downloaded yet", fileRecord.id());
             return;
         }
+        // A file still transferring is not in a worker, its transfer was interrupted by a restart
         if (fileRecord.transferStatus() != null
-            && !fileRecord.isTransferStatus(FileRecord.TransferStatus.idle)) {
+            && !fileRecord.isTransferStatus(FileRecord.TransferStatus.idle)
+            && !fileRecord.isTransferStatus(FileRecord.TransferStatus.transferring)) {
             log.debug("File {} transfer status is not idle: {}", fileRecord.id(), fileRecord.transferStatus());
             return;
         }
 
-        beingTransferred = transfer;
-        transfer.transfer(fileRecord);
-        beingTransferred = null;
+        int workerId = WORKERS.acquire(fileRecord.uniqueId(), store, System.currentTimeMillis());
+        if (workerId < 0) {
+            waitingTransferFiles.addFirst(new WaitingTransferFile(fileRecord.telegramId(), fileRecord.chatId(), fileRecord.uniqueId()));
+            return;
+        }
+        workerExecutor.executeBlocking(() -> {
+                    FileRecord.TransferStatus transferStatus = null;
+                    try {
+                        transferStatus = transfer.transfer(fileRecord);
+                        return transferStatus;
+                    } finally {
+                        // Freed here rather than in the verticle, which may be waiting for it in stop()
+                        WORKERS.release(workerId,
+                                transferStatus == FileRecord.TransferStatus.completed ? fileRecord.size() : 0,
+                                System.currentTimeMillis());
+                    }
+                }, false)
+                .onComplete(_ -> startTransfers());
     }
 
+    /**
+     * Called by the transfer in its worker thread, which waits for the update so that the statuses of a file are
+     * saved in order.
+     */
     private void updateTransferStatus(FileRecord fileRecord, FileRecord.TransferStatus transferStatus, String localPath) {
-        Future.await(DataVerticle.fileRepository.updateTransferStatus(fileRecord.uniqueId(), transferStatus, localPath)
+        DataVerticle.fileRepository.updateTransferStatus(fileRecord.uniqueId(), transferStatus, localPath)
                 .onSuccess(fileUpdated -> {
                     if (fileUpdated != null && !fileUpdated.isEmpty()) {
                         EventPayload payload = EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
@@ -277,7 +390,23 @@ public class TransferVerticle extends AbstractVerticle {
                                 JsonObject.of("telegramId", fileRecord.telegramId(), "payload", JsonObject.mapFrom(payload))
                         );
                     }
-                }));
+                })
+                .toCompletionStage()
+                .toCompletableFuture()
+                .join();
+    }
+
+    private void sendTransferProgress(FileRecord fileRecord, long transferredSize, long size) {
+        EventPayload payload = EventPayload.build(EventPayload.TYPE_FILE_STATUS, new JsonObject()
+                .put("fileId", fileRecord.id())
+                .put("uniqueId", fileRecord.uniqueId())
+                .put("transferStatus", FileRecord.TransferStatus.transferring.name())
+                .put("transferredSize", transferredSize)
+                .put("size", size)
+        );
+        vertx.eventBus().publish(EventEnum.TELEGRAM_EVENT.address(),
+                JsonObject.of("telegramId", fileRecord.telegramId(), "payload", JsonObject.mapFrom(payload))
+        );
     }
 
     private record WaitingTransferFile(long telegramId, long chatId, String uniqueId) {
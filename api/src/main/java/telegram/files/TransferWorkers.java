@@ -0,0 +1,167 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Slots of the transfer workers, limited in total and per destination file system.
+ * <p>
+ * Moves into the same disk compete for its bandwidth and seeks, so only a few of them run at once, while moves into
+ * other disks take the free workers. Each worker keeps the files and bytes it moved for the throughput statistics.
+ */
+public class TransferWorkers {
+
+    private final int storeConcurrency;
+
+    private final Worker[] workers;
+
+    // store -> running transfers
+    private final Map<String, Integer> storeRunning = new HashMap<>();
+
+    private static class Worker {
+        private String uniqueId;
+
+        private String store;
+
+        private long startedAt;
+
+        private long files;
+
+        private long bytes;
+
+        private long busyTime;
+    }
+
+    public TransferWorkers(int size, int storeConcurrency) {
+        this.storeConcurrency = Math.max(1, storeConcurrency);
+        this.workers = new Worker[Math.max(1, size)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+        }
+    }
+
+    /**
+     * The file system of a path, the path need not exist yet, it is looked up at its first existing parent.
+     */
+    public static String storeKey(Path path) {
+        Path existing = path.toAbsolutePath().normalize();
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            return path.toString();
+        }
+        try {
+            return Files.getFileStore(existing).toString();
+        } catch (IOException e) {
+            return existing.toString();
+        }
+    }
+
+    public int size() {
+        return workers.length;
+    }
+
+    public synchronized boolean hasIdleWorker() {
+        for (Worker worker : workers) {
+            if (worker.uniqueId == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int getRunningCount() {
+        int count = 0;
+        for (Worker worker : workers) {
+            if (worker.uniqueId != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized boolean isRunning(String uniqueId) {
+        for (Worker worker : workers) {
+            if (uniqueId.equals(worker.uniqueId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized boolean isStoreFull(String store) {
+        return storeRunning.getOrDefault(store, 0) >= storeConcurrency;
+    }
+
+    /**
+     * Take an idle worker for a file moved into the store.
+     *
+     * @return the worker id, -1 if every worker is busy or the store is at its limit
+     */
+    public synchronized int acquire(String uniqueId, String store, long now) {
+        if (isStoreFull(store)) {
+            return -1;
+        }
+        for (int id = 0; id < workers.length; id++) {
+            Worker worker = workers[id];
+            if (worker.uniqueId == null) {
+                worker.uniqueId = uniqueId;
+                worker.store = store;
+                worker.startedAt = now;
+                storeRunning.merge(store, 1, Integer::sum);
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Free the worker after its transfer.
+     *
+     * @param bytes the bytes moved, 0 if the file was skipped or failed
+     */
+    public synchronized void release(int id, long bytes, long now) {
+        Worker worker = workers[id];
+        if (worker.uniqueId == null) {
+            return;
+        }
+        storeRunning.computeIfPresent(worker.store, (_, running) -> running > 1 ? running - 1 : null);
+        worker.busyTime += Math.max(0, now - worker.startedAt);
+        if (bytes > 0) {
+            worker.files++;
+            worker.bytes += bytes;
+        }
+        worker.uniqueId = null;
+        worker.store = null;
+        worker.startedAt = 0;
+    }
+
+    public synchronized JsonObject getStatistics(long now) {
+        JsonArray workerStatistics = new JsonArray();
+        for (int id = 0; id < workers.length; id++) {
+            Worker worker = workers[id];
+            long busyTime = worker.busyTime + (worker.uniqueId == null ? 0 : Math.max(0, now - worker.startedAt));
+            workerStatistics.add(JsonObject.of()
+                    .put("id", id)
+                    .put("uniqueId", worker.uniqueId)
+                    .put("store", worker.store)
+                    .put("files", worker.files)
+                    .put("bytes", worker.bytes)
+                    .put("busyTime", busyTime)
+                    // bytes per second while busy
+                    .put("throughput", busyTime == 0 ? 0 : worker.bytes * 1000 / busyTime)
+            );
+        }
+        return JsonObject.of()
+                .put("running", getRunningCount())
+                .put("stores", new JsonObject(new HashMap<>(storeRunning)))
+                .put("workers", workerStatistics);
+    }
+}
@@ -0,0 +1,126 @@
+package telegram.files;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming XXH64, a fast non-cryptographic hash for finding duplicate files.
+ */
+public class XxHash64 {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+
+    private static final long P3 = 0x165667B19E3779F9L;
+
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private final long seed;
+
+    private long v1;
+
+    private long v2;
+
+    private long v3;
+
+    private long v4;
+
+    private long totalLength;
+
+    // Bytes of an incomplete 32 bytes stripe
+    private final ByteBuffer pending = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+
+    public XxHash64() {
+        this(0);
+    }
+
+    public XxHash64(long seed) {
+        this.seed = seed;
+        this.v1 = seed + P1 + P2;
+        this.v2 = seed + P2;
+        this.v3 = seed;
+        this.v4 = seed - P1;
+    }
+
+    public void update(byte[] bytes) {
+        update(ByteBuffer.wrap(bytes));
+    }
+
+    public void update(ByteBuffer input) {
+        ByteBuffer buffer = input.slice().order(ByteOrder.LITTLE_ENDIAN);
+        totalLength += buffer.remaining();
+        if (pending.position() > 0) {
+            while (pending.hasRemaining() && buffer.hasRemaining()) {
+                pending.put(buffer.get());
+            }
+            if (pending.hasRemaining()) {
+                input.position(input.limit());
+                return;
+            }
+            pending.flip();
+            stripe(pending);
+            pending.clear();
+        }
+        while (buffer.remaining() >= 32) {
+            stripe(buffer);
+        }
+        pending.put(buffer);
+        input.position(input.limit());
+    }
+
+    private void stripe(ByteBuffer buffer) {
+        v1 = round(v1, buffer.getLong());
+        v2 = round(v2, buffer.getLong());
+        v3 = round(v3, buffer.getLong());
+        v4 = round(v4, buffer.getLong());
+    }
+
+    public long digest() {
+        long hash;
+        if (totalLength >= 32) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = seed + P5;
+        }
+        hash += totalLength;
+
+        ByteBuffer rest = pending.duplicate().flip().order(ByteOrder.LITTLE_ENDIAN);
+        while (rest.remaining() >= 8) {
+            hash ^= round(0, rest.getLong());
+            hash = Long.rotateLeft(hash, 27) * P1 + P4;
+        }
+        if (rest.remaining() >= 4) {
+            hash ^= (rest.getInt() & 0xFFFFFFFFL) * P1;
+            hash = Long.rotateLeft(hash, 23) * P2 + P3;
+        }
+        while (rest.hasRemaining()) {
+            hash ^= (rest.get() & 0xFFL) * P5;
+            hash = Long.rotateLeft(hash, 11) * P1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= P2;
+        hash ^= hash >>> 29;
+        hash *= P3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * P1 + P4;
+    }
+}
@@ -0,0 +1,58 @@
+package telegram.files.repository;
+
+import cn.hutool.core.map.MapUtil;
+import io.vertx.sqlclient.templates.RowMapper;
+import io.vertx.sqlclient.templates.TupleMapper;
+
+/**
+ * Content hash of a local file, valid while the file keeps its size and modification time.
+ */
+public record FileHashRecord(String path,
+                             long fileSize,
+                             long modifiedAt,
+                             String algorithm,
+                             String hashValue) {
+
+    /**
+     * Longer paths are not indexed, they are hashed each time
+     */
+    public static final int MAX_PATH_LENGTH = 512;
+
+    public static final String SCHEME = """
+            CREATE TABLE IF NOT EXISTS file_hash_record
+            (
+                path        VARCHAR(512) PRIMARY KEY,
+                file_size   BIGINT,
+                modified_at BIGINT,
+                algorithm   VARCHAR(32),
+                hash_value  VARCHAR(128)
+            )
+            """;
+
+    public static class FileHashRecordDefinition implements Definition {
+        @Override
+        public String getScheme() {
+            return SCHEME;
+        }
+    }
+
+    public boolean matches(long fileSize, long modifiedAt, String algorithm) {
+        return this.fileSize == fileSize && this.modifiedAt == modifiedAt && algorithm.equals(this.algorithm);
+    }
+
+    public static RowMapper<FileHashRecord> ROW_MAPPER = row ->
+            new FileHashRecord(row.getString("path"),
+                    row.getLong("file_size"),
+                    row.getLong("modified_at"),
+                    row.getString("algorithm"),
+                    row.getString("hash_value")
+            );
+
+    public static TupleMapper<FileHashRecord> PARAM_MAPPER = TupleMapper.mapper(r ->
+            MapUtil.ofEntries(MapUtil.entry("path", r.path()),
+                    MapUtil.entry("file_size", r.fileSize()),
+                    MapUtil.entry("modified_at", r.modifiedAt()),
+                    MapUtil.entry("algorithm", r.algorithm()),
+                    MapUtil.entry("hash_value", r.hashValue())
+            ));
+}
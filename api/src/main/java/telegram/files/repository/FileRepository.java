@@ -13,6 +13,13 @@ public interface FileRepository {
 
     Future<Boolean> createIfNotExist(FileRecord fileRecord);
 
+    /**
+     * Create the records that do not exist yet and refresh the file id of the existing ones, in one transaction.
+     *
+     * @return the number of created records
+     */
+    Future<Integer> upsertAll(List<FileRecord> fileRecords);
+
     Future<Tuple3<List<FileRecord>, Long, Long>> getFiles(long chatId, Map<String, String> filter);
 
     Future<Map<String, FileRecord>> getFilesByUniqueId(List<String> uniqueIds);
@@ -51,6 +58,11 @@ public interface FileRepository {
 
     Future<Void> updateFileId(int fileId, String uniqueId);
 
+    /**
+     * Move the record to the account, chat and message of {@code fileRecord}, with its TDLib file id.
+     */
+    Future<Void> updateOwner(FileRecord fileRecord);
+
     Future<Integer> updateAlbumDataByMediaAlbumId(long mediaAlbumId, String caption, long reactionCount);
 
     Future<Void> updateTags(String uniqueId, String tags);
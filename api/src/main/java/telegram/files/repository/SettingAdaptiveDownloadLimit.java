@@ -0,0 +1,14 @@
+package telegram.files.repository;
+
+public class SettingAdaptiveDownloadLimit {
+    public boolean enabled;
+    public int minLimit;
+
+    public SettingAdaptiveDownloadLimit() {
+    }
+
+    public SettingAdaptiveDownloadLimit(boolean enabled, int minLimit) {
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+    }
+}
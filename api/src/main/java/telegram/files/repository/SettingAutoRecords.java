@@ -3,6 +3,7 @@ package telegram.files.repository;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.vertx.core.json.JsonObject;
 import telegram.files.MessyUtils;
+import telegram.files.SchedulingPolicy;
 import telegram.files.Transfer;
 
 import java.util.ArrayList;
@@ -95,6 +96,8 @@ public class SettingAutoRecords {
         public boolean downloadCommentFiles;
 
         public String filterExpr;
+
+        public SchedulingPolicy.Type schedulingPolicy;
     }
 
     public static class TransferConfig {
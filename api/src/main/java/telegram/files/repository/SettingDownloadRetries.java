@@ -0,0 +1,56 @@
+package telegram.files.repository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persisted retries of failed downloads, keyed by the unique id of the file.
+ */
+public class SettingDownloadRetries {
+    public Map<String, Retry> retries = new ConcurrentHashMap<>();
+
+    public static class Retry {
+        public long telegramId;
+
+        /**
+         * Account that queued the file when {@code telegramId} downloads it for that account, else 0
+         */
+        public long ownerId;
+
+        public long chatId;
+
+        public long messageId;
+
+        public int fileId;
+
+        public int priority;
+
+        /**
+         * {@code DownloadLanes.Lane} name
+         */
+        public String lane;
+
+        /**
+         * {@code DownloadRetry.ErrorClass} name of the last error
+         */
+        public String errorClass;
+
+        public String error;
+
+        public int attempts;
+
+        public long nextRetryAt;
+
+        public Retry() {
+        }
+
+        public Retry(long telegramId, long chatId, long messageId, int fileId, int priority, String lane) {
+            this.telegramId = telegramId;
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.fileId = fileId;
+            this.priority = priority;
+            this.lane = lane;
+        }
+    }
+}
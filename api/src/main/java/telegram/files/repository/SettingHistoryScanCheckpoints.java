@@ -0,0 +1,61 @@
+package telegram.files.repository;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persisted history scan cursors, keyed by {@code <scan key>:<file type>:<filter hash>}, so a restart resumes the
+ * scan and a changed rule starts a new one.
+ */
+public class SettingHistoryScanCheckpoints {
+    public Map<String, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+
+    public static class Checkpoint {
+        /**
+         * Oldest message id seen, the next search starts from it
+         */
+        public long fromMessageId;
+
+        public boolean complete;
+
+        public long updatedAt;
+
+        public Checkpoint() {
+        }
+
+        public Checkpoint(long fromMessageId, boolean complete, long updatedAt) {
+            this.fromMessageId = fromMessageId;
+            this.complete = complete;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    public static String key(String scanKey, String fileType, String query, String filterExpr) {
+        return scanKey + ":" + fileType + ":" + Integer.toHexString(Objects.hash(query, filterExpr));
+    }
+
+    @JsonIgnore
+    public Checkpoint get(String key) {
+        return checkpoints.get(key);
+    }
+
+    public void put(String key, long fromMessageId, boolean complete) {
+        checkpoints.put(key, new Checkpoint(fromMessageId, complete, System.currentTimeMillis()));
+    }
+
+    @JsonIgnore
+    public boolean isComplete(String key) {
+        Checkpoint checkpoint = checkpoints.get(key);
+        return checkpoint != null && checkpoint.complete;
+    }
+
+    /**
+     * Remove the checkpoints of the scan and of its comment threads.
+     */
+    public boolean removeScan(String scanKey) {
+        return checkpoints.keySet().removeIf(key -> key.startsWith(scanKey + ":"));
+    }
+}
@@ -18,6 +18,10 @@ public enum SettingKey {
      * Auto download limit for each telegram account
      */
     autoDownloadLimit(Convert::toInt),
+    /**
+     * Adjust the auto download limit to the measured download speed, the limit is the upper bound
+     */
+    autoDownloadAdaptiveLimit(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingAdaptiveDownloadLimit.class)),
     autoDownloadTimeLimited(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingTimeLimitedDownload.class)),
     proxys(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingProxyRecords.class)),
     /**
@@ -28,7 +32,28 @@ public enum SettingKey {
      * Speed units for displaying download speed, e.g., "bits" or "bytes"
      */
     speedUnits(Function.identity(), "bits"),
-    tags(value -> StrUtil.isBlank(value) ? null : StrUtil.split(value, ","));
+    tags(value -> StrUtil.isBlank(value) ? null : StrUtil.split(value, ",")),
+    /**
+     * Automatic downloads paused when the download window closed, key is telegramId, value is the file ids
+     */
+    autoDownloadScheduledPauses(value -> StrUtil.isBlank(value) ? null : new JsonObject(value)),
+    historyScanCheckpoints(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingHistoryScanCheckpoints.class)),
+    /**
+     * Newest message id seen for each automation chat, key is telegramId:chatId
+     */
+    messageHighWaterMarks(value -> StrUtil.isBlank(value) ? null : new JsonObject(value)),
+    /**
+     * Segments of the files downloaded by several accounts at once
+     */
+    segmentedDownloads(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingSegmentedDownloads.class)),
+    /**
+     * Bulk downloads paused by the download lanes or the download budget, key is telegramId, value is the file ids
+     */
+    downloadLanePauses(value -> StrUtil.isBlank(value) ? null : new JsonObject(value)),
+    /**
+     * Failed downloads waiting for a retry
+     */
+    downloadRetries(value -> StrUtil.isBlank(value) ? null : new JsonObject(value).mapTo(SettingDownloadRetries.class));
 
     public final Function<String, ?> converter;
 
@@ -0,0 +1,67 @@
+package telegram.files.repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persisted segmented downloads, keyed by the unique id of the file, so a restart only downloads the missing segments.
+ */
+public class SettingSegmentedDownloads {
+    public Map<String, Download> downloads = new ConcurrentHashMap<>();
+
+    public static class Download {
+        /**
+         * Account that started the download and owns the record
+         */
+        public long telegramId;
+
+        public long chatId;
+
+        public long messageId;
+
+        public long size;
+
+        public String fileName;
+
+        public int priority;
+
+        public List<Segment> segments;
+
+        public Download() {
+        }
+
+        public Download(long telegramId, long chatId, long messageId, long size, String fileName, int priority, List<Segment> segments) {
+            this.telegramId = telegramId;
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.size = size;
+            this.fileName = fileName;
+            this.priority = priority;
+            this.segments = segments;
+        }
+    }
+
+    public static class Segment {
+        public long offset;
+
+        public long length;
+
+        /**
+         * Account downloading the segment, 0 if none
+         */
+        public long telegramId;
+
+        public long downloaded;
+
+        public boolean completed;
+
+        public Segment() {
+        }
+
+        public Segment(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package telegram.files.repository;
 
+import java.util.List;
+
 public class SettingTimeLimitedDownload {
     public String startTime;
     public String endTime;
+    /**
+     * Download windows, if empty startTime and endTime are the window of every day
+     */
+    public List<Window> windows;
 
     public SettingTimeLimitedDownload() {
     }
@@ -11,4 +17,26 @@ public class SettingTimeLimitedDownload {
         this.startTime = startTime;
         this.endTime = endTime;
     }
+
+    public SettingTimeLimitedDownload(List<Window> windows) {
+        this.windows = windows;
+    }
+
+    public static class Window {
+        public String startTime;
+        public String endTime;
+        /**
+         * Days of the week the window starts on, 1 is Monday and 7 is Sunday, every day if empty
+         */
+        public List<Integer> weekdays;
+
+        public Window() {
+        }
+
+        public Window(String startTime, String endTime, List<Integer> weekdays) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.weekdays = weekdays;
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package telegram.files.repository;
+
+import org.drinkless.tdlib.TdApi;
+import telegram.files.TdApiRegistry;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read only map view of a TDLib object for filter expressions, a field is read when its key is looked up.
+ * <p>
+ * Nested TDLib objects are wrapped on access, arrays and other values are returned as is. Null fields are absent,
+ * like the maps built by {@code BeanUtil.beanToMap} with ignored null values.
+ * <p>
+ * Lives in this package because it is the one filter expressions are allowed to introspect.
+ */
+public final class TdObjectMap extends AbstractMap<String, Object> {
+
+    // Only needed to enumerate the map, lookups go through the generated TdApiRegistry.getField
+    private static final Map<Class<?>, List<String>> FIELD_NAMES = new ConcurrentHashMap<>();
+
+    private final TdApi.Object object;
+
+    private TdObjectMap(TdApi.Object object) {
+        this.object = object;
+    }
+
+    public static Object wrap(Object value) {
+        return value instanceof TdApi.Object tdObject ? new TdObjectMap(tdObject) : value;
+    }
+
+    @Override
+    public Object get(Object key) {
+        return key instanceof String name ? wrap(TdApiRegistry.getField(object, name)) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String name && TdApiRegistry.getField(object, name) != null;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Set<Entry<String, Object>> entries = new LinkedHashSet<>();
+        for (String name : fieldNames(object.getClass())) {
+            Object value = get(name);
+            if (value != null) {
+                entries.add(new SimpleImmutableEntry<>(name, value));
+            }
+        }
+        return entries;
+    }
+
+    private static List<String> fieldNames(Class<?> type) {
+        return FIELD_NAMES.computeIfAbsent(type, _ -> Arrays.stream(type.getFields())
+                .filter(field -> !Modifier.isStatic(field.getModifiers()))
+                .map(Field::getName)
+                .toList());
+    }
+}
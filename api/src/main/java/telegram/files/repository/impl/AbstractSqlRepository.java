@@ -1,7 +1,12 @@
 package telegram.files.repository.impl;
 
 
+import io.vertx.core.Future;
+import io.vertx.sqlclient.Pool;
 import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.SqlConnection;
+
+import java.util.function.Function;
 
 public abstract class AbstractSqlRepository {
 
@@ -11,4 +16,11 @@ public abstract class AbstractSqlRepository {
         this.sqlClient = sqlClient;
     }
 
+    protected <T> Future<T> withTransaction(Function<SqlConnection, Future<T>> function) {
+        if (sqlClient instanceof Pool pool) {
+            return pool.withTransaction(function);
+        }
+        return Future.failedFuture("Transaction requires a connection pool");
+    }
+
 }
@@ -0,0 +1,58 @@
+package telegram.files.repository.impl;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import io.vertx.core.Future;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.templates.SqlTemplate;
+import telegram.files.Config;
+import telegram.files.repository.FileHashRecord;
+import telegram.files.repository.FileHashRepository;
+
+import java.util.Map;
+
+public class FileHashRepositoryImpl extends AbstractSqlRepository implements FileHashRepository {
+
+    private static final Log log = LogFactory.get();
+
+    public FileHashRepositoryImpl(SqlClient sqlClient) {
+        super(sqlClient);
+    }
+
+    @Override
+    public Future<FileHashRecord> getByPath(String path) {
+        return SqlTemplate
+                .forQuery(sqlClient, """
+                        SELECT * FROM file_hash_record WHERE path = #{path}
+                        """)
+                .mapTo(FileHashRecord.ROW_MAPPER)
+                .execute(Map.of("path", path))
+                .map(rs -> rs.size() > 0 ? rs.iterator().next() : null)
+                .onFailure(
+                        err -> log.error("Failed to get file hash record: %s".formatted(err.getMessage()))
+                );
+    }
+
+    @Override
+    public Future<Void> createOrUpdate(FileHashRecord record) {
+        return SqlTemplate
+                .forUpdate(sqlClient, Config.isMysql() ?
+                        """
+                                INSERT INTO file_hash_record(path, file_size, modified_at, algorithm, hash_value)
+                                VALUES (#{path}, #{file_size}, #{modified_at}, #{algorithm}, #{hash_value})
+                                ON DUPLICATE KEY UPDATE file_size = VALUES(file_size), modified_at = VALUES(modified_at),
+                                                        algorithm = VALUES(algorithm), hash_value = VALUES(hash_value)""" :
+                        """
+                                INSERT INTO file_hash_record(path, file_size, modified_at, algorithm, hash_value)
+                                VALUES (#{path}, #{file_size}, #{modified_at}, #{algorithm}, #{hash_value})
+                                ON CONFLICT (path) DO UPDATE SET file_size = #{file_size}, modified_at = #{modified_at},
+                                                                 algorithm = #{algorithm}, hash_value = #{hash_value}""")
+                .mapFrom(FileHashRecord.PARAM_MAPPER)
+                .execute(record)
+                .onSuccess(_ -> log.trace("Successfully created or updated file hash record: %s".formatted(record.path())))
+                .onFailure(
+                        err -> log.error("Failed to create or update file hash record: %s".formatted(err.getMessage()))
+                )
+                .mapEmpty();
+    }
+}
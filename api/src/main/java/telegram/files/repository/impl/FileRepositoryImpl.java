@@ -34,6 +34,18 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
 
     private static final Log log = LogFactory.get();
 
+    private static final String INSERT_SQL = """
+            INSERT INTO file_record(id, unique_id, telegram_id, chat_id, message_id, media_album_id, date, has_sensitive_content,
+                                    size, downloaded_size,
+                                    type, mime_type,
+                                    file_name, thumbnail, thumbnail_unique_id, caption, extra, local_path,
+                                    download_status, start_date, transfer_status, tags, thread_chat_id, message_thread_id, reaction_count)
+            values (#{id}, #{unique_id}, #{telegram_id}, #{chat_id}, #{message_id}, #{media_album_id}, #{date},
+                    #{has_sensitive_content}, #{size}, #{downloaded_size}, #{type},
+                    #{mime_type}, #{file_name}, #{thumbnail}, #{thumbnail_unique_id}, #{caption}, #{extra}, #{local_path},
+                    #{download_status}, #{start_date}, #{transfer_status}, #{tags}, #{thread_chat_id}, #{message_thread_id}, #{reaction_count})
+            """;
+
     public FileRepositoryImpl(SqlClient sqlClient) {
         super(sqlClient);
     }
@@ -41,17 +53,7 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
     @Override
     public Future<FileRecord> create(FileRecord fileRecord) {
         return SqlTemplate
-                .forUpdate(sqlClient, """
-                        INSERT INTO file_record(id, unique_id, telegram_id, chat_id, message_id, media_album_id, date, has_sensitive_content,
-                                                size, downloaded_size,
-                                                type, mime_type,
-                                                file_name, thumbnail, thumbnail_unique_id, caption, extra, local_path,
-                                                download_status, start_date, transfer_status, tags, thread_chat_id, message_thread_id, reaction_count)
-                        values (#{id}, #{unique_id}, #{telegram_id}, #{chat_id}, #{message_id}, #{media_album_id}, #{date},
-                                #{has_sensitive_content}, #{size}, #{downloaded_size}, #{type},
-                                #{mime_type}, #{file_name}, #{thumbnail}, #{thumbnail_unique_id}, #{caption}, #{extra}, #{local_path},
-                                #{download_status}, #{start_date}, #{transfer_status}, #{tags}, #{thread_chat_id}, #{message_thread_id}, #{reaction_count})
-                        """)
+                .forUpdate(sqlClient, INSERT_SQL)
                 .mapFrom(FileRecord.PARAM_MAPPER)
                 .execute(fileRecord)
                 .map(r -> fileRecord)
@@ -77,6 +79,73 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                 });
     }
 
+    @Override
+    public Future<Integer> upsertAll(List<FileRecord> fileRecords) {
+        if (CollUtil.isEmpty(fileRecords)) {
+            return Future.succeededFuture(0);
+        }
+        Map<String, FileRecord> recordsByUniqueId = new LinkedHashMap<>();
+        fileRecords.stream()
+                .filter(r -> StrUtil.isNotBlank(r.uniqueId()))
+                .forEach(r -> recordsByUniqueId.putIfAbsent(r.uniqueId(), r));
+        if (recordsByUniqueId.isEmpty()) {
+            return Future.succeededFuture(0);
+        }
+        return withTransaction(conn -> getFilesByUniqueId(conn, new ArrayList<>(recordsByUniqueId.keySet()))
+                .compose(existFiles -> {
+                    List<FileRecord> creates = new ArrayList<>();
+                    List<FileRecord> idUpdates = new ArrayList<>();
+                    recordsByUniqueId.values().forEach(record -> {
+                        FileRecord exist = existFiles.get(record.uniqueId());
+                        if (exist == null) {
+                            creates.add(record);
+                        } else if (record.id() > 0 && exist.id() != record.id()) {
+                            idUpdates.add(record);
+                        }
+                    });
+                    Future<Void> createFuture = creates.isEmpty() ? Future.<Void>succeededFuture() :
+                            SqlTemplate.forUpdate(conn, INSERT_SQL)
+                                    .mapFrom(FileRecord.PARAM_MAPPER)
+                                    .executeBatch(creates)
+                                    .mapEmpty();
+                    return createFuture
+                            .compose(_ -> idUpdates.isEmpty() ? Future.<Void>succeededFuture() :
+                                    SqlTemplate.forUpdate(conn, """
+                                                    UPDATE file_record SET id = #{id} WHERE unique_id = #{unique_id}
+                                                    """)
+                                            .mapFrom(FileRecord.PARAM_MAPPER)
+                                            .executeBatch(idUpdates)
+                                            .mapEmpty())
+                            .compose(_ -> updateAlbumData(conn, creates))
+                            .map(creates.size());
+                }))
+                .onSuccess(count -> log.trace("Successfully upserted file records: %d, created: %d".formatted(recordsByUniqueId.size(), count)))
+                .onFailure(err -> log.error("Failed to upsert file records: %s".formatted(err.getMessage())));
+    }
+
+    /**
+     * Spread caption and reaction count across the albums of newly created records, once per album.
+     */
+    private Future<Void> updateAlbumData(SqlClient client, List<FileRecord> createdRecords) {
+        Map<Long, List<FileRecord>> albums = createdRecords.stream()
+                .filter(r -> r.mediaAlbumId() > 0 && !Objects.equals(r.type(), "thumbnail"))
+                .collect(Collectors.groupingBy(FileRecord::mediaAlbumId, LinkedHashMap::new, Collectors.toList()));
+        Future<Void> future = Future.succeededFuture();
+        for (Map.Entry<Long, List<FileRecord>> album : albums.entrySet()) {
+            String caption = album.getValue().stream()
+                    .map(FileRecord::caption)
+                    .filter(StrUtil::isNotBlank)
+                    .findFirst()
+                    .orElse(null);
+            long reactionCount = album.getValue().stream()
+                    .mapToLong(FileRecord::reactionCount)
+                    .max()
+                    .orElse(0L);
+            future = future.compose(_ -> updateAlbumDataByMediaAlbumId(client, album.getKey(), caption, reactionCount).mapEmpty());
+        }
+        return future;
+    }
+
     @Override
     public Future<Tuple3<List<FileRecord>, Long, Long>> getFiles(long chatId, Map<String, String> filter) {
         String search = filter.get("search");
@@ -214,6 +283,10 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
 
     @Override
     public Future<Map<String, FileRecord>> getFilesByUniqueId(List<String> uniqueIds) {
+        return getFilesByUniqueId(sqlClient, uniqueIds);
+    }
+
+    private Future<Map<String, FileRecord>> getFilesByUniqueId(SqlClient client, List<String> uniqueIds) {
         uniqueIds = uniqueIds.stream()
                 .filter(StrUtil::isNotBlank)
                 .distinct().collect(Collectors.toList());
@@ -228,7 +301,7 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
             params.put("uniqueId" + i, uniqueIds.get(i));
         }
         return SqlTemplate
-                .forQuery(sqlClient, """
+                .forQuery(client, """
                         SELECT * FROM file_record WHERE unique_id IN (%s)
                         """.formatted(uniqueIdPlaceholders))
                 .mapTo(FileRecord.ROW_MAPPER)
@@ -291,11 +364,15 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
 
     @Override
     public Future<String> getCaptionByMediaAlbumId(long mediaAlbumId) {
+        return getCaptionByMediaAlbumId(sqlClient, mediaAlbumId);
+    }
+
+    private Future<String> getCaptionByMediaAlbumId(SqlClient client, long mediaAlbumId) {
         if (mediaAlbumId <= 0) {
             return Future.succeededFuture(null);
         }
         return SqlTemplate
-                .forQuery(sqlClient, """
+                .forQuery(client, """
                         SELECT caption FROM file_record WHERE media_album_id = #{mediaAlbumId} LIMIT 1
                         """)
                 .mapTo(row -> row.getString("caption"))
@@ -306,11 +383,15 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
 
     @Override
     public Future<Long> getReactionCountByMediaAlbumId(long mediaAlbumId) {
+        return getReactionCountByMediaAlbumId(sqlClient, mediaAlbumId);
+    }
+
+    private Future<Long> getReactionCountByMediaAlbumId(SqlClient client, long mediaAlbumId) {
         if (mediaAlbumId <= 0) {
             return Future.succeededFuture(0L);
         }
         return SqlTemplate
-                .forQuery(sqlClient, """
+                .forQuery(client, """
                         SELECT reaction_count FROM file_record WHERE media_album_id = #{mediaAlbumId} LIMIT 1
                         """)
                 .mapTo(row -> row.getLong("reaction_count"))
@@ -591,6 +672,7 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                                 }
                                 if (downloadStatusUpdated) {
                                     result.put("downloadStatus", downloadStatus.name());
+                                    result.put("type", record.type());
                                 }
                                 log.debug("Successfully updated file record: %s, path: %s, status: %s, before: %s, %s"
                                         .formatted(uniqueId, localPath, downloadStatus.name(), record.localPath(), record.downloadStatus()));
@@ -668,15 +750,39 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                 });
     }
 
+    @Override
+    public Future<Void> updateOwner(FileRecord fileRecord) {
+        return SqlTemplate
+                .forUpdate(sqlClient, """
+                        UPDATE file_record SET id = #{id},
+                                               telegram_id = #{telegram_id},
+                                               chat_id = #{chat_id},
+                                               message_id = #{message_id},
+                                               thread_chat_id = #{thread_chat_id},
+                                               message_thread_id = #{message_thread_id}
+                        WHERE unique_id = #{unique_id}
+                        """)
+                .mapFrom(FileRecord.PARAM_MAPPER)
+                .execute(fileRecord)
+                .onFailure(err ->
+                        log.error("Failed to update file record owner: %s".formatted(err.getMessage()))
+                )
+                .mapEmpty();
+    }
+
     @Override
     public Future<Integer> updateAlbumDataByMediaAlbumId(long mediaAlbumId, String caption, long reactionCount) {
+        return updateAlbumDataByMediaAlbumId(sqlClient, mediaAlbumId, caption, reactionCount);
+    }
+
+    private Future<Integer> updateAlbumDataByMediaAlbumId(SqlClient client, long mediaAlbumId, String caption, long reactionCount) {
         if (mediaAlbumId <= 0) {
             return Future.succeededFuture(0);
         }
 
         return Future.all(Future.future(promise -> {
                     if (StrUtil.isBlank(caption)) {
-                        this.getCaptionByMediaAlbumId(mediaAlbumId)
+                        this.getCaptionByMediaAlbumId(client, mediaAlbumId)
                                 .onComplete(result -> {
                                     if (result.succeeded()) {
                                         promise.complete(result.result());
@@ -691,7 +797,7 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                     if (reactionCount > 0) {
                         promise.complete(reactionCount);
                     } else {
-                        this.getReactionCountByMediaAlbumId(mediaAlbumId)
+                        this.getReactionCountByMediaAlbumId(client, mediaAlbumId)
                                 .onComplete(result -> {
                                     if (result.succeeded()) {
                                         promise.complete(result.result());
@@ -708,12 +814,14 @@ public class FileRepositoryImpl extends AbstractSqlRepository implements FileRep
                 return Future.succeededFuture(0);
             }
             return SqlTemplate
-                    .forUpdate(sqlClient, """
+                    .forUpdate(client, """
                             UPDATE file_record SET caption = #{caption},
                                                    reaction_count = #{reactionCount}
                                                WHERE media_album_id = #{mediaAlbumId}
                             """)
-                    .execute(Map.of("mediaAlbumId", mediaAlbumId, "caption", theCaption, "reactionCount", theReactionCount))
+                    .execute(MapUtil.ofEntries(MapUtil.entry("mediaAlbumId", mediaAlbumId),
+                            MapUtil.entry("caption", theCaption),
+                            MapUtil.entry("reactionCount", theReactionCount)))
                     .onFailure(err -> log.error("Failed to update file record: %s".formatted(err.getMessage())))
                     .map(SqlResult::rowCount);
         });
@@ -0,0 +1,117 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrencyControllerTest {
+
+    private static final long MB = 1L << 20;
+
+    /**
+     * Synthetic link: 2 MB/s per download up to 10 MB/s, beyond 7 downloads TDLib thrashes and the speed drops.
+     */
+    private static long throughput(int downloads, Random random) {
+        return throughput(downloads, 10, random);
+    }
+
+    private static long throughput(int downloads, int bandwidth, Random random) {
+        double speed = Math.min(downloads * 2.0, bandwidth);
+        if (downloads > 7) {
+            speed *= Math.max(0.1, 1 - 0.12 * (downloads - 7));
+        }
+        return (long) (speed * MB * (1 + (random.nextDouble() - 0.5) * 0.1));
+    }
+
+    @Test
+    void testConvergesToOptimum() {
+        for (long seed = 0; seed < 5; seed++) {
+            Random random = new Random(seed);
+            ConcurrencyController controller = new ConcurrencyController(1, 20, 1);
+            long total = 0;
+            for (int i = 0; i < 200; i++) {
+                int limit = controller.getLimit();
+                long speed = throughput(limit, random);
+                if (i >= 100) {
+                    assertTrue(limit >= 4 && limit <= 8, "seed %d interval %d limit %d".formatted(seed, i, limit));
+                    total += speed;
+                }
+                controller.update(speed, limit);
+            }
+            assertTrue(total / 100 > 9 * MB, "seed %d average %d".formatted(seed, total / 100));
+        }
+    }
+
+    @Test
+    void testThrashingBacksOff() {
+        Random random = new Random(1);
+        ConcurrencyController controller = new ConcurrencyController(1, 20, 20);
+        for (int i = 0; i < 100; i++) {
+            int limit = controller.getLimit();
+            controller.update(throughput(limit, random), limit);
+        }
+        assertTrue(controller.getLimit() <= 8, "limit " + controller.getLimit());
+    }
+
+    @Test
+    void testFollowsFasterLink() {
+        Random random = new Random(3);
+        ConcurrencyController controller = new ConcurrencyController(1, 20, 1);
+        for (int i = 0; i < 100; i++) {
+            int limit = controller.getLimit();
+            controller.update(throughput(limit, random), limit);
+        }
+        for (int i = 0; i < 100; i++) {
+            int limit = controller.getLimit();
+            if (i >= 50) {
+                assertTrue(limit >= 6, "interval %d limit %d".formatted(i, limit));
+            }
+            controller.update(throughput(limit, 20, random), limit);
+        }
+    }
+
+    @Test
+    void testStallAndErrorsDecrease() {
+        ConcurrencyController controller = new ConcurrencyController(2, 10, 10);
+        assertEquals(7, controller.update(0, 10));
+
+        controller.recordError();
+        assertEquals(4, controller.update(20 * MB, 7));
+
+        for (int i = 0; i < 10; i++) {
+            controller.update(0, 4);
+        }
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    void testUnsaturatedHolds() {
+        ConcurrencyController controller = new ConcurrencyController(1, 10, 3);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(3, controller.update((i + 1) * MB, 2));
+        }
+        // Idle accounts are not stalled
+        assertEquals(3, controller.update(0, 0));
+    }
+
+    @Test
+    void testBounds() {
+        ConcurrencyController controller = new ConcurrencyController(1, 4, 3);
+        int highest = 0;
+        for (int i = 0; i < 20; i++) {
+            int limit = controller.getLimit();
+            controller.update(limit * MB, limit);
+            highest = Math.max(highest, controller.getLimit());
+        }
+        assertEquals(4, highest);
+
+        controller.setBounds(1, 2);
+        assertEquals(2, controller.getLimit());
+        controller.setBounds(3, 6);
+        assertEquals(3, controller.getLimit());
+        controller.setBounds(0, 0);
+        assertEquals(1, controller.getLimit());
+    }
+}
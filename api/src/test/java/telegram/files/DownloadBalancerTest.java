@@ -0,0 +1,101 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadBalancerTest {
+
+    private static final long MB = 1L << 20;
+
+    private record File(long chatId, String name) {
+    }
+
+    private static final long CHANNEL = -1001;
+
+    private static final long PRIVATE = 42;
+
+    // Account 3 is not a member of the channel, private chats are only downloaded by the account that queued them
+    private static boolean canDownload(long telegramId, long chatId) {
+        return telegramId == 1 || chatId == CHANNEL && telegramId != 3;
+    }
+
+    private static List<File> files(int count, long chatId) {
+        return IntStream.range(0, count).mapToObj(i -> new File(chatId, chatId + "-" + i)).toList();
+    }
+
+    @Test
+    void testFilesGoToSpareThroughput() {
+        // Account 1 is saturated at 1 MB/s per download, account 2 gets 4 MB/s per download
+        List<DownloadBalancer.Candidate> candidates = List.of(
+                new DownloadBalancer.Candidate(1, 1, 4, 4 * MB, true),
+                new DownloadBalancer.Candidate(2, 3, 1, 4 * MB, true),
+                new DownloadBalancer.Candidate(3, 5, 0, 0, true));
+
+        Map<Long, List<File>> assignment = DownloadBalancer.assign(1, files(4, CHANNEL), File::chatId,
+                candidates, DownloadBalancerTest::canDownload);
+        assertEquals(3, assignment.get(2L).size());
+        assertEquals(1, assignment.get(1L).size());
+        assertNull(assignment.get(3L));
+    }
+
+    @Test
+    void testIdleAccountIsAssumedAsFastAsTheFastest() {
+        List<DownloadBalancer.Candidate> candidates = List.of(
+                new DownloadBalancer.Candidate(1, 2, 2, 2 * MB, true),
+                new DownloadBalancer.Candidate(2, 2, 0, 0, true));
+
+        Map<Long, List<File>> assignment = DownloadBalancer.assign(1, files(4, CHANNEL), File::chatId,
+                candidates, DownloadBalancerTest::canDownload);
+        assertEquals(2, assignment.get(1L).size());
+        assertEquals(2, assignment.get(2L).size());
+    }
+
+    @Test
+    void testPrivateChatsStayInTheirAccount() {
+        List<DownloadBalancer.Candidate> candidates = List.of(
+                new DownloadBalancer.Candidate(1, 1, 0, 0, true),
+                new DownloadBalancer.Candidate(2, 5, 0, 0, true));
+
+        Map<Long, List<File>> assignment = DownloadBalancer.assign(1, files(3, PRIVATE), File::chatId,
+                candidates, DownloadBalancerTest::canDownload);
+        assertEquals(Map.of(1L, files(1, PRIVATE)), assignment);
+    }
+
+    @Test
+    void testUnavailableAccountOnlyTakesWhatOthersCanNot() {
+        List<DownloadBalancer.Candidate> candidates = List.of(
+                new DownloadBalancer.Candidate(1, 3, 2, 10 * MB, false),
+                new DownloadBalancer.Candidate(2, 1, 1, MB, true));
+
+        List<File> files = List.of(new File(CHANNEL, "a"), new File(CHANNEL, "b"), new File(PRIVATE, "c"));
+        Map<Long, List<File>> assignment = DownloadBalancer.assign(1, files, File::chatId,
+                candidates, DownloadBalancerTest::canDownload);
+        assertEquals(List.of(new File(CHANNEL, "a")), assignment.get(2L));
+        assertEquals(Set.of(new File(CHANNEL, "b"), new File(PRIVATE, "c")), Set.copyOf(assignment.get(1L)));
+    }
+
+    @Test
+    void testOriginWinsTies() {
+        List<DownloadBalancer.Candidate> candidates = List.of(
+                new DownloadBalancer.Candidate(2, 1, 0, 0, true),
+                new DownloadBalancer.Candidate(1, 1, 0, 0, true));
+
+        Map<Long, List<File>> assignment = DownloadBalancer.assign(1, files(1, CHANNEL), File::chatId,
+                candidates, DownloadBalancerTest::canDownload);
+        assertEquals(Map.of(1L, files(1, CHANNEL)), assignment);
+    }
+
+    @Test
+    void testFloodWaitSeconds() {
+        assertEquals(30, DownloadBalancer.floodWaitSeconds("code: 429, message: Too Many Requests: retry after 30"));
+        assertEquals(120, DownloadBalancer.floodWaitSeconds("FLOOD_WAIT_120"));
+        assertEquals(0, DownloadBalancer.floodWaitSeconds("code: 400, message: Message not found"));
+        assertEquals(0, DownloadBalancer.floodWaitSeconds(null));
+    }
+}
@@ -0,0 +1,84 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadBudgetTest {
+
+    private static final long MB = 1L << 20;
+
+    @Test
+    void testParseWeights() {
+        assertEquals(Map.of(1L, 2, 3L, 1), DownloadBudget.parseWeights("1:2, 3:1,bad,4:0,5:x"));
+        assertEquals(Map.of(), DownloadBudget.parseWeights(null));
+    }
+
+    @Test
+    void testSlotsAreSharedByWeight() {
+        DownloadBudget budget = new DownloadBudget(12, 0, Map.of(1L, 2));
+        Map<Long, Long> demands = new HashMap<>();
+        for (long telegramId = 1; telegramId <= 8; telegramId++) {
+            demands.put(telegramId, 5L);
+        }
+
+        Map<Long, Long> allocation = budget.allocateSlots(demands);
+        assertEquals(12, allocation.values().stream().mapToLong(Long::longValue).sum());
+        assertEquals(3, (long) allocation.get(1L));
+        for (long telegramId = 2; telegramId <= 8; telegramId++) {
+            assertTrue(allocation.get(telegramId) >= 1 && allocation.get(telegramId) <= 2, "allocation: " + allocation);
+        }
+    }
+
+    @Test
+    void testUnusedSlotsGoToOthers() {
+        DownloadBudget budget = new DownloadBudget(12, 0, Map.of());
+
+        Map<Long, Long> allocation = budget.allocateSlots(Map.of(1L, 1L, 2L, 0L, 3L, 20L, 4L, 5L));
+        assertEquals(Map.of(1L, 1L, 2L, 0L, 3L, 6L, 4L, 5L), allocation);
+
+        assertEquals(Map.of(1L, 7L), new DownloadBudget(0, 0, Map.of()).allocateSlots(Map.of(1L, 7L)));
+    }
+
+    /**
+     * Synthetic accounts: every running bulk download gets a fixed speed, paused ones get nothing.
+     */
+    @Test
+    void testBandwidthCapSimulation() {
+        DownloadBudget budget = new DownloadBudget(0, 50 * MB, Map.of(1L, 2));
+        long[] perFile = {4 * MB, 3 * MB, 5 * MB};
+        int[] running = {10, 10, 10};
+        int[] throttled = new int[3];
+
+        long total = 0;
+        for (long now = 0; now < 300_000; now += 1000) {
+            total = 0;
+            for (int i = 0; i < 3; i++) {
+                total += running[i] * perFile[i];
+            }
+            if (now >= 200_000) {
+                assertTrue(total <= 50 * MB + 5 * MB, "total %d at %d".formatted(total / MB, now));
+                assertTrue(total >= 40 * MB - 5 * MB, "total %d at %d".formatted(total / MB, now));
+            }
+            for (int i = 0; i < 3; i++) {
+                int action = budget.onSpeed(i + 1, running[i] * perFile[i], running[i], throttled[i], now);
+                int change = action > 0 ? Math.min(action, running[i]) : -Math.min(-action, throttled[i]);
+                running[i] -= change;
+                throttled[i] += change;
+            }
+        }
+        // The account with weight 2 keeps the largest share
+        assertTrue(running[0] * perFile[0] > running[1] * perFile[1], "running: %d %d".formatted(running[0], running[1]));
+        assertFalse(budget.canStartBulk(2, 300_000));
+    }
+
+    @Test
+    void testThrottledAreResumedWhenUncapped() {
+        DownloadBudget budget = new DownloadBudget(0, 0, Map.of());
+        assertEquals(-3, budget.onSpeed(1, 10 * MB, 2, 3, 0));
+        assertTrue(budget.canStartBulk(1, 0));
+    }
+}
@@ -0,0 +1,79 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadDedupTest {
+
+    private static DownloadDedup.Waiter waiter(long telegramId, int fileId) {
+        return new DownloadDedup.Waiter(telegramId, new TelegramVerticle.DownloadRequest(1, 1, fileId, 1));
+    }
+
+    @Test
+    void testSecondAccountWaitsForOwner() {
+        DownloadDedup dedup = new DownloadDedup();
+        assertEquals(1, dedup.claim("a", 1));
+        assertEquals(1, dedup.claim("a", 2));
+        assertTrue(dedup.isOwnedByOther("a", 2));
+        assertFalse(dedup.isOwnedByOther("a", 1));
+
+        dedup.await("a", waiter(2, 20));
+        dedup.await("a", waiter(2, 20));
+        dedup.await("a", waiter(3, 30));
+
+        // Only the owner releases the file
+        assertEquals(List.of(), dedup.release("a", 2));
+        assertEquals(List.of(waiter(2, 20), waiter(3, 30)), dedup.release("a", 1));
+        assertEquals(0, dedup.getOwner("a"));
+        assertEquals(2, dedup.claim("a", 2));
+    }
+
+    @Test
+    void testRemoveAccount() {
+        DownloadDedup dedup = new DownloadDedup();
+        dedup.claim("a", 1);
+        dedup.claim("b", 2);
+        dedup.await("a", waiter(2, 20));
+        dedup.await("b", waiter(1, 10));
+        dedup.await("b", waiter(3, 30));
+
+        assertEquals(List.of(waiter(2, 20)), dedup.remove(1));
+        assertEquals(0, dedup.getOwner("a"));
+        // The waiting requests of the removed account are dropped
+        assertEquals(List.of(waiter(3, 30)), dedup.release("b", 2));
+    }
+
+    @Test
+    void testLinkTarget() {
+        Path root = Path.of("/data/account-1");
+        assertEquals(Path.of("/data/account-2/videos/a.mp4"),
+                DownloadDedup.linkTarget(Path.of("/data/account-1/videos/a.mp4"), root, Path.of("/data/account-2")));
+        assertNull(DownloadDedup.linkTarget(Path.of("/downloads/a.mp4"), root, Path.of("/data/account-2")));
+        assertNull(DownloadDedup.linkTarget(Path.of("/data/account-10/a.mp4"), root, Path.of("/data/account-2")));
+    }
+
+    @Test
+    void testLink(@TempDir Path dir) throws Exception {
+        Path source = dir.resolve("account-1/videos/a.mp4");
+        Files.createDirectories(source.getParent());
+        Files.writeString(source, "video");
+
+        Path target = dir.resolve("account-2/videos/a.mp4");
+        assertTrue(DownloadDedup.link(source, target));
+        assertTrue(Files.isSameFile(source, target));
+        // Linking again is a no-op
+        assertTrue(DownloadDedup.link(source, target));
+
+        Path other = dir.resolve("account-2/videos/b.mp4");
+        Files.writeString(other, "other");
+        assertThrows(FileAlreadyExistsException.class, () -> DownloadDedup.link(source, other));
+        assertEquals("other", Files.readString(other));
+    }
+}
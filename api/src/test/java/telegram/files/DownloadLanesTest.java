@@ -0,0 +1,114 @@
+package telegram.files;
+
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadLanesTest {
+
+    private static TdApi.File file(int id, boolean active, boolean completed) {
+        TdApi.File file = new TdApi.File();
+        file.id = id;
+        file.local = new TdApi.LocalFile();
+        file.local.isDownloadingActive = active;
+        file.local.isDownloadingCompleted = completed;
+        return file;
+    }
+
+    @Test
+    void testInteractiveSlotsAreReserved() {
+        DownloadLanes lanes = new DownloadLanes(2);
+        assertEquals(DownloadLanes.Lane.INTERACTIVE, lanes.acquire(1, DownloadLanes.Lane.INTERACTIVE));
+        assertEquals(DownloadLanes.Lane.INTERACTIVE, lanes.acquire(2, DownloadLanes.Lane.INTERACTIVE));
+        assertEquals(DownloadLanes.Lane.BULK, lanes.acquire(3, DownloadLanes.Lane.INTERACTIVE));
+        assertEquals(DownloadLanes.Lane.INTERACTIVE, lanes.acquire(1, DownloadLanes.Lane.BULK));
+        assertTrue(lanes.isInteractive(2));
+        assertFalse(lanes.isInteractive(3));
+
+        lanes.onFileUpdated(file(1, false, true), 0);
+        assertEquals(DownloadLanes.Lane.INTERACTIVE, lanes.acquire(4, DownloadLanes.Lane.INTERACTIVE));
+    }
+
+    @Test
+    void testTdPriority() {
+        assertEquals(32, DownloadLanes.tdPriority(DownloadLanes.Lane.INTERACTIVE, 1));
+        assertEquals(16, DownloadLanes.tdPriority(DownloadLanes.Lane.BULK, 32));
+        assertEquals(8, DownloadLanes.tdPriority(DownloadLanes.Lane.BULK, 16));
+        assertEquals(1, DownloadLanes.tdPriority(DownloadLanes.Lane.BULK, 1));
+    }
+
+    @Test
+    void testBulkIsPausedWhileInteractive() {
+        DownloadLanes lanes = new DownloadLanes(2);
+        lanes.acquire(10, DownloadLanes.Lane.BULK);
+        lanes.acquire(11, DownloadLanes.Lane.BULK);
+        assertEquals(List.of(), lanes.suspendBulk(0));
+
+        lanes.acquire(1, DownloadLanes.Lane.INTERACTIVE);
+        assertEquals(List.of(10, 11), lanes.suspendBulk(1000).stream().sorted().toList());
+        assertTrue(lanes.isBulkSuspended());
+        assertEquals(List.of(), lanes.suspendBulk(1500));
+
+        // A paused bulk file stays in the lane
+        lanes.onFileUpdated(file(10, false, false), 1500);
+        assertEquals(1, lanes.getStatistics().getJsonObject("interactive").getInteger("active"));
+        assertEquals(2, lanes.getStatistics().getJsonObject("bulk").getInteger("paused"));
+        assertEquals(List.of(10, 11), lanes.getPausedBulk());
+
+        lanes.onFileUpdated(file(1, false, true), 2000);
+        assertEquals(List.of(), lanes.resumeBulk(2000 + DownloadLanes.RESUME_DELAY - 1));
+        assertEquals(List.of(10, 11), lanes.resumeBulk(2000 + DownloadLanes.RESUME_DELAY).stream().sorted().toList());
+        assertFalse(lanes.isBulkSuspended());
+        assertEquals(List.of(), lanes.getPausedBulk());
+    }
+
+    @Test
+    void testLongInteractiveDownloadResumesBulk() {
+        DownloadLanes lanes = new DownloadLanes(2);
+        lanes.acquire(10, DownloadLanes.Lane.BULK);
+        lanes.acquire(1, DownloadLanes.Lane.INTERACTIVE);
+        assertEquals(List.of(10), lanes.suspendBulk(0));
+
+        assertEquals(List.of(), lanes.resumeBulk(DownloadLanes.MAX_SUSPEND_TIME - 1));
+        assertEquals(List.of(10), lanes.resumeBulk(DownloadLanes.MAX_SUSPEND_TIME));
+        // Not paused again until the interactive lane is idle
+        assertEquals(List.of(), lanes.suspendBulk(DownloadLanes.MAX_SUSPEND_TIME + 1));
+
+        long idle = DownloadLanes.MAX_SUSPEND_TIME + 2;
+        lanes.onFileUpdated(file(1, false, true), idle);
+        lanes.resumeBulk(idle + DownloadLanes.RESUME_DELAY);
+        lanes.acquire(2, DownloadLanes.Lane.INTERACTIVE);
+        assertEquals(List.of(10), lanes.suspendBulk(idle + DownloadLanes.RESUME_DELAY + 1));
+    }
+
+    @Test
+    void testThrottleIsKeptApartFromSuspension() {
+        DownloadLanes lanes = new DownloadLanes(2);
+        lanes.acquire(10, DownloadLanes.Lane.BULK);
+        lanes.acquire(11, DownloadLanes.Lane.BULK);
+        lanes.acquire(12, DownloadLanes.Lane.BULK);
+        List<Integer> throttled = lanes.throttleBulk(1);
+        assertEquals(1, throttled.size());
+        assertEquals(2, lanes.bulkActiveCount());
+        assertEquals(throttled, lanes.getPausedBulk());
+
+        // A throttled file stays in the lane when TDLib reports it paused
+        lanes.onFileUpdated(file(throttled.getFirst(), false, false), 0);
+        assertEquals(1, lanes.throttledCount());
+
+        lanes.acquire(1, DownloadLanes.Lane.INTERACTIVE);
+        List<Integer> suspended = lanes.suspendBulk(0);
+        assertEquals(2, suspended.size());
+        assertFalse(suspended.contains(throttled.getFirst()));
+        assertEquals(List.of(10, 11, 12), lanes.getPausedBulk());
+
+        // Unthrottled while suspended, it is resumed with the suspended files
+        assertEquals(List.of(), lanes.unthrottleBulk(1));
+        lanes.onFileUpdated(file(1, false, true), 1000);
+        assertEquals(List.of(10, 11, 12), lanes.resumeBulk(1000 + DownloadLanes.RESUME_DELAY).stream().sorted().toList());
+        assertEquals(3, lanes.bulkActiveCount());
+    }
+}
@@ -0,0 +1,80 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadQueueTest {
+
+    private static DownloadQueue.Entry entry(long chatId, long messageId, boolean historical) {
+        return new DownloadQueue.Entry(chatId, messageId, (int) messageId, "unique-" + messageId, 1024, "photo",
+                TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY, historical);
+    }
+
+    @Test
+    void testDuplicateFilesAreRejected() {
+        DownloadQueue queue = new DownloadQueue(10);
+        assertTrue(queue.offer(entry(1, 1, false)));
+        assertFalse(queue.offer(entry(2, 1, false)));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void testPollKeepsInsertionOrder() {
+        DownloadQueue queue = new DownloadQueue(10);
+        queue.offer(entry(1, 3, false));
+        queue.offer(entry(1, 1, false));
+        queue.offer(entry(1, 2, false));
+
+        assertEquals(3, queue.poll().messageId());
+        assertEquals(1, queue.poll().messageId());
+        assertEquals(2, queue.poll().messageId());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void testDepthIsCapped() {
+        DownloadQueue queue = new DownloadQueue(2);
+        assertTrue(queue.offer(entry(1, 1, false)));
+        assertTrue(queue.offer(entry(1, 2, false)));
+        assertTrue(queue.isFull());
+        assertFalse(queue.offer(entry(1, 3, false)));
+
+        queue.poll();
+        assertTrue(queue.offer(entry(1, 3, false)));
+    }
+
+    @Test
+    void testRemoveChat() {
+        DownloadQueue queue = new DownloadQueue(10);
+        queue.offer(entry(1, 1, true));
+        queue.offer(entry(2, 2, false));
+        queue.offer(entry(1, 3, true));
+
+        assertEquals(2, queue.removeChat(1));
+        assertEquals(1, queue.size());
+        assertFalse(queue.contains("unique-1"));
+        assertTrue(queue.contains("unique-2"));
+        assertFalse(queue.hasHistorical());
+        assertEquals(0, queue.removeChat(1));
+    }
+
+    @Test
+    void testMemoryAccounting() {
+        DownloadQueue queue = new DownloadQueue(10);
+        DownloadQueue.Entry first = entry(1, 1, true);
+        DownloadQueue.Entry second = entry(1, 2, false);
+        queue.offer(first);
+        queue.offer(second);
+        assertEquals(first.estimatedBytes() + second.estimatedBytes(), queue.memoryBytes());
+        assertTrue(queue.hasHistorical());
+
+        queue.remove("unique-1");
+        assertEquals(second.estimatedBytes(), queue.memoryBytes());
+        assertFalse(queue.hasHistorical());
+
+        queue.poll();
+        assertEquals(0, queue.memoryBytes());
+    }
+}
@@ -0,0 +1,143 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadReconcilerTest {
+
+    /**
+     * Fake of {@code client.execute(new TdApi.GetFile(fileId))} that answers from an in-memory file table.
+     */
+    private static class FakeFileClient {
+        private final Map<Integer, TdApi.File> files = new HashMap<>();
+
+        private final Map<Integer, Integer> calls = new HashMap<>();
+
+        private int totalCalls;
+
+        Future<TdApi.File> getFile(int fileId) {
+            totalCalls++;
+            calls.merge(fileId, 1, Integer::sum);
+            return Future.succeededFuture(files.get(fileId));
+        }
+
+        TdApi.File put(int fileId, long downloadedSize, boolean completed) {
+            TdApi.File file = new TdApi.File();
+            file.id = fileId;
+            file.remote = new TdApi.RemoteFile();
+            file.remote.uniqueId = "unique-" + fileId;
+            file.local = new TdApi.LocalFile();
+            file.local.downloadedSize = downloadedSize;
+            file.local.isDownloadingActive = !completed;
+            file.local.isDownloadingCompleted = completed;
+            files.put(fileId, file);
+            return file;
+        }
+    }
+
+    @Test
+    void testCallVolumeIsCappedForSilentFiles() {
+        FakeFileClient client = new FakeFileClient();
+        DownloadReconciler reconciler = new DownloadReconciler(client::getFile, _ -> {
+        });
+        List<Integer> fileIds = IntStream.range(0, 1000).boxed().toList();
+        fileIds.forEach(fileId -> client.put(fileId, 0, false));
+
+        long now = 0;
+        reconciler.sync(fileIds, now);
+        int ticks = 0;
+        for (; now <= 30 * 60_000; now += DownloadReconciler.TICK_INTERVAL_MS, ticks++) {
+            int checked = reconciler.tick(now);
+            assertTrue(checked <= DownloadReconciler.MAX_CHECKS_PER_TICK);
+        }
+
+        assertTrue(client.totalCalls <= ticks * DownloadReconciler.MAX_CHECKS_PER_TICK);
+        // The old reconciliation issued one GetFile per downloading file every 30 seconds
+        int previousCalls = 1000 * (30 * 60 / 30);
+        assertTrue(client.totalCalls * 10 < previousCalls, "calls: " + client.totalCalls);
+    }
+
+    @Test
+    void testUpdatedFilesAreNotChecked() {
+        FakeFileClient client = new FakeFileClient();
+        DownloadReconciler reconciler = new DownloadReconciler(client::getFile, _ -> {
+        });
+        client.put(1, 0, false);
+        client.put(2, 0, false);
+        reconciler.sync(List.of(1, 2), 0);
+
+        for (long now = 0; now <= 10 * 60_000; now += DownloadReconciler.TICK_INTERVAL_MS) {
+            // File 1 keeps receiving UpdateFile, file 2 is silent
+            reconciler.onFileUpdated(client.put(1, now, false), now);
+            reconciler.tick(now);
+        }
+
+        assertNull(client.calls.get(1));
+        assertNotNull(client.calls.get(2));
+    }
+
+    @Test
+    void testSilentFileBacksOff() {
+        FakeFileClient client = new FakeFileClient();
+        DownloadReconciler reconciler = new DownloadReconciler(client::getFile, _ -> {
+        });
+        client.put(1, 100, false);
+        reconciler.sync(List.of(1), 0);
+
+        List<Long> checkTimes = new ArrayList<>();
+        for (long now = 0; now <= 30 * 60_000; now += DownloadReconciler.TICK_INTERVAL_MS) {
+            if (reconciler.tick(now) > 0) {
+                checkTimes.add(now);
+            }
+        }
+
+        assertTrue(checkTimes.size() >= 3);
+        for (int i = 2; i < checkTimes.size(); i++) {
+            long previousGap = checkTimes.get(i - 1) - checkTimes.get(i - 2);
+            long gap = checkTimes.get(i) - checkTimes.get(i - 1);
+            assertTrue(gap >= Math.min(previousGap, DownloadReconciler.MAX_BACKOFF_MS), "gaps: " + checkTimes);
+        }
+        assertTrue(checkTimes.getLast() - checkTimes.get(checkTimes.size() - 2) >= DownloadReconciler.MIN_BACKOFF_MS * 4);
+    }
+
+    @Test
+    void testCompletedFileIsReportedOnce() {
+        FakeFileClient client = new FakeFileClient();
+        List<TdApi.File> completed = new ArrayList<>();
+        DownloadReconciler reconciler = new DownloadReconciler(client::getFile, completed::add);
+        client.put(1, 100, true);
+        reconciler.sync(List.of(1), 0);
+
+        for (long now = 0; now <= 5 * 60_000; now += DownloadReconciler.TICK_INTERVAL_MS) {
+            reconciler.tick(now);
+        }
+
+        assertEquals(1, completed.size());
+        assertEquals(1, client.totalCalls);
+        assertEquals(0, reconciler.size());
+    }
+
+    @Test
+    void testStalledFilesHaveNoProgress() {
+        FakeFileClient client = new FakeFileClient();
+        DownloadReconciler reconciler = new DownloadReconciler(client::getFile, _ -> {
+        });
+        reconciler.onFileUpdated(client.put(1, 100, false), 0);
+        reconciler.onFileUpdated(client.put(2, 100, false), 0);
+
+        // Updates without progress, e.g. during a flood wait, do not count
+        reconciler.onFileUpdated(client.put(1, 100, false), 50_000);
+        reconciler.onFileUpdated(client.put(2, 200, false), 50_000);
+        assertEquals(List.of(1), reconciler.getStalledFiles(60_000, 60_000));
+        assertEquals(List.of(), reconciler.getStalledFiles(60_000, 120_000));
+
+        reconciler.onFileUpdated(client.put(1, 100, true), 70_000);
+        assertEquals(List.of(2), reconciler.getStalledFiles(110_000, 60_000));
+    }
+}
@@ -0,0 +1,91 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.SettingDownloadRetries;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadRetryTest {
+
+    private static SettingDownloadRetries.Retry retry(long telegramId) {
+        return new SettingDownloadRetries.Retry(telegramId, 1, 2, 3, 1, DownloadLanes.Lane.BULK.name());
+    }
+
+    @Test
+    void testClassify() {
+        assertEquals(DownloadRetry.ErrorClass.FLOOD_WAIT, DownloadRetry.classify("code: 429, message: Too Many Requests: retry after 30"));
+        assertEquals(DownloadRetry.ErrorClass.FLOOD_WAIT, DownloadRetry.classify("code: 420, message: FLOOD_WAIT_15"));
+        assertEquals(DownloadRetry.ErrorClass.FILE_REFERENCE, DownloadRetry.classify("code: 400, message: FILE_REFERENCE_EXPIRED"));
+        assertEquals(DownloadRetry.ErrorClass.PROXY, DownloadRetry.classify("code: 400, message: Failed to connect to proxy"));
+        assertEquals(DownloadRetry.ErrorClass.NETWORK, DownloadRetry.classify("Operation timed out after 30000 ms"));
+        assertEquals(DownloadRetry.ErrorClass.NETWORK, DownloadRetry.classify("code: 500, message: Internal error"));
+        assertEquals(DownloadRetry.ErrorClass.PERMANENT, DownloadRetry.classify("code: 400, message: MESSAGE_ID_INVALID"));
+        assertEquals(DownloadRetry.ErrorClass.PERMANENT, DownloadRetry.classify(null));
+    }
+
+    @Test
+    void testDelayBacksOffWithJitter() {
+        DownloadRetry.ErrorClass network = DownloadRetry.ErrorClass.NETWORK;
+        assertEquals(5_000, DownloadRetry.delay(network, 1, null, 0));
+        assertEquals(10_000, DownloadRetry.delay(network, 1, null, 0.999999), 1);
+        assertEquals(30_000, DownloadRetry.delay(network, 3, null, 0.5));
+        // Capped at the max delay of the class
+        assertEquals(network.maxDelay, DownloadRetry.delay(network, 50, null, 0.999999), 1);
+
+        // A rate limit waits at least the time asked for
+        assertEquals(600_000, DownloadRetry.delay(DownloadRetry.ErrorClass.FLOOD_WAIT, 1, "FLOOD_WAIT_600", 0));
+    }
+
+    @Test
+    void testFailuresAreRetriedUntilAttemptsAreUsedUp() {
+        DownloadRetry retries = new DownloadRetry(new Random(1));
+        String error = "code: 400, message: FILE_REFERENCE_EXPIRED";
+        long now = 1000;
+        for (int attempt = 1; attempt <= DownloadRetry.ErrorClass.FILE_REFERENCE.maxAttempts; attempt++) {
+            SettingDownloadRetries.Retry retry = retries.onFailure("a", retry(1), error, now);
+            assertNotNull(retry);
+            assertEquals(attempt, retry.attempts);
+            assertEquals(DownloadRetry.ErrorClass.FILE_REFERENCE.name(), retry.errorClass);
+            assertTrue(retry.nextRetryAt > now);
+        }
+        assertNull(retries.onFailure("a", retry(1), error, now));
+        assertNull(retries.get("a"));
+
+        assertNull(retries.onFailure("b", retry(1), "code: 400, message: MESSAGE_ID_INVALID", now));
+        assertNull(retries.get("b"));
+    }
+
+    @Test
+    void testDueRetriesAreHeldWhileRunning() {
+        DownloadRetry retries = new DownloadRetry(new Random(1));
+        SettingDownloadRetries.Retry first = retries.onFailure("a", retry(1), "timeout", 0);
+        retries.onFailure("b", retry(2), "timeout", 0);
+        long at = first.nextRetryAt;
+
+        assertTrue(retries.due(1, at - 1).isEmpty());
+        Map<String, SettingDownloadRetries.Retry> due = retries.due(1, at);
+        assertEquals(Map.of("a", first), due);
+        assertTrue(retries.due(1, at + 1).isEmpty());
+        assertEquals(1, retries.due(1, at + DownloadRetry.IN_FLIGHT_TIME).size());
+
+        JsonObject statistics = retries.getStatistics(1);
+        assertEquals(1, statistics.getInteger("scheduled"));
+        assertEquals(1, statistics.getJsonObject("byClass").getInteger(DownloadRetry.ErrorClass.NETWORK.name()));
+    }
+
+    @Test
+    void testStateIsRestored() {
+        DownloadRetry retries = new DownloadRetry(new Random(1));
+        retries.onFailure("a", retry(1), "timeout", 0);
+        SettingDownloadRetries saved = JsonObject.mapFrom(retries.getState()).mapTo(SettingDownloadRetries.class);
+
+        DownloadRetry restored = new DownloadRetry(new Random(1));
+        restored.load(saved);
+        assertEquals(1, restored.get("a").attempts);
+        assertEquals(2, restored.onFailure("a", retry(1), "timeout", 0).attempts);
+    }
+}
@@ -0,0 +1,75 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.SettingTimeLimitedDownload;
+import telegram.files.repository.SettingTimeLimitedDownload.Window;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadScheduleTest {
+
+    // 2024-01-01 is a Monday
+    private static LocalDateTime at(int day, int hour, int minute) {
+        return LocalDateTime.of(2024, 1, day, hour, minute);
+    }
+
+    @Test
+    void testDailyWindow() {
+        DownloadSchedule schedule = DownloadSchedule.of(new SettingTimeLimitedDownload("22:00", "06:00"));
+
+        assertTrue(schedule.isOpen(at(2, 23, 0)));
+        assertTrue(schedule.isOpen(at(3, 5, 59)));
+        assertFalse(schedule.isOpen(at(3, 6, 0)));
+        assertEquals(at(3, 22, 0), schedule.nextBoundary(at(3, 7, 0)));
+        assertEquals(at(4, 6, 0), schedule.nextBoundary(at(3, 22, 0)));
+    }
+
+    @Test
+    void testUnlimited() {
+        assertNull(DownloadSchedule.of(null));
+        assertNull(DownloadSchedule.of(new SettingTimeLimitedDownload("00:00", "00:00")));
+        assertNull(DownloadSchedule.of(new SettingTimeLimitedDownload(List.of(
+                new Window("00:00", "12:00", null), new Window("12:00", "00:00", null)))));
+    }
+
+    @Test
+    void testWeekdays() {
+        DownloadSchedule schedule = DownloadSchedule.of(new SettingTimeLimitedDownload(List.of(
+                new Window("00:00", "00:00", List.of(6, 7)),
+                new Window("01:00", "07:00", List.of(1, 2, 3, 4, 5)))));
+
+        assertTrue(schedule.isOpen(at(6, 12, 0)));
+        assertTrue(schedule.isOpen(at(7, 23, 59)));
+        assertFalse(schedule.isOpen(at(8, 0, 30)));
+        assertEquals(at(8, 1, 0), schedule.nextBoundary(at(8, 0, 30)));
+        assertFalse(schedule.isOpen(at(5, 12, 0)));
+        // Friday 07:00 to Saturday 00:00 closed, then open the whole weekend
+        assertEquals(at(6, 0, 0), schedule.nextBoundary(at(5, 12, 0)));
+        assertEquals(at(8, 0, 0), schedule.nextBoundary(at(6, 0, 0)));
+    }
+
+    @Test
+    void testWindowAcrossTheWeekEnd() {
+        DownloadSchedule schedule = DownloadSchedule.of(new SettingTimeLimitedDownload(List.of(
+                new Window("22:00", "02:00", List.of(7)))));
+
+        assertTrue(schedule.isOpen(at(7, 23, 0)));
+        assertTrue(schedule.isOpen(at(8, 1, 0)));
+        assertFalse(schedule.isOpen(at(8, 2, 0)));
+        assertEquals(at(8, 2, 0), schedule.nextBoundary(at(8, 1, 0)));
+        assertEquals(at(14, 22, 0), schedule.nextBoundary(at(8, 2, 0)));
+    }
+
+    @Test
+    void testAdjacentWindowsAreMerged() {
+        DownloadSchedule schedule = DownloadSchedule.of(new SettingTimeLimitedDownload(List.of(
+                new Window("08:00", "12:00", null), new Window("12:00", "18:00", null))));
+
+        assertEquals(at(1, 18, 0), schedule.nextBoundary(at(1, 10, 0)));
+        assertTrue(schedule.isOpen(at(1, 8, 0)));
+        assertFalse(schedule.isOpen(at(1, 18, 0)));
+    }
+}
@@ -0,0 +1,41 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadSlotsTest {
+
+    @Test
+    void testAcquireAndReleaseAreIdempotent() {
+        DownloadSlots slots = new DownloadSlots();
+        slots.reset(1, List.of("a", "b"));
+
+        assertFalse(slots.acquire(1, "a"));
+        assertTrue(slots.acquire(1, "c"));
+        assertEquals(3, slots.activeCount(1));
+        assertEquals(2, slots.surplus(1, 5));
+
+        assertTrue(slots.release(1, "a"));
+        assertFalse(slots.release(1, "a"));
+        assertFalse(slots.release(2, "a"));
+        assertEquals(3, slots.surplus(1, 5));
+    }
+
+    @Test
+    void testReserveDoesNotExceedLimit() {
+        DownloadSlots slots = new DownloadSlots();
+        slots.reset(1, List.of("a"));
+
+        assertEquals(3, slots.reserve(1, 5, 3));
+        assertEquals(1, slots.reserve(1, 5, 3));
+        assertEquals(0, slots.reserve(1, 5, 3));
+        assertEquals(0, slots.surplus(1, 5));
+
+        slots.unreserve(1, 4);
+        slots.acquire(1, "b");
+        assertEquals(3, slots.surplus(1, 5));
+    }
+}
@@ -0,0 +1,102 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import telegram.files.repository.FileHashRecord;
+import telegram.files.repository.FileHashRepository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileHasherTest {
+
+    private static class MemoryIndex implements FileHashRepository {
+        private final Map<String, FileHashRecord> records = new HashMap<>();
+
+        @Override
+        public Future<FileHashRecord> getByPath(String path) {
+            return Future.succeededFuture(records.get(path));
+        }
+
+        @Override
+        public Future<Void> createOrUpdate(FileHashRecord record) {
+            records.put(record.path(), record);
+            return Future.succeededFuture();
+        }
+    }
+
+    // Runs inline and counts the files read
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private final Executor executor = command -> {
+        reads.incrementAndGet();
+        command.run();
+    };
+
+    @Test
+    void testStreamingMatchesDigest(@TempDir Path dir) throws Exception {
+        byte[] bytes = new byte[3 * 1024 * 1024 + 17];
+        new java.util.Random(1).nextBytes(bytes);
+        Path file = Files.write(dir.resolve("a.bin"), bytes);
+
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes)),
+                FileHasher.hash(file, FileHasher.Algorithm.SHA_256));
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(bytes)),
+                FileHasher.hash(file, FileHasher.Algorithm.MD5));
+        XxHash64 xxHash64 = new XxHash64();
+        xxHash64.update(bytes);
+        assertEquals("%016x".formatted(xxHash64.digest()), FileHasher.hash(file, FileHasher.Algorithm.XXH64));
+    }
+
+    @Test
+    void testAlgorithmNames() {
+        assertEquals(FileHasher.Algorithm.XXH64, FileHasher.Algorithm.of(null));
+        assertEquals(FileHasher.Algorithm.SHA_256, FileHasher.Algorithm.of("sha-256"));
+        assertEquals(FileHasher.Algorithm.MD5, FileHasher.Algorithm.of("md5"));
+        assertThrows(IllegalArgumentException.class, () -> FileHasher.Algorithm.of("crc"));
+    }
+
+    @Test
+    void testExistingFileIsHashedOnce(@TempDir Path dir) throws Exception {
+        MemoryIndex index = new MemoryIndex();
+        FileHasher hasher = new FileHasher(FileHasher.Algorithm.XXH64, index, executor);
+        Path existing = Files.writeString(dir.resolve("existing.txt"), "same content");
+
+        assertTrue(hasher.isSameContent(Files.writeString(dir.resolve("1.txt"), "same content"), existing));
+        assertEquals(2, reads.get());
+        assertEquals(1, index.records.size());
+
+        // Only the new file is read, the existing one is in the index
+        assertFalse(hasher.isSameContent(Files.writeString(dir.resolve("2.txt"), "diff content"), existing));
+        assertEquals(3, reads.get());
+
+        // A file of another size is not read at all
+        assertFalse(hasher.isSameContent(Files.writeString(dir.resolve("3.txt"), "other"), existing));
+        assertEquals(3, reads.get());
+    }
+
+    @Test
+    void testChangedFileIsHashedAgain(@TempDir Path dir) throws Exception {
+        MemoryIndex index = new MemoryIndex();
+        FileHasher hasher = new FileHasher(FileHasher.Algorithm.XXH64, index, executor);
+        Path file = Files.writeString(dir.resolve("a.txt"), "first");
+        String first = hasher.hash(file).join();
+        assertEquals(first, hasher.hash(file).join());
+        assertEquals(1, reads.get());
+
+        Files.writeString(file, "other");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        assertNotEquals(first, hasher.hash(file).join());
+        assertEquals(2, reads.get());
+    }
+}
@@ -0,0 +1,104 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileMoverTest {
+
+    private static final int MB = 1 << 20;
+
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    void testRenameInSameFileSystem(@TempDir Path dir) throws Exception {
+        Path source = Files.write(dir.resolve("a.bin"), content(1000));
+        Path target = dir.resolve("x/y/a.bin");
+
+        assertEquals(FileMover.Method.RENAME, new FileMover().move(source, target, false, null));
+        assertFalse(Files.exists(source));
+        assertArrayEquals(content(1000), Files.readAllBytes(target));
+
+        Path other = Files.write(dir.resolve("b.bin"), content(10));
+        assertThrows(FileAlreadyExistsException.class, () -> new FileMover().move(other, target, false, null));
+        assertEquals(FileMover.Method.RENAME, new FileMover().move(other, target, true, null));
+        assertArrayEquals(content(10), Files.readAllBytes(target));
+    }
+
+    @Test
+    void testOnlyUnsupportedReflinkIsNotTriedAgain() {
+        assertTrue(FileMover.isReflinkUnsupported("cp: failed to clone '/b/a.bin' from '/a/a.bin': Operation not supported"));
+        assertTrue(FileMover.isReflinkUnsupported("cp: failed to clone '/b/a.bin' from '/a/a.bin': Invalid cross-device link"));
+        assertFalse(FileMover.isReflinkUnsupported("cp: error writing '/b/a.bin': No space left on device"));
+        assertFalse(FileMover.isReflinkUnsupported("cp: cannot stat '/a/a.bin': No such file or directory"));
+        assertFalse(FileMover.isReflinkUnsupported(""));
+    }
+
+    @Test
+    void testInterruptedCopyResumesFromLastSync(@TempDir Path dir) throws Exception {
+        byte[] bytes = content(5 * MB + 100);
+        Path source = Files.write(dir.resolve("a.bin"), bytes);
+        Path temp = dir.resolve("a.bin" + FileMover.PART_SUFFIX);
+        Path progressFile = dir.resolve("a.bin" + FileMover.PROGRESS_SUFFIX);
+        FileMover mover = new FileMover();
+        mover.syncInterval = MB;
+
+        // Stopped after the first chunk, which is synced
+        assertThrows(IllegalStateException.class, () -> mover.copy(source, temp, progressFile, (_, _) -> {
+            throw new IllegalStateException("restart");
+        }));
+        assertTrue(Files.exists(progressFile));
+        // Written after the sync, dropped on resume
+        Files.write(temp, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+
+        List<Long> copied = new ArrayList<>();
+        mover.copy(source, temp, progressFile, (position, _) -> copied.add(position));
+        assertEquals(2L * MB, copied.getFirst());
+        assertEquals(bytes.length, copied.getLast());
+        assertArrayEquals(bytes, Files.readAllBytes(temp));
+        assertFalse(Files.exists(progressFile));
+    }
+
+    @Test
+    void testChangedSourceIsCopiedAgain(@TempDir Path dir) throws Exception {
+        Path source = Files.write(dir.resolve("a.bin"), content(3 * MB));
+        Path temp = dir.resolve("a.bin" + FileMover.PART_SUFFIX);
+        Path progressFile = dir.resolve("a.bin" + FileMover.PROGRESS_SUFFIX);
+        FileMover mover = new FileMover();
+        mover.syncInterval = MB;
+        assertThrows(IllegalStateException.class, () -> mover.copy(source, temp, progressFile, (_, _) -> {
+            throw new IllegalStateException("restart");
+        }));
+
+        byte[] changed = content(2 * MB);
+        Files.write(source, changed);
+        List<Long> copied = new ArrayList<>();
+        mover.copy(source, temp, progressFile, (position, _) -> copied.add(position));
+        assertEquals((long) MB, copied.getFirst());
+        assertArrayEquals(changed, Files.readAllBytes(temp));
+    }
+
+    @Test
+    void testCorruptProgressStartsOver(@TempDir Path dir) throws IOException, InterruptedException {
+        Path source = Files.write(dir.resolve("a.bin"), content(100));
+        Path temp = Files.write(dir.resolve("a.bin" + FileMover.PART_SUFFIX), content(50));
+        Path progressFile = Files.writeString(dir.resolve("a.bin" + FileMover.PROGRESS_SUFFIX), "{");
+
+        new FileMover().copy(source, temp, progressFile, null);
+        assertArrayEquals(content(100), Files.readAllBytes(temp));
+    }
+}
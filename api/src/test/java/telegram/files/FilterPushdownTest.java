@@ -0,0 +1,107 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilterPushdownTest {
+
+    @Test
+    void testSplitConjuncts() {
+        assertEquals(List.of("a > 1", "b == 'x && y'", "c || d", "e"),
+                FilterPushdown.splitConjuncts("(a > 1 && b == 'x && y') and (c || d) && (e)"));
+        assertNull(FilterPushdown.splitConjuncts("a || b"));
+        assertNull(FilterPushdown.splitConjuncts("(a && b"));
+        assertNull(FilterPushdown.splitConjuncts("a == 'b"));
+    }
+
+    @Test
+    void testLooserOperatorIsNotSplit() {
+        assertNull(FilterPushdown.splitConjuncts("a && b || c"));
+        assertNull(FilterPushdown.splitConjuncts("a and b or c"));
+        assertNull(FilterPushdown.splitConjuncts("a && b ? c : d"));
+        assertEquals(List.of("a", "b || c"), FilterPushdown.splitConjuncts("a && (b || c)"));
+        assertEquals(List.of("a", "b == 'x || y'"), FilterPushdown.splitConjuncts("a && b == 'x || y'"));
+    }
+
+    @Test
+    void testKeywordAtIdentifierBoundary() {
+        assertNull(FilterPushdown.splitConjuncts("f.type() == 'video' && x or(y)"));
+        assertNull(FilterPushdown.splitConjuncts("f.type() == 'video' && (a)or (b)"));
+        assertNull(FilterPushdown.splitConjuncts("a &&b or\tc"));
+        assertEquals(List.of("a", "b"), FilterPushdown.splitConjuncts("(a)and(b)"));
+        assertEquals(List.of("order > 1", "f.origin == 'x'", "brand"),
+                FilterPushdown.splitConjuncts("order > 1 && f.origin == 'x' && brand"));
+        assertEquals(List.of("a.and(b)", "c"), FilterPushdown.splitConjuncts("a.and(b) && c"));
+
+        assertNull(FilterPushdown.analyze("f.type() == 'video' && x or(y)").getFileTypes());
+        assertNull(FilterPushdown.analyze("f.type() == 'video' && (a)or (b)").getFileTypes());
+    }
+
+    @Test
+    void testTypeIsPushedDown() {
+        FilterPushdown pushdown = FilterPushdown.analyze("f.type() == 'video' && f.size() > 1024");
+
+        assertEquals(Set.of("video"), pushdown.getFileTypes());
+        assertEquals(List.of("video"), pushdown.restrictFileTypes(List.of("media", "audio", "file")));
+        assertEquals("f.size() > 1024", pushdown.getResidual());
+    }
+
+    @Test
+    void testTypeList() {
+        FilterPushdown pushdown = FilterPushdown.analyze("f.type =~ ['photo', 'video']");
+
+        assertEquals(List.of("media", "photo"), pushdown.restrictFileTypes(List.of("media", "photo", "audio")));
+        assertNull(pushdown.getResidual());
+        assertTrue(MessageFilter.filter(pushdown.getResidual()).test(null));
+    }
+
+    @Test
+    void testDisjunctionIsNotPushedDown() {
+        String expr = "f.type() == 'video' || f.type() == 'audio'";
+        FilterPushdown pushdown = FilterPushdown.analyze(expr);
+
+        assertNull(pushdown.getFileTypes());
+        assertEquals(expr, pushdown.getResidual());
+    }
+
+    @Test
+    void testConjunctionInDisjunctionIsNotPushedDown() {
+        String expr = "f.type()=='video' && f.size()>1 || f.type()=='audio'";
+        FilterPushdown pushdown = FilterPushdown.analyze(expr);
+
+        assertNull(pushdown.getFileTypes());
+        assertEquals(List.of("video", "audio"), pushdown.restrictFileTypes(List.of("video", "audio")));
+        assertEquals(expr, pushdown.getResidual());
+        assertEquals(-1, FilterPushdown.analyze("date >= 5 && f.size() > 1 || f.type() == 'audio'").getMinDate());
+    }
+
+    @Test
+    void testUnknownTypeIsKept() {
+        FilterPushdown pushdown = FilterPushdown.analyze("f.type() == 'sticker'");
+
+        assertNull(pushdown.getFileTypes());
+        assertEquals("f.type() == 'sticker'", pushdown.getResidual());
+    }
+
+    @Test
+    void testDateAndCaptionStayInResidual() {
+        FilterPushdown pushdown = FilterPushdown.analyze(
+                "date >= 1700000000 && f.date() > 1600000000 && date < 1800000000 && str:contains(content.caption.text, 'cat') && id > 10");
+
+        assertEquals(1700000000, pushdown.getMinDate());
+        assertEquals("(date >= 1700000000) && (f.date() > 1600000000) && (date < 1800000000)"
+                     + " && (str:contains(content.caption.text, 'cat')) && (id > 10)",
+                pushdown.getResidual());
+    }
+
+    @Test
+    void testContradictoryTypes() {
+        FilterPushdown pushdown = FilterPushdown.analyze("f.type() == 'video' && f.type() == 'photo'");
+
+        assertEquals(List.of(), pushdown.restrictFileTypes(List.of("photo", "video")));
+    }
+}
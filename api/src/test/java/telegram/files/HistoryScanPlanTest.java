@@ -0,0 +1,267 @@
+package telegram.files;
+
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.Test;
+import telegram.files.repository.SettingHistoryScanCheckpoints;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryScanPlanTest {
+
+    private static final List<String> FILE_TYPES = List.of("photo", "video", "audio", "file");
+
+    /**
+     * In-memory chat answering {@code GetChatHistory} and {@code SearchChatMessages} like TDLib, newest first.
+     */
+    private static class FakeChat {
+        private final List<TdApi.Message> messages = new ArrayList<>();
+
+        private int calls;
+
+        FakeChat add(String type, int count) {
+            for (int i = 0; i < count; i++) {
+                messages.add(message(type));
+            }
+            return this;
+        }
+
+        private TdApi.Message message(String type) {
+            TdApi.Message message = new TdApi.Message();
+            message.chatId = 1;
+            message.content = switch (type) {
+                case "photo" -> {
+                    TdApi.MessagePhoto content = new TdApi.MessagePhoto();
+                    content.photo = new TdApi.Photo();
+                    TdApi.PhotoSize size = new TdApi.PhotoSize();
+                    size.photo = file();
+                    content.photo.sizes = new TdApi.PhotoSize[]{size};
+                    yield content;
+                }
+                case "video" -> {
+                    TdApi.MessageVideo content = new TdApi.MessageVideo();
+                    content.video = new TdApi.Video();
+                    content.video.video = file();
+                    yield content;
+                }
+                case "audio" -> {
+                    TdApi.MessageAudio content = new TdApi.MessageAudio();
+                    content.audio = new TdApi.Audio();
+                    content.audio.audio = file();
+                    yield content;
+                }
+                case "file" -> {
+                    TdApi.MessageDocument content = new TdApi.MessageDocument();
+                    content.document = new TdApi.Document();
+                    content.document.document = file();
+                    yield content;
+                }
+                default -> new TdApi.MessageText();
+            };
+            return message;
+        }
+
+        private TdApi.File file() {
+            TdApi.File file = new TdApi.File();
+            file.id = messages.size() + 1;
+            file.remote = new TdApi.RemoteFile();
+            file.remote.uniqueId = "unique-" + file.id;
+            file.local = new TdApi.LocalFile();
+            return file;
+        }
+
+        FakeChat build() {
+            for (int i = 0; i < messages.size(); i++) {
+                messages.get(i).id = (long) (messages.size() - i) << 20;
+                messages.get(i).date = messages.size() - i;
+            }
+            return this;
+        }
+
+        private List<TdApi.Message> olderThan(long fromMessageId) {
+            return messages.stream().filter(message -> fromMessageId == 0 || message.id < fromMessageId).toList();
+        }
+
+        TdApi.Message[] history(long fromMessageId) {
+            calls++;
+            return olderThan(fromMessageId).stream()
+                    .limit(HistoryScanPlan.HISTORY_PAGE_SIZE)
+                    .toArray(TdApi.Message[]::new);
+        }
+
+        TdApi.FoundChatMessages search(String fileType, long fromMessageId) {
+            calls++;
+            List<TdApi.Message> found = olderThan(fromMessageId).stream()
+                    .filter(message -> MessageDescriptor.of(message)
+                            .map(descriptor -> descriptor.type().equals(fileType))
+                            .orElse(false))
+                    .toList();
+            List<TdApi.Message> page = found.stream().limit(HistoryScanPlan.SEARCH_PAGE_SIZE).toList();
+            TdApi.FoundChatMessages foundChatMessages = new TdApi.FoundChatMessages();
+            foundChatMessages.messages = page.toArray(TdApi.Message[]::new);
+            foundChatMessages.nextFromMessageId = found.size() > page.size() ? page.getLast().id : 0;
+            return foundChatMessages;
+        }
+
+        Set<Long> mediaIds() {
+            Set<Long> ids = new HashSet<>();
+            messages.forEach(message -> MessageDescriptor.of(message).ifPresent(_ -> ids.add(message.id)));
+            return ids;
+        }
+
+        /**
+         * Calls of the previous scanner, every file type searched to the end one after the other.
+         */
+        int sequentialSearchCalls() {
+            int total = 0;
+            for (String fileType : FILE_TYPES) {
+                long count = messages.stream()
+                        .filter(message -> MessageDescriptor.of(message).map(d -> d.type().equals(fileType)).orElse(false))
+                        .count();
+                total += (int) (count / HistoryScanPlan.SEARCH_PAGE_SIZE) + 1;
+            }
+            return total;
+        }
+    }
+
+    private static Set<Long> scan(HistoryScanPlan plan, FakeChat chat, int maxSteps) {
+        Set<Long> found = new HashSet<>();
+        HistoryScanPlan.Step step;
+        for (int i = 0; i < maxSteps && (step = plan.next()) != null; i++) {
+            List<TdApi.Message> matched;
+            if (step.mode() == HistoryScanPlan.Mode.HISTORY) {
+                matched = plan.accept(step, chat.history(step.fromMessageId()), 0);
+            } else {
+                TdApi.FoundChatMessages result = chat.search(step.fileType(), step.fromMessageId());
+                matched = plan.accept(step, result.messages, result.nextFromMessageId);
+            }
+            matched.forEach(message -> found.add(message.id));
+        }
+        return found;
+    }
+
+    private static HistoryScanPlan plan(SettingHistoryScanCheckpoints checkpoints, HistoryScanPlan.Density density) {
+        return new HistoryScanPlan("1:1", FILE_TYPES, null, null, true, checkpoints, density);
+    }
+
+    @Test
+    void testDenseChatIsReadInOnePass() {
+        FakeChat chat = new FakeChat();
+        for (int i = 0; i < 500; i++) {
+            chat.add("photo", 2).add("video", 1).add("file", 1).add("text", 1);
+        }
+        chat.build();
+        HistoryScanPlan.Density density = new HistoryScanPlan.Density();
+        HistoryScanPlan plan = plan(new SettingHistoryScanCheckpoints(), density);
+
+        Set<Long> found = scan(plan, chat, Integer.MAX_VALUE);
+
+        assertTrue(plan.isComplete());
+        assertEquals(chat.mediaIds(), found);
+        assertEquals(HistoryScanPlan.Mode.HISTORY, density.getMode());
+        assertTrue(chat.calls * 2 < chat.sequentialSearchCalls(), "calls: " + chat.calls);
+    }
+
+    @Test
+    void testSparseChatIsSearched() {
+        FakeChat chat = new FakeChat();
+        for (int i = 0; i < 200; i++) {
+            chat.add("text", 48).add(i % 2 == 0 ? "photo" : "file", 1).add("text", 1);
+        }
+        chat.build();
+        HistoryScanPlan.Density density = new HistoryScanPlan.Density();
+        HistoryScanPlan plan = plan(new SettingHistoryScanCheckpoints(), density);
+
+        Set<Long> found = scan(plan, chat, Integer.MAX_VALUE);
+
+        assertTrue(plan.isComplete());
+        assertEquals(chat.mediaIds(), found);
+        assertEquals(HistoryScanPlan.Mode.SEARCH, density.getMode());
+        int historyPassCalls = 10_000 / HistoryScanPlan.HISTORY_PAGE_SIZE + 1;
+        assertTrue(chat.calls < historyPassCalls / 2, "calls: " + chat.calls);
+    }
+
+    @Test
+    void testSwitchingModeSkipsNothing() {
+        FakeChat chat = new FakeChat();
+        chat.add("photo", 300).add("video", 300).add("text", 5000).add("audio", 40).add("text", 3000).add("photo", 200);
+        chat.build();
+        HistoryScanPlan plan = plan(new SettingHistoryScanCheckpoints(), new HistoryScanPlan.Density());
+
+        Set<Long> found = scan(plan, chat, Integer.MAX_VALUE);
+
+        assertTrue(plan.isComplete());
+        assertEquals(chat.mediaIds(), found);
+    }
+
+    @Test
+    void testQueryIsAlwaysSearched() {
+        FakeChat chat = new FakeChat().add("photo", 100).build();
+        HistoryScanPlan plan = new HistoryScanPlan("1:1", FILE_TYPES, "cat", null, true,
+                new SettingHistoryScanCheckpoints(), new HistoryScanPlan.Density());
+
+        HistoryScanPlan.Step step = plan.next();
+        assertEquals(HistoryScanPlan.Mode.SEARCH, step.mode());
+    }
+
+    @Test
+    void testResumeFromCheckpoints() {
+        FakeChat chat = new FakeChat();
+        for (int i = 0; i < 300; i++) {
+            chat.add("photo", 1).add("video", 1).add("text", 1);
+        }
+        chat.build();
+        SettingHistoryScanCheckpoints checkpoints = new SettingHistoryScanCheckpoints();
+
+        Set<Long> found = scan(plan(checkpoints, new HistoryScanPlan.Density()), chat, 3);
+        int callsBeforeRestart = chat.calls;
+        // A restart keeps the checkpoints but forgets the observed density
+        HistoryScanPlan resumed = plan(checkpoints, new HistoryScanPlan.Density());
+        found.addAll(scan(resumed, chat, Integer.MAX_VALUE));
+
+        assertTrue(resumed.isComplete());
+        assertEquals(chat.mediaIds(), found);
+        assertTrue(chat.calls - callsBeforeRestart <= 900 / HistoryScanPlan.HISTORY_PAGE_SIZE, "calls: " + chat.calls);
+    }
+
+    @Test
+    void testRestoreUndoesPage() {
+        FakeChat chat = new FakeChat().add("photo", 200).build();
+        SettingHistoryScanCheckpoints checkpoints = new SettingHistoryScanCheckpoints();
+        HistoryScanPlan plan = plan(checkpoints, new HistoryScanPlan.Density());
+
+        HistoryScanPlan.Step step = plan.next();
+        Map<String, SettingHistoryScanCheckpoints.Checkpoint> snapshot = plan.snapshot();
+        plan.accept(step, chat.history(step.fromMessageId()), 0);
+        plan.restore(snapshot);
+
+        assertEquals(step.fromMessageId(), plan.next().fromMessageId());
+        assertNull(checkpoints.get(plan.checkpointKey("photo")));
+    }
+
+    @Test
+    void testMinDateStopsScan() {
+        FakeChat chat = new FakeChat();
+        for (int i = 0; i < 1000; i++) {
+            chat.add("photo", 1).add("text", 1);
+        }
+        chat.build();
+        HistoryScanPlan plan = plan(new SettingHistoryScanCheckpoints(), new HistoryScanPlan.Density());
+        plan.setMinDate(1800);
+
+        Set<Long> found = scan(plan, chat, Integer.MAX_VALUE);
+
+        assertTrue(plan.isComplete());
+        chat.messages.stream()
+                .filter(message -> message.date >= 1800 && message.content instanceof TdApi.MessagePhoto)
+                .forEach(message -> assertTrue(found.contains(message.id)));
+        assertTrue(chat.calls <= 3, "calls: " + chat.calls);
+    }
+
+    @Test
+    void testMessageSpan() {
+        assertEquals(1, HistoryScanPlan.messageSpan(5L << 20, 5L << 20));
+        assertEquals(11, HistoryScanPlan.messageSpan(20L << 20, 10L << 20));
+    }
+}
@@ -0,0 +1,161 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinkDownloadsTest {
+
+    /**
+     * Fake TDLib client that resolves message links from a map, a link missing from it fails like an invalid link.
+     */
+    private static class FakeLinkClient implements SegmentedDownload.TdExecutor {
+        private final Map<String, TdApi.Message> messages;
+
+        private final List<String> resolved = new ArrayList<>();
+
+        FakeLinkClient(Map<String, TdApi.Message> messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R extends TdApi.Object> Future<R> execute(TdApi.Function<R> function) {
+            if (!(function instanceof TdApi.GetMessageLinkInfo getLinkInfo)) {
+                return Future.failedFuture("unexpected " + function);
+            }
+            resolved.add(getLinkInfo.url);
+            if (!messages.containsKey(getLinkInfo.url)) {
+                return Future.failedFuture("code: 400, message: Invalid message link");
+            }
+            TdApi.MessageLinkInfo linkInfo = new TdApi.MessageLinkInfo();
+            linkInfo.message = messages.get(getLinkInfo.url);
+            return Future.succeededFuture((R) linkInfo);
+        }
+    }
+
+    private static TdApi.Message videoMessage(long messageId, int fileId) {
+        TdApi.File file = new TdApi.File();
+        file.id = fileId;
+        file.remote = new TdApi.RemoteFile();
+        file.remote.uniqueId = "unique-" + fileId;
+        file.local = new TdApi.LocalFile();
+        TdApi.MessageVideo content = new TdApi.MessageVideo();
+        content.video = new TdApi.Video();
+        content.video.video = file;
+        TdApi.Message message = new TdApi.Message();
+        message.id = messageId;
+        message.chatId = 20;
+        message.content = content;
+        return message;
+    }
+
+    private static TdApi.Message textMessage(long messageId) {
+        TdApi.Message message = new TdApi.Message();
+        message.id = messageId;
+        message.chatId = 20;
+        message.content = new TdApi.MessageText();
+        return message;
+    }
+
+    @Test
+    void testResultPerLink() {
+        Map<String, TdApi.Message> messages = new HashMap<>();
+        messages.put("https://t.me/c/20/1", videoMessage(1, 101));
+        messages.put("https://t.me/c/20/2", textMessage(2));
+        messages.put("https://t.me/c/20/3", videoMessage(3, 103));
+        // A link to a deleted message resolves without one
+        messages.put("https://t.me/c/20/4", null);
+        FakeLinkClient client = new FakeLinkClient(messages);
+        List<TelegramVerticle.DownloadRequest> started = new ArrayList<>();
+        LinkDownloads downloads = new LinkDownloads(client, new RateBudget(100, System.currentTimeMillis()),
+                _ -> Future.succeededFuture(),
+                requests -> {
+                    started.addAll(requests);
+                    return Future.succeededFuture(List.of(
+                            TelegramVerticle.DownloadOutcome.success(requests.get(0), null),
+                            TelegramVerticle.DownloadOutcome.failure(requests.get(1), "file is expired")));
+                });
+
+        List<JsonObject> results = new ArrayList<>();
+        assertTrue(downloads.download(List.of(
+                "https://t.me/c/20/3",
+                "https://t.me/c/20/2",
+                " https://t.me/c/20/3 ",
+                "https://t.me/c/20/9",
+                "https://t.me/c/20/4",
+                "",
+                "https://t.me/c/20/1",
+                "https://t.me/c/20/1"), results::add).succeeded());
+
+        // Each distinct link is resolved once
+        assertEquals(List.of("https://t.me/c/20/3", "https://t.me/c/20/2", "https://t.me/c/20/9", "https://t.me/c/20/4",
+                "https://t.me/c/20/1"), client.resolved);
+        assertEquals(List.of(103, 101), started.stream().map(TelegramVerticle.DownloadRequest::fileId).toList());
+        assertEquals(TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY, started.getFirst().priority());
+
+        // Links that can't be downloaded first, then the outcomes in the order of the links
+        assertEquals(5, results.size());
+        assertEquals("https://t.me/c/20/2", results.get(0).getString("link"));
+        assertEquals("not support message type", results.get(0).getString("error"));
+        assertEquals("https://t.me/c/20/9", results.get(1).getString("link"));
+        assertEquals("code: 400, message: Invalid message link", results.get(1).getString("error"));
+        assertEquals("https://t.me/c/20/4", results.get(2).getString("link"));
+        assertEquals("Message not found for link", results.get(2).getString("error"));
+        assertEquals("https://t.me/c/20/3", results.get(3).getString("link"));
+        assertTrue(results.get(3).getBoolean("success"));
+        assertEquals(3L, results.get(3).getLong("messageId"));
+        assertEquals("https://t.me/c/20/1", results.get(4).getString("link"));
+        assertFalse(results.get(4).getBoolean("success"));
+        assertEquals("file is expired", results.get(4).getString("error"));
+    }
+
+    @Test
+    void testNoDownloadStartedWhenNoLinkResolves() {
+        FakeLinkClient client = new FakeLinkClient(Map.of("https://t.me/c/20/2", textMessage(2)));
+        List<List<TelegramVerticle.DownloadRequest>> batches = new ArrayList<>();
+        LinkDownloads downloads = new LinkDownloads(client, new RateBudget(100, System.currentTimeMillis()),
+                _ -> Future.succeededFuture(),
+                requests -> {
+                    batches.add(requests);
+                    return Future.succeededFuture(List.of());
+                });
+
+        List<JsonObject> results = new ArrayList<>();
+        assertTrue(downloads.download(List.of("https://t.me/c/20/2", "https://t.me/c/20/9"), results::add).succeeded());
+
+        assertTrue(batches.isEmpty());
+        assertEquals(List.of("https://t.me/c/20/2", "https://t.me/c/20/9"),
+                results.stream().map(result -> result.getString("link")).toList());
+        assertTrue(results.stream().noneMatch(result -> result.getBoolean("success")));
+    }
+
+    @Test
+    void testLinksAreResolvedWithinBudget() {
+        FakeLinkClient client = new FakeLinkClient(Map.of());
+        List<Long> waits = new ArrayList<>();
+        LinkDownloads downloads = new LinkDownloads(client, new RateBudget(1, System.currentTimeMillis()),
+                wait -> {
+                    waits.add(wait);
+                    return Future.succeededFuture();
+                },
+                _ -> Future.succeededFuture(List.of()));
+
+        downloads.download(List.of("https://t.me/c/20/1", "https://t.me/c/20/2", "https://t.me/c/20/3"), _ -> {
+        });
+
+        // One permit at once, the others a second apart
+        assertEquals(2, waits.size());
+        assertTrue(waits.get(0) > 0 && waits.get(0) <= 1000);
+        assertTrue(waits.get(1) > 1000 && waits.get(1) <= 2000);
+        assertEquals(3, client.resolved.size());
+    }
+}
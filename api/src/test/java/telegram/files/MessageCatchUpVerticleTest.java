@@ -0,0 +1,122 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCatchUpVerticleTest {
+
+    /**
+     * Fake of {@code GetChatHistory} over message ids 1..count, the first page only holds the latest message
+     * like TDLib does when the history is not loaded yet.
+     */
+    private static class FakeHistory implements Function<Long, Future<TdApi.Messages>> {
+        private final long count;
+
+        private final List<Long> requests = new ArrayList<>();
+
+        FakeHistory(long count) {
+            this.count = count;
+        }
+
+        @Override
+        public Future<TdApi.Messages> apply(Long fromMessageId) {
+            requests.add(fromMessageId);
+            long newest = fromMessageId == 0 ? count : fromMessageId - 1;
+            int size = fromMessageId == 0 ? 1 : (int) Math.min(MessageCatchUpVerticle.PAGE_SIZE, Math.max(0, newest));
+            TdApi.Message[] messages = new TdApi.Message[size];
+            for (int i = 0; i < size; i++) {
+                messages[i] = new TdApi.Message();
+                messages[i].chatId = 1;
+                messages[i].id = newest - i;
+            }
+            TdApi.Messages page = new TdApi.Messages();
+            page.messages = messages;
+            page.totalCount = size;
+            return Future.succeededFuture(page);
+        }
+    }
+
+    @Test
+    void testOnlyNewerMessagesAreCollected() {
+        FakeHistory history = new FakeHistory(1000);
+        List<TdApi.Message> messages = MessageCatchUpVerticle.collectNewerMessages(history, 850, 1000).result();
+
+        assertEquals(150, messages.size());
+        assertEquals(1000, messages.getFirst().id);
+        assertEquals(851, messages.getLast().id);
+        // Latest message, then 2 pages of 100
+        assertEquals(3, history.requests.size());
+    }
+
+    @Test
+    void testLiveMessageBeforeCatchUpDoesNotHideGap() {
+        String key = MessageCatchUpVerticle.markKey(7, 1);
+        MessageCatchUpVerticle.Marks marks = new MessageCatchUpVerticle.Marks();
+        marks.update(key, 850);
+
+        // Offline, then a message delivered while TDLib fetches the difference, before the catch-up starts
+        marks.saveOffline(7);
+        assertTrue(marks.update(key, 1000));
+        assertEquals(850L, marks.catchUpFrom(key));
+        assertEquals(850L, marks.toPersist().get(key));
+
+        FakeHistory history = new FakeHistory(1000);
+        List<TdApi.Message> messages = MessageCatchUpVerticle.collectNewerMessages(history, marks.catchUpFrom(key), 1000).result();
+        assertEquals(150, messages.size());
+        assertEquals(851, messages.getLast().id);
+
+        marks.caughtUp(key);
+        assertEquals(1000L, marks.catchUpFrom(key));
+        assertEquals(1000L, marks.toPersist().get(key));
+    }
+
+    @Test
+    void testMarksOfOtherAccountsAreNotSaved() {
+        MessageCatchUpVerticle.Marks marks = new MessageCatchUpVerticle.Marks();
+        marks.load(Map.of(MessageCatchUpVerticle.markKey(7, 1), 100L));
+        marks.update(MessageCatchUpVerticle.markKey(8, 1), 200);
+
+        marks.saveOffline(7);
+        marks.update(MessageCatchUpVerticle.markKey(7, 1), 150);
+        marks.update(MessageCatchUpVerticle.markKey(8, 1), 250);
+
+        // Loaded marks are saved, the service was offline
+        assertEquals(100L, marks.catchUpFrom(MessageCatchUpVerticle.markKey(7, 1)));
+        assertEquals(250L, marks.catchUpFrom(MessageCatchUpVerticle.markKey(8, 1)));
+        assertNull(marks.catchUpFrom(MessageCatchUpVerticle.markKey(9, 1)));
+    }
+
+    @Test
+    void testNothingMissed() {
+        FakeHistory history = new FakeHistory(1000);
+        List<TdApi.Message> messages = MessageCatchUpVerticle.collectNewerMessages(history, 1000, 1000).result();
+
+        assertTrue(messages.isEmpty());
+        assertEquals(1, history.requests.size());
+    }
+
+    @Test
+    void testCatchUpIsBounded() {
+        FakeHistory history = new FakeHistory(100_000);
+        List<TdApi.Message> messages = MessageCatchUpVerticle.collectNewerMessages(history, 10, 500).result();
+
+        assertEquals(500, messages.size());
+        assertTrue(history.requests.size() <= 500 / MessageCatchUpVerticle.PAGE_SIZE + 2);
+    }
+
+    @Test
+    void testEndOfHistory() {
+        FakeHistory history = new FakeHistory(30);
+        List<TdApi.Message> messages = MessageCatchUpVerticle.collectNewerMessages(history, 0, 1000).result();
+
+        assertEquals(30, messages.size());
+    }
+}
@@ -0,0 +1,97 @@
+package telegram.files;
+
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageDescriptorTest {
+
+    private static TdApi.File file(int id, String uniqueId, long size) {
+        TdApi.File file = new TdApi.File();
+        file.id = id;
+        file.size = size;
+        file.remote = new TdApi.RemoteFile();
+        file.remote.uniqueId = uniqueId;
+        file.local = new TdApi.LocalFile();
+        return file;
+    }
+
+    private static TdApi.Message videoMessage() {
+        TdApi.Message message = new TdApi.Message();
+        message.id = 10;
+        message.chatId = 20;
+        message.mediaAlbumId = 30;
+        TdApi.MessageVideo content = new TdApi.MessageVideo();
+        content.video = new TdApi.Video();
+        content.video.video = file(1, "video-unique", 5000);
+        content.video.thumbnail = new TdApi.Thumbnail(new TdApi.ThumbnailFormatJpeg(), 320, 180, file(2, "thumb-unique", 100));
+        content.caption = new TdApi.FormattedText("caption", null);
+        message.content = content;
+
+        TdApi.MessageReaction like = new TdApi.MessageReaction();
+        like.totalCount = 3;
+        TdApi.MessageReaction heart = new TdApi.MessageReaction();
+        heart.totalCount = 4;
+        message.interactionInfo = new TdApi.MessageInteractionInfo();
+        message.interactionInfo.reactions = new TdApi.MessageReactions();
+        message.interactionInfo.reactions.reactions = new TdApi.MessageReaction[]{like, heart};
+        return message;
+    }
+
+    @Test
+    void testDescribeVideoMessage() {
+        MessageDescriptor descriptor = MessageDescriptor.of(videoMessage()).orElseThrow();
+
+        assertEquals("video", descriptor.type());
+        assertEquals(1, descriptor.fileId());
+        assertEquals("video-unique", descriptor.uniqueId());
+        assertEquals(5000, descriptor.size());
+        assertEquals("thumb-unique", descriptor.thumbnailUniqueId());
+        assertEquals("caption", descriptor.caption());
+        assertEquals(30, descriptor.mediaAlbumId());
+        assertEquals(7, descriptor.reactionCount());
+        assertInstanceOf(TdApiHelp.VideoHandler.class, descriptor.handler());
+        assertEquals(7, descriptor.handler().convertFileRecord(0).reactionCount());
+    }
+
+    @Test
+    void testDescriptorIsCachedPerMessage() {
+        TdApi.Message message = videoMessage();
+        MessageDescriptor descriptor = MessageDescriptor.of(message).orElseThrow();
+
+        assertSame(descriptor, MessageDescriptor.of(message).orElseThrow());
+        assertSame(descriptor.handler(), TdApiHelp.getFileHandler(message).orElseThrow());
+        assertNotSame(descriptor, MessageDescriptor.of(videoMessage()).orElseThrow());
+    }
+
+    @Test
+    void testCacheReleasesUnreachableMessage() throws InterruptedException {
+        TdApi.Message message = videoMessage();
+        MessageDescriptor descriptor = MessageDescriptor.of(message).orElseThrow();
+        WeakReference<TdApi.Message> reference = new WeakReference<>(message);
+        message = null;
+
+        // The descriptor and its handler are still reachable, the message must not be kept by them
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(reference.get());
+        assertEquals("video-unique", descriptor.uniqueId());
+        assertEquals(10, descriptor.handler().convertFileRecord(0).messageId());
+    }
+
+    @Test
+    void testNonFileMessage() {
+        TdApi.Message message = new TdApi.Message();
+        message.content = new TdApi.MessageText(new TdApi.FormattedText("Hello", null), null, null);
+
+        assertEquals(Optional.empty(), MessageDescriptor.of(message));
+        assertEquals(Optional.empty(), MessageDescriptor.of(null));
+        assertNull(TdApiHelp.getFileId(message));
+    }
+}
@@ -114,6 +114,26 @@ class MessageFilterTest {
         assertEquals(4, filteredAlias.getFirst().id);
     }
 
+    @Test
+    void testNullFieldIsAbsent() {
+        TdApi.Message videoMsg = new TdApi.Message();
+        videoMsg.id = 5;
+        videoMsg.content = new TdApi.MessageVideo();
+        ((TdApi.MessageVideo) videoMsg.content).video = new TdApi.Video();
+
+        assertEquals(0, MessageFilter.filter(List.of(videoMsg), "content.caption.text == ''").size());
+        assertEquals(1, MessageFilter.filter(List.of(videoMsg), "id == 5").size());
+    }
+
+    @Test
+    void testExpressionCacheIsBounded() {
+        JexlExpression first = MessageFilter.getExpression("id > -1");
+        for (int i = 0; i < MessageFilter.MAX_EXPR_CACHE_SIZE; i++) {
+            MessageFilter.getExpression("id > " + (i + 1000));
+        }
+        assertNotSame(first, MessageFilter.getExpression("id > -1"), "Least recently used expression should be evicted");
+    }
+
     @Test
     void testSecurityAgainstCodeInjection() {
         String expr = "java.lang.System.exit(0)";
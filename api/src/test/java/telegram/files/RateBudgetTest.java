@@ -0,0 +1,62 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateBudgetTest {
+
+    @Test
+    void testBurstUpToCapacity() {
+        RateBudget budget = new RateBudget(5, 0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, budget.reserve(0));
+        }
+        assertEquals(200, budget.reserve(0));
+        assertEquals(400, budget.reserve(0));
+    }
+
+    @Test
+    void testRateIsRespectedByConcurrentCallers() {
+        RateBudget budget = new RateBudget(5, 0);
+        // 4 scans each issuing one call per 100ms for 60 seconds, every call runs after its wait
+        long[] nextCallAt = new long[4];
+        int calls = 0;
+        long lastCallAt = 0;
+        for (long now = 0; now < 60_000; now += 10) {
+            for (int scan = 0; scan < nextCallAt.length; scan++) {
+                if (now >= nextCallAt[scan]) {
+                    long callAt = now + budget.reserve(now);
+                    lastCallAt = Math.max(lastCallAt, callAt);
+                    nextCallAt[scan] = callAt + 100;
+                    calls++;
+                }
+            }
+        }
+        assertTrue(calls <= 5 + lastCallAt * 5 / 1000 + 1, "calls: " + calls);
+        assertTrue(calls >= 5 * 55, "calls: " + calls);
+    }
+
+    @Test
+    void testIdleTimeRefillsUpToCapacity() {
+        RateBudget budget = new RateBudget(2, 0);
+        budget.reserve(0);
+        budget.reserve(0);
+        assertTrue(budget.reserve(0) > 0);
+        // 1 permit owed, after 10 seconds the bucket is full again
+        assertEquals(0, budget.reserve(10_000));
+        assertEquals(0, budget.reserve(10_000));
+        assertTrue(budget.reserve(10_000) > 0);
+    }
+
+    @Test
+    void testChunksOfBytes() {
+        // 1MB per second, a copy reserves 256KB at a time
+        RateBudget budget = new RateBudget(1 << 20, 0);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, budget.reserve(0, 1 << 18));
+        }
+        assertEquals(250, budget.reserve(0, 1 << 18));
+        assertEquals(500, budget.reserve(0, 1 << 18));
+    }
+}
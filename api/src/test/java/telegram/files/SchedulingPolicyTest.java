@@ -0,0 +1,126 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchedulingPolicyTest {
+
+    private static final long MB = 1L << 20;
+
+    private static DownloadQueue.Entry entry(long chatId, long messageId, long size) {
+        return new DownloadQueue.Entry(chatId, messageId, (int) messageId, chatId + "-" + messageId, size, "video",
+                TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY, true);
+    }
+
+    private static List<DownloadQueue.Entry> drain(DownloadQueue queue) {
+        List<DownloadQueue.Entry> polled = new ArrayList<>();
+        DownloadQueue.Entry entry;
+        while ((entry = queue.poll()) != null) {
+            polled.add(entry);
+        }
+        return polled;
+    }
+
+    /**
+     * Synthetic queue: one huge channel queued first, then a few small chats.
+     */
+    private static DownloadQueue syntheticQueue(long seed) {
+        Random random = new Random(seed);
+        DownloadQueue queue = new DownloadQueue(10_000);
+        for (int i = 1; i <= 2000; i++) {
+            queue.offer(entry(1, i, (500 + random.nextInt(1500)) * MB));
+        }
+        for (long chatId = 2; chatId <= 4; chatId++) {
+            for (int i = 1; i <= 20; i++) {
+                queue.offer(entry(chatId, i, (1 + random.nextInt(20)) * MB));
+            }
+        }
+        return queue;
+    }
+
+    @Test
+    void testLargeChatDoesNotStarveOthers() {
+        List<DownloadQueue.Entry> polled = drain(syntheticQueue(42));
+
+        assertEquals(2060, polled.size());
+        int lastSmall = 0;
+        for (int i = 0; i < polled.size(); i++) {
+            if (polled.get(i).chatId() != 1) {
+                lastSmall = i;
+            }
+        }
+        // First in first out would serve the small chats after the 2000 files of the channel
+        assertTrue(lastSmall < 120, "last small chat file at: " + lastSmall);
+    }
+
+    @Test
+    void testChatsShareBytes() {
+        DownloadQueue queue = new DownloadQueue(10_000);
+        for (int i = 1; i <= 1000; i++) {
+            queue.offer(entry(1, i, 100 * MB));
+            queue.offer(entry(2, i, MB));
+            queue.offer(entry(3, i, 7 * MB));
+        }
+        Map<Long, Long> bytes = new HashMap<>();
+        for (int i = 0; i < 600; i++) {
+            DownloadQueue.Entry entry = queue.poll();
+            bytes.merge(entry.chatId(), entry.size(), Long::sum);
+        }
+
+        long max = Collections.max(bytes.values());
+        long min = Collections.min(bytes.values());
+        assertEquals(3, bytes.size());
+        assertTrue(max - min <= DownloadQueue.QUANTUM_BYTES + 100 * MB, "bytes: " + bytes);
+    }
+
+    @Test
+    void testSimulationIsDeterministic() {
+        List<String> first = drain(syntheticQueue(7)).stream().map(DownloadQueue.Entry::uniqueId).toList();
+        List<String> second = drain(syntheticQueue(7)).stream().map(DownloadQueue.Entry::uniqueId).toList();
+        assertEquals(first, second);
+    }
+
+    @Test
+    void testOrderWithinChat() {
+        DownloadQueue queue = new DownloadQueue(100);
+        queue.offer(entry(1, 1, 30 * MB), SchedulingPolicy.SMALLEST_FIRST);
+        queue.offer(entry(1, 2, 10 * MB), SchedulingPolicy.SMALLEST_FIRST);
+        queue.offer(entry(1, 3, 20 * MB), SchedulingPolicy.SMALLEST_FIRST);
+        assertEquals(List.of(2L, 3L, 1L), drain(queue).stream().map(DownloadQueue.Entry::messageId).toList());
+
+        queue.offer(entry(1, 1, MB), SchedulingPolicy.NEWEST_FIRST);
+        queue.offer(entry(1, 3, MB), SchedulingPolicy.NEWEST_FIRST);
+        queue.offer(entry(1, 2, MB), SchedulingPolicy.NEWEST_FIRST);
+        assertEquals(List.of(3L, 2L, 1L), drain(queue).stream().map(DownloadQueue.Entry::messageId).toList());
+
+        queue.offer(entry(1, 3, 3 * MB), SchedulingPolicy.FIFO);
+        queue.offer(entry(1, 1, MB), SchedulingPolicy.FIFO);
+        queue.offer(entry(1, 2, 2 * MB), SchedulingPolicy.FIFO);
+        assertEquals(List.of(3L, 1L, 2L), drain(queue).stream().map(DownloadQueue.Entry::messageId).toList());
+    }
+
+    @Test
+    void testPolicyChangeReordersChat() {
+        DownloadQueue queue = new DownloadQueue(100);
+        queue.offer(entry(1, 1, 30 * MB), SchedulingPolicy.FIFO);
+        queue.offer(entry(1, 2, 10 * MB), SchedulingPolicy.FIFO);
+        queue.offer(entry(1, 3, 20 * MB), SchedulingPolicy.SMALLEST_FIRST);
+
+        assertEquals(List.of(2L, 3L, 1L), drain(queue).stream().map(DownloadQueue.Entry::messageId).toList());
+    }
+
+    @Test
+    void testPriority() {
+        assertEquals(32, SchedulingPolicy.FIFO.priority(entry(1, 1, 4000 * MB)));
+        assertEquals(32, SchedulingPolicy.SMALLEST_FIRST.priority(entry(1, 1, MB / 2)));
+        assertEquals(31, SchedulingPolicy.SMALLEST_FIRST.priority(entry(1, 1, MB)));
+        assertEquals(30, SchedulingPolicy.SMALLEST_FIRST.priority(entry(1, 1, 3 * MB)));
+        assertEquals(1, SchedulingPolicy.SMALLEST_FIRST.priority(entry(1, 1, Long.MAX_VALUE)));
+        assertEquals(16, SchedulingPolicy.NEWEST_FIRST.priority(entry(1, 1, MB)));
+        assertEquals(32, SchedulingPolicy.NEWEST_FIRST.priority(new DownloadQueue.Entry(1, 1, 1, "1-1", MB, "video",
+                TelegramVerticle.DEFAULT_DOWNLOAD_PRIORITY, false)));
+    }
+}
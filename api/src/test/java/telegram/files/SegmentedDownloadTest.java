@@ -0,0 +1,236 @@
+package telegram.files;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import org.drinkless.tdlib.TdApi;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import telegram.files.repository.SettingSegmentedDownloads;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedDownloadTest {
+
+    private static final long MB = SegmentedDownload.ALIGNMENT;
+
+    /**
+     * Fake TDLib client of one account that serves byte ranges of a remote file into its partial file.
+     * Like TDLib, a new {@code DownloadFile} replaces the range, and each progress check downloads one more chunk.
+     */
+    private static class FakeRangeClient implements SegmentedDownload.TdExecutor {
+        private final byte[] remote;
+
+        private final Path path;
+
+        private final long chunk;
+
+        private final boolean[] downloaded;
+
+        private final List<long[]> requests = new ArrayList<>();
+
+        private long offset;
+
+        private long limit;
+
+        private boolean fail;
+
+        FakeRangeClient(byte[] remote, Path path, long chunk) {
+            this.remote = remote;
+            this.path = path;
+            this.chunk = chunk;
+            this.downloaded = new boolean[remote.length];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R extends TdApi.Object> Future<R> execute(TdApi.Function<R> function) {
+            if (fail) {
+                return Future.failedFuture("code: 400, message: FILE_REFERENCE_EXPIRED");
+            }
+            TdApi.Object result = switch (function) {
+                case TdApi.DownloadFile downloadFile -> {
+                    offset = downloadFile.offset;
+                    limit = downloadFile.limit;
+                    requests.add(new long[]{offset, limit});
+                    yield file();
+                }
+                case TdApi.GetFileDownloadedPrefixSize getPrefix -> {
+                    serveChunk();
+                    yield new TdApi.FileDownloadedPrefixSize(prefix(getPrefix.offset));
+                }
+                case TdApi.GetFile _ -> file();
+                default -> new TdApi.Ok();
+            };
+            return Future.succeededFuture((R) result);
+        }
+
+        private void serveChunk() {
+            long end = Math.min(offset + limit, remote.length);
+            long start = offset + prefix(offset);
+            if (start >= end) {
+                return;
+            }
+            int length = (int) Math.min(chunk, end - start);
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.seek(start);
+                file.write(remote, (int) start, length);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            Arrays.fill(downloaded, (int) start, (int) start + length, true);
+        }
+
+        private long prefix(long from) {
+            long size = 0;
+            for (long i = from; i < downloaded.length && downloaded[(int) i]; i++) {
+                size++;
+            }
+            return size;
+        }
+
+        private TdApi.File file() {
+            TdApi.File file = new TdApi.File();
+            file.local = new TdApi.LocalFile();
+            file.local.path = path.toString();
+            return file;
+        }
+    }
+
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static SegmentedDownload newDownload(long size, int count) {
+        return new SegmentedDownload("unique", new SettingSegmentedDownloads.Download(1, 1, 1, size, "a.mp4", 1,
+                SegmentedDownload.plan(size, count)));
+    }
+
+    private static void runUntilCompleted(SegmentedDownload download, int maxTicks) {
+        for (int i = 0; i < maxTicks && !download.isCompleted(); i++) {
+            download.tick();
+        }
+        assertTrue(download.isCompleted());
+    }
+
+    @Test
+    void testPlanIsAligned() {
+        List<SettingSegmentedDownloads.Segment> segments = SegmentedDownload.plan(10 * MB + 5, 4);
+        assertEquals(4, segments.size());
+        assertEquals(List.of(0L, 3 * MB, 6 * MB, 9 * MB), segments.stream().map(s -> s.offset).toList());
+        assertEquals(MB + 5, segments.getLast().length);
+        assertEquals(10 * MB + 5, segments.stream().mapToLong(s -> s.length).sum());
+
+        assertEquals(1, SegmentedDownload.plan(MB / 2, 4).size());
+        assertEquals(2, SegmentedDownload.plan(2 * MB, 4).size());
+    }
+
+    @Test
+    void testSegmentsDownloadInParallel(@TempDir Path dir) throws Exception {
+        byte[] remote = content((int) (4 * MB - 100));
+        FakeRangeClient first = new FakeRangeClient(remote, dir.resolve("1.part"), 256 * 1024);
+        FakeRangeClient second = new FakeRangeClient(remote, dir.resolve("2.part"), 256 * 1024);
+        SegmentedDownload download = newDownload(remote.length, 4);
+        download.addWorker(new SegmentedDownload.Worker(1, 10, first));
+        download.addWorker(new SegmentedDownload.Worker(2, 20, second));
+
+        assertTrue(download.tick().result());
+        // Both accounts download a different range at the same time
+        assertEquals(0, first.requests.getFirst()[0]);
+        assertEquals(MB, second.requests.getFirst()[0]);
+
+        runUntilCompleted(download, 100);
+        assertEquals(remote.length, download.getDownloadedSize());
+        assertEquals(2, first.requests.size());
+        assertEquals(2, second.requests.size());
+
+        Path target = dir.resolve("segmented/unique/a.mp4");
+        SegmentedDownload.assemble(download.getState().segments,
+                Map.of(1L, first.path.toString(), 2L, second.path.toString()),
+                target);
+        assertArrayEquals(remote, Files.readAllBytes(target));
+        assertFalse(Files.exists(dir.resolve("segmented/unique/a.mp4.part")));
+    }
+
+    @Test
+    void testResumeRequestsOnlyMissingSegments(@TempDir Path dir) throws Exception {
+        byte[] remote = content((int) (4 * MB));
+        FakeRangeClient first = new FakeRangeClient(remote, dir.resolve("1.part"), MB / 2);
+        FakeRangeClient second = new FakeRangeClient(remote, dir.resolve("2.part"), MB / 2);
+        SegmentedDownload download = newDownload(remote.length, 4);
+        download.addWorker(new SegmentedDownload.Worker(1, 10, first));
+        download.addWorker(new SegmentedDownload.Worker(2, 20, second));
+        for (int i = 0; i < 4; i++) {
+            download.tick();
+        }
+        assertFalse(download.isCompleted());
+
+        // Restart: the saved state with the same partial files
+        SettingSegmentedDownloads.Download saved = JsonObject.mapFrom(download.getState())
+                .mapTo(SettingSegmentedDownloads.Download.class);
+        List<long[]> completedBefore = saved.segments.stream()
+                .filter(s -> s.completed)
+                .map(s -> new long[]{s.offset, s.length})
+                .toList();
+        assertFalse(completedBefore.isEmpty());
+        first.requests.clear();
+        second.requests.clear();
+
+        SegmentedDownload resumed = new SegmentedDownload("unique", saved);
+        resumed.addWorker(new SegmentedDownload.Worker(1, 11, first));
+        resumed.addWorker(new SegmentedDownload.Worker(2, 21, second));
+        runUntilCompleted(resumed, 100);
+
+        List<Long> requested = new ArrayList<>();
+        first.requests.forEach(r -> requested.add(r[0]));
+        second.requests.forEach(r -> requested.add(r[0]));
+        completedBefore.forEach(segment -> assertFalse(requested.contains(segment[0])));
+        assertEquals(4 - completedBefore.size(), requested.size());
+
+        Path target = dir.resolve("a.mp4");
+        SegmentedDownload.assemble(saved.segments, Map.of(1L, first.path.toString(), 2L, second.path.toString()), target);
+        assertArrayEquals(remote, Files.readAllBytes(target));
+    }
+
+    @Test
+    void testFailedAccountSegmentIsTakenOver(@TempDir Path dir) throws Exception {
+        byte[] remote = content((int) (2 * MB));
+        FakeRangeClient first = new FakeRangeClient(remote, dir.resolve("1.part"), MB / 4);
+        FakeRangeClient second = new FakeRangeClient(remote, dir.resolve("2.part"), MB / 4);
+        SegmentedDownload download = newDownload(remote.length, 2);
+        download.addWorker(new SegmentedDownload.Worker(1, 10, first));
+        second.fail = true;
+        download.addWorker(new SegmentedDownload.Worker(2, 20, second));
+
+        runUntilCompleted(download, 100);
+        assertNull(download.getWorker(2));
+        assertTrue(download.getState().segments.stream().allMatch(s -> s.telegramId == 1));
+
+        Path target = dir.resolve("a.mp4");
+        SegmentedDownload.assemble(download.getState().segments, Map.of(1L, first.path.toString()), target);
+        assertArrayEquals(remote, Files.readAllBytes(target));
+    }
+
+    @Test
+    void testOrphanSegmentsAreDownloadedAgain() {
+        SegmentedDownload download = newDownload(2 * MB, 2);
+        download.getState().segments.forEach(segment -> {
+            segment.completed = true;
+            segment.telegramId = segment.offset == 0 ? 1 : 2;
+            segment.downloaded = segment.length;
+        });
+        download.addWorker(new SegmentedDownload.Worker(1, 10, new FakeRangeClient(new byte[0], Path.of("1.part"), 1)));
+
+        assertTrue(download.dropOrphanSegments());
+        assertFalse(download.isCompleted());
+        assertEquals(MB, download.getDownloadedSize());
+        assertFalse(download.dropOrphanSegments());
+    }
+}
@@ -37,4 +37,12 @@ public class TdApiHelpTest {
         Assertions.assertInstanceOf(TdApi.SearchMessagesFilterEmpty.class, ((TdApi.SearchChatMessages) function).filter, "function is not equals SearchChatMessages");
     }
 
+    @Test
+    void functionRegistryTest() {
+        Assertions.assertTrue(TdApiHelp.getFunctionNames().contains("GetMe"), "GetMe is not registered");
+        Assertions.assertFalse(TdApiHelp.getFunctionNames().contains("User"), "User is not a function");
+        Assertions.assertNull(TdApiHelp.getFunction("NotExistMethod", null));
+        Assertions.assertNull(TdApiHelp.getFunction(null, null));
+        Assertions.assertInstanceOf(TdApi.User.class, TdApiRegistry.newObject(TdApi.User.CONSTRUCTOR));
+    }
 }
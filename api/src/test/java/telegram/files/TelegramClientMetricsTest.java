@@ -0,0 +1,55 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TelegramClientMetricsTest {
+
+    @Test
+    void testRecordCalls() {
+        TelegramClientMetrics metrics = new TelegramClientMetrics(Long.MAX_VALUE);
+        long start = metrics.start("GetMessage");
+        assertEquals(1, metrics.getInFlight("GetMessage"));
+
+        metrics.end("GetMessage", start, 0);
+        metrics.end("GetMessage", metrics.start("GetMessage"), 400);
+
+        assertEquals(0, metrics.getInFlight("GetMessage"));
+        assertEquals(2, metrics.getCalls("GetMessage"));
+        assertEquals(1, metrics.getErrors("GetMessage", 400));
+        assertEquals(0, metrics.getErrors("GetMessage", 500));
+
+        JsonObject method = metrics.toJson().getJsonObject("methods").getJsonObject("GetMessage");
+        assertEquals(2, method.getLong("calls"));
+        long histogramCount = method.getJsonArray("histogram").stream()
+                .mapToLong(bucket -> ((JsonObject) bucket).getLong("count"))
+                .sum();
+        assertEquals(2, histogramCount);
+        assertTrue(metrics.getSlowCalls().isEmpty());
+    }
+
+    @Test
+    void testBucketIndex() {
+        assertEquals(0, TelegramClientMetrics.bucketIndex(0));
+        assertEquals(0, TelegramClientMetrics.bucketIndex(5));
+        assertEquals(1, TelegramClientMetrics.bucketIndex(6));
+        assertEquals(TelegramClientMetrics.LATENCY_BUCKETS_MS.length, TelegramClientMetrics.bucketIndex(60_000));
+    }
+
+    @Test
+    void testSlowCallRingBuffer() {
+        TelegramClientMetrics metrics = new TelegramClientMetrics(0);
+        int total = TelegramClientMetrics.SLOW_CALL_CAPACITY + 10;
+        for (int i = 0; i < total; i++) {
+            metrics.end("Method" + i, metrics.start("Method" + i), 0);
+        }
+
+        JsonArray slowCalls = metrics.getSlowCalls();
+        assertEquals(TelegramClientMetrics.SLOW_CALL_CAPACITY, slowCalls.size());
+        assertEquals("Method" + (total - 1), slowCalls.getJsonObject(0).getString("method"));
+        assertEquals("Method10", slowCalls.getJsonObject(slowCalls.size() - 1).getString("method"));
+    }
+}
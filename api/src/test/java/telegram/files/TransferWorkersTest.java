@@ -0,0 +1,67 @@
+package telegram.files;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferWorkersTest {
+
+    @Test
+    void testConcurrencyIsLimitedPerStore() {
+        TransferWorkers workers = new TransferWorkers(3, 2);
+        int first = workers.acquire("a", "disk1", 0);
+        int second = workers.acquire("b", "disk1", 0);
+        assertTrue(first >= 0 && second >= 0 && first != second);
+        assertTrue(workers.isStoreFull("disk1"));
+        assertEquals(-1, workers.acquire("c", "disk1", 0));
+
+        // Another file system takes the last worker
+        int third = workers.acquire("d", "disk2", 0);
+        assertTrue(third >= 0);
+        assertFalse(workers.hasIdleWorker());
+        assertEquals(-1, workers.acquire("e", "disk3", 0));
+
+        workers.release(first, 100, 1000);
+        assertFalse(workers.isStoreFull("disk1"));
+        assertEquals(first, workers.acquire("c", "disk1", 1000));
+        assertTrue(workers.isRunning("c"));
+        assertFalse(workers.isRunning("a"));
+        assertEquals(3, workers.getRunningCount());
+    }
+
+    @Test
+    void testThroughputPerWorker() {
+        TransferWorkers workers = new TransferWorkers(2, 2);
+        int id = workers.acquire("a", "disk1", 0);
+        workers.release(id, 4000, 2000);
+        // A skipped file counts in the busy time only
+        id = workers.acquire("b", "disk1", 2000);
+        int other = workers.acquire("c", "disk2", 4000);
+        workers.release(id, 0, 4000);
+        // Releasing twice changes nothing
+        workers.release(id, 4000, 5000);
+
+        JsonObject statistics = workers.getStatistics(5000);
+        assertEquals(1, statistics.getInteger("running"));
+        assertEquals(1, statistics.getJsonObject("stores").getInteger("disk2"));
+        JsonArray list = statistics.getJsonArray("workers");
+        JsonObject worker = list.getJsonObject(id);
+        assertEquals(1, worker.getLong("files"));
+        assertEquals(4000, worker.getLong("bytes"));
+        assertEquals(4000, worker.getLong("busyTime"));
+        assertEquals(1000, worker.getLong("throughput"));
+        assertNull(worker.getString("uniqueId"));
+        assertEquals("c", list.getJsonObject(other).getString("uniqueId"));
+        assertEquals(1000, list.getJsonObject(other).getLong("busyTime"));
+    }
+
+    @Test
+    void testStoreKeyOfMissingPath(@TempDir Path dir) {
+        assertEquals(TransferWorkers.storeKey(dir), TransferWorkers.storeKey(dir.resolve("a/b/c")));
+    }
+}
@@ -0,0 +1,39 @@
+package telegram.files;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XxHash64Test {
+
+    private static long hash(byte[] bytes) {
+        XxHash64 xxHash64 = new XxHash64();
+        xxHash64.update(bytes);
+        return xxHash64.digest();
+    }
+
+    @Test
+    void testKnownValues() {
+        assertEquals(0xEF46DB3751D8E999L, hash(new byte[0]));
+        assertEquals(0x44BC2CF5AD770999L, hash("abc".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testChunksGiveTheSameHash() {
+        byte[] bytes = new byte[1000];
+        new Random(42).nextBytes(bytes);
+        long expected = hash(bytes);
+        for (int chunk : new int[]{1, 7, 31, 32, 33, 100, 999}) {
+            XxHash64 xxHash64 = new XxHash64();
+            for (int offset = 0; offset < bytes.length; offset += chunk) {
+                xxHash64.update(ByteBuffer.wrap(bytes, offset, Math.min(chunk, bytes.length - offset)));
+            }
+            assertEquals(expected, xxHash64.digest(), "chunk: " + chunk);
+        }
+    }
+}
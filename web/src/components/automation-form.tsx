@@ -7,6 +7,8 @@ import {
   DuplicationPolicies,
   type DuplicationPolicy,
   type FileType,
+  SchedulingPolicies,
+  type SchedulingPolicy,
   TransferPolices,
   type TransferPolicy,
 } from "@/lib/types";
@@ -308,6 +310,34 @@ function DownloadRule({ value, onChange }: DownloadRuleProps) {
               </div>
             </div>
 
+            <div className="flex flex-col space-y-2">
+              <Label htmlFor="scheduling-policy">Download Order</Label>
+              <Select
+                value={value.schedulingPolicy ?? "FIFO"}
+                onValueChange={(policy) =>
+                  onChange({
+                    ...value,
+                    schedulingPolicy: policy as SchedulingPolicy,
+                  })
+                }
+              >
+                <SelectTrigger id="scheduling-policy">
+                  <SelectValue placeholder="Select Download Order" />
+                </SelectTrigger>
+                <SelectContent>
+                  {SchedulingPolicies.map((policy) => (
+                    <SelectItem key={policy} value={policy}>
+                      {policy}
+                    </SelectItem>
+                  ))}
+                </SelectContent>
+              </Select>
+              <p className="text-xs text-muted-foreground">
+                Order of the files of this chat. Chats of the same account
+                always share the download queue fairly.
+              </p>
+            </div>
+
             <div className="rounded-md border p-4">
               <div className="flex items-center justify-between">
                 <Label htmlFor="download-history">Download History</Label>
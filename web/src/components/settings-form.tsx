@@ -1,4 +1,4 @@
-import { Bell, Copy } from "lucide-react";
+import { Bell, Copy, Plus, Trash2 } from "lucide-react";
 import { Label } from "@/components/ui/label";
 import {
   Select,
@@ -15,8 +15,9 @@ import { useCopyToClipboard } from "@/hooks/use-copy-to-clipboard";
 import { DialogClose, DialogFooter } from "@/components/ui/dialog";
 import TimeRangeSelector from "@/components/ui/time-range-selector";
 import { Switch } from "@/components/ui/switch";
-import { type SettingKey } from "@/lib/types";
+import { type SettingKey, type TimeWindow } from "@/lib/types";
 import { Slider } from "@/components/ui/slider";
+import { Toggle } from "@/components/ui/toggle";
 import { TagsInput } from "@/components/ui/tags-input";
 import { split } from "lodash";
 import { RadioGroup, RadioGroupItem } from "./ui/radio-group";
@@ -34,6 +35,43 @@ export default function SettingsForm() {
     { value: "1800", label: "30 minutes" },
   ];
 
+  const adaptiveLimit: { enabled: boolean; minLimit: number } =
+    settings?.autoDownloadAdaptiveLimit
+      ? JSON.parse(settings.autoDownloadAdaptiveLimit)
+      : { enabled: false, minLimit: 1 };
+
+  const weekdayOptions = [
+    { value: 1, label: "Mon" },
+    { value: 2, label: "Tue" },
+    { value: 3, label: "Wed" },
+    { value: 4, label: "Thu" },
+    { value: 5, label: "Fri" },
+    { value: 6, label: "Sat" },
+    { value: 7, label: "Sun" },
+  ];
+
+  const timeLimited: {
+    startTime?: string;
+    endTime?: string;
+    windows?: TimeWindow[];
+  } = settings?.autoDownloadTimeLimited
+    ? JSON.parse(settings.autoDownloadTimeLimited)
+    : {};
+  const timeWindows: TimeWindow[] =
+    timeLimited.windows && timeLimited.windows.length > 0
+      ? timeLimited.windows
+      : [
+          {
+            startTime: timeLimited.startTime ?? "00:00",
+            endTime: timeLimited.endTime ?? "00:00",
+            weekdays: [],
+          },
+        ];
+
+  const setTimeWindows = (windows: TimeWindow[]) => {
+    void setSetting("autoDownloadTimeLimited", JSON.stringify({ windows }));
+  };
+
   const handleSave = async (e: FormEvent) => {
     e.preventDefault();
     await updateSettings();
@@ -189,6 +227,51 @@ export default function SettingsForm() {
               Including the number of downloads you manually.
             </p>
           </div>
+          <div className="flex flex-col space-y-4">
+            <div className="flex items-center justify-between">
+              <Label htmlFor="adaptive-limit">Adaptive Limit</Label>
+              <Switch
+                id="adaptive-limit"
+                checked={adaptiveLimit.enabled}
+                onCheckedChange={(checked) =>
+                  void setSetting(
+                    "autoDownloadAdaptiveLimit",
+                    JSON.stringify({ ...adaptiveLimit, enabled: checked }),
+                  )
+                }
+              />
+            </div>
+            {adaptiveLimit.enabled && (
+              <>
+                <div className="flex items-center justify-between">
+                  <Label htmlFor="min-limit">Minimum Limit</Label>
+                  <span className="text-muted-foreground">
+                    {adaptiveLimit.minLimit} /{" "}
+                    {settings?.autoDownloadLimit ?? 5}
+                  </span>
+                </div>
+                <Slider
+                  value={[adaptiveLimit.minLimit]}
+                  onValueChange={(v) =>
+                    void setSetting(
+                      "autoDownloadAdaptiveLimit",
+                      JSON.stringify({ ...adaptiveLimit, minLimit: v[0] }),
+                    )
+                  }
+                  min={1}
+                  max={Number(settings?.autoDownloadLimit ?? 5)}
+                  step={1}
+                  className="w-full"
+                />
+              </>
+            )}
+            <p className="text-xs text-muted-foreground">
+              Adjust the number of concurrent downloads to the measured download
+              speed, between the minimum and the limit per account. <br />
+              More downloads are tried while the speed rises, fewer after
+              stalls or errors.
+            </p>
+          </div>
           <div className="flex flex-col space-y-4">
             <Label htmlFor="avg-speed-interval">Avg Speed Interval</Label>
             <Select
@@ -212,35 +295,104 @@ export default function SettingsForm() {
             </p>
           </div>
           <div className="flex flex-col space-y-4">
-            <Label htmlFor="time-limited">Time Limited</Label>
-            <TimeRangeSelector
-              startRequired={true}
-              endRequired={true}
-              includeSeconds={false}
-              timeRange={
-                settings?.autoDownloadTimeLimited
-                  ? JSON.parse(settings.autoDownloadTimeLimited)
-                  : { startTime: "00:00", endTime: "00:00" }
-              }
-              onTimeRangeChange={(
-                startTime: string | null,
-                endTime: string | null,
-              ) => {
-                void setSetting(
-                  "autoDownloadTimeLimited",
-                  JSON.stringify({
-                    startTime: startTime ?? "00:00",
-                    endTime: endTime ?? "00:00",
-                  }),
-                );
-              }}
-              className="max-w-md"
-            />
+            <div className="flex items-center justify-between">
+              <Label htmlFor="time-limited">Time Limited</Label>
+              <Button
+                type="button"
+                variant="outline"
+                size="sm"
+                onClick={() =>
+                  setTimeWindows([
+                    ...timeWindows,
+                    { startTime: "00:00", endTime: "00:00", weekdays: [] },
+                  ])
+                }
+              >
+                <Plus className="h-4 w-4" />
+                Add Window
+              </Button>
+            </div>
+            {timeWindows.map((timeWindow, index) => (
+              <div
+                key={`${index}-${timeWindows.length}`}
+                className="flex flex-col space-y-2 rounded-md border p-2"
+              >
+                <div className="flex items-center justify-between gap-2">
+                  <TimeRangeSelector
+                    startRequired={true}
+                    endRequired={true}
+                    includeSeconds={false}
+                    timeRange={timeWindow}
+                    onTimeRangeChange={(
+                      startTime: string | null,
+                      endTime: string | null,
+                    ) =>
+                      setTimeWindows(
+                        timeWindows.map((w, i) =>
+                          i === index
+                            ? {
+                                ...w,
+                                startTime: startTime ?? "00:00",
+                                endTime: endTime ?? "00:00",
+                              }
+                            : w,
+                        ),
+                      )
+                    }
+                    className="max-w-md"
+                  />
+                  {timeWindows.length > 1 && (
+                    <Button
+                      type="button"
+                      variant="ghost"
+                      size="icon"
+                      onClick={() =>
+                        setTimeWindows(
+                          timeWindows.filter((_, i) => i !== index),
+                        )
+                      }
+                    >
+                      <Trash2 className="h-4 w-4" />
+                    </Button>
+                  )}
+                </div>
+                <div className="flex flex-wrap gap-1">
+                  {weekdayOptions.map((day) => (
+                    <Toggle
+                      key={day.value}
+                      size="sm"
+                      variant="outline"
+                      pressed={(timeWindow.weekdays ?? []).includes(day.value)}
+                      onPressedChange={(pressed) =>
+                        setTimeWindows(
+                          timeWindows.map((w, i) =>
+                            i === index
+                              ? {
+                                  ...w,
+                                  weekdays: pressed
+                                    ? [...(w.weekdays ?? []), day.value].sort(
+                                        (a, b) => a - b,
+                                      )
+                                    : (w.weekdays ?? []).filter(
+                                        (d) => d !== day.value,
+                                      ),
+                                }
+                              : w,
+                          ),
+                        )
+                      }
+                    >
+                      {day.label}
+                    </Toggle>
+                  ))}
+                </div>
+              </div>
+            ))}
             <p className="text-xs text-muted-foreground">
-              The time range for the download. Start and end times are required.{" "}
-              <br />
-              If you don&#39;t want to set a time range, you can set the start
-              and end to 00:00.
+              The time windows for the download, running downloads are paused
+              when a window closes and resumed when one opens. <br />
+              A window without days applies to every day. If you don&#39;t want
+              to set a time range, you can set the start and end to 00:00.
             </p>
           </div>
         </div>
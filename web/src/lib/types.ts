@@ -141,6 +141,7 @@ export const SettingKeys = [
   "alwaysHide",
   "showSensitiveContent",
   "autoDownloadLimit",
+  "autoDownloadAdaptiveLimit",
   "autoDownloadTimeLimited",
   "proxys",
   "avgSpeedInterval",
@@ -150,6 +151,13 @@ export const SettingKeys = [
 
 export type SettingKey = (typeof SettingKeys)[number];
 
+export type TimeWindow = {
+  startTime: string;
+  endTime: string;
+  // 1 is Monday and 7 is Sunday, every day if empty
+  weekdays?: number[];
+};
+
 export type Settings = Record<SettingKey, string>;
 
 export type Proxy = {
@@ -197,10 +205,18 @@ export type AutoTransferRule = {
   extra: Record<string, any>
 };
 
+export const SchedulingPolicies = [
+  "FIFO",
+  "SMALLEST_FIRST",
+  "NEWEST_FIRST",
+] as const;
+export type SchedulingPolicy = (typeof SchedulingPolicies)[number];
+
 export type AutoDownloadRule = {
   query: string;
   fileTypes: Array<Exclude<FileType, "media">>;
   downloadHistory: boolean;
   downloadCommentFiles: boolean;
   filterExpr: string;
+  schedulingPolicy?: SchedulingPolicy;
 };